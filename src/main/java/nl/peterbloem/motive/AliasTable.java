@@ -0,0 +1,106 @@
+package nl.peterbloem.motive;
+
+import java.util.SplittableRandom;
+
+/**
+ * Samples from a fixed discrete distribution in constant time, using Vose's
+ * alias method.
+ *
+ * Besides single tables, the static methods build and draw from many tables
+ * stored as slices of two shared arrays (for instance, one table per node
+ * over its neighbors).
+ *
+ * @author Peter
+ */
+public class AliasTable
+{
+	private double[] probabilities;
+	private int[] aliases;
+
+	/**
+	 * @param weights Non-negative weights, not all zero. These don't need to
+	 * 	be normalized.
+	 */
+	public AliasTable(double[] weights)
+	{
+		probabilities = new double[weights.length];
+		aliases = new int[weights.length];
+
+		build(weights, 0, weights.length, probabilities, aliases);
+	}
+
+	/**
+	 * Draws an index, with probability proportional to its weight.
+	 */
+	public int draw(SplittableRandom random)
+	{
+		return draw(probabilities, aliases, 0, probabilities.length, random);
+	}
+
+	public int size()
+	{
+		return probabilities.length;
+	}
+
+	/**
+	 * Builds the table for weights[offset] to weights[offset + length - 1]
+	 * into the same slice of the given arrays.
+	 */
+	public static void build(
+			double[] weights, int offset, int length,
+			double[] probabilities, int[] aliases)
+	{
+		if(length == 0)
+			return;
+
+		double total = 0.0;
+		for(int i = offset; i < offset + length; i++)
+			total += weights[i];
+
+		// * The entries with a scaled weight below and above one, as stacks
+		int[] small = new int[length], large = new int[length];
+		int numSmall = 0, numLarge = 0;
+
+		for(int i = 0; i < length; i++)
+		{
+			probabilities[offset + i] = weights[offset + i] * length / total;
+			if(probabilities[offset + i] < 1.0)
+				small[numSmall++] = i;
+			else
+				large[numLarge++] = i;
+		}
+
+		// * Fill up each small entry with the excess of a large one
+		while(numSmall > 0 && numLarge > 0)
+		{
+			int s = small[--numSmall], l = large[--numLarge];
+
+			aliases[offset + s] = l;
+			probabilities[offset + l] -= 1.0 - probabilities[offset + s];
+
+			if(probabilities[offset + l] < 1.0)
+				small[numSmall++] = l;
+			else
+				large[numLarge++] = l;
+		}
+
+		// - what remains is one, up to rounding errors
+		while(numLarge > 0)
+			probabilities[offset + large[--numLarge]] = 1.0;
+		while(numSmall > 0)
+			probabilities[offset + small[--numSmall]] = 1.0;
+	}
+
+	/**
+	 * Draws from the table stored in the given slice.
+	 *
+	 * @return An index between 0 and length (exclusive).
+	 */
+	public static int draw(
+			double[] probabilities, int[] aliases, int offset, int length,
+			SplittableRandom random)
+	{
+		int i = random.nextInt(length);
+		return random.nextDouble() < probabilities[offset + i] ? i : aliases[offset + i];
+	}
+}
@@ -0,0 +1,255 @@
+package nl.peterbloem.motive;
+
+import static nl.peterbloem.kit.Series.series;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.nodes.DGraph;
+import org.nodes.Graph;
+import org.nodes.Link;
+import org.nodes.Node;
+import org.nodes.UGraph;
+
+/**
+ * A precomputed lookup table from the adjacency bitmask of a small simple graph
+ * to a canonical form and a canonical ordering of its nodes. This replaces a
+ * call to Nauty for small motifs.
+ *
+ * Tables are available for undirected graphs of up to MAX_UNDIRECTED nodes and
+ * for directed graphs of up to MAX_DIRECTED nodes. They are generated (by
+ * brute force over all permutations) the first time they are requested.
+ *
+ * The bitmask of an undirected graph has one bit for each pair i < j, in
+ * lexicographic order. The bitmask of a directed graph has one bit for each
+ * ordered pair i != j, in lexicographic order (see MotifKey). The canonical form of a graph
+ * is the smallest bitmask over all orderings of its nodes.
+ *
+ * @author Peter
+ */
+public class CanonicalTable
+{
+	public static final int MAX_UNDIRECTED = 5;
+	public static final int MAX_DIRECTED = 4;
+
+	private static CanonicalTable[] undirected = new CanonicalTable[MAX_UNDIRECTED + 1];
+	private static CanonicalTable[] directed = new CanonicalTable[MAX_DIRECTED + 1];
+
+	private int size;
+	private boolean isDirected;
+
+	// * The bit for each pair of nodes (-1 on the diagonal), see MotifKey
+	private int[][] bits;
+
+	// * The canonical bitmask for each bitmask
+	private int[] canonical;
+	// * The canonical ordering for each bitmask, three bits per node:
+	//   canonical node i is the node at bits 3i to 3i+2.
+	private int[] orders;
+
+	private CanonicalTable(int size, boolean directed)
+	{
+		this.size = size;
+		this.isDirected = directed;
+
+		bits = new int[size][size];
+		for(int i : series(size))
+			for(int j : series(size))
+				bits[i][j] = i == j ? -1 : MotifKey.bit(i, j, size, directed);
+
+		int numBits = directed ? size * (size - 1) : (size * (size - 1)) / 2;
+
+		int numMasks = 1 << numBits;
+		canonical = new int[numMasks];
+		orders = new int[numMasks];
+
+		List<int[]> permutations = new ArrayList<int[]>();
+		permutations(new int[size], 0, new boolean[size], permutations);
+
+		for(int mask : series(numMasks))
+		{
+			canonical[mask] = Integer.MAX_VALUE;
+
+			for(int[] perm : permutations)
+			{
+				int permuted = permute(mask, perm);
+				if(permuted < canonical[mask])
+				{
+					canonical[mask] = permuted;
+					orders[mask] = pack(perm);
+				}
+			}
+		}
+	}
+
+	/**
+	 * The table for undirected graphs of the given size, or null if the size is
+	 * not covered.
+	 */
+	public static synchronized CanonicalTable undirected(int size)
+	{
+		if(size < 1 || size > MAX_UNDIRECTED)
+			return null;
+
+		if(undirected[size] == null)
+			undirected[size] = new CanonicalTable(size, false);
+
+		return undirected[size];
+	}
+
+	/**
+	 * The table for directed graphs of the given size, or null if the size is
+	 * not covered.
+	 */
+	public static synchronized CanonicalTable directed(int size)
+	{
+		if(size < 1 || size > MAX_DIRECTED)
+			return null;
+
+		if(directed[size] == null)
+			directed[size] = new CanonicalTable(size, true);
+
+		return directed[size];
+	}
+
+	public int size()
+	{
+		return size;
+	}
+
+	/**
+	 * The number of distinct bitmasks for this size.
+	 */
+	public int numMasks()
+	{
+		return canonical.length;
+	}
+
+	/**
+	 * Computes the bitmask of the subgraph induced by the given nodes.
+	 *
+	 * @param label All nodes in the subgraph must have this label.
+	 * @return The bitmask, or -1 if the subgraph cannot be represented by a
+	 * 	bitmask: if it has a node with a different label, a self-loop or a
+	 * 	multiple edge.
+	 */
+	public <L> int mask(Graph<L> data, List<Integer> indices, L label)
+	{
+		List<Node<L>> nodes = new ArrayList<Node<L>>(size);
+		for(int index : indices)
+		{
+			Node<L> node = data.get(index);
+
+			if(label == null ? node.label() != null : ! label.equals(node.label()))
+				return -1;
+			if(node.connected(node))
+				return -1;
+
+			nodes.add(node);
+		}
+
+		int mask = 0;
+		for(int i : series(size))
+			for(int j : series(i + 1, size))
+			{
+				int forward = 0, backward = 0;
+				for(Link<L> link : nodes.get(i).links(nodes.get(j)))
+					if(isDirected && link.first().index() != indices.get(i))
+						backward++;
+					else
+						forward++;
+
+				if(forward > 1 || backward > 1)
+					return -1;
+
+				if(forward == 1)
+					mask |= 1 << bits[i][j];
+				if(backward == 1)
+					mask |= 1 << bits[j][i];
+			}
+
+		return mask;
+	}
+
+	/**
+	 * The canonical form of the given bitmask.
+	 */
+	public int canonical(int mask)
+	{
+		return canonical[mask];
+	}
+
+	/**
+	 * Puts the given nodes in the canonical order for the given bitmask. That
+	 * is, the i-th node of the result corresponds to node i of the graph
+	 * returned by uGraph(canonical(mask), ...) or dGraph(canonical(mask), ...).
+	 */
+	public <T> List<T> order(int mask, List<T> nodes)
+	{
+		List<T> result = new ArrayList<T>(size);
+
+		int order = orders[mask];
+		for(int i : series(size))
+			result.add(nodes.get((order >> (3 * i)) & 7));
+
+		return result;
+	}
+
+	/**
+	 * Creates the undirected graph described by a bitmask.
+	 */
+	public <L> UGraph<L> uGraph(int mask, L label)
+	{
+		return MotifKey.uGraph(MotifKey.key(size, mask), label);
+	}
+
+	/**
+	 * Creates the directed graph described by a bitmask.
+	 */
+	public <L> DGraph<L> dGraph(int mask, L label)
+	{
+		return MotifKey.dGraph(MotifKey.key(size, mask), label);
+	}
+
+	/**
+	 * The bitmask of the graph with canonical node i equal to node perm[i] of
+	 * the graph described by mask.
+	 */
+	private int permute(int mask, int[] perm)
+	{
+		int result = 0;
+		for(int i : series(size))
+			for(int j : series(size))
+				if(i != j && (mask & (1 << bits[perm[i]][perm[j]])) != 0)
+					result |= 1 << bits[i][j];
+
+		return result;
+	}
+
+	private static int pack(int[] perm)
+	{
+		int packed = 0;
+		for(int i : series(perm.length))
+			packed |= perm[i] << (3 * i);
+		return packed;
+	}
+
+	private static void permutations(
+			int[] current, int depth, boolean[] used, List<int[]> result)
+	{
+		if(depth == current.length)
+		{
+			result.add(current.clone());
+			return;
+		}
+
+		for(int i : series(current.length))
+			if(! used[i])
+			{
+				used[i] = true;
+				current[depth] = i;
+				permutations(current, depth + 1, used, result);
+				used[i] = false;
+			}
+	}
+}
@@ -0,0 +1,387 @@
+package nl.peterbloem.motive;
+
+import static java.lang.Math.log;
+import static nl.peterbloem.kit.Functions.log2Factorial;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.nodes.DGraph;
+import org.nodes.Graph;
+import org.nodes.Graphs;
+import org.nodes.UGraph;
+import org.nodes.models.DSequenceEstimator;
+import org.nodes.models.DSequenceEstimator.D;
+import org.nodes.models.USequenceEstimator;
+
+import nl.peterbloem.kit.Global;
+
+/**
+ * A closed-form approximation of the number of simple graphs with a given
+ * degree sequence. This can replace the importance sampling of the DS model
+ * (see MotifModel.setBetaApproximation()).
+ *
+ * For undirected graphs, we use the asymptotic of Bender and Canfield, with
+ * the correction of McKay:
+ * <pre>
+ *   (2m)! / (m! 2^m prod_i d_i!) * exp(-l - l^2),  l = sum_i d_i(d_i - 1) / 4m
+ * </pre>
+ * For directed graphs, we use McKay's asymptotic for 0-1 matrices with a zero
+ * diagonal:
+ * <pre>
+ *   m! / (prod_i o_i! i_i!) * exp(-sum_i o_i(o_i-1) sum_i i_i(i_i-1) / 2m^2 - sum_i o_i i_i / m)
+ * </pre>
+ * Both are accurate when the maximum degree is small compared to m^(1/4). For
+ * graphs with large hubs, the approximation may be off by many bits, so it's
+ * worth checking it against the sampled estimate (see error()) on a graph of
+ * the same kind. Far outside this regime, the correction term dominates, and
+ * the approximation can become negative (for a star with 100 leaves, it's
+ * about -800 bits). Since a graph with the degree sequence exists, we clamp
+ * the result at 0, and log a warning when the maximum degree is above
+ * m^(1/4).
+ *
+ * Motifs are always outside this regime, but they are small enough to count
+ * the graphs with their degree sequence exactly (see logNumGraphsExact()).
+ *
+ * All results are in bits.
+ *
+ * @author Peter
+ */
+public class DSApproximation
+{
+	private static final double LN2 = log(2.0);
+
+	// * The largest number of links we've warned about. Motifs are small
+	//   enough that they are always outside the regime, so we only warn again
+	//   for larger graphs (like the data), not for every call
+	private static volatile long warned = 0;
+
+	/**
+	 * The approximate log (base 2) of the number of simple graphs with the
+	 * same degree sequence as the given graph.
+	 */
+	public static double logNumGraphs(Graph<?> graph)
+	{
+		if(graph instanceof DGraph<?>)
+			return logNumGraphsDirected(DSequenceEstimator.sequence((DGraph<?>) graph));
+
+		return logNumGraphs(Graphs.degrees(graph));
+	}
+
+	/**
+	 * The approximate log (base 2) of the number of simple undirected graphs
+	 * with the given degree sequence.
+	 */
+	public static double logNumGraphs(List<Integer> degrees)
+	{
+		long sum = 0, pairs = 0;
+		int max = 0;
+		double factorials = 0.0;
+
+		for(int degree : degrees)
+		{
+			sum += degree;
+			max = Math.max(max, degree);
+			pairs += degree * (long)(degree - 1);
+			factorials += log2Factorial(degree);
+		}
+
+		long m = sum / 2;
+		if(m == 0)
+			return 0.0;
+
+		double lambda = pairs / (4.0 * m);
+
+		check(max, m);
+		return Math.max(0.0, log2Factorial(2 * m) - log2Factorial(m) - m - factorials
+				- (lambda + lambda * lambda) / LN2);
+	}
+
+	/**
+	 * The approximate log (base 2) of the number of simple directed graphs
+	 * with the given degree sequence.
+	 */
+	public static double logNumGraphsDirected(List<D> degrees)
+	{
+		long m = 0, outPairs = 0, inPairs = 0, loops = 0;
+		int max = 0;
+		double factorials = 0.0;
+
+		for(D degree : degrees)
+		{
+			int in = degree.in(), out = degree.out();
+
+			m += out;
+			max = Math.max(max, Math.max(in, out));
+			outPairs += out * (long)(out - 1);
+			inPairs += in * (long)(in - 1);
+			loops += in * (long) out;
+			factorials += log2Factorial(in) + log2Factorial(out);
+		}
+
+		if(m == 0)
+			return 0.0;
+
+		// - outPairs * inPairs can overflow a long
+		double correction = ((double) outPairs * inPairs) / (2.0 * m * (double) m)
+				+ loops / (double) m;
+
+		check(max, m);
+		return Math.max(0.0, log2Factorial(m) - factorials - correction / LN2);
+	}
+
+	/**
+	 * Logs a warning if a degree sequence is outside the regime where the
+	 * approximation is accurate.
+	 */
+	private static void check(int max, long m)
+	{
+		if(m <= warned || max <= Math.pow(m, 0.25))
+			return;
+
+		warned = m;
+		Global.log().warning("The maximum degree (" + max + ") is larger than m^(1/4) for a graph with " + m + " links. The DS approximation may be inaccurate (negative values are clamped at 0).");
+	}
+
+	/**
+	 * The exact log (base 2) of the number of simple graphs with the same
+	 * degree sequence as the given graph. This takes time exponential in the
+	 * size of the graph, so it should only be used for motifs.
+	 */
+	public static double logNumGraphsExact(Graph<?> graph)
+	{
+		if(graph instanceof DGraph<?>)
+			return logNumGraphsExactDirected(DSequenceEstimator.sequence((DGraph<?>) graph));
+
+		return logNumGraphsExact(Graphs.degrees(graph));
+	}
+
+	/**
+	 * The exact log (base 2) of the number of simple undirected graphs with
+	 * the given degree sequence (negative infinity if there are none).
+	 */
+	public static double logNumGraphsExact(List<Integer> degrees)
+	{
+		int[] state = new int[degrees.size()];
+		for(int i = 0; i < state.length; i++)
+			state[i] = degrees.get(i);
+
+		return Math.log(count(normalize(state), new HashMap<List<Integer>, Double>())) / LN2;
+	}
+
+	/**
+	 * The exact log (base 2) of the number of simple directed graphs with
+	 * the given degree sequence (negative infinity if there are none).
+	 */
+	public static double logNumGraphsExactDirected(List<D> degrees)
+	{
+		// * Pairs of out and in degrees, flattened
+		int[] state = new int[degrees.size() * 2];
+		for(int i = 0; i < degrees.size(); i++)
+		{
+			state[2 * i] = degrees.get(i).out();
+			state[2 * i + 1] = degrees.get(i).in();
+		}
+
+		return Math.log(countDirected(normalizeDirected(state), new HashMap<List<Integer>, Double>())) / LN2;
+	}
+
+	/**
+	 * Counts the graphs for a sorted sequence of nonzero degrees by linking
+	 * the node with the largest degree to every possible set of others. The
+	 * count only depends on the sequence, not on the order of the nodes, so
+	 * we memoize it by the sorted sequence.
+	 */
+	private static double count(int[] degrees, Map<List<Integer>, Double> memo)
+	{
+		if(degrees.length == 0)
+			return 1.0;
+
+		List<Integer> key = key(degrees);
+		Double known = memo.get(key);
+		if(known != null)
+			return known;
+
+		int first = degrees[0];
+		int[] rest = Arrays.copyOfRange(degrees, 1, degrees.length);
+
+		double total = first > rest.length ? 0.0 : choose(rest, 0, first, memo);
+
+		memo.put(key, total);
+		return total;
+	}
+
+	/**
+	 * Links the first node to n of the nodes from index from in rest, in all
+	 * possible ways, and sums the counts of the remaining sequences.
+	 */
+	private static double choose(int[] rest, int from, int n, Map<List<Integer>, Double> memo)
+	{
+		if(n == 0)
+			return count(normalize(rest), memo);
+
+		double total = 0.0;
+		for(int i = from; i <= rest.length - n; i++)
+		{
+			rest[i] --;
+			total += choose(rest, i + 1, n - 1, memo);
+			rest[i] ++;
+		}
+
+		return total;
+	}
+
+	/**
+	 * As count(), for the flattened out and in degrees of a directed graph:
+	 * we link the node with the largest out degree to every possible set of
+	 * other nodes with an in degree left.
+	 */
+	private static double countDirected(int[] degrees, Map<List<Integer>, Double> memo)
+	{
+		if(degrees.length == 0)
+			return 1.0;
+
+		// - the nodes are sorted by out degree, so if the first has none left,
+		//   some in degrees can't be filled
+		if(degrees[0] == 0)
+			return 0.0;
+
+		List<Integer> key = key(degrees);
+		Double known = memo.get(key);
+		if(known != null)
+			return known;
+
+		int[] rest = degrees.clone();
+		int out = rest[0];
+		rest[0] = 0;
+
+		double total = chooseDirected(rest, 1, out, memo);
+
+		memo.put(key, total);
+		return total;
+	}
+
+	private static double chooseDirected(int[] rest, int from, int n, Map<List<Integer>, Double> memo)
+	{
+		if(n == 0)
+			return countDirected(normalizeDirected(rest), memo);
+
+		double total = 0.0;
+		for(int i = from; i < rest.length / 2; i++)
+			if(rest[2 * i + 1] > 0)
+			{
+				rest[2 * i + 1] --;
+				total += chooseDirected(rest, i + 1, n - 1, memo);
+				rest[2 * i + 1] ++;
+			}
+
+		return total;
+	}
+
+	/**
+	 * The nonzero degrees, in decreasing order.
+	 */
+	private static int[] normalize(int[] degrees)
+	{
+		int[] result = new int[degrees.length];
+		int n = 0;
+		for(int degree : degrees)
+			if(degree > 0)
+				result[n++] = degree;
+
+		Arrays.sort(result, 0, n);
+		result = Arrays.copyOf(result, n);
+
+		for(int i = 0; i < n / 2; i++)
+		{
+			int t = result[i];
+			result[i] = result[n - 1 - i];
+			result[n - 1 - i] = t;
+		}
+
+		return result;
+	}
+
+	/**
+	 * The flattened pairs that aren't both zero, in decreasing order (by out
+	 * degree, then in degree).
+	 */
+	private static int[] normalizeDirected(int[] degrees)
+	{
+		List<Long> pairs = new ArrayList<Long>(degrees.length / 2);
+		for(int i = 0; i < degrees.length / 2; i++)
+			if(degrees[2 * i] > 0 || degrees[2 * i + 1] > 0)
+				pairs.add(((long) degrees[2 * i] << 32) | degrees[2 * i + 1]);
+
+		Collections.sort(pairs, Collections.reverseOrder());
+
+		int[] result = new int[pairs.size() * 2];
+		for(int i = 0; i < pairs.size(); i++)
+		{
+			result[2 * i] = (int) (pairs.get(i) >>> 32);
+			result[2 * i + 1] = (int) (long) pairs.get(i);
+		}
+
+		return result;
+	}
+
+	private static List<Integer> key(int[] degrees)
+	{
+		List<Integer> key = new ArrayList<Integer>(degrees.length);
+		for(int degree : degrees)
+			key.add(degree);
+
+		return key;
+	}
+
+	/**
+	 * The difference (in bits) between the approximation and the sampled
+	 * estimate of the log-number of graphs with the degree sequence of the
+	 * given graph. A positive error means that the approximation
+	 * overestimates.
+	 *
+	 * This samples degree sequences the size of the graph, so it should only
+	 * be used on small graphs.
+	 */
+	public static double error(Graph<?> graph, int iterations, int numThreads)
+	{
+		return logNumGraphs(graph) - logNumGraphsSampled(graph, iterations, numThreads);
+	}
+
+	/**
+	 * The sampled estimate of the log (base 2) of the number of graphs with
+	 * the degree sequence of the given graph: the log of the mean of the
+	 * importance weights.
+	 */
+	@SuppressWarnings("unchecked")
+	public static double logNumGraphsSampled(Graph<?> graph, int iterations, int numThreads)
+	{
+		List<Double> samples;
+		if(graph instanceof DGraph<?>)
+		{
+			DSequenceEstimator<String> model = new DSequenceEstimator<String>((DGraph<String>) graph);
+			model.nonuniform(iterations, numThreads);
+			samples = model.logSamples();
+		} else
+		{
+			USequenceEstimator<String> model = new USequenceEstimator<String>((UGraph<String>) graph);
+			model.nonuniform(iterations, numThreads);
+			samples = model.logSamples();
+		}
+
+		// * Average in log space, to avoid overflowing the weights
+		double max = Double.NEGATIVE_INFINITY;
+		for(double sample : samples)
+			max = Math.max(max, sample);
+
+		double sum = 0.0;
+		for(double sample : samples)
+			sum += Math.pow(2.0, sample - max);
+
+		return max + Math.log(sum / samples.size()) / LN2;
+	}
+}
@@ -0,0 +1,171 @@
+package nl.peterbloem.motive;
+
+import java.io.File;
+
+import nl.peterbloem.kit.Global;
+
+/**
+ * The parameters of a motif extraction run, shared by DPlainMotifExtractor and
+ * UPlainMotifExtractor.
+ *
+ * @author Peter
+ */
+public class ExtractorSettings
+{
+	/**
+	 * Number of subgraphs to sample.
+	 */
+	public int samples = 1000000;
+
+	/**
+	 * Minimum motif size (inclusive)
+	 */
+	public int minSize = 3;
+
+	/**
+	 * Maximum motif size (inclusive)
+	 */
+	public int maxSize = 6;
+
+	/**
+	 * If larger than zero, sampling stops early when the ranking of this 
+	 * many most frequent motifs hasn't changed for stableWindow samples. The 
+	 * number of samples is then a maximum.
+	 */
+	public int stableTopK = 0;
+	
+	/**
+	 * The number of samples for which the top motifs should be stable (see 
+	 * stableTopK). 
+	 */
+	public int stableWindow = 100000;
+	
+	/**
+	 * If non-negative, sampling stops early when this many seconds have passed.
+	 * The number of samples is then a maximum. Note that with a budget, the 
+	 * result depends on the speed of the machine.
+	 */
+	public double budget = -1.0;
+
+	/**
+	 * Minimum frequency for a motif to be returned.
+	 */
+	public int minFreq = 0;
+
+	/**
+	 * The number of threads to sample with. The result of the extraction does
+	 * not depend on this value.
+	 */
+	public int threads = Global.numThreads();
+
+	/**
+	 * The seed for the sampler. If null, a seed is drawn from Global.random().
+	 */
+	public Long seed = null;
+
+	/**
+	 * Whether to use precomputed canonical forms (see CanonicalTable) for small
+	 * motifs, instead of Nauty. This changes the node order of the returned
+	 * motifs, but not the isomorphism classes or their frequencies.
+	 */
+	public boolean canonicalTables = true;
+
+	/**
+	 * If true, all connected subgraphs between minSize and maxSize are
+	 * enumerated (see SubgraphEnumerator), instead of sampled. The frequencies
+	 * are then exact counts. The number of samples, the seed and the stopping
+	 * criteria are ignored.
+	 */
+	public boolean enumerate = false;
+
+	/**
+	 * If true, a sampled node set is only stored as an occurrence the first 
+	 * time it is drawn. Repeats still count towards the sampled frequency. 
+	 * This doesn't change which occurrences survive overlap removal.
+	 */
+	public boolean deduplicate = true;
+
+	/**
+	 * If positive, only this many motifs, with the highest frequencies after
+	 * overlap removal, are returned. Overlap removal is skipped for motifs 
+	 * that can't make the top, and their occurrences are discarded.
+	 */
+	public int maxMotifs = -1;
+
+	/**
+	 * If positive, at most this many occurrences are kept per motif while 
+	 * sampling. The frequencies are still counted exactly, but overlap removal
+	 * only sees a uniform sample of the occurrences (chosen by the seed).
+	 */
+	public int occurrenceCap = -1;
+
+	/**
+	 * If non-negative, the memory (in megabytes, approximately) for the 
+	 * occurrences kept while sampling. If it runs out, the cap on the number of
+	 * occurrences per motif is lowered until they fit.
+	 */
+	public double occurrenceBudget = -1.0;
+
+	/**
+	 * If positive, only this many motifs are tracked while sampling, with the
+	 * Space-Saving algorithm (see MotifTable). Sampled frequencies become 
+	 * (over)estimates, and only the tracked motifs keep their occurrences. 
+	 * This should be comfortably larger than the number of motifs that will be
+	 * used.
+	 */
+	public int heavyHitters = -1;
+
+	/**
+	 * If nonzero, subgraphs are sampled with the ImportanceSubgraphGenerator,
+	 * which chooses nodes with probability proportional to degree^-importance.
+	 * Each sample is counted with its importance weight, so the sampled 
+	 * frequencies (see sampledFrequency() in the extractors), which decide 
+	 * minFreq, stableTopK and heavyHitters, estimate the same quantities as 
+	 * those of the uniform sampler. The frequencies after overlap removal 
+	 * (frequency()) remain unweighted counts of the occurrences kept. A 
+	 * positive value spends fewer samples on the neighborhoods of hubs. 
+	 * Ignored when enumerating.
+	 */
+	public double importance = 0.0;
+
+	/**
+	 * If not null, the state of the sampling (the number of shards done and 
+	 * the motifs and occurrences found so far) is written to this file every
+	 * checkpointInterval seconds, and when sampling finishes.
+	 */
+	public File checkpoint = null;
+
+	/**
+	 * The number of seconds between checkpoints.
+	 */
+	public double checkpointInterval = 600.0;
+
+	/**
+	 * If true, and the checkpoint file exists, sampling continues from the 
+	 * checkpoint. The settings that affect the result must be the same as 
+	 * when it was written. The result is then the same as that of an 
+	 * uninterrupted run, except that stableTopK and budget count from the 
+	 * resume. 
+	 */
+	public boolean resume = false;
+
+	/**
+	 * If positive, sampling stops once this many shards have been merged 
+	 * (counting those restored from a checkpoint), and the checkpoint is left
+	 * unfinished, as if the run had been interrupted. A run with resume set 
+	 * can then continue from it. 
+	 */
+	public int maxShards = -1;
+
+	public ExtractorSettings()
+	{
+	}
+
+	public ExtractorSettings(int samples, int minSize, int maxSize, int minFreq)
+	{
+		this.samples = samples;
+		this.minSize = minSize;
+		this.maxSize = maxSize;
+		this.minFreq = minFreq;
+	}
+}
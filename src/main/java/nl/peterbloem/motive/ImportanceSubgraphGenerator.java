@@ -0,0 +1,275 @@
+package nl.peterbloem.motive;
+
+import static nl.peterbloem.kit.Series.series;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.SplittableRandom;
+
+import org.nodes.Graph;
+import org.nodes.Node;
+
+import nl.peterbloem.kit.AbstractGenerator;
+
+/**
+ * Samples connected subgraphs like the SeededSubgraphGenerator, but chooses the
+ * start node, and each node added to the subgraph, with probability
+ * proportional to a weight: degree^-exponent. With a positive exponent, hubs
+ * are chosen less often, so that fewer samples are spent on the (star-like)
+ * motifs around them.
+ *
+ * Each sample comes with an importance weight (see weight()): the probability
+ * of its sampling path under the uniform generator, divided by its probability
+ * under this one. Counting each sample by its weight gives frequencies with
+ * the same expectation as those of the SeededSubgraphGenerator. The weights
+ * ignore restarts from nodes with too small a component, so on graphs with
+ * many small components, they are only approximately comparable between
+ * subgraph sizes.
+ *
+ * Nodes are drawn with alias tables in constant time: the start node from one
+ * table over all nodes, and a new node by drawing a member of the subgraph,
+ * and then a neighbor from its table.
+ *
+ * @author Peter
+ */
+public class ImportanceSubgraphGenerator extends AbstractGenerator<List<Integer>>
+{
+	/**
+	 * The number of times we restart from a new random node (because the
+	 * component of the start node was too small) before giving up.
+	 */
+	public static final int MAX_ATTEMPTS = 10000;
+
+	/**
+	 * The alias tables for a graph. These can be shared by generators in
+	 * different threads.
+	 */
+	public static class Tables
+	{
+		private int size;
+
+		// * The sorted neighbors of each node i, in neighbors[offsets[i]] to
+		//   neighbors[offsets[i+1] - 1]
+		private int[] offsets, neighbors;
+
+		private double[] weights;
+		private double totalWeight;
+
+		// * Per node, the sum of the weights of its neighbors
+		private double[] neighborWeights;
+
+		private AliasTable start;
+		// * The tables for the neighbors, in the same layout as neighbors
+		private double[] probabilities;
+		private int[] aliases;
+
+		public Tables(Graph<?> graph, double exponent)
+		{
+			size = graph.size();
+
+			offsets = new int[size + 1];
+			List<int[]> lists = new ArrayList<int[]>(size);
+			for(Node<?> node : graph.nodes())
+			{
+				int[] list = new int[node.neighbors().size()];
+				int i = 0;
+				for(Node<?> neighbor : node.neighbors())
+					list[i++] = neighbor.index();
+				Arrays.sort(list);
+
+				lists.add(list);
+				offsets[node.index() + 1] = offsets[node.index()] + list.length;
+			}
+
+			neighbors = new int[offsets[size]];
+			for(int i : series(size))
+				System.arraycopy(lists.get(i), 0, neighbors, offsets[i], lists.get(i).length);
+			lists = null;
+
+			weights = new double[size];
+			for(int i : series(size))
+			{
+				weights[i] = Math.pow(Math.max(1, offsets[i + 1] - offsets[i]), - exponent);
+				totalWeight += weights[i];
+			}
+
+			start = new AliasTable(weights);
+
+			double[] slotWeights = new double[neighbors.length];
+			for(int k : series(neighbors.length))
+				slotWeights[k] = weights[neighbors[k]];
+
+			probabilities = new double[neighbors.length];
+			aliases = new int[neighbors.length];
+			neighborWeights = new double[size];
+			for(int i : series(size))
+			{
+				AliasTable.build(slotWeights, offsets[i], offsets[i + 1] - offsets[i], probabilities, aliases);
+
+				for(int k = offsets[i]; k < offsets[i + 1]; k++)
+					neighborWeights[i] += slotWeights[k];
+			}
+		}
+
+		private boolean connected(int a, int b)
+		{
+			return Arrays.binarySearch(neighbors, offsets[a], offsets[a + 1], b) >= 0;
+		}
+	}
+
+	private Tables tables;
+	private int minSize, maxSize;
+	private SplittableRandom random;
+
+	private double weight = 1.0;
+
+	/**
+	 * @param tables The alias tables for the graph.
+	 * @param minSize The minimum subgraph size (inclusive)
+	 * @param maxSize The maximum subgraph size (inclusive)
+	 * @param random The random stream to sample from. This object should not
+	 * 	be shared with other threads.
+	 */
+	public ImportanceSubgraphGenerator(
+			Tables tables, int minSize, int maxSize, SplittableRandom random)
+	{
+		this.tables = tables;
+		this.minSize = minSize;
+		this.maxSize = maxSize;
+		this.random = random;
+	}
+
+	@Override
+	public List<Integer> generate()
+	{
+		int size = minSize + random.nextInt(maxSize - minSize + 1);
+
+		for(int attempt : series(MAX_ATTEMPTS))
+		{
+			List<Integer> indices = attempt(size);
+			if(indices != null)
+				return indices;
+		}
+
+		throw new IllegalStateException("Could not find a connected subgraph of size " + size + " in " + MAX_ATTEMPTS + " attempts.");
+	}
+
+	/**
+	 * The importance weight of the last generated subgraph.
+	 */
+	public double weight()
+	{
+		return weight;
+	}
+
+	private List<Integer> attempt(int size)
+	{
+		int[] members = new int[size];
+		int numMembers = 0;
+
+		// * All nodes that are in the subgraph or in the frontier
+		Set<Integer> seen = new HashSet<Integer>();
+		// * The size and weight of the frontier (the neighbors of the subgraph,
+		//   not in the subgraph themselves)
+		int frontier = 0;
+		double frontierWeight = 0.0;
+
+		int start = tables.start.draw(random);
+
+		// * The uniform generator picks the start node with probability 1/n
+		double ratio = tables.totalWeight / (tables.size * tables.weights[start]);
+
+		members[numMembers++] = start;
+		seen.add(start);
+
+		while(true)
+		{
+			int last = members[numMembers - 1];
+			for(int k = tables.offsets[last]; k < tables.offsets[last + 1]; k++)
+				if(seen.add(tables.neighbors[k]))
+				{
+					frontier ++;
+					frontierWeight += tables.weights[tables.neighbors[k]];
+				}
+
+			if(numMembers == size)
+				break;
+
+			if(frontier == 0)
+				return null;
+
+			int next = drawFrontier(members, numMembers);
+
+			// * The uniform generator picks a frontier node with probability
+			//   1/frontier
+			ratio *= frontierWeight / (frontier * tables.weights[next]);
+
+			frontier --;
+			frontierWeight -= tables.weights[next];
+			members[numMembers++] = next;
+		}
+
+		weight = ratio;
+
+		List<Integer> indices = new ArrayList<Integer>(size);
+		for(int member : members)
+			indices.add(member);
+
+		return indices;
+	}
+
+	/**
+	 * Draws a frontier node with probability proportional to its weight.
+	 *
+	 * We draw a member x with probability proportional to the weight of its
+	 * neighbors, and a neighbor u of x from its alias table. This gives u with
+	 * probability proportional to its weight times the number c of members it
+	 * is connected to. We reject members of the subgraph, and accept other
+	 * nodes with probability 1/c.
+	 */
+	private int drawFrontier(int[] members, int numMembers)
+	{
+		double total = 0.0;
+		for(int i = 0; i < numMembers; i++)
+			total += tables.neighborWeights[members[i]];
+
+		while(true)
+		{
+			double draw = random.nextDouble() * total;
+			int x = members[numMembers - 1];
+			for(int i = 0; i < numMembers; i++)
+			{
+				draw -= tables.neighborWeights[members[i]];
+				if(draw < 0.0 && tables.neighborWeights[members[i]] > 0.0)
+				{
+					x = members[i];
+					break;
+				}
+			}
+
+			int from = tables.offsets[x], length = tables.offsets[x + 1] - from;
+			if(length == 0)
+				continue;
+
+			int u = tables.neighbors[from + AliasTable.draw(tables.probabilities, tables.aliases, from, length, random)];
+
+			int connected = 0;
+			boolean member = false;
+			for(int i = 0; i < numMembers && ! member; i++)
+			{
+				member = members[i] == u;
+				if(tables.connected(members[i], u))
+					connected ++;
+			}
+
+			if(member)
+				continue;
+
+			if(connected == 1 || random.nextDouble() * connected < 1.0)
+				return u;
+		}
+	}
+}
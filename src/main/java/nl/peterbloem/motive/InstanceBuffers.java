@@ -0,0 +1,428 @@
+package nl.peterbloem.motive;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.nodes.models.DSequenceEstimator.D;
+
+/**
+ * Scratch space for the instance loop of MotifModel (subbedDegrees and
+ * subbedERInstances): the nodes touched by the substitution, the rewired links,
+ * the multi-edges of the template graph and the rewiring sequence.
+ *
+ * Everything is stored in primitive arrays, with node pairs encoded as longs,
+ * and the buffers are reused between calls on the same thread (see
+ * undirected(), directed() and instances()). The distinct rewired links and
+ * multi-edges are numbered in the order in which they were first added, as
+ * they were in the LinkedHashSet and FrequencyModel this class replaces, so
+ * that anything encoded from them comes out in the same order.
+ *
+ * The degrees of the template graph are only stored for the nodes that the
+ * substitution touches. Other nodes keep their degree from the given list.
+ *
+ * @author Peter
+ */
+class InstanceBuffers
+{
+	private static final ThreadLocal<InstanceBuffers> local =
+		new ThreadLocal<InstanceBuffers>()
+		{
+			@Override
+			protected InstanceBuffers initialValue()
+			{
+				return new InstanceBuffers();
+			}
+		};
+
+	private List<Integer> degrees;
+	private List<D> dDegrees;
+
+	// * The touched nodes, by slot: the instance node they were mapped to (or
+	//   -1), and their degrees in the template graph
+	private LongIndex nodes = new LongIndex();
+	private int[] instances = new int[16];
+	private int[] degree = new int[16], inDegree = new int[16], outDegree = new int[16];
+	private boolean[] removed = new boolean[16];
+
+	// * The rewired links, in the indices of the original graph
+	private LongIndex rewired = new LongIndex();
+
+	// * The links of the template graph that rewired links map to, with the
+	//   number of times each occurs
+	private LongIndex multiEdges = new LongIndex();
+	private int[] counts = new int[16];
+
+	// * The rewiring sequence: the wires of occurrence i are
+	//   wires[ends[i-1]] to wires[ends[i] - 1]
+	private int[] wires = new int[64];
+	private int numWires = 0;
+	private int[] ends = new int[16];
+	private int numOccurrences = 0;
+
+	private InstanceBuffers()
+	{
+	}
+
+	/**
+	 * The (cleared) buffers of the current thread, tracking the degrees of an
+	 * undirected graph.
+	 */
+	public static InstanceBuffers undirected(List<Integer> degrees)
+	{
+		InstanceBuffers buffers = instances();
+		buffers.degrees = degrees;
+
+		return buffers;
+	}
+
+	/**
+	 * The (cleared) buffers of the current thread, tracking the in and out
+	 * degrees of a directed graph.
+	 */
+	public static InstanceBuffers directed(List<D> degrees)
+	{
+		InstanceBuffers buffers = instances();
+		buffers.dDegrees = degrees;
+
+		return buffers;
+	}
+
+	/**
+	 * The (cleared) buffers of the current thread, without degrees.
+	 */
+	public static InstanceBuffers instances()
+	{
+		InstanceBuffers buffers = local.get();
+		buffers.clear();
+
+		return buffers;
+	}
+
+	private void clear()
+	{
+		degrees = null;
+		dDegrees = null;
+
+		nodes.clear();
+		rewired.clear();
+		multiEdges.clear();
+
+		numWires = 0;
+		numOccurrences = 0;
+	}
+
+	/**
+	 * Encodes a pair of node indices as a long.
+	 */
+	public static long pair(int first, int second)
+	{
+		return ((long) first << 32) | (second & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * Encodes a pair of node indices, smallest first.
+	 */
+	public static long ordered(int first, int second)
+	{
+		return first <= second ? pair(first, second) : pair(second, first);
+	}
+
+	public static int first(long pair)
+	{
+		return (int) (pair >>> 32);
+	}
+
+	public static int second(long pair)
+	{
+		return (int) pair;
+	}
+
+	/**
+	 * Maps a node to the instance node that replaces it.
+	 */
+	public void map(int node, int instance)
+	{
+		int slot = slot(node);
+		instances[slot] = instance;
+	}
+
+	/**
+	 * The instance node that the given node was mapped to, or the node itself
+	 * if it wasn't mapped.
+	 */
+	public int mapped(int node)
+	{
+		int slot = nodes.index(node);
+		if(slot < 0 || instances[slot] < 0)
+			return node;
+
+		return instances[slot];
+	}
+
+	/**
+	 * Removes a node from the template graph.
+	 */
+	public void remove(int node)
+	{
+		int slot = slot(node);
+		degree[slot] = -1;
+		removed[slot] = true;
+	}
+
+	/**
+	 * Sets the degree(s) of a node to zero, making it part of the template
+	 * graph if it was removed.
+	 */
+	public void reset(int node)
+	{
+		int slot = slot(node);
+		degree[slot] = 0;
+		inDegree[slot] = 0;
+		outDegree[slot] = 0;
+		removed[slot] = false;
+	}
+
+	/**
+	 * Decrements the degree of a node in an undirected graph.
+	 */
+	public void decrement(int node)
+	{
+		int slot = slot(node);
+		degree[slot] --;
+	}
+
+	/**
+	 * Decrements the in degree of a node in a directed graph, if it hasn't been
+	 * removed.
+	 */
+	public void decrementIn(int node)
+	{
+		int slot = slot(node);
+		if(! removed[slot])
+			inDegree[slot] --;
+	}
+
+	/**
+	 * Decrements the out degree of a node in a directed graph, if it hasn't
+	 * been removed.
+	 */
+	public void decrementOut(int node)
+	{
+		int slot = slot(node);
+		if(! removed[slot])
+			outDegree[slot] --;
+	}
+
+	/**
+	 * Adds the link (of the template graph) with the given index in
+	 * multiEdgeAt() to the degrees.
+	 */
+	public void addLink(int index)
+	{
+		long link = multiEdges.key(index);
+		// - slot() may grow the arrays, so we call it before reading them
+		int first = slot(first(link)), second = slot(second(link));
+
+		if(dDegrees == null)
+		{
+			degree[first] ++;
+			degree[second] ++;
+		} else
+		{
+			outDegree[first] ++;
+			inDegree[second] ++;
+		}
+	}
+
+	/**
+	 * Records a rewired link (in the indices of the original graph).
+	 *
+	 * @return The number of distinct rewired links so far.
+	 */
+	public int rewire(long link)
+	{
+		rewired.add(link);
+		return rewired.size();
+	}
+
+	public int numRewired()
+	{
+		return rewired.size();
+	}
+
+	public long rewired(int index)
+	{
+		return rewired.key(index);
+	}
+
+	/**
+	 * Counts a link of the template graph.
+	 */
+	public void multiEdge(long link)
+	{
+		int size = multiEdges.size();
+		int index = multiEdges.add(link);
+
+		if(index == size)
+		{
+			if(index == counts.length)
+				counts = Arrays.copyOf(counts, counts.length * 2);
+			counts[index] = 0;
+		}
+
+		counts[index] ++;
+	}
+
+	public int numMultiEdges()
+	{
+		return multiEdges.size();
+	}
+
+	public long multiEdgeAt(int index)
+	{
+		return multiEdges.key(index);
+	}
+
+	/**
+	 * How often the link with the given index occurs in the template graph.
+	 */
+	public int count(int index)
+	{
+		return counts[index];
+	}
+
+	/**
+	 * The counts of all multi-edges, by index. The array may be longer than
+	 * numMultiEdges().
+	 */
+	public int[] counts()
+	{
+		return counts;
+	}
+
+	/**
+	 * Adds a wire to the rewiring of the current occurrence.
+	 */
+	public void wire(int wire)
+	{
+		if(numWires == wires.length)
+			wires = Arrays.copyOf(wires, wires.length * 2);
+
+		wires[numWires++] = wire;
+	}
+
+	/**
+	 * Closes the rewiring of the current occurrence.
+	 */
+	public void endOccurrence()
+	{
+		if(numOccurrences == ends.length)
+			ends = Arrays.copyOf(ends, ends.length * 2);
+
+		ends[numOccurrences++] = numWires;
+	}
+
+	public int numOccurrences()
+	{
+		return numOccurrences;
+	}
+
+	/**
+	 * The index in wireAt() of the first wire of the given occurrence.
+	 */
+	public int from(int occurrence)
+	{
+		return occurrence == 0 ? 0 : ends[occurrence - 1];
+	}
+
+	/**
+	 * The index in wireAt() after the last wire of the given occurrence.
+	 */
+	public int to(int occurrence)
+	{
+		return ends[occurrence];
+	}
+
+	public int wireAt(int index)
+	{
+		return wires[index];
+	}
+
+	/**
+	 * The degrees of the template graph, in the order of the nodes of the
+	 * original graph, skipping the removed nodes.
+	 */
+	public List<Integer> degrees(int size)
+	{
+		List<Integer> result = new ArrayList<Integer>(size);
+		for(int node = 0; node < degrees.size(); node++)
+		{
+			int slot = nodes.index(node);
+			int d = slot < 0 ? degrees.get(node) : degree[slot];
+
+			if(d >= 0)
+				result.add(d);
+		}
+
+		return result;
+	}
+
+	/**
+	 * The in and out degrees of the template graph, in the order of the nodes
+	 * of the original graph, skipping the removed nodes. Untouched nodes keep
+	 * the D object of the given list.
+	 */
+	public List<D> dDegrees(int size)
+	{
+		List<D> result = new ArrayList<D>(size);
+		for(int node = 0; node < dDegrees.size(); node++)
+		{
+			int slot = nodes.index(node);
+
+			if(slot < 0)
+				result.add(dDegrees.get(node));
+			else if(! removed[slot])
+				result.add(new D(inDegree[slot], outDegree[slot]));
+		}
+
+		return result;
+	}
+
+	/**
+	 * The slot of a node, which is added (with its degrees from the original
+	 * graph) if it hasn't been touched before.
+	 */
+	private int slot(int node)
+	{
+		int size = nodes.size();
+		int slot = nodes.add(node);
+
+		if(slot == size)
+		{
+			if(slot == instances.length)
+			{
+				int n = instances.length * 2;
+				instances = Arrays.copyOf(instances, n);
+				degree = Arrays.copyOf(degree, n);
+				inDegree = Arrays.copyOf(inDegree, n);
+				outDegree = Arrays.copyOf(outDegree, n);
+				removed = Arrays.copyOf(removed, n);
+			}
+
+			instances[slot] = -1;
+			removed[slot] = false;
+
+			if(degrees != null)
+				degree[slot] = degrees.get(node);
+			if(dDegrees != null)
+			{
+				D d = dDegrees.get(node);
+				inDegree[slot] = d.in();
+				outDegree[slot] = d.out();
+			}
+		}
+
+		return slot;
+	}
+}
@@ -0,0 +1,129 @@
+package nl.peterbloem.motive;
+
+import java.util.Arrays;
+
+/**
+ * An open addressing hash table, numbering distinct long keys in the order in
+ * which they are first added.
+ *
+ * Keys can't be removed individually, but the table can be cleared, or
+ * truncated to the keys added first, in time proportional to the number of
+ * keys removed (rather than the capacity).
+ *
+ * @author Peter
+ */
+class LongIndex
+{
+	private static final long MIX = 0x9E3779B97F4A7C15L;
+
+	// * The index + 1 of the key at each position (0 for empty positions)
+	private int[] positions = new int[16];
+	private int shift = 64 - 4;
+
+	private long[] keys = new long[8];
+	// * The position of each key, so that we can clear only the used ones
+	private int[] used = new int[8];
+	private int size = 0;
+
+	/**
+	 * Adds a key, if it's new.
+	 *
+	 * @return The index of the key.
+	 */
+	public int add(long key)
+	{
+		int position = position(key);
+		while(positions[position] != 0)
+		{
+			int index = positions[position] - 1;
+			if(keys[index] == key)
+				return index;
+
+			position = (position + 1) & (positions.length - 1);
+		}
+
+		if(size == keys.length)
+		{
+			keys = Arrays.copyOf(keys, size * 2);
+			used = Arrays.copyOf(used, size * 2);
+		}
+
+		int index = size++;
+		keys[index] = key;
+		used[index] = position;
+		positions[position] = index + 1;
+
+		// * Keep the load factor below one half
+		if(size * 2 > positions.length)
+			rehash();
+
+		return index;
+	}
+
+	/**
+	 * @return The index of the key, or -1 if it hasn't been added.
+	 */
+	public int index(long key)
+	{
+		int position = position(key);
+		while(positions[position] != 0)
+		{
+			int index = positions[position] - 1;
+			if(keys[index] == key)
+				return index;
+
+			position = (position + 1) & (positions.length - 1);
+		}
+
+		return -1;
+	}
+
+	public long key(int index)
+	{
+		return keys[index];
+	}
+
+	public int size()
+	{
+		return size;
+	}
+
+	public void clear()
+	{
+		truncate(0);
+	}
+
+	/**
+	 * Removes all keys with an index of size or higher.
+	 */
+	public void truncate(int size)
+	{
+		// * No key probes past a key that was added after it, so removing the
+		//   last keys first leaves the others reachable
+		for(int index = this.size - 1; index >= size; index--)
+			positions[used[index]] = 0;
+
+		this.size = size;
+	}
+
+	private void rehash()
+	{
+		positions = new int[positions.length * 2];
+		shift --;
+
+		for(int index = 0; index < size; index++)
+		{
+			int position = position(keys[index]);
+			while(positions[position] != 0)
+				position = (position + 1) & (positions.length - 1);
+
+			positions[position] = index + 1;
+			used[index] = position;
+		}
+	}
+
+	private int position(long key)
+	{
+		return (int) ((key * MIX) >>> shift);
+	}
+}
@@ -0,0 +1,179 @@
+package nl.peterbloem.motive;
+
+import static nl.peterbloem.kit.Series.series;
+
+import org.nodes.DGraph;
+import org.nodes.DNode;
+import org.nodes.Graph;
+import org.nodes.Link;
+import org.nodes.MapDTGraph;
+import org.nodes.MapUTGraph;
+import org.nodes.Node;
+import org.nodes.UGraph;
+import org.nodes.UNode;
+
+/**
+ * Encodes a motif as a single long, so that motifs can be counted without
+ * creating, hashing and comparing graph objects.
+ *
+ * A motif of at most MAX_SIZE nodes, without self-loops or multiple edges, and
+ * with a single node label, is encoded directly: the size is stored in bits
+ * 56 to 59 and the adjacency bitmask in bits 0 to 55. The bitmask has one bit
+ * for each pair i < j (undirected) or each ordered pair i != j (directed), in
+ * lexicographic order. This is the same layout as used by CanonicalTable.
+ *
+ * Other motifs get an id in a dictionary maintained by the caller. Such keys
+ * have the highest bit set (ie. they are negative).
+ *
+ * @author Peter
+ */
+public class MotifKey
+{
+	public static final int MAX_SIZE = 8;
+
+	/**
+	 * Returned when a graph cannot be encoded directly.
+	 */
+	public static final long NONE = -1L;
+
+	private static final int SIZE_SHIFT = 56;
+	private static final long MASK_BITS = (1L << SIZE_SHIFT) - 1;
+
+	/**
+	 * The key of a motif of the given size with the given adjacency bitmask.
+	 */
+	public static long key(int size, long mask)
+	{
+		return ((long) size << SIZE_SHIFT) | mask;
+	}
+
+	/**
+	 * The key of the dictionary entry with the given id.
+	 */
+	public static long dictionary(int id)
+	{
+		return Long.MIN_VALUE | id;
+	}
+
+	public static boolean isDictionary(long key)
+	{
+		return key < 0;
+	}
+
+	public static int id(long key)
+	{
+		return (int) (key & Integer.MAX_VALUE);
+	}
+
+	public static int size(long key)
+	{
+		return (int) (key >>> SIZE_SHIFT);
+	}
+
+	public static long mask(long key)
+	{
+		return key & MASK_BITS;
+	}
+
+	/**
+	 * The bit representing the link from i to j in a graph of the given size.
+	 * For undirected graphs, i and j may be given in either order.
+	 */
+	public static int bit(int i, int j, int size, boolean directed)
+	{
+		if(directed)
+			return i * (size - 1) + (j < i ? j : j - 1);
+
+		if(i > j)
+		{
+			int t = i;
+			i = j;
+			j = t;
+		}
+
+		// * the number of pairs with a smaller first node, plus the offset
+		return i * size - (i * (i + 1)) / 2 + (j - i - 1);
+	}
+
+	/**
+	 * Encodes the given graph (which should already be in canonical order)
+	 * directly.
+	 *
+	 * @param label All nodes must have this label.
+	 * @return The key, or NONE if the graph cannot be encoded directly.
+	 */
+	public static <L> long key(Graph<L> graph, L label)
+	{
+		int size = graph.size();
+		if(size > MAX_SIZE)
+			return NONE;
+
+		boolean directed = graph instanceof DGraph<?>;
+
+		for(Node<L> node : graph.nodes())
+			if(label == null ? node.label() != null : ! label.equals(node.label()))
+				return NONE;
+
+		long mask = 0;
+		for(Link<L> link : graph.links())
+		{
+			int i = link.first().index(), j = link.second().index();
+			if(i == j)
+				return NONE;
+
+			long bit = 1L << bit(i, j, size, directed);
+			if((mask & bit) != 0) // * multiple edge
+				return NONE;
+
+			mask |= bit;
+		}
+
+		return key(size, mask);
+	}
+
+	/**
+	 * Creates the undirected graph for a directly encoded key.
+	 */
+	public static <L> UGraph<L> uGraph(long key, L label)
+	{
+		int size = size(key);
+		long mask = mask(key);
+
+		UGraph<L> graph = new MapUTGraph<L, String>();
+		for(int i : series(size))
+			graph.add(label);
+
+		for(int i : series(size))
+			for(int j : series(i + 1, size))
+				if((mask & (1L << bit(i, j, size, false))) != 0)
+				{
+					UNode<L> first = graph.get(i), second = graph.get(j);
+					first.connect(second);
+				}
+
+		return graph;
+	}
+
+	/**
+	 * Creates the directed graph for a directly encoded key.
+	 */
+	public static <L> DGraph<L> dGraph(long key, L label)
+	{
+		int size = size(key);
+		long mask = mask(key);
+
+		DGraph<L> graph = new MapDTGraph<L, String>();
+		for(int i : series(size))
+			graph.add(label);
+
+		for(int i : series(size))
+			for(int j : series(size))
+				if(i != j && (mask & (1L << bit(i, j, size, true))) != 0)
+				{
+					DNode<L> from = graph.get(i), to = graph.get(j);
+					from.connect(to);
+				}
+
+		return graph;
+	}
+}
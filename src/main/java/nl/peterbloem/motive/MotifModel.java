@@ -17,7 +17,6 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -39,6 +38,7 @@ import org.nodes.UGraph;
 import org.nodes.ULink;
 import org.nodes.UNode;
 import org.nodes.models.DegreeSequenceModel.Prior;
+import org.nodes.models.DegreeSequenceModel.Margin;
 import org.nodes.motifs.MotifCompressor;
 import org.nodes.models.DSequenceEstimator;
 import org.nodes.models.DegreeSequenceModel;
@@ -73,6 +73,10 @@ public class MotifModel
 {
 	private static ExecutorService executor = null;
 	private static int maxRW = -1; 
+	private static MotifSamples motifSamples = null;
+	private static double betaTolerance = -1.0;
+	private static int betaMaxIterations = -1;
+	private static boolean betaApproximation = false;
 	
 	/**
 	 * Sets the threadpool to use (for the beta model). If not set, the beta 
@@ -85,6 +89,214 @@ public class MotifModel
 		MotifModel.executor = executor;
 	}
 	
+	/**
+	 * Sets the memo for the samples of the motif side of the beta model. If 
+	 * not set, the motif is sampled again on every call.
+	 */
+	public static void setMotifSamples(MotifSamples motifSamples)
+	{
+		MotifModel.motifSamples = motifSamples;
+	}
+	
+	/**
+	 * Makes the beta model sample adaptively: it draws batches of the given 
+	 * number of iterations until the upper bound of the confidence interval 
+	 * moves by less than the tolerance (in bits) from one batch to the next, 
+	 * or until maxIterations samples have been drawn. 
+	 * 
+	 * @param tolerance The tolerance in bits. If zero or less, every call 
+	 * 	draws exactly the given number of iterations.
+	 */
+	public static void setBetaTolerance(double tolerance, int maxIterations)
+	{
+		MotifModel.betaTolerance = tolerance;
+		MotifModel.betaMaxIterations = maxIterations;
+	}
+	
+	/**
+	 * Makes the beta model use a closed-form approximation of the number of 
+	 * graphs with the degree sequence of the subbed graph (see 
+	 * DSApproximation), instead of importance sampling. The graphs with the 
+	 * degree sequence of the motif are counted exactly. The iterations and 
+	 * alpha passed to the beta model are then ignored.
+	 */
+	public static void setBetaApproximation(boolean approximation)
+	{
+		MotifModel.betaApproximation = approximation;
+	}
+	
+	/**
+	 * Estimates the codelength of the motif and the subbed graph under the DS
+	 * model (without the priors): the upper bound of the confidence interval
+	 * over the importance samples, or the closed-form approximation if that
+	 * has been selected.
+	 * 
+	 * @param degrees The degree sequence of the subbed graph: a List<D> if 
+	 * 	sub is directed, a List<Integer> if it isn't.
+	 * @return The bound, and the number of samples it took.
+	 */
+	private static Pair<Double, Integer> betaBound(Graph<?> sub, List<?> degrees,
+			int iterations, double alpha, int numThreads)
+	{
+		if(betaApproximation)
+			return p(betaApproximate(sub, degrees), 0);
+		
+		return betaSampled(sub, degrees, iterations, alpha, numThreads);
+	}
+	
+	/**
+	 * The approximate version of betaBound.
+	 */
+	@SuppressWarnings("unchecked")
+	private static double betaApproximate(Graph<?> sub, List<?> degrees)
+	{
+		double subbed = sub instanceof DGraph<?> ? 
+				DSApproximation.logNumGraphsDirected((List<D>) degrees) :
+				DSApproximation.logNumGraphs((List<Integer>) degrees);
+		
+		// * The motif is far outside the regime of the approximation, but
+		//   small enough to count its graphs exactly
+		return DSApproximation.logNumGraphsExact(sub) + subbed;
+	}
+	
+	/**
+	 * The sampled version of betaBound.
+	 */
+	private static Pair<Double, Integer> betaSampled(final Graph<?> sub, final List<?> degrees,
+			int iterations, double alpha, final int numThreads)
+	{
+		Batch batch = new Batch()
+		{
+			public List<Double> samples(int from, int to)
+			{
+				List<Double> motifSamples = motifSamples(sub, from, to, numThreads);
+				List<Double> subbedSamples = subbedSamples(sub, degrees, to - from, numThreads);
+				
+				List<Double> samples = new ArrayList<Double>(to - from);
+				for(int i : series(to - from))
+					samples.add(motifSamples.get(i) + subbedSamples.get(i));
+				
+				return samples;
+			}
+		};
+		
+		return adaptiveBound(batch, iterations, alpha, true);
+	}
+	
+	/**
+	 * The codelength of the data under the DS model with the ML prior, using 
+	 * the lower bound of the confidence interval (as DegreeSequenceModel does 
+	 * with Margin.LOWERBOUND). If a tolerance has been set, the samples are 
+	 * drawn in batches, with the same stopping rule as for the motif 
+	 * codelengths (see setBetaTolerance). 
+	 */
+	public static double betaBaseline(final Graph<?> data, int iterations, double alpha)
+	{
+		if(betaTolerance <= 0.0)
+			return new DegreeSequenceModel(iterations, alpha, Prior.ML, Margin.LOWERBOUND).codelength(data);
+		
+		final int numThreads = Global.numThreads();
+		Batch batch = new Batch()
+		{
+			public List<Double> samples(int from, int to)
+			{
+				if(data instanceof DGraph<?>)
+				{
+					DSequenceEstimator<String> model = new DSequenceEstimator<String>(data);
+					model.nonuniform(to - from, numThreads, executor);
+					return model.logSamples();
+				} 
+				
+				USequenceEstimator<String> model = new USequenceEstimator<String>(data);
+				model.nonuniform(to - from, numThreads, executor);
+				return model.logSamples();
+			}
+		};
+		
+		return DegreeSequenceModel.prior(data, Prior.ML) 
+				+ adaptiveBound(batch, iterations, alpha, false).first();
+	}
+	
+	/**
+	 * Draws batches of the given number of iterations until the bound moves by 
+	 * less than the tolerance, or until the maximum number of iterations has 
+	 * been reached (see setBetaTolerance). Without a tolerance, this draws a 
+	 * single batch. 
+	 * 
+	 * @param upper Whether to use the upper or the lower bound of the 
+	 * 	confidence interval.
+	 * @return The bound, and the number of samples it took.
+	 */
+	private static Pair<Double, Integer> adaptiveBound(Batch batch, 
+			int iterations, double alpha, boolean upper)
+	{
+		boolean adaptive = betaTolerance > 0.0;
+		int max = Math.max(iterations, betaMaxIterations);
+		
+		List<Double> samples = new ArrayList<Double>(iterations);
+		double bound = Double.NaN;
+		
+		while(true)
+		{
+			int from = samples.size();
+			int to = adaptive ? Math.min(from + iterations, max) : from + iterations;
+			
+			samples.addAll(batch.samples(from, to));
+			
+			LogNormalCI ci = new LogNormalCI(samples);
+			double next = upper ? ci.upperBound(alpha) : ci.lowerBound(alpha);
+			
+			// * We need at least two batches to see whether the bound is stable
+			if(! adaptive || to >= max || Math.abs(next - bound) < betaTolerance)
+				return p(next, samples.size());
+			
+			bound = next;
+		}
+	}
+	
+	/**
+	 * A source of log-samples for adaptiveBound.
+	 */
+	private static interface Batch
+	{
+		/**
+		 * The samples with indices from up to to (the same indices give the 
+		 * same samples only where a memo is used).
+		 */
+		public List<Double> samples(int from, int to);
+	}
+	
+	/**
+	 * Draws the given number of samples of the DS estimator for the subbed 
+	 * graph.
+	 */
+	@SuppressWarnings("unchecked")
+	private static List<Double> subbedSamples(Graph<?> sub, List<?> degrees, int n, int numThreads)
+	{
+		if(sub instanceof DGraph<?>)
+		{
+			DSequenceEstimator<String> subbedModel = new DSequenceEstimator<String>((List<D>) degrees);
+			subbedModel.nonuniform(n, numThreads, executor);
+			return subbedModel.logSamples();
+		} 
+		
+		USequenceEstimator<String> subbedModel = new USequenceEstimator<String>((List<Integer>) degrees);
+		subbedModel.nonuniform(n, numThreads, executor);
+		return subbedModel.logSamples();
+	}
+	
+	/**
+	 * Samples from and up to to of the DS estimator for the motif. If a memo 
+	 * has been set, these are the same for every call.
+	 */
+	private static List<Double> motifSamples(Graph<?> sub, int from, int to, int numThreads)
+	{
+		if(motifSamples != null)
+			return motifSamples.logSamples(sub, to, numThreads, executor).subList(from, to);
+		
+		return MotifSamples.draw(sub, to - from, numThreads, executor);
+	}
+	
 	public static void setMaxRW(int maxRW)
 	{
 		MotifModel.maxRW = maxRW;
@@ -176,16 +388,7 @@ public class MotifModel
 				
 		// * The estimated cost of storing the structure of the motif and the 
 		//   structure of the subbed graph. 
-		List<Double> samples = new ArrayList<Double>(iterations);
-		DSequenceEstimator<String> motifModel = new DSequenceEstimator<String>(sub);
-		DSequenceEstimator<String> subbedModel = new DSequenceEstimator<String>(degrees);
-		motifModel.nonuniform(iterations, numThreads, executor);
-		subbedModel.nonuniform(iterations, numThreads, executor);
-		
-		for(int i : series(iterations))
-			samples.add(motifModel.logSamples().get(i) + subbedModel.logSamples().get(i));
-		 
-		LogNormalCI ci = new LogNormalCI(samples);
+		double bound = betaBound(sub, degrees, iterations, alpha, numThreads).first();
 				
 		// * parameters
 		rest.add("sub", DegreeSequenceModel.prior((DGraph<?>)sub, Prior.COMPLETE));
@@ -201,22 +404,43 @@ public class MotifModel
 		//   nodes in the data 
 		rest.add("insertions", log2Factorial(graph.size()) - log2Factorial(degrees.size()));
 		
-//		System.out.println("ci : " + ci.upperBound(alpha));
+//		System.out.println("ci : " + bound);
 //		rest.print(System.out);
 		
-		return ci.upperBound(alpha) + rest.total();
+		return bound + rest.total();
 	}	
 	
 	public static List<D> subbedDegrees(
 			DGraph<?> graph, List<List<Integer>> occurrences, 
 			FrequencyModel<String> rest)
+	{
+		List<Integer> additions = new ArrayList<Integer>(graph.size());
+		List<D> degrees = subbedDegrees(graph, occurrences, additions);
+		
+		rest.add("multi-edges", Functions.prefix(additions.isEmpty() ? 0 : (long)Functions.max(additions)));
+		rest.add("multi-edges", OnlineModel.storeIntegers(additions)); 
+		
+		return degrees;
+	}
+	
+	/**
+	 * Computes the degree sequence of the subbed graph by looping over the 
+	 * whole graph.
+	 * 
+	 * @param additions An empty list, receiving the number of additional 
+	 * 	links for each link of the subbed graph with multiple links.
+	 */
+	static List<D> subbedDegrees(
+			DGraph<?> graph, List<List<Integer>> occurrences, 
+			List<Integer> additions)
 	{
 		// * records which node is in which occurrence (if any)
 		Map<Integer, Integer> nodeInOccurrence = new HashMap<Integer, Integer>();
 		
-		for(int occurrenceIndex : series(occurrences.size()))
-			for(int nodeIndex : occurrences.get(occurrenceIndex))
-				nodeInOccurrence.put(nodeIndex, occurrenceIndex);
+		OccurrenceStore store = OccurrenceStore.of(occurrences);
+		for(int occurrenceIndex : series(store.size()))
+			for(int j : series(store.motifSize()))
+				nodeInOccurrence.put(store.node(occurrenceIndex, j), occurrenceIndex);
 		
 		FrequencyModel<Pair<Integer, Integer>> nodeToInstance = 
 				new FrequencyModel<Pair<Integer,Integer>>();
@@ -285,7 +509,6 @@ public class MotifModel
 		for(int node : nodes)
 			degrees.add(new DSequenceEstimator.D((int)in.frequency(node), (int)out.frequency(node)));
 				
-		List<Integer> additions = new ArrayList<Integer>(graph.size());
 		for(Pair<Integer, Integer> token : nodeToInstance.tokens())
 			additions.add((int)nodeToInstance.frequency(token) - 1);
 		for(Pair<Integer, Integer> token : instanceToNode.tokens())
@@ -293,9 +516,6 @@ public class MotifModel
 		for(Pair<Integer, Integer> token : instanceToInstance.tokens())
 			additions.add((int)instanceToInstance.frequency(token) - 1);
 		
-		rest.add("multi-edges", Functions.prefix(additions.isEmpty() ? 0 : (long)Functions.max(additions)));
-		rest.add("multi-edges", OnlineModel.storeIntegers(additions)); 
-		
 		// * check for any disconnected nodes and add 0s
 		if(! occurrences.isEmpty())
 		{	
@@ -325,16 +545,7 @@ public class MotifModel
 				
 		// * The estimated cost of storing the structure of the motif and the 
 		//   structure of the subbed graph. 
-		List<Double> samples = new ArrayList<Double>(iterations);
-		USequenceEstimator<String> motifModel = new USequenceEstimator<String>(sub);
-		USequenceEstimator<String> subbedModel = new USequenceEstimator<String>(degrees);
-		motifModel.nonuniform(iterations, numThreads, executor);
-		subbedModel.nonuniform(iterations, numThreads, executor);
-		
-		for(int i : series(iterations))
-			samples.add(motifModel.logSamples().get(i) + subbedModel.logSamples().get(i));
-		 
-		LogNormalCI ci = new LogNormalCI(samples);
+		double bound = betaBound(sub, degrees, iterations, alpha, numThreads).first();
 				
 		// * parameters
 		rest.add("sub", DegreeSequenceModel.prior(sub, Prior.COMPLETE));
@@ -350,22 +561,115 @@ public class MotifModel
 		//   nodes in the data 
 		rest.add("insertions", log2Factorial(graph.size()) - log2Factorial(degrees.size()));
 		
-//		System.out.println("ci : " + ci.upperBound(alpha));
+//		System.out.println("ci : " + bound);
 //		rest.print(System.out);
 		
-		return ci.upperBound(alpha) + rest.total();
-	}		
+		return bound + rest.total();
+	}
+
+	/**
+	 * The difference (in bits) between the approximate DS bound for a 
+	 * substitution (the part of the codelength that the approximation 
+	 * replaces) and the sampled bound. A positive error means that the 
+	 * approximation overestimates.
+	 * 
+	 * This samples degree sequences the size of the graph, so it should only
+	 * be used on small graphs.
+	 */
+	public static double betaApproximationError(Substitution substitution, int iterations, double alpha)
+	{
+		List<?> degrees = substitution.directed() ? 
+				substitution.dDegrees() : substitution.degrees();
+		
+		return betaApproximate(substitution.sub(), degrees) 
+				- betaSampled(substitution.sub(), degrees, iterations, alpha, Global.numThreads()).first();
+	}
+	
+	/**
+	 * The DS codelength for a substitution that was computed beforehand (see 
+	 * SubstitutionCache). The result is the same as that of 
+	 * sizeBeta(graph, sub, occurrences, ...) up to the sampling.
+	 */
+	@SuppressWarnings("unchecked")
+	public static double sizeBeta(Substitution substitution, boolean resetWiring, int iterations, double alpha)
+	{
+		int numThreads = Global.numThreads();
+		
+		Graph<?> graph = substitution.graph();
+		List<List<Integer>> occurrences = substitution.occurrences();
+		
+		FrequencyModel<String> rest = new FrequencyModel<String>();
+		rest.add("multi-edges", substitution.multiEdgesPrefix());
+		rest.add("multi-edges", substitution.multiEdgesIntegers());
+		
+		Pair<Double, Integer> bound;
+		int subbedSize;
+		
+		if(substitution.directed())
+		{
+			DGraph<String> sub = (DGraph<String>) substitution.sub();
+			List<D> degrees = substitution.dDegrees();
+			subbedSize = degrees.size();
+			
+			bound = betaBound(sub, degrees, iterations, alpha, numThreads);
+			
+			rest.add("sub", DegreeSequenceModel.prior((DGraph<?>)sub, Prior.COMPLETE));
+			rest.add("subbed", DegreeSequenceModel.prior(degrees, Prior.COMPLETE));
+		} else
+		{
+			UGraph<String> sub = (UGraph<String>) substitution.sub();
+			List<Integer> degrees = substitution.degrees();
+			subbedSize = degrees.size();
+			
+			bound = betaBound(sub, degrees, iterations, alpha, numThreads);
+			
+			rest.add("sub", DegreeSequenceModel.prior(sub, Prior.COMPLETE));
+			rest.add("subbed", DegreeSequenceModel.priorDegrees(degrees, Prior.COMPLETE));
+		}
+		
+		substitution.setBetaSamples(bound.second());
+		
+		rest.add("labels", Functions.prefix(occurrences.size()) + log2Choose(occurrences.size(), subbedSize)); 
+		rest.add("wiring", substitution.wiringBits(resetWiring));
+		rest.add("insertions", log2Factorial(graph.size()) - log2Factorial(subbedSize));
+		
+		return bound.first() + rest.total();
+	}
+		
 	
 	public static List<Integer> subbedDegrees(
 			UGraph<?> graph, List<List<Integer>> occurrences, 
 			FrequencyModel<String> rest)
+	{
+		List<Integer> additions = new ArrayList<Integer>(graph.size());
+		List<Integer> degrees = subbedDegrees(graph, occurrences, additions);
+		
+		rest.add("multi-edges", Functions.prefix(
+				additions.isEmpty() ? 
+				0 : (long)Functions.max(additions)));
+		rest.add("multi-edges", OnlineModel.storeIntegers(additions)); 
+		
+		return degrees;
+	}
+	
+	/**
+	 * Computes the degree sequence of the subbed graph by looping over the 
+	 * whole graph.
+	 * 
+	 * @param additions An empty list, receiving the number of additional 
+	 * 	links for each link of the subbed graph with multiple links.
+	 */
+	static List<Integer> subbedDegrees(
+			UGraph<?> graph, List<List<Integer>> occurrences, 
+			List<Integer> additions)
 	{
 		// * records which node is in which occurrence (if any)
 		Map<Integer, Integer> nodeInOccurrence = new HashMap<Integer, Integer>();
 		
-		for(int occurrenceIndex : series(occurrences.size()))
-			for(int nodeIndex : occurrences.get(occurrenceIndex))
-				nodeInOccurrence.put(nodeIndex, occurrenceIndex);
+		OccurrenceStore store = OccurrenceStore.of(occurrences);
+		for(int occurrenceIndex : series(store.size()))
+			for(int j : series(store.motifSize()))
+				nodeInOccurrence.put(store.node(occurrenceIndex, j), occurrenceIndex);
 		
 		FrequencyModel<Pair<Integer, Integer>> nodeToInstance = 
 				new FrequencyModel<Pair<Integer,Integer>>();
@@ -429,17 +733,11 @@ public class MotifModel
 		for(int node : degrees.tokens())
 			result.add((int)degrees.frequency(node));
 				
-		List<Integer> additions = new ArrayList<Integer>(graph.size());
 		for(Pair<Integer, Integer> token : nodeToInstance.tokens())
 			additions.add((int)nodeToInstance.frequency(token) - 1);
 		for(Pair<Integer, Integer> token : instanceToInstance.tokens())
 			additions.add((int)instanceToInstance.frequency(token) - 1);
 		
-		rest.add("multi-edges", Functions.prefix(
-				additions.isEmpty() ? 
-				0 : (long)Functions.max(additions)));
-		rest.add("multi-edges", OnlineModel.storeIntegers(additions)); 
-		
 		// * check for any disconnected nodes and add 0s
 		if(! occurrences.isEmpty())
 		{
@@ -468,6 +766,29 @@ public class MotifModel
 		
 		return bits;
 	}
+	
+	/**
+	 * As wiringBits(Graph, List, boolean), for the rewiring collected in the 
+	 * buffers by the instance loop.
+	 */
+	private static double wiringBits(Graph<?> sub, InstanceBuffers buffers,
+			boolean reset)
+	{
+		List<Integer> symbols = Series.series(sub.size());
+		OnlineModel<Integer> om = new OnlineModel<Integer>(symbols);
+
+		double bits = 0.0;
+		for (int occurrence = 0; occurrence < buffers.numOccurrences(); occurrence++)
+		{
+			if (reset)
+				om = new OnlineModel<Integer>(symbols);
+
+			for (int index = buffers.from(occurrence); index < buffers.to(occurrence); index++)
+				bits += - Functions.log2(om.observe(buffers.wireAt(index)));
+		}
+		
+		return bits;
+	}
 
 	public static double sizeER(Graph<?> graph, Graph<?> sub, List<List<Integer>> occurrences, boolean resetWiring)
 	{
@@ -522,6 +843,49 @@ public class MotifModel
 		
 		return bits.total();
 	}
+
+	/**
+	 * The ER codelength for a substitution that was computed beforehand (see 
+	 * SubstitutionCache). The result is the same as that of 
+	 * sizeER(graph, sub, occurrences, resetWiring).
+	 */
+	public static double sizeER(Substitution substitution, boolean resetWiring)
+	{
+		Graph<?> graph = substitution.graph();
+		List<List<Integer>> occurrences = substitution.occurrences();
+		int subbedSize = substitution.size();
+		
+		FrequencyModel<String> bits = new FrequencyModel<String>();
+		
+		if(substitution.directed())
+		{
+			bits.add("sub", erModel.codelength((DGraph<?>) substitution.sub()));
+			bits.add("subbed", ERSimpleModel.directed(subbedSize, substitution.numLinks(), true));
+		} else
+		{
+			bits.add("sub", erModel.codelength((UGraph<?>) substitution.sub()));
+			bits.add("subbed", ERSimpleModel.undirected(subbedSize, substitution.numLinks(), true));
+		}
+		
+		bits.add("multiple-edges", substitution.multiEdgesPrefix());
+		bits.add("multiple-edges", substitution.multiEdgesIntegers());
+		
+		bits.add("wiring", substitution.wiringBits(resetWiring));
+		
+		// * the directed and undirected versions add these in a different order
+		if(substitution.directed())
+		{
+			bits.add("labels", Functions.prefix(occurrences.size()) + log2Choose(occurrences.size(), subbedSize)); 
+			bits.add("insertions", log2Factorial(graph.size()) - log2Factorial(subbedSize));
+		} else
+		{
+			bits.add("insertions", log2Factorial(graph.size()) - log2Factorial(subbedSize));
+			bits.add("labels", Functions.prefix(occurrences.size()) + log2Choose(occurrences.size(), subbedSize)); 
+		}
+		
+		return bits.total();
+	}
+
 	
 	/**
 	 * A version of the ER model that loops only over the instances. It requires 
@@ -541,10 +905,8 @@ public class MotifModel
 		
 		bits.add("sub", erModel.codelength(sub));
 
-		FrequencyModel<Pair<Integer, Integer>> multiEdges = new FrequencyModel<Pair<Integer, Integer>>();
-		List<List<Integer>> rewiring = new LinkedList<List<Integer>>();
-		
-		Pair<Long, Long> pair = subbedERInstances(graph, sub, occurrences, multiEdges, rewiring);
+		InstanceBuffers buffers = substitute(graph, null, OccurrenceStore.of(occurrences));
+		Pair<Long, Long> pair = subbedERInstances(graph, sub, occurrences, buffers);
 		
 		// * store the template graph (as a simple graph) 
 		bits.add("subbed", ERSimpleModel.undirected(pair.first(), pair.second(), true));
@@ -552,10 +914,10 @@ public class MotifModel
 		// * store the multi-edges
 		// - We are storing, for each link, the number of additional edges required
 		//   (so everything's - 1)
-		bits.add("multi-edges", multiEdges(multiEdges));
+		bits.add("multi-edges", multiEdges(buffers));
 		
 		// * Store the rewiring information
-		bits.add("wiring", wiringBits(sub, rewiring, resetWiring));
+		bits.add("wiring", wiringBits(sub, buffers, resetWiring));
 		
 		// * Store the insertion order, to preserve the precise ordering of the
 		//   nodes in the data
@@ -587,29 +949,28 @@ public class MotifModel
 		
 		bits.add("sub", erModel.codelength(sub));
 
-		FrequencyModel<Pair<Integer, Integer>> multiEdges = new FrequencyModel<Pair<Integer, Integer>>();
-		List<List<Integer>> rewiring = new LinkedList<List<Integer>>();
-		
-		Pair<Long, Long> pair = null;
+		InstanceBuffers buffers = null;
 		try 
 		{
-			pair = subbedERInstances(graph, sub, occurrences, multiEdges, rewiring);
+			buffers = substitute(graph, null, OccurrenceStore.of(occurrences));
 		} catch(TooManyRWLinksException e)
 		{
 			Global.log().info("Number of links rewritten too high (with " + occurrences.size() + " instances). Returning Double.POSTIVE_INFINITY.");
 			return Double.POSITIVE_INFINITY;
 		}
 		
+		Pair<Long, Long> pair = subbedERInstances(graph, sub, occurrences, buffers);
+		
 		// * store the template graph (as a simple graph) -
 		bits.add("subbed", ERSimpleModel.directed(pair.first(), pair.second(), true));
 		
 		// * store the multi-edges
 		// - We are storing, for each link, the number of additional edges required
 		//   (so everything's - 1)
-		bits.add("multi-edges", multiEdges(multiEdges));
+		bits.add("multi-edges", multiEdges(buffers));
 		
 		// * Store the rewiring information
-		bits.add("wiring", wiringBits(sub, rewiring, resetWiring));
+		bits.add("wiring", wiringBits(sub, buffers, resetWiring));
 		
 		// * Store the insertion order, to preserve the precise ordering of the
 		//   nodes in the data
@@ -636,9 +997,10 @@ public class MotifModel
 		// * records which node is in which occurrence (if any)
 		Map<Integer, Integer> nodeInOccurrence = new HashMap<Integer, Integer>();
 		
-		for(int occurrenceIndex : series(occurrences.size()))
-			for(int nodeIndex : occurrences.get(occurrenceIndex))
-				nodeInOccurrence.put(nodeIndex, occurrenceIndex);
+		OccurrenceStore store = OccurrenceStore.of(occurrences);
+		for(int occurrenceIndex : series(store.size()))
+			for(int j : series(store.motifSize()))
+				nodeInOccurrence.put(store.node(occurrenceIndex, j), occurrenceIndex);
 		
 		FrequencyModel<Pair<Integer, Integer>> nodeToInstance = 
 				new FrequencyModel<Pair<Integer,Integer>>();
@@ -709,9 +1071,10 @@ public class MotifModel
 		// * records which node is in which occurrence (if any)
 		Map<Integer, Integer> nodeInOccurrence = new HashMap<Integer, Integer>();
 		
-		for(int occurrenceIndex : series(occurrences.size()))
-			for(int nodeIndex : occurrences.get(occurrenceIndex))
-				nodeInOccurrence.put(nodeIndex, occurrenceIndex);
+		OccurrenceStore store = OccurrenceStore.of(occurrences);
+		for(int occurrenceIndex : series(store.size()))
+			for(int j : series(store.motifSize()))
+				nodeInOccurrence.put(store.node(occurrenceIndex, j), occurrenceIndex);
 		
 		FrequencyModel<Pair<Integer, Integer>> nodeToInstance = 
 				new FrequencyModel<Pair<Integer,Integer>>();
@@ -825,6 +1188,41 @@ public class MotifModel
 
 		return bits.total();
 	}
+
+	/**
+	 * The EL codelength for a substitution that was computed beforehand (see 
+	 * SubstitutionCache). The result is the same as that of 
+	 * sizeEL(graph, sub, occurrences, resetWiring).
+	 */
+	public static double sizeEL(Substitution substitution, boolean resetWiring)
+	{
+		Graph<?> graph = substitution.graph();
+		List<List<Integer>> occurrences = substitution.occurrences();
+		int subbedSize = substitution.size();
+		
+		FrequencyModel<String> bits = new FrequencyModel<String>();
+		
+		if(substitution.directed())
+			bits.add("sub", elModel.codelength((DGraph<?>) substitution.sub()));
+		else
+			bits.add("sub", elModel.codelength((UGraph<?>) substitution.sub()));
+		
+		bits.add("multi-edges", substitution.multiEdgesPrefix());
+		bits.add("multi-edges", substitution.multiEdgesIntegers());
+		
+		if(substitution.directed())
+			bits.add("subbed", EdgeListModel.directed(substitution.dDegrees(), Prior.COMPLETE));
+		else
+			bits.add("subbed", EdgeListModel.undirected(substitution.degrees(), Prior.COMPLETE));
+		
+		bits.add("wiring", substitution.wiringBits(resetWiring));
+		
+		bits.add("insertions", log2Factorial(graph.size()) - log2Factorial(subbedSize));
+		bits.add("labels", Functions.prefix(occurrences.size()) + log2Choose(occurrences.size(), subbedSize)); 
+		
+		return bits.total();
+	}
+
 	
 	/**
 	 * A version of the EL model that loops only over the instances. It requires 
@@ -844,26 +1242,26 @@ public class MotifModel
 		
 		bits.add("sub", elModel.codelength(sub));
 
-		FrequencyModel<Pair<Integer, Integer>> multiEdges = new FrequencyModel<Pair<Integer, Integer>>();
-		List<List<Integer>> rewiring = new LinkedList<List<Integer>>();
-		
-		List<D> sDegrees = null;
+		InstanceBuffers buffers = null;
 		try {
-			sDegrees = subbedDegrees(graph, degrees, occurrences, multiEdges, rewiring);
+			buffers = substitute(graph, degrees, OccurrenceStore.of(occurrences));
 		} catch(TooManyRWLinksException e)
 		{
 			Global.log().info("Number of links rewritten too high (with "+occurrences.size()+" instances). Returning Double.POSTIVE_INFINITY.");
 			return Double.POSITIVE_INFINITY;
 		}
 				
+		List<D> sDegrees = occurrences.isEmpty() ? 
+				degrees : buffers.dDegrees(subbedSize(graph, occurrences));
+		
 		// * store the template graph (as a simple graph) 
 		bits.add("subbed", EdgeListModel.directed(sDegrees, Prior.COMPLETE));
 		
 		// * store the multi-edges
-		bits.add("multi-edges", multiEdges(multiEdges));
+		bits.add("multi-edges", multiEdges(buffers));
 		
 		// * Store the rewiring information
-		bits.add("wiring", wiringBits(sub, rewiring, resetWiring));
+		bits.add("wiring", wiringBits(sub, buffers, resetWiring));
 		
 		// * Store the insertion order, to preserve the precise ordering of the
 		//   nodes in the data
@@ -900,6 +1298,39 @@ public class MotifModel
 		return mBits;
 	}
 	
+	/**
+	 * As multiEdges(FrequencyModel), for the multi-edges collected in the 
+	 * buffers by the instance loop.
+	 */
+	private static double multiEdges(InstanceBuffers buffers)
+	{
+		return multiEdges(buffers.counts(), buffers.numMultiEdges());
+	}
+	
+	/**
+	 * As multiEdges(FrequencyModel), for the frequencies of the first num 
+	 * tokens, given in the order of the tokens.
+	 */
+	static double multiEdges(int[] counts, int num)
+	{
+		if(num == 0)
+			return Functions.prefix(0);
+		
+		int max = 0;
+		for(int index = 0; index < num; index++)
+			max = max(max, counts[index]);
+		
+		double mBits = 0.0;
+		
+		mBits += Functions.prefix(max - 1);
+		OnlineModel<Integer> model = new OnlineModel<Integer>(Series.series(0, max));
+		
+		for(int index = 0; index < num; index++)
+			mBits += model.encode(counts[index] - 1);
+		
+		return mBits;
+	}
+	
 	/**
 	 * A version of the EL model that loops only over the instances. It requires 
 	 * the degrees of the graph to be given.
@@ -918,19 +1349,18 @@ public class MotifModel
 		
 		bits.add("sub", elModel.codelength(sub));
 
-		FrequencyModel<Pair<Integer, Integer>> multiEdges = new FrequencyModel<Pair<Integer, Integer>>();
-		List<List<Integer>> rewiring = new LinkedList<List<Integer>>();
-		
-		List<Integer> sDegrees = subbedDegrees(graph, degrees, occurrences, multiEdges, rewiring);
+		InstanceBuffers buffers = substitute(graph, degrees, OccurrenceStore.of(occurrences));
+		List<Integer> sDegrees = occurrences.isEmpty() ? 
+				degrees : buffers.degrees(subbedSize(graph, occurrences));
 		
 		// * store the template graph (as a simple graph) 
 		bits.add("subbed", EdgeListModel.undirected(sDegrees, Prior.COMPLETE));
 		
 		// * store the multi-edges
-		bits.add("multi-edges", multiEdges(multiEdges));
+		bits.add("multi-edges", multiEdges(buffers));
 		
 		// * Store the rewiring information
-		bits.add("wiring", wiringBits(sub, rewiring, resetWiring));
+		bits.add("wiring", wiringBits(sub, buffers, resetWiring));
 		
 		// * Store the insertion order, to preserve the precise ordering of the
 		//   nodes in the data
@@ -946,29 +1376,291 @@ public class MotifModel
 		return bits.total();
 	}
 
-	public static <L> double wiringBitsDirect(Graph<L> graph, Graph<?> sub, List<List<Integer>> occurrences,
-			boolean reset)
-	{
-		OnlineModel<Integer> om = new OnlineModel<Integer>(Series.series(sub.size()));
+	/**
+	 * As sizeEL(UGraph, List, UGraph, List, boolean), for the occurrences in
+	 * the current prefix of a substitution.
+	 */
+	static double sizeEL(PrefixSubstitution prefix, UGraph<?> sub, boolean resetWiring)
+	{		
+		Graph<?> graph = prefix.graph();
+		int n = prefix.size();
 		
-		double wiringBits = 0.0;
+		FrequencyModel<String> bits = new FrequencyModel<String>();
 		
-		for (List<Integer> occurrence : occurrences)
-		{			
-			if(reset)
-				om = new OnlineModel<Integer>(Series.series(sub.size()));
-			
-			// * The index of the node within the occurrence
-			for (int indexInSubgraph : series(occurrence.size()))
-			{
-				Node<L> node = graph.get(occurrence.get(indexInSubgraph));
-				
-				for(Link<L> link : node.links())
-				{
-					Node<L> neighbor = link.other(node);
-					
-					if(! occurrence.contains(neighbor.index()))
-						wiringBits += - log2(om.observe(indexInSubgraph));
+		bits.add("sub", elModel.codelength(sub));
+
+		List<Integer> sDegrees = prefix.degrees();
+		
+		bits.add("subbed", EdgeListModel.undirected(sDegrees, Prior.COMPLETE));
+		bits.add("multi-edges", prefix.multiEdgeBits());
+		bits.add("wiring", prefix.wiringBits(resetWiring));
+		
+		int subbedSize = graph.size() - (sub.size() - 1) * n;
+		
+		assert(sDegrees.size() == subbedSize);
+		
+		bits.add("insertions", log2Factorial(graph.size()) - log2Factorial(subbedSize));
+		bits.add("labels", Functions.prefix(n) + log2Choose(n, subbedSize)); 
+		
+		return bits.total();
+	}
+	
+	/**
+	 * As sizeEL(DGraph, List, DGraph, List, boolean), for the occurrences in
+	 * the current prefix of a substitution.
+	 */
+	static double sizeEL(PrefixSubstitution prefix, DGraph<?> sub, boolean resetWiring)
+	{		
+		Graph<?> graph = prefix.graph();
+		int n = prefix.size();
+		
+		FrequencyModel<String> bits = new FrequencyModel<String>();
+		
+		bits.add("sub", elModel.codelength(sub));
+
+		if(maxRW > 0 && prefix.numRewired() > maxRW)
+		{
+			Global.log().info("Number of links rewritten too high (with "+n+" instances). Returning Double.POSTIVE_INFINITY.");
+			return Double.POSITIVE_INFINITY;
+		}
+				
+		List<D> sDegrees = prefix.dDegrees();
+		
+		bits.add("subbed", EdgeListModel.directed(sDegrees, Prior.COMPLETE));
+		bits.add("multi-edges", prefix.multiEdgeBits());
+		bits.add("wiring", prefix.wiringBits(resetWiring));
+		
+		long subbedSize = (long)graph.size() - (sub.size() - 1) * (long)n;
+		
+		assert(sDegrees.size() == subbedSize);
+		
+		bits.add("insertions", log2Factorial(graph.size()) - log2Factorial(subbedSize));
+		bits.add("labels", Functions.prefix(n) + log2Choose(n, subbedSize)); 
+		
+		return bits.total();
+	}
+	
+	/**
+	 * A version of the DS model that loops only over the instances. It requires 
+	 * the degrees of the graph to be given. 
+	 * 
+	 * The multi-edges and the rewiring are stored as in the instance-loop 
+	 * version of the EL model, so the result differs from that of 
+	 * sizeBeta(graph, sub, ...) in those terms.
+	 */
+	public static double sizeBeta(UGraph<?> graph, List<Integer> degrees, UGraph<?> sub,
+			List<List<Integer>> occurrences, boolean resetWiring, int iterations, double alpha)
+	{
+		InstanceBuffers buffers = substitute(graph, degrees, OccurrenceStore.of(occurrences));
+		List<Integer> sDegrees = occurrences.isEmpty() ? 
+				degrees : buffers.degrees(subbedSize(graph, occurrences));
+		
+		// - The buffers belong to this thread, so we read them before sampling
+		double multiEdges = multiEdges(buffers);
+		double wiring = wiringBits(sub, buffers, resetWiring);
+		
+		return sizeBetaInst(graph, sub, occurrences.size(), sDegrees, multiEdges, wiring, iterations, alpha);
+	}
+	
+	/**
+	 * A version of the DS model that loops only over the instances (see 
+	 * sizeBeta(UGraph, List, UGraph, List, boolean, int, double)).
+	 */
+	public static double sizeBeta(DGraph<?> graph, List<D> degrees, DGraph<?> sub,
+			List<List<Integer>> occurrences, boolean resetWiring, int iterations, double alpha)
+	{
+		InstanceBuffers buffers = null;
+		try {
+			buffers = substitute(graph, degrees, OccurrenceStore.of(occurrences));
+		} catch(TooManyRWLinksException e)
+		{
+			Global.log().info("Number of links rewritten too high (with "+occurrences.size()+" instances). Returning Double.POSTIVE_INFINITY.");
+			return Double.POSITIVE_INFINITY;
+		}
+		
+		List<D> sDegrees = occurrences.isEmpty() ? 
+				degrees : buffers.dDegrees(subbedSize(graph, occurrences));
+		
+		double multiEdges = multiEdges(buffers);
+		double wiring = wiringBits(sub, buffers, resetWiring);
+		
+		return sizeBetaInst(graph, sub, occurrences.size(), sDegrees, multiEdges, wiring, iterations, alpha);
+	}
+	
+	/**
+	 * As sizeBeta(UGraph, List, UGraph, List, boolean, int, double), for the 
+	 * occurrences in the current prefix of a substitution.
+	 */
+	static double sizeBeta(PrefixSubstitution prefix, UGraph<?> sub, boolean resetWiring, int iterations, double alpha)
+	{
+		return sizeBetaInst(prefix.graph(), sub, prefix.size(), prefix.degrees(), 
+				prefix.multiEdgeBits(), prefix.wiringBits(resetWiring), iterations, alpha);
+	}
+	
+	/**
+	 * As sizeBeta(DGraph, List, DGraph, List, boolean, int, double), for the 
+	 * occurrences in the current prefix of a substitution.
+	 */
+	static double sizeBeta(PrefixSubstitution prefix, DGraph<?> sub, boolean resetWiring, int iterations, double alpha)
+	{
+		if(maxRW > 0 && prefix.numRewired() > maxRW)
+		{
+			Global.log().info("Number of links rewritten too high (with "+prefix.size()+" instances). Returning Double.POSTIVE_INFINITY.");
+			return Double.POSITIVE_INFINITY;
+		}
+		
+		return sizeBetaInst(prefix.graph(), sub, prefix.size(), prefix.dDegrees(), 
+				prefix.multiEdgeBits(), prefix.wiringBits(resetWiring), iterations, alpha);
+	}
+	
+	/**
+	 * The part of the instance-loop DS model that is the same for all 
+	 * versions.
+	 * 
+	 * @param n The number of occurrences.
+	 * @param sDegrees The degrees of the subbed graph: a List<D> if sub is 
+	 * 	directed, a List<Integer> if it isn't.
+	 */
+	@SuppressWarnings("unchecked")
+	private static double sizeBetaInst(Graph<?> graph, Graph<?> sub, int n, List<?> sDegrees,
+			double multiEdges, double wiring, int iterations, double alpha)
+	{
+		int numThreads = Global.numThreads();
+		
+		FrequencyModel<String> rest = new FrequencyModel<String>();
+		
+		rest.add("multi-edges", multiEdges);
+		
+		double bound = betaBound(sub, sDegrees, iterations, alpha, numThreads).first();
+		
+		// * parameters
+		if(sub instanceof DGraph<?>)
+		{
+			rest.add("sub", DegreeSequenceModel.prior((DGraph<?>)sub, Prior.COMPLETE));
+			rest.add("subbed", DegreeSequenceModel.prior((List<D>)sDegrees, Prior.COMPLETE));
+		} else
+		{
+			rest.add("sub", DegreeSequenceModel.prior((UGraph<?>)sub, Prior.COMPLETE));
+			rest.add("subbed", DegreeSequenceModel.priorDegrees((List<Integer>)sDegrees, Prior.COMPLETE));
+		}
+		
+		long subbedSize = (long)graph.size() - (sub.size() - 1) * (long)n;
+		
+		assert(sDegrees.size() == subbedSize);
+		
+		rest.add("labels", Functions.prefix(n) + log2Choose(n, subbedSize)); 
+		rest.add("wiring", wiring);
+		rest.add("insertions", log2Factorial(graph.size()) - log2Factorial(subbedSize));
+		
+		return bound + rest.total();
+	}
+	
+	/**
+	 * As sizeERInst(UGraph, UGraph, List, boolean), for the occurrences in
+	 * the current prefix of a substitution.
+	 */
+	static double sizeERInst(PrefixSubstitution prefix, UGraph<?> sub, boolean resetWiring)
+	{
+		return sizeERInst(prefix, sub, resetWiring, true);
+	}
+	
+	/**
+	 * @param ordered Whether to encode the multi-edges in the order of the 
+	 * 	instance loop, which gives the same result to the bit, but takes time 
+	 * 	linear in the number of rewired links. If false, the codelength of the
+	 * 	multi-edges is computed in constant time (see 
+	 * 	PrefixSubstitution.multiEdgeBitsTotal()).
+	 */
+	static double sizeERInst(PrefixSubstitution prefix, UGraph<?> sub, boolean resetWiring, boolean ordered)
+	{		
+		Graph<?> graph = prefix.graph();
+		int n = prefix.size();
+		
+		FrequencyModel<String> bits = new FrequencyModel<String>();
+		
+		bits.add("sub", erModel.codelength(sub));
+
+		Pair<Long, Long> pair = subbedERInstances(graph, sub, n, 
+				prefix.numRewired(), prefix.numMultiEdges());
+		
+		bits.add("subbed", ERSimpleModel.undirected(pair.first(), pair.second(), true));
+		bits.add("multi-edges", ordered ? prefix.multiEdgeBits() : prefix.multiEdgeBitsTotal());
+		bits.add("wiring", prefix.wiringBits(resetWiring));
+		
+		int subbedSize = graph.size() - (sub.size() - 1) * n;
+				
+		bits.add("insertions", log2Factorial(graph.size()) - log2Factorial(subbedSize));
+		bits.add("labels", Functions.prefix(n) + log2Choose(n, subbedSize)); 
+		
+		return bits.total();
+	}
+	
+	/**
+	 * As sizeERInst(DGraph, DGraph, List, boolean), for the occurrences in
+	 * the current prefix of a substitution.
+	 */
+	static double sizeERInst(PrefixSubstitution prefix, DGraph<?> sub, boolean resetWiring)
+	{
+		return sizeERInst(prefix, sub, resetWiring, true);
+	}
+	
+	/**
+	 * As sizeERInst(PrefixSubstitution, UGraph, boolean, boolean).
+	 */
+	static double sizeERInst(PrefixSubstitution prefix, DGraph<?> sub, boolean resetWiring, boolean ordered)
+	{		
+		Graph<?> graph = prefix.graph();
+		int n = prefix.size();
+		
+		FrequencyModel<String> bits = new FrequencyModel<String>();
+		
+		bits.add("sub", erModel.codelength(sub));
+		
+		if(maxRW > 0 && prefix.numRewired() > maxRW)
+		{
+			Global.log().info("Number of links rewritten too high (with " + n + " instances). Returning Double.POSTIVE_INFINITY.");
+			return Double.POSITIVE_INFINITY;
+		}
+
+		Pair<Long, Long> pair = subbedERInstances(graph, sub, n, 
+				prefix.numRewired(), prefix.numMultiEdges());
+		
+		bits.add("subbed", ERSimpleModel.directed(pair.first(), pair.second(), true));
+		bits.add("multi-edges", ordered ? prefix.multiEdgeBits() : prefix.multiEdgeBitsTotal());
+		bits.add("wiring", prefix.wiringBits(resetWiring));
+		
+		long subbedSize = ((long)graph.size()) - (sub.size() - 1) * (long)n;
+				
+		bits.add("insertions", log2Factorial(graph.size()) - log2Factorial(subbedSize));
+		bits.add("labels", Functions.prefix(n) + log2Choose(n, subbedSize)); 
+		
+		return bits.total();
+	}
+
+	public static <L> double wiringBitsDirect(Graph<L> graph, Graph<?> sub, List<List<Integer>> occurrences,
+			boolean reset)
+	{
+		OnlineModel<Integer> om = new OnlineModel<Integer>(Series.series(sub.size()));
+		
+		double wiringBits = 0.0;
+		
+		OccurrenceStore store = OccurrenceStore.of(occurrences);
+		for (int occurrence : series(store.size()))
+		{			
+			if(reset)
+				om = new OnlineModel<Integer>(Series.series(sub.size()));
+			
+			// * The index of the node within the occurrence
+			for (int indexInSubgraph : series(store.motifSize()))
+			{
+				Node<L> node = graph.get(store.node(occurrence, indexInSubgraph));
+				
+				for(Link<L> link : node.links())
+				{
+					Node<L> neighbor = link.other(node);
+					
+					if(! store.contains(occurrence, neighbor.index()))
+						wiringBits += - log2(om.observe(indexInSubgraph));
 				}
 			}
 		}	
@@ -1198,75 +1890,10 @@ public class MotifModel
 		if(occurrences.isEmpty())
 			return degrees;
 
-		List<Integer> subbedDegrees = new ArrayList<Integer>(degrees);
-		
-		// * Which nodes have been mapped to which instance node 
-		Map<Integer, Integer> map = new HashMap<Integer, Integer>();
-		// * Links that have been rewired. We store the old link (ie. the left 
-		//   and right indices in the original graph). 
-		Set<Pair<Integer, Integer>> rewLinks = 
-				new LinkedHashSet<Pair<Integer, Integer>>();
+		InstanceBuffers buffers = substitute(graph, degrees, OccurrenceStore.of(occurrences));
+		copy(buffers, multiEdges, rewiring);
 		
-		for(List<Integer> occurrence : occurrences)
-		{	
-
-			List<Integer> rw = new LinkedList<Integer>(); 
-			// * Remove the occurrence (first node becomes instance node)
-			for(int index : occurrence.subList(1, occurrence.size()))
-				subbedDegrees.set(index, -1);
-			subbedDegrees.set(occurrence.get(0), 0);
-
-			for(int index : occurrence)
-				map.put(index, occurrence.get(0));
-			
-			// * Remove all links linking into an occurrence
-			for(int i : series(occurrence.size()))
-			{
-				int index = occurrence.get(i);
-				for(UNode<?> node : graph.get(index).neighbors())
-					if(! occurrence.contains(node.index()))
-					{		
-						subbedDegrees.set(node.index(), 
-							subbedDegrees.get(node.index()) - 1);
-						
-						rewLinks.add(ordered(index, node.index()));
-						
-						rw.add(i);						
-					}
-			}
-				
-			rewiring.add(rw);
-		}
-		
-		// * set occurrence nodes back to 0
-		for(List<Integer> occurrence : occurrences)
-			subbedDegrees.set(occurrence.get(0), 0);
-				
-		// * convert the rewritten links to new indices, and build a 
-		//  frequencymodel 
-		for(Pair<Integer, Integer> link : rewLinks)
-		{
-			int f = link.first(), s = link.second();
-			int a = map.containsKey(f) ? map.get(f) : f;
-			int b = map.containsKey(s) ? map.get(s) : s;
-			
-			multiEdges.add(ordered(a, b));
-		}
-		
-		// * Add each rewritten link _once_
-		for(Pair<Integer, Integer> link : multiEdges.tokens())
-		{
-			subbedDegrees.set(link.first(),  subbedDegrees.get(link.first())  + 1);
-			subbedDegrees.set(link.second(), subbedDegrees.get(link.second()) + 1);
-		}
-						
-		List<Integer> res = new ArrayList<Integer>(
-			graph.size() - occurrences.size() * (occurrences.get(0).size() - 1));
-		for(int degree : subbedDegrees)
-			if(degree >= 0)
-				res.add(degree);
-
-		return res;
+		return buffers.degrees(subbedSize(graph, occurrences));
 	}
 	
 	/**
@@ -1294,104 +1921,10 @@ public class MotifModel
 		if(occurrences.isEmpty())
 			return degrees;
 	
-		List<D> subbedDegrees = new ArrayList<D>(degrees.size());
-		for(D degree : degrees)
-			subbedDegrees.add(new D(degree.in(), degree.out()));
-		
-		// * Which nodes have been mapped to which instance node 
-		Map<Integer, Integer> map = new HashMap<Integer, Integer>();
-		// * Links that have been rewired. We store the old link (ie. the left 
-		//   and right indices in the original graph). 
-		Set<Pair<Integer, Integer>> rewLinks = 
-				new LinkedHashSet<Pair<Integer, Integer>>();
+		InstanceBuffers buffers = substitute(graph, degrees, OccurrenceStore.of(occurrences));
+		copy(buffers, multiEdges, rewiring);
 		
-		for(List<Integer> occurrence : occurrences)
-		{	
-	
-			List<Integer> rw = new LinkedList<Integer>(); 
-			// * Remove the occurrence (first node becomes instance node)
-			for(int index : occurrence.subList(1, occurrence.size()))
-				subbedDegrees.set(index, null);
-			subbedDegrees.set(occurrence.get(0), new D(0, 0));
-	
-			for(int index : occurrence)
-				map.put(index, occurrence.get(0));
-			
-			// * Remove all links linking into an occurrence
-			for(int i : series(occurrence.size()))
-			{
-				int index = occurrence.get(i);
-				for(DNode<?> node : graph.get(index).out())
-					if(! occurrence.contains(node.index()))
-					{		
-						D old = subbedDegrees.get(node.index());
-						if(old != null)
-							subbedDegrees.set(node.index(), new D(old.in() - 1, old.out()));
-						
-						rewLinks.add(Pair.p(index, node.index()));
-						
-						if(maxRW > 0 && rewLinks.size() > maxRW)
-							throw new TooManyRWLinksException();
-						
-						rw.add(i);						
-					}
-				
-				for(DNode<?> node : graph.get(index).in())
-					if(! occurrence.contains(node.index()))
-					{		
-						D old = subbedDegrees.get(node.index());
-						if(old != null)
-							subbedDegrees.set(node.index(), new D(old.in(), old.out() - 1));
-							
-						rewLinks.add(Pair.p(node.index(), index));
-						if(maxRW > 0 && rewLinks.size() > maxRW)
-							throw new TooManyRWLinksException();
-						
-						rw.add(i);						
-					}
-			}
-				
-			rewiring.add(rw);
-		}
-		
-		// * set occurrence nodes back to 0
-		for(List<Integer> occurrence : occurrences)
-			subbedDegrees.set(occurrence.get(0), new D(0, 0));
-				
-		// * convert the rewritten links to new indices, and build a 
-		//   frequencymodel 
-		int size = 0;
-		for(Pair<Integer, Integer> link : rewLinks)
-		{
-			int f = link.first(), s = link.second();
-			int a = map.containsKey(f) ? map.get(f) : f;
-			int b = map.containsKey(s) ? map.get(s) : s;
-			
-			multiEdges.add(Pair.p(a, b));
-			
-			size ++;
-		}
-		
-		// * Add each rewritten link _once_
-		for(Pair<Integer, Integer> link : multiEdges.tokens())
-		{
-			D old;
-			old = subbedDegrees.get(link.first());
-			subbedDegrees.set(link.first(), new D(old.in(), old.out() + 1));
-			
-			old = subbedDegrees.get(link.second());
-			subbedDegrees.set(link.second(), new D(old.in() + 1, old.out()));
-		}
-						
-		List<D> res = new ArrayList<D>(
-			graph.size() - occurrences.size() * (occurrences.get(0).size() - 1));
-		
-		for(D degree : subbedDegrees)
-			if(degree != null)
-				res.add(degree);
-	
-	
-		return res;
+		return buffers.dDegrees(subbedSize(graph, occurrences));
 	}
 
 
@@ -1415,152 +1948,262 @@ public class MotifModel
 			FrequencyModel<Pair<Integer, Integer>> multiEdges,
 			List<List<Integer>> rewiring)
 	{
-		if(occurrences.isEmpty())
+		InstanceBuffers buffers = substitute(graph, null, OccurrenceStore.of(occurrences));
+		copy(buffers, multiEdges, rewiring);
+		
+		return subbedERInstances(graph, sub, occurrences, buffers);
+	}
+	
+	/**
+	 * Computes the size and number of links in the template graph, by looping 
+	 * only over the instances. This method should be fast for large graphs with
+	 * few instances
+	 * 
+	 * @param graph
+	 * @param sub
+	 * @param occurrences
+	 * @param multiEdges An empty frequencymodel receiving how often certain edges in 
+	 * the template graph should be repeated (one occurrence in the fm no repeats). 
+	 * For performance reasons, the actual indices refer to the old graph, not 
+	 * the template graph. 
+	 * @param rewiring An empty list, receiving the sequence of rewiring integers.
+	 * @return
+	 */
+	public static Pair<Long, Long> subbedERInstances(
+			DGraph<?> graph, DGraph<?> sub, List<List<Integer>> occurrences,
+			FrequencyModel<Pair<Integer, Integer>> multiEdges,
+			List<List<Integer>> rewiring)
+	{
+		InstanceBuffers buffers = substitute(graph, null, OccurrenceStore.of(occurrences));
+		copy(buffers, multiEdges, rewiring);
+		
+		return subbedERInstances(graph, sub, occurrences, buffers);
+	}
+	
+	/**
+	 * The size and number of links of the template graph, from the rewired 
+	 * links and multi-edges in the buffers.
+	 */
+	private static Pair<Long, Long> subbedERInstances(
+			Graph<?> graph, Graph<?> sub, List<List<Integer>> occurrences,
+			InstanceBuffers buffers)
+	{
+		return subbedERInstances(graph, sub, occurrences.size(), 
+				buffers.numRewired(), buffers.numMultiEdges());
+	}
+	
+	/**
+	 * The size and number of links of the template graph, for n occurrences 
+	 * with the given numbers of rewired links and multi-edges.
+	 */
+	private static Pair<Long, Long> subbedERInstances(
+			Graph<?> graph, Graph<?> sub, int n, int numRewired, int numMultiEdges)
+	{
+		if(n == 0)
 			return p((long)graph.size(), graph.numLinks());
 		
-		long subbedSize = graph.size() - occurrences.size() * (occurrences.get(0).size() - 1);
-		long subbedNumLinks = graph.numLinks() - sub.numLinks() * occurrences.size();
-		// - we still need to remove multiple links from subbedNumLinks
+		long subbedSize = graph.size() - n * (sub.size() - 1);
+		long subbedNumLinks = graph.numLinks() - sub.numLinks() * n;
+		
+		// * Remove the rewired links, and add each rewritten link _once_
+		subbedNumLinks -= numRewired;
+		subbedNumLinks += numMultiEdges;
+
+		return Pair.p(subbedSize, subbedNumLinks);
+	}
 	
-		// * Which nodes have been mapped to which instance node 
-		Map<Integer, Integer> map = new HashMap<Integer, Integer>();
-		// * Links that have been rewired. We store the old link (ie. the left 
-		//   and right indices in the original graph). 
-		Set<Pair<Integer, Integer>> rewLinks = 
-				new LinkedHashSet<Pair<Integer, Integer>>();
+	/**
+	 * The instance loop behind subbedDegrees and subbedERInstances. This 
+	 * collects the rewired links, the multi-edges and the rewiring into the 
+	 * buffers of the current thread, which are returned (and are only valid
+	 * until the next call from the same thread). For performance reasons, the 
+	 * indices of the multi-edges refer to the old graph, not the template 
+	 * graph.
+	 * 
+	 * @param degrees The degrees of the graph. If null, the degrees of the 
+	 * 	template graph are not computed.
+	 */
+	private static InstanceBuffers substitute(
+			UGraph<?> graph, List<Integer> degrees, OccurrenceStore store)
+	{
+		InstanceBuffers buffers = degrees == null ? 
+				InstanceBuffers.instances() : InstanceBuffers.undirected(degrees);
+		int k = store.motifSize();
 		
-		for(List<Integer> occurrence : occurrences)
+		for(int occurrence = 0; occurrence < store.size(); occurrence++)
 		{	
-			List<Integer> rw = new LinkedList<Integer>(); 
-			for(int index : occurrence)
-				map.put(index, occurrence.get(0));
+			int first = store.node(occurrence, 0);
+
+			// * Remove the occurrence (first node becomes instance node)
+			if(degrees != null)
+			{
+				for(int j = 1; j < k; j++)
+					buffers.remove(store.node(occurrence, j));
+				buffers.reset(first);
+			}
+
+			for(int j = 0; j < k; j++)
+				buffers.map(store.node(occurrence, j), first);
 			
 			// * Remove all links linking into an occurrence
-			for(int i : series(occurrence.size()))
+			for(int i = 0; i < k; i++)
 			{
-				int index = occurrence.get(i);
+				int index = store.node(occurrence, i);
 				for(UNode<?> node : graph.get(index).neighbors())
-					if(! occurrence.contains(node.index()))
+					if(! store.contains(occurrence, node.index()))
 					{		
-						rewLinks.add(ordered(index, node.index()));
-						rw.add(i);						
+						if(degrees != null)
+							buffers.decrement(node.index());
+						
+						buffers.rewire(InstanceBuffers.ordered(index, node.index()));
+						buffers.wire(i);
 					}
 			}
 				
-			rewiring.add(rw);
+			buffers.endOccurrence();
 		}
 		
-		subbedNumLinks -= rewLinks.size();
+		// * set occurrence nodes back to 0
+		if(degrees != null)
+			for(int occurrence = 0; occurrence < store.size(); occurrence++)
+				buffers.reset(store.node(occurrence, 0));
 				
-		// * convert the rewritten links to new indices, and build a 
-		//  frequencymodel 
-		for(Pair<Integer, Integer> link : rewLinks)
+		// * convert the rewritten links to new indices, and count them
+		for(int index = 0; index < buffers.numRewired(); index++)
 		{
-			int f = link.first(), s = link.second();
-			int a = map.containsKey(f) ? map.get(f) : f;
-			int b = map.containsKey(s) ? map.get(s) : s;
+			long link = buffers.rewired(index);
+			int a = buffers.mapped(InstanceBuffers.first(link));
+			int b = buffers.mapped(InstanceBuffers.second(link));
 			
-			multiEdges.add(ordered(a, b));
+			buffers.multiEdge(InstanceBuffers.ordered(a, b));
 		}
 		
 		// * Add each rewritten link _once_
-		for(Pair<Integer, Integer> link : multiEdges.tokens())
-			subbedNumLinks ++;
-
-		return Pair.p(subbedSize, subbedNumLinks);
+		if(degrees != null)
+			for(int index = 0; index < buffers.numMultiEdges(); index++)
+				buffers.addLink(index);
+		
+		return buffers;
 	}
 	
 	/**
-	 * Computes the size and number of links in the template graph, by looping 
-	 * only over the instances. This method should be fast for large graphs with
-	 * few instances
+	 * The instance loop behind subbedDegrees and subbedERInstances (see the
+	 * undirected version).
 	 * 
-	 * @param graph
-	 * @param sub
-	 * @param occurrences
-	 * @param multiEdges An empty frequencymodel receiving how often certain edges in 
-	 * the template graph should be repeated (one occurrence in the fm no repeats). 
-	 * For performance reasons, the actual indices refer to the old graph, not 
-	 * the template graph. 
-	 * @param rewiring An empty list, receiving the sequence of rewiring integers.
-	 * @return
+	 * @param degrees The degrees of the graph. If null, the degrees of the 
+	 * 	template graph are not computed.
 	 */
-	public static Pair<Long, Long> subbedERInstances(
-			DGraph<?> graph, DGraph<?> sub, List<List<Integer>> occurrences,
-			FrequencyModel<Pair<Integer, Integer>> multiEdges,
-			List<List<Integer>> rewiring)
+	private static InstanceBuffers substitute(
+			DGraph<?> graph, List<D> degrees, OccurrenceStore store)
 	{
-		if(occurrences.isEmpty())
-			return p((long)graph.size(), graph.numLinks());
+		InstanceBuffers buffers = degrees == null ? 
+				InstanceBuffers.instances() : InstanceBuffers.directed(degrees);
+		int k = store.motifSize();
 		
-		long subbedSize = graph.size() - occurrences.size() * (occurrences.get(0).size() - 1);
-		long subbedNumLinks = graph.numLinks() - sub.numLinks() * occurrences.size();
-		// - we still need to remove multiple links from subbedNumLinks
+		for(int occurrence = 0; occurrence < store.size(); occurrence++)
+		{	
+			int first = store.node(occurrence, 0);
 	
-		// * Which nodes have been mapped to which instance node 
-		Map<Integer, Integer> map = new HashMap<Integer, Integer>();
-		// * Links that have been rewired. We store the old link (ie. the left 
-		//   and right indices in the original graph). 
-		Set<Pair<Integer, Integer>> rewLinks = 
-				new LinkedHashSet<Pair<Integer, Integer>>();
-		
-		for(List<Integer> occurrence : occurrences)
-		{	 
-
-			List<Integer> rw = new LinkedList<Integer>(); 
-			for(int index : occurrence)
-				map.put(index, occurrence.get(0));
+			// * Remove the occurrence (first node becomes instance node)
+			if(degrees != null)
+			{
+				for(int j = 1; j < k; j++)
+					buffers.remove(store.node(occurrence, j));
+				buffers.reset(first);
+			}
+	
+			for(int j = 0; j < k; j++)
+				buffers.map(store.node(occurrence, j), first);
 			
 			// * Remove all links linking into an occurrence
-			for(int i : series(occurrence.size()))
+			for(int i = 0; i < k; i++)
 			{
-				int index = occurrence.get(i);
+				int index = store.node(occurrence, i);
 				for(DNode<?> node : graph.get(index).out())
-					if(! occurrence.contains(node.index()))
+					if(! store.contains(occurrence, node.index()))
 					{		
-						rewLinks.add(p(index, node.index()));
-						if(maxRW > 0 && rewLinks.size() > maxRW)
+						if(degrees != null)
+							buffers.decrementIn(node.index());
+						
+						int rewired = buffers.rewire(InstanceBuffers.pair(index, node.index()));
+						if(maxRW > 0 && rewired > maxRW)
 							throw new TooManyRWLinksException();
 						
-						rw.add(i);						
+						buffers.wire(i);
 					}
 				
 				for(DNode<?> node : graph.get(index).in())
-					if(! occurrence.contains(node.index()))
+					if(! store.contains(occurrence, node.index()))
 					{		
-						rewLinks.add(p(node.index(), index));
-						
-						if(maxRW > 0 && rewLinks.size() > maxRW)
+						if(degrees != null)
+							buffers.decrementOut(node.index());
+							
+						int rewired = buffers.rewire(InstanceBuffers.pair(node.index(), index));
+						if(maxRW > 0 && rewired > maxRW)
 							throw new TooManyRWLinksException();
 						
-						rw.add(i);						
+						buffers.wire(i);
 					}
 			}
-			
-			rewiring.add(rw);
+				
+			buffers.endOccurrence();
 		}
 		
-		subbedNumLinks -= rewLinks.size();
+		// * set occurrence nodes back to 0
+		if(degrees != null)
+			for(int occurrence = 0; occurrence < store.size(); occurrence++)
+				buffers.reset(store.node(occurrence, 0));
 				
-		// * convert the rewritten links to new indices, and build a 
-		//  frequencymodel 
-		int size = 0;
-		for(Pair<Integer, Integer> link : rewLinks)
+		// * convert the rewritten links to new indices, and count them
+		for(int index = 0; index < buffers.numRewired(); index++)
 		{
-			int f = link.first(), s = link.second();
-			int a = map.containsKey(f) ? map.get(f) : f;
-			int b = map.containsKey(s) ? map.get(s) : s;
-						
-			multiEdges.add(p(a, b));
+			long link = buffers.rewired(index);
+			int a = buffers.mapped(InstanceBuffers.first(link));
+			int b = buffers.mapped(InstanceBuffers.second(link));
 			
-			size ++;
+			buffers.multiEdge(InstanceBuffers.pair(a, b));
 		}
-				
+		
 		// * Add each rewritten link _once_
-		for(Pair<Integer, Integer> link : multiEdges.tokens())
-			subbedNumLinks ++;
-
-		return Pair.p(subbedSize, subbedNumLinks);
+		if(degrees != null)
+			for(int index = 0; index < buffers.numMultiEdges(); index++)
+				buffers.addLink(index);
+		
+		return buffers;
+	}
+	
+	/**
+	 * Copies the multi-edges and the rewiring from the buffers to the 
+	 * (empty) frequency model and list.
+	 */
+	private static void copy(InstanceBuffers buffers, 
+			FrequencyModel<Pair<Integer, Integer>> multiEdges,
+			List<List<Integer>> rewiring)
+	{
+		for(int index = 0; index < buffers.numMultiEdges(); index++)
+		{
+			long link = buffers.multiEdgeAt(index);
+			Pair<Integer, Integer> pair = 
+					Pair.p(InstanceBuffers.first(link), InstanceBuffers.second(link));
+			
+			for(int c = 0; c < buffers.count(index); c++)
+				multiEdges.add(pair);
+		}
+		
+		for(int occurrence = 0; occurrence < buffers.numOccurrences(); occurrence++)
+		{
+			List<Integer> rw = new ArrayList<Integer>(
+					buffers.to(occurrence) - buffers.from(occurrence));
+			for(int index = buffers.from(occurrence); index < buffers.to(occurrence); index++)
+				rw.add(buffers.wireAt(index));
+			
+			rewiring.add(rw);
+		}
+	}
+	
+	private static int subbedSize(Graph<?> graph, List<List<Integer>> occurrences)
+	{
+		return graph.size() - occurrences.size() * (occurrences.get(0).size() - 1);
 	}
 	
 	/**
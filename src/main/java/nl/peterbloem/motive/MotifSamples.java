@@ -0,0 +1,332 @@
+package nl.peterbloem.motive;
+
+import static nl.peterbloem.kit.Series.series;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+
+import org.nodes.DGraph;
+import org.nodes.Graph;
+import org.nodes.Link;
+import org.nodes.UGraph;
+import org.nodes.models.DSequenceEstimator;
+import org.nodes.models.USequenceEstimator;
+
+import nl.peterbloem.kit.Global;
+
+/**
+ * A memo of the importance samples for the motif side of the DS model (see
+ * MotifModel.sizeBeta()).
+ *
+ * The motif doesn't change between the calls that the search over the
+ * number of instances makes, so its samples only need to be drawn once. The
+ * samples are keyed by the structure of the motif (its size and its links,
+ * ignoring labels), so the motif should be in canonical order, as it is
+ * when it comes from one of the extractors.
+ *
+ * If a directory is given, the samples are also stored there, one file per
+ * motif, and reused by later runs.
+ *
+ * @author Peter
+ */
+public class MotifSamples
+{
+	private static final int VERSION = 1;
+
+	private File directory;
+
+	private ConcurrentMap<String, List<Double>> samples =
+			new ConcurrentHashMap<String, List<Double>>();
+
+	// * The call that is currently extending the samples for a key, if any. 
+	//   Calls for the same motif wait for it instead of drawing the same 
+	//   samples, while calls for other motifs go ahead. 
+	private ConcurrentMap<String, CompletableFuture<List<Double>>> pending =
+			new ConcurrentHashMap<String, CompletableFuture<List<Double>>>();
+
+	/**
+	 * Keeps the samples in memory only.
+	 */
+	public MotifSamples()
+	{
+		this(null);
+	}
+
+	/**
+	 * @param directory The directory to store the samples in. If null, they
+	 * 	are kept in memory only.
+	 */
+	public MotifSamples(File directory)
+	{
+		this.directory = directory;
+	}
+
+	/**
+	 * The log-samples of the DS estimator for the given motif. If at least the
+	 * given number of samples is available, the first ones are returned.
+	 * Otherwise, the missing samples are drawn (and stored).
+	 *
+	 * This method is thread-safe. Concurrent calls for the same motif wait
+	 * for each other, so that the first ones returned are always the same.
+	 *
+	 * @param executor The executor to sample on. May be null.
+	 */
+	public List<Double> logSamples(Graph<?> sub, int iterations, int numThreads, ExecutorService executor)
+	{
+		String key = key(sub);
+
+		List<Double> result = samples.get(key);
+		while(result == null || result.size() < iterations)
+		{
+			CompletableFuture<List<Double>> future = new CompletableFuture<List<Double>>();
+			CompletableFuture<List<Double>> previous = pending.putIfAbsent(key, future);
+			
+			if(previous == null)
+			{
+				try
+				{
+					result = extend(key, sub, iterations, numThreads, executor);
+					future.complete(result);
+				} finally
+				{
+					// - if extend() failed, the waiting calls fail as well
+					if(! future.isDone())
+						future.completeExceptionally(new IllegalStateException("Could not draw the samples for motif " + key + "."));
+					pending.remove(key, future);
+				}
+			} else
+			{
+				// * Another call is drawing samples for this motif. It may not 
+				//   draw as many as we need, in which case we try again. 
+				// - join() lets a fork-join pool compensate for the waiting 
+				//   thread, so the other call's sampling isn't starved
+				try
+				{
+					result = previous.join();
+				} catch(CompletionException e)
+				{
+					throw new RuntimeException(e.getCause());
+				}
+			}
+		}
+
+		return result.size() == iterations ? result : result.subList(0, iterations);
+	}
+
+	/**
+	 * Makes at least the given number of samples available for a key, by
+	 * loading them or drawing the missing ones. Only one call per key runs
+	 * at a time (see logSamples()).
+	 */
+	private List<Double> extend(String key, Graph<?> sub, int iterations, int numThreads, ExecutorService executor)
+	{
+		// * An earlier call may have drawn the samples by now
+		List<Double> result = samples.get(key);
+		if(result == null && directory != null)
+			result = load(key);
+
+		if(result == null || result.size() < iterations)
+		{
+			List<Double> extended = new ArrayList<Double>(iterations);
+			if(result != null)
+				extended.addAll(result);
+
+			// * The samples are independent, so we only need to draw the 
+			//   missing ones
+			extended.addAll(draw(sub, iterations - extended.size(), numThreads, executor));
+
+			result = Collections.unmodifiableList(extended);
+
+			if(directory != null)
+				store(key, result);
+		}
+
+		// * Never replace a list by a shorter one
+		List<Double> current = samples.get(key);
+		if(current == null || current.size() < result.size())
+			samples.put(key, result);
+
+		return result;
+	}
+
+	/**
+	 * Draws new log-samples for the given motif.
+	 *
+	 * @param executor The executor to sample on. May be null.
+	 */
+	@SuppressWarnings("unchecked")
+	public static List<Double> draw(Graph<?> sub, int iterations, int numThreads, ExecutorService executor)
+	{
+		if(sub instanceof DGraph<?>)
+		{
+			DSequenceEstimator<String> model = new DSequenceEstimator<String>((DGraph<String>) sub);
+			model.nonuniform(iterations, numThreads, executor);
+			return model.logSamples();
+		}
+
+		USequenceEstimator<String> model = new USequenceEstimator<String>((UGraph<String>) sub);
+		model.nonuniform(iterations, numThreads, executor);
+		return model.logSamples();
+	}
+
+	/**
+	 * The number of motifs with samples in memory.
+	 */
+	public int size()
+	{
+		return samples.size();
+	}
+
+	/**
+	 * A description of the structure of a graph: whether it's directed, its
+	 * size and its links in sorted order.
+	 */
+	public static String key(Graph<?> graph)
+	{
+		boolean directed = graph instanceof DGraph<?>;
+
+		// - a sorted set would merge multiple edges, so we sort a list
+		List<Long> links = new ArrayList<Long>((int)graph.numLinks());
+		for(Link<?> link : graph.links())
+		{
+			int first = link.first().index(), second = link.second().index();
+			if(! directed && first > second)
+			{
+				int t = first;
+				first = second;
+				second = t;
+			}
+
+			links.add(((long) first << 32) | second);
+		}
+		Collections.sort(links);
+
+		StringBuilder key = new StringBuilder();
+		key.append(directed ? 'd' : 'u').append(graph.size());
+		for(long link : links)
+			key.append(' ').append(link >>> 32).append('-').append((int) link);
+
+		return key.toString();
+	}
+
+	/**
+	 * The file for a key, named by the SHA-256 digest of the key, so that 
+	 * different motifs don't overwrite each other's files.
+	 */
+	private File file(String key)
+	{
+		return new File(directory, digest(key) + ".samples");
+	}
+	
+	/**
+	 * The SHA-256 digest of a string, as a hexadecimal string.
+	 */
+	static String digest(String key)
+	{
+		try
+		{
+			byte[] hash = MessageDigest.getInstance("SHA-256").digest(key.getBytes("UTF-8"));
+			
+			StringBuilder hex = new StringBuilder(2 * hash.length);
+			for(byte b : hash)
+				hex.append(String.format("%02x", b));
+			
+			return hex.toString();
+		} catch (NoSuchAlgorithmException e)
+		{
+			// - every Java platform is required to support SHA-256 and UTF-8
+			throw new RuntimeException(e);
+		} catch (UnsupportedEncodingException e)
+		{
+			throw new RuntimeException(e);
+		}
+	}
+
+	private List<Double> load(String key)
+	{
+		File file = file(key);
+		if(! file.exists())
+			return null;
+
+		try
+		{
+			DataInputStream in = new DataInputStream(
+					new BufferedInputStream(new FileInputStream(file)));
+			try
+			{
+				// * Check for a version change (and, to be safe, the key)
+				if(in.readInt() != VERSION || ! key.equals(in.readUTF()))
+					return null;
+
+				int n = in.readInt();
+				List<Double> result = new ArrayList<Double>(n);
+				for(int i : series(n))
+					result.add(in.readDouble());
+
+				return Collections.unmodifiableList(result);
+			} finally
+			{
+				in.close();
+			}
+		} catch(IOException e)
+		{
+			Global.log().warning("Could not read motif samples from " + file + " (trace: " + e + ").");
+			return null;
+		}
+	}
+
+	/**
+	 * Writes the samples under a temporary name first, so that an interrupted
+	 * write doesn't leave a broken file.
+	 */
+	private void store(String key, List<Double> result)
+	{
+		File file = file(key);
+		File temp = new File(file.getPath() + "." + Thread.currentThread().getId() + ".tmp");
+
+		try
+		{
+			directory.mkdirs();
+
+			DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(new FileOutputStream(temp)));
+			try
+			{
+				out.writeInt(VERSION);
+				out.writeUTF(key);
+
+				out.writeInt(result.size());
+				for(double sample : result)
+					out.writeDouble(sample);
+			} finally
+			{
+				out.close();
+			}
+
+			Files.move(temp.toPath(), file.toPath(),
+					StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch(IOException e)
+		{
+			Global.log().warning("Could not write motif samples to " + file + " (trace: " + e + ").");
+		}
+	}
+}
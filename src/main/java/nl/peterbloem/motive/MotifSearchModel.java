@@ -1,9 +1,21 @@
 package nl.peterbloem.motive;
 
+import static java.util.Arrays.asList;
+import static nl.peterbloem.kit.Series.series;
+
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
 
 import org.nodes.DGraph;
 import org.nodes.Graph;
@@ -114,81 +126,464 @@ public class MotifSearchModel
 		return find.size();
 	}
 	
-	public static double sizeELInst(UGraph<?> graph, final List<Integer> degrees, UGraph<?> sub, List<List<Integer>> occurrences, boolean resetWiring, int depth)
+	/**
+	 * A version of sizeBeta that takes the substitutions from a cache, so that 
+	 * they can be shared with the searches for the other null models.
+	 */
+	public static double sizeBeta(final SubstitutionCache cache, boolean resetWiring, final int iterations, final double alpha, int depth)
+	{
+		return sizeBeta(cache, resetWiring, iterations, alpha, depth, null, 1);
+	}
+	
+	public static double sizeBeta(final SubstitutionCache cache, boolean resetWiring, final int iterations, final double alpha, int depth, Executor executor, int probes)
 	{
-		Function<UGraph<?>> function = new Function<UGraph<?>>()
+		Function<Graph<?>> function = new Function<Graph<?>>()
 		{
-			public double size(UGraph<?> graph, UGraph<?> sub,
+			public double size(Graph<?> graph, Graph<?> sub,
 					List<List<Integer>> occurrences, boolean resetWiring)
 			{
-				return MotifModel.sizeEL(graph, degrees, sub, occurrences, resetWiring);
+				return MotifModel.sizeBeta(cache.get(occurrences.size()), resetWiring, iterations, alpha);
 			}
 		};
 		
-		FindPhi<UGraph<?>> find 
-			= new FindPhi<UGraph<?>>(graph, sub, occurrences, resetWiring, depth, function);
-		
-		return find.size();
+		return search(cache.graph(), cache.sub(), cache.occurrences(), resetWiring, depth, function, executor, probes);
 	}
 	
-	public static double sizeELInst(DGraph<?> graph, final List<D> degrees, DGraph<?> sub, List<List<Integer>> occurrences, boolean resetWiring, int depth)
+	/**
+	 * A version of sizeER that takes the substitutions from a cache, so that 
+	 * they can be shared with the searches for the other null models.
+	 */
+	public static double sizeER(final SubstitutionCache cache, boolean resetWiring, int depth)
+	{
+		return sizeER(cache, resetWiring, depth, null, 1);
+	}
+	
+	public static double sizeER(final SubstitutionCache cache, boolean resetWiring, int depth, Executor executor, int probes)
 	{
-		Function<DGraph<?>> function = new Function<DGraph<?>>()
+		Function<Graph<?>> function = new Function<Graph<?>>()
 		{
-			public double size(DGraph<?> graph, DGraph<?> sub,
+			public double size(Graph<?> graph, Graph<?> sub,
 					List<List<Integer>> occurrences, boolean resetWiring)
 			{
-				return MotifModel.sizeEL(graph, degrees, sub, occurrences, resetWiring);
+				return MotifModel.sizeER(cache.get(occurrences.size()), resetWiring);
 			}
 		};
 		
-		FindPhi<DGraph<?>> find 
-			= new FindPhi<DGraph<?>>(graph, sub, occurrences, resetWiring, depth, function);
-		
-		return find.size();
+		return search(cache.graph(), cache.sub(), cache.occurrences(), resetWiring, depth, function, executor, probes);
 	}
 	
-	public static double sizeERInst(UGraph<?> graph, UGraph<?> sub, List<List<Integer>> occurrences, boolean resetWiring, int depth)
+	/**
+	 * A version of sizeEL that takes the substitutions from a cache, so that 
+	 * they can be shared with the searches for the other null models.
+	 */
+	public static double sizeEL(final SubstitutionCache cache, boolean resetWiring, int depth)
+	{
+		return sizeEL(cache, resetWiring, depth, null, 1);
+	}
+	
+	public static double sizeEL(final SubstitutionCache cache, boolean resetWiring, int depth, Executor executor, int probes)
 	{
-		Function<UGraph<?>> function = new Function<UGraph<?>>()
+		Function<Graph<?>> function = new Function<Graph<?>>()
 		{
-			public double size(UGraph<?> graph, UGraph<?> sub,
+			public double size(Graph<?> graph, Graph<?> sub,
 					List<List<Integer>> occurrences, boolean resetWiring)
 			{
-				return MotifModel.sizeERInst(graph,sub, occurrences, resetWiring);
+				return MotifModel.sizeEL(cache.get(occurrences.size()), resetWiring);
 			}
 		};
 		
-		FindPhi<UGraph<?>> find 
-			= new FindPhi<UGraph<?>>(graph, sub, occurrences, resetWiring, depth, function);
+		return search(cache.graph(), cache.sub(), cache.occurrences(), resetWiring, depth, function, executor, probes);
+	}
+	
+	public static double sizeELInst(UGraph<?> graph, List<Integer> degrees, UGraph<?> sub, List<List<Integer>> occurrences, boolean resetWiring, int depth)
+	{
+		return sizeELInst(graph, degrees, sub, occurrences, resetWiring, depth, null, 1);
+	}
+	
+	public static double sizeELInst(UGraph<?> graph, List<Integer> degrees, UGraph<?> sub, List<List<Integer>> occurrences, boolean resetWiring, int depth, Executor executor, int probes)
+	{
+		OccurrenceStore store = OccurrenceStore.of(occurrences);
+		return search(graph, sub, store, resetWiring, depth, elInst(graph, degrees, store), executor, probes);
+	}
+	
+	public static double sizeELInst(DGraph<?> graph, List<D> degrees, DGraph<?> sub, List<List<Integer>> occurrences, boolean resetWiring, int depth)
+	{
+		return sizeELInst(graph, degrees, sub, occurrences, resetWiring, depth, null, 1);
+	}
+	
+	public static double sizeELInst(DGraph<?> graph, List<D> degrees, DGraph<?> sub, List<List<Integer>> occurrences, boolean resetWiring, int depth, Executor executor, int probes)
+	{
+		OccurrenceStore store = OccurrenceStore.of(occurrences);
+		return search(graph, sub, store, resetWiring, depth, elInst(graph, degrees, store), executor, probes);
+	}
+	
+	public static double sizeBetaInst(UGraph<?> graph, List<Integer> degrees, UGraph<?> sub, List<List<Integer>> occurrences, boolean resetWiring, int iterations, double alpha, int depth)
+	{
+		return sizeBetaInst(graph, degrees, sub, occurrences, resetWiring, iterations, alpha, depth, null, 1);
+	}
+	
+	public static double sizeBetaInst(UGraph<?> graph, List<Integer> degrees, UGraph<?> sub, List<List<Integer>> occurrences, boolean resetWiring, int iterations, double alpha, int depth, Executor executor, int probes)
+	{
+		OccurrenceStore store = OccurrenceStore.of(occurrences);
+		return search(graph, sub, store, resetWiring, depth, betaInst(graph, degrees, store, iterations, alpha), executor, probes);
+	}
+	
+	public static double sizeBetaInst(DGraph<?> graph, List<D> degrees, DGraph<?> sub, List<List<Integer>> occurrences, boolean resetWiring, int iterations, double alpha, int depth)
+	{
+		return sizeBetaInst(graph, degrees, sub, occurrences, resetWiring, iterations, alpha, depth, null, 1);
+	}
+	
+	public static double sizeBetaInst(DGraph<?> graph, List<D> degrees, DGraph<?> sub, List<List<Integer>> occurrences, boolean resetWiring, int iterations, double alpha, int depth, Executor executor, int probes)
+	{
+		OccurrenceStore store = OccurrenceStore.of(occurrences);
+		return search(graph, sub, store, resetWiring, depth, betaInst(graph, degrees, store, iterations, alpha), executor, probes);
+	}
+	
+	public static double sizeERInst(UGraph<?> graph, UGraph<?> sub, List<List<Integer>> occurrences, boolean resetWiring, int depth)
+	{
+		return sizeERInst(graph, sub, occurrences, resetWiring, depth, null, 1);
+	}
+	
+	public static double sizeERInst(UGraph<?> graph, UGraph<?> sub, List<List<Integer>> occurrences, boolean resetWiring, int depth, Executor executor, int probes)
+	{
+		OccurrenceStore store = OccurrenceStore.of(occurrences);
+		return search(graph, sub, store, resetWiring, depth, erInst(graph, store), executor, probes);
+	}
+	
+	/**
+	 * The codelength under the ER model for every number of occurrences: 
+	 * element n of the result is the codelength using the first n occurrences.
+	 * The minimum (see argmin()) is the exact optimum that sizeERInst searches 
+	 * for.
+	 * 
+	 * With disjoint occurrences, this is a single pass over the occurrences, 
+	 * which takes time linear in the number of links they touch. The 
+	 * codelengths are the same as those of sizeERInst up to floating point 
+	 * error (see PrefixSubstitution.multiEdgeBitsTotal()).
+	 */
+	public static double[] curveERInst(UGraph<?> graph, UGraph<?> sub, List<List<Integer>> occurrences, boolean resetWiring)
+	{
+		OccurrenceStore store = OccurrenceStore.of(occurrences);
+		
+		if(! PrefixSubstitution.disjoint(store))
+			return curve(graph, sub, store, resetWiring, erInst(graph, store));
 		
-		return find.size();
+		PrefixSubstitution prefix = PrefixSubstitution.undirected(graph, null, store);
+		
+		double[] curve = new double[store.size() + 1];
+		for(int n = 0; n <= store.size(); n++)
+		{
+			prefix.moveTo(n);
+			curve[n] = MotifModel.sizeERInst(prefix, sub, resetWiring, false);
+		}
+		
+		return curve;
 	}
 	
 	public static double sizeERInst(DGraph<?> graph, DGraph<?> sub, List<List<Integer>> occurrences, boolean resetWiring, int depth)
 	{
-		Function<DGraph<?>> function = new Function<DGraph<?>>()
+		return sizeERInst(graph, sub, occurrences, resetWiring, depth, null, 1);
+	}
+	
+	public static double sizeERInst(DGraph<?> graph, DGraph<?> sub, List<List<Integer>> occurrences, boolean resetWiring, int depth, Executor executor, int probes)
+	{
+		OccurrenceStore store = OccurrenceStore.of(occurrences);
+		return search(graph, sub, store, resetWiring, depth, erInst(graph, store), executor, probes);
+	}
+	
+	/**
+	 * As curveERInst(UGraph, UGraph, List, boolean), for directed graphs.
+	 */
+	public static double[] curveERInst(DGraph<?> graph, DGraph<?> sub, List<List<Integer>> occurrences, boolean resetWiring)
+	{
+		OccurrenceStore store = OccurrenceStore.of(occurrences);
+		
+		if(! PrefixSubstitution.disjoint(store))
+			return curve(graph, sub, store, resetWiring, erInst(graph, store));
+		
+		PrefixSubstitution prefix = PrefixSubstitution.directed(graph, null, store);
+		
+		double[] curve = new double[store.size() + 1];
+		for(int n = 0; n <= store.size(); n++)
+		{
+			prefix.moveTo(n);
+			curve[n] = MotifModel.sizeERInst(prefix, sub, resetWiring, false);
+		}
+		
+		return curve;
+	}
+	
+	private static Function<UGraph<?>> elInst(UGraph<?> graph, final List<Integer> degrees, OccurrenceStore store)
+	{
+		return prefixed(store, Prefixes.undirected(graph, degrees, store), 
+			new Function<UGraph<?>>()
+			{
+				public double size(UGraph<?> graph, UGraph<?> sub,
+						List<List<Integer>> occurrences, boolean resetWiring)
+				{
+					return MotifModel.sizeEL(graph, degrees, sub, occurrences, resetWiring);
+				}
+			}, 
+			new PrefixScore<UGraph<?>>()
+			{
+				public double size(PrefixSubstitution prefix, UGraph<?> sub, boolean resetWiring)
+				{
+					return MotifModel.sizeEL(prefix, sub, resetWiring);
+				}
+			});
+	}
+	
+	private static Function<DGraph<?>> elInst(DGraph<?> graph, final List<D> degrees, OccurrenceStore store)
+	{
+		return prefixed(store, Prefixes.directed(graph, degrees, store), 
+			new Function<DGraph<?>>()
+			{
+				public double size(DGraph<?> graph, DGraph<?> sub,
+						List<List<Integer>> occurrences, boolean resetWiring)
+				{
+					return MotifModel.sizeEL(graph, degrees, sub, occurrences, resetWiring);
+				}
+			}, 
+			new PrefixScore<DGraph<?>>()
+			{
+				public double size(PrefixSubstitution prefix, DGraph<?> sub, boolean resetWiring)
+				{
+					return MotifModel.sizeEL(prefix, sub, resetWiring);
+				}
+			});
+	}
+	
+	private static Function<UGraph<?>> betaInst(UGraph<?> graph, final List<Integer> degrees, OccurrenceStore store, final int iterations, final double alpha)
+	{
+		return prefixed(store, Prefixes.undirected(graph, degrees, store), 
+			new Function<UGraph<?>>()
+			{
+				public double size(UGraph<?> graph, UGraph<?> sub,
+						List<List<Integer>> occurrences, boolean resetWiring)
+				{
+					return MotifModel.sizeBeta(graph, degrees, sub, occurrences, resetWiring, iterations, alpha);
+				}
+			}, 
+			new PrefixScore<UGraph<?>>()
+			{
+				public double size(PrefixSubstitution prefix, UGraph<?> sub, boolean resetWiring)
+				{
+					return MotifModel.sizeBeta(prefix, sub, resetWiring, iterations, alpha);
+				}
+			});
+	}
+	
+	private static Function<DGraph<?>> betaInst(DGraph<?> graph, final List<D> degrees, OccurrenceStore store, final int iterations, final double alpha)
+	{
+		return prefixed(store, Prefixes.directed(graph, degrees, store), 
+			new Function<DGraph<?>>()
+			{
+				public double size(DGraph<?> graph, DGraph<?> sub,
+						List<List<Integer>> occurrences, boolean resetWiring)
+				{
+					return MotifModel.sizeBeta(graph, degrees, sub, occurrences, resetWiring, iterations, alpha);
+				}
+			}, 
+			new PrefixScore<DGraph<?>>()
+			{
+				public double size(PrefixSubstitution prefix, DGraph<?> sub, boolean resetWiring)
+				{
+					return MotifModel.sizeBeta(prefix, sub, resetWiring, iterations, alpha);
+				}
+			});
+	}
+	
+	private static Function<UGraph<?>> erInst(UGraph<?> graph, OccurrenceStore store)
+	{
+		return prefixed(store, Prefixes.undirected(graph, null, store), 
+			new Function<UGraph<?>>()
+			{
+				public double size(UGraph<?> graph, UGraph<?> sub,
+						List<List<Integer>> occurrences, boolean resetWiring)
+				{
+					return MotifModel.sizeERInst(graph, sub, occurrences, resetWiring);
+				}
+			}, 
+			new PrefixScore<UGraph<?>>()
+			{
+				public double size(PrefixSubstitution prefix, UGraph<?> sub, boolean resetWiring)
+				{
+					return MotifModel.sizeERInst(prefix, sub, resetWiring);
+				}
+			});
+	}
+	
+	private static Function<DGraph<?>> erInst(DGraph<?> graph, OccurrenceStore store)
+	{
+		return prefixed(store, Prefixes.directed(graph, null, store), 
+			new Function<DGraph<?>>()
+			{
+				public double size(DGraph<?> graph, DGraph<?> sub,
+						List<List<Integer>> occurrences, boolean resetWiring)
+				{
+					return MotifModel.sizeERInst(graph, sub, occurrences, resetWiring);
+				}
+			}, 
+			new PrefixScore<DGraph<?>>()
+			{
+				public double size(PrefixSubstitution prefix, DGraph<?> sub, boolean resetWiring)
+				{
+					return MotifModel.sizeERInst(prefix, sub, resetWiring);
+				}
+			});
+	}
+	
+	/**
+	 * Searches for the number of occurrences with the lowest codelength under
+	 * the given function. The instance models (sizeELInst, sizeBetaInst and 
+	 * sizeERInst) and the versions that take a SubstitutionCache all delegate 
+	 * to this method.
+	 * 
+	 * @param depth The maximum depth of the search, or -1 for no maximum.
+	 * @param executor If not null, the search evaluates the given number of 
+	 * 	points per round on this executor, instead of one (see FindPhi).
+	 * @param probes The number of points to evaluate per round.
+	 */
+	private static <G extends Graph<? extends Object>> double search(
+			G graph, G sub, OccurrenceStore store, boolean resetWiring, int depth,
+			Function<G> function, Executor executor, int probes)
+	{
+		FindPhi<G> find 
+			= new FindPhi<G>(graph, sub, store, resetWiring, depth, function, executor, probes);
+		
+		return find.size();
+	}
+	
+	/**
+	 * Turns a scoring function for prefix substitutions into a Function for 
+	 * the search. 
+	 * 
+	 * With disjoint occurrences, the function extends and rolls back a 
+	 * substitution taken from the pool, instead of substituting every prefix 
+	 * from scratch (one substitution for each evaluation running at the same 
+	 * time). Otherwise, a substitution can't be rolled back, and the fallback, 
+	 * which substitutes from scratch, is returned.
+	 * 
+	 * @param prefixes The pool of substitutions of the given store.
+	 * @param fallback The function to use if the occurrences aren't disjoint.
+	 * @param score The codelength of a prefix substitution. 
+	 */
+	private static <G extends Graph<? extends Object>> Function<G> prefixed(
+			OccurrenceStore store, final Prefixes prefixes, 
+			Function<G> fallback, final PrefixScore<G> score)
+	{
+		if(! PrefixSubstitution.disjoint(store))
+			return fallback;
+		
+		return new Function<G>()
 		{
-			public double size(DGraph<?> graph, DGraph<?> sub,
+			public double size(G graph, G sub,
 					List<List<Integer>> occurrences, boolean resetWiring)
 			{
-				return MotifModel.sizeERInst(graph, sub, occurrences, resetWiring);
+				PrefixSubstitution prefix = prefixes.take();
+				try
+				{
+					prefix.moveTo(occurrences.size());
+					return score.size(prefix, sub, resetWiring);
+				} finally
+				{
+					prefixes.release(prefix);
+				}
 			}
 		};
+	}
+	
+	/**
+	 * Computes the codelength for every number of occurrences, in order, so
+	 * that a prefix substitution only ever needs to add one occurrence.
+	 */
+	private static <G extends Graph<? extends Object>> double[] curve(
+			G graph, G sub, OccurrenceStore occurrences, boolean resetWiring, 
+			Function<G> function)
+	{
+		double[] curve = new double[occurrences.size() + 1];
+		for(int n = 0; n <= occurrences.size(); n++)
+			curve[n] = function.size(graph, sub, occurrences.prefix(n), resetWiring);
 		
-		FindPhi<DGraph<?>> find 
-			= new FindPhi<DGraph<?>>(graph, sub, occurrences, resetWiring, depth, function);
+		return curve;
+	}
+	
+	/**
+	 * The number of occurrences with the lowest codelength in a curve (the 
+	 * smallest, in case of ties).
+	 */
+	public static int argmin(double[] curve)
+	{
+		int argmin = 0;
+		for(int n = 1; n < curve.length; n++)
+			if(curve[n] < curve[argmin])
+				argmin = n;
 		
-		return find.size();
+		return argmin;
 	}
 	
 	private static interface Function<G extends Graph<? extends Object>> {
 		public double size(G graph, G sub, List<List<Integer>> occurrences, boolean resetWiring);
 	}
 	
+	private static interface PrefixScore<G extends Graph<? extends Object>> {
+		public double size(PrefixSubstitution prefix, G sub, boolean resetWiring);
+	}
+	
+	/**
+	 * A pool of prefix substitutions: each evaluation takes one that isn't in
+	 * use (creating one if there are none), and releases it afterwards.
+	 */
+	private static abstract class Prefixes
+	{
+		private Queue<PrefixSubstitution> free = new ConcurrentLinkedQueue<PrefixSubstitution>();
+		
+		protected abstract PrefixSubstitution create();
+		
+		public PrefixSubstitution take()
+		{
+			PrefixSubstitution prefix = free.poll();
+			return prefix == null ? create() : prefix;
+		}
+		
+		public void release(PrefixSubstitution prefix)
+		{
+			free.offer(prefix);
+		}
+		
+		public static Prefixes undirected(final UGraph<?> graph, final List<Integer> degrees, final OccurrenceStore store)
+		{
+			return new Prefixes()
+			{
+				protected PrefixSubstitution create()
+				{
+					return PrefixSubstitution.undirected(graph, degrees, store);
+				}
+			};
+		}
+		
+		public static Prefixes directed(final DGraph<?> graph, final List<D> degrees, final OccurrenceStore store)
+		{
+			return new Prefixes()
+			{
+				protected PrefixSubstitution create()
+				{
+					return PrefixSubstitution.directed(graph, degrees, store);
+				}
+			};
+		}
+	}
+	
 	/** 
 	 * Fibonacci search: find the number of occurrences for which the compression is optimal.
 	 * 
+	 * If an executor is given, the search evaluates several points per round
+	 * in parallel instead: the probes split the range into equal parts, and 
+	 * the next round searches the two parts around the best probe. Probes that 
+	 * the executor hasn't started by the time the search needs them are run 
+	 * by the searching thread, so the executor may be one that runs the 
+	 * search itself.
+	 * 
 	 * @author Peter
 	 *
 	 * @param <G>
@@ -199,10 +594,13 @@ public class MotifSearchModel
 		
 		G data; 
 		G motif;
-		List<List<Integer>> occurrences; 
+		OccurrenceStore occurrences; 
 		Function<G> function;
 		boolean resetWiring;
 		
+		Executor executor;
+		int probes;
+		
 		int cutoff;
 		double size;
 		
@@ -211,15 +609,42 @@ public class MotifSearchModel
 				boolean resetWiring,
 				int maxDepth,
 				Function<G> function)
+		{
+			this(data, motif, occurrences, resetWiring, maxDepth, function, null, 1);
+		}
+		
+		/**
+		 * @param executor The executor to evaluate the probes on. If null, or 
+		 * 	if probes is 1 or less, the sequential Fibonacci search is used.
+		 * @param probes The number of points to evaluate per round.
+		 */
+		public FindPhi(G data, G motif,
+				List<List<Integer>> occurrences, 
+				boolean resetWiring,
+				int maxDepth,
+				Function<G> function,
+				Executor executor,
+				int probes)
 		{
 			this.data = data;
 			this.motif = motif;
-			this.occurrences = occurrences;
+			// * Prefixes of a store are views, so sampling doesn't copy
+			this.occurrences = OccurrenceStore.of(occurrences);
 			this.resetWiring = resetWiring;
 			this.function = function;
 			this.maxDepth = maxDepth;
+			this.executor = executor;
+			this.probes = probes;
 			
 			int n = occurrences.size();
+			
+			if(executor != null && probes > 1)
+			{
+				// * always consider 0 occurrences
+				findParallel(0, n, 0, asList(0));
+				return;
+			}
+			
 			int to = Fibonacci.isFibonacci(n) ? n : (int)Fibonacci.get((int) Math.ceil(Fibonacci.getIndexApprox(n)));
 
 			// always consider 0 occurrences
@@ -255,19 +680,7 @@ public class MotifSearchModel
 			
 			if( range <= 2 || (maxDepth >= 0 && depth > maxDepth)) 
 			{                                     // return best value found
-				size = Double.POSITIVE_INFINITY;
-				cutoff = -1;
-				
-				for(int key : cache.keySet())
-				{
-					double value = cache.get(key);
-					if(size > value)
-					{
-						size = value;
-						cutoff = key;
-					}
-				}
-			
+				best();
 				return;
 			}
 			
@@ -284,13 +697,135 @@ public class MotifSearchModel
 				find(from, mid2, depth + 1);
 		}
 		
-		private Map<Integer, Double> cache = new LinkedHashMap<Integer, Double>();
+		/**
+		 * A round of the parallel search.
+		 * 
+		 * @param extra Points to evaluate in this round, besides the probes.
+		 */
+		private void findParallel(int from, int to, int depth, List<Integer> extra)
+		{
+			int range = to - from;
+			
+			List<Integer> points = new ArrayList<Integer>(extra);
+			
+			if(range <= probes + 1) // base case: evaluate the whole range
+			{
+				for(int n : series(from, to + 1))
+					points.add(n);
+				
+				sample(points);
+				best();
+				return;
+			}
+			
+			if(maxDepth >= 0 && depth > maxDepth)
+			{
+				sample(points);
+				best();
+				return;
+			}
+			
+			// * The probes split the range into probes + 1 equal parts
+			int[] bounds = new int[probes + 2];
+			for(int i : series(bounds.length))
+				bounds[i] = from + (int)((long)range * i / (probes + 1));
+			
+			for(int i : series(1, probes + 1))
+				points.add(bounds[i]);
+			
+			sample(points);
+			
+			int best = 1;
+			for(int i : series(2, probes + 1))
+				if(cache.get(bounds[i]) < cache.get(bounds[best]))
+					best = i;
+			
+			findParallel(bounds[best - 1], bounds[best + 1], depth + 1, Collections.<Integer>emptyList());
+		}
+		
+		/**
+		 * Sets the result to the best point evaluated so far (the first one, in
+		 * case of ties).
+		 */
+		private void best()
+		{
+			size = Double.POSITIVE_INFINITY;
+			cutoff = -1;
+			
+			synchronized(cache)
+			{
+				for(int key : cache.keySet())
+				{
+					double value = cache.get(key);
+					if(size > value)
+					{
+						size = value;
+						cutoff = key;
+					}
+				}
+			}
+		}
+		
+		private Map<Integer, Double> cache = 
+				Collections.synchronizedMap(new LinkedHashMap<Integer, Double>());
+		
+		/**
+		 * Evaluates the given points (those that haven't been evaluated yet) in
+		 * parallel, and adds them to the cache in the given order.
+		 */
+		private void sample(List<Integer> points)
+		{
+			List<Integer> todo = new ArrayList<Integer>(points.size());
+			List<FutureTask<Double>> tasks = new ArrayList<FutureTask<Double>>(points.size());
+			
+			for(final int n : points)
+			{
+				if(cache.containsKey(n) || todo.contains(n))
+					continue;
+				
+				FutureTask<Double> task = new FutureTask<Double>(new Callable<Double>()
+				{
+					public Double call()
+					{
+						return function.size(data, motif, occurrences.prefix(Math.min(occurrences.size(), n)), resetWiring);
+					}
+				});
+				
+				todo.add(n);
+				tasks.add(task);
+				
+				try
+				{
+					executor.execute(task);
+				} catch(RejectedExecutionException e)
+				{
+					// - the task is run below
+				}
+			}
+			
+			// - run the tasks that haven't started yet ourselves, so that we
+			//   never wait for a busy (or shut down) executor
+			for(FutureTask<Double> task : tasks)
+				task.run();
+			
+			try
+			{
+				for(int i : series(todo.size()))
+					cache.put(todo.get(i), tasks.get(i).get());
+			} catch (InterruptedException e)
+			{
+				throw new RuntimeException(e);
+			} catch (ExecutionException e)
+			{
+				throw new RuntimeException(e);
+			}
+		}
 		
 		public double sample(int n)
 		{
 			if(! cache.containsKey(n))
 			{
-				double size = function.size(data, motif, occurrences.subList(0, Math.min(occurrences.size(), n)), resetWiring);
+				double size = function.size(data, motif, occurrences.prefix(Math.min(occurrences.size(), n)), resetWiring);
 				cache.put(n, size);
 				
 				// Global.log().info("compression at " + n + " occurrences: " + size);
@@ -0,0 +1,840 @@
+package nl.peterbloem.motive;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Counts motifs by their key (see MotifKey), and records their occurrences.
+ *
+ * This is an open addressing hash table over primitive long keys. Motifs are
+ * numbered by the order in which they were first added, and iterating over
+ * the indices 0 to size() - 1 returns them in that order.
+ *
+ * If the table is distinct, an occurrence is only stored the first time its
+ * node set is added. Repeats still count towards the frequency of the motif.
+ * Node sets are recognized by a hash of their sorted node indices, and checked
+ * against the stored occurrence, so hash collisions don't lose occurrences.
+ *
+ * The number of stored occurrences can be limited, per motif (a cap) and in
+ * total (a memory budget). The frequencies remain exact. Of the occurrences
+ * of a motif, the table then keeps those whose node sets have the lowest
+ * (seeded) hashes: a uniform random sample, which doesn't depend on the order
+ * in which the occurrences were added. When the budget is exceeded, the cap is
+ * halved, and the table is trimmed.
+ *
+ * The number of motifs can be limited as well, with the Space-Saving 
+ * algorithm (Metwally et al., 2005): when the table is full, a new motif 
+ * replaces the one with the lowest frequency, and inherits that frequency as
+ * its error. The occurrences of the replaced motif are discarded. Frequencies
+ * are then overestimates, by at most error(index), and any motif with a true
+ * frequency above total / maxMotifs is guaranteed to be in the table. Motif 
+ * indices are reused, so they no longer reflect the order of addition.
+ *
+ * @author Peter
+ */
+public class MotifTable
+{
+	private static final long MIX = 0x9E3779B97F4A7C15L;
+
+	// * The hash table: for each position, the index of the motif plus one
+	//   (0 for an empty position)
+	private int[] positions = new int[16];
+	private int shift = 64 - 4;
+
+	// * Per motif, in the order they were added
+	private long[] keys = new long[8];
+	private double[] frequencies = new double[8];
+	private double[] errors = new double[8];
+	private List<OccurrenceStore> occurrences = new ArrayList<OccurrenceStore>();
+
+	private int size = 0;
+
+	// * The set of stored node sets, if the table is distinct: the hash of the
+	//   node set and the motif and occurrence that contain it
+	private boolean distinct;
+	private long[] setHashes;
+	private int[] setMotifs, setOccurrences;
+	private int setShift = 64 - 4;
+	private int setSize = 0;
+	private long numOccurrences = 0;
+
+	// * The reservoirs, if the number of occurrences is limited: per motif, the
+	//   hash of each stored occurrence, and a max-heap of the occurrences by
+	//   hash
+	private boolean reservoir;
+	private int cap;
+	private long budget;
+	private long seed;
+	private List<long[]> hashes = new ArrayList<long[]>();
+	private List<int[]> heaps = new ArrayList<int[]>();
+	private long storedBytes = 0;
+
+	// * The maximum number of motifs, or -1
+	private int maxMotifs;
+	
+	// * If the number of motifs is limited: a min-heap of the motifs by 
+	//   frequency (ties broken by index), and the position of each motif in 
+	//   it, so that the motif to replace is found in constant time
+	private int[] minHeap, minPositions;
+
+	private int[] sorted = new int[MotifKey.MAX_SIZE];
+
+	public MotifTable()
+	{
+		this(false);
+	}
+
+	/**
+	 * @param distinct Whether to store each node set only once.
+	 */
+	public MotifTable(boolean distinct)
+	{
+		this(distinct, -1, -1, 0);
+	}
+
+	/**
+	 * @param distinct Whether to store each node set only once.
+	 * @param cap The maximum number of occurrences to store per motif, or -1
+	 * 	for no limit.
+	 * @param budget The maximum number of bytes (approximately) to use for
+	 * 	storing occurrences, or -1 for no limit.
+	 * @param seed Determines which occurrences are kept.
+	 */
+	public MotifTable(boolean distinct, int cap, long budget, long seed)
+	{
+		this(distinct, cap, budget, seed, -1);
+	}
+
+	/**
+	 * @param distinct Whether to store each node set only once.
+	 * @param cap The maximum number of occurrences to store per motif, or -1
+	 * 	for no limit.
+	 * @param budget The maximum number of bytes (approximately) to use for
+	 * 	storing occurrences, or -1 for no limit.
+	 * @param seed Determines which occurrences are kept.
+	 * @param maxMotifs The maximum number of motifs to track, or -1 for no 
+	 * 	limit.
+	 */
+	public MotifTable(boolean distinct, int cap, long budget, long seed, int maxMotifs)
+	{
+		this.maxMotifs = maxMotifs;
+		if(maxMotifs > 0)
+		{
+			minHeap = new int[maxMotifs];
+			minPositions = new int[maxMotifs];
+		}
+
+		this.distinct = distinct;
+		if(distinct)
+		{
+			setHashes = new long[16];
+			setMotifs = new int[16];
+			setOccurrences = new int[16];
+		}
+
+		this.cap = cap;
+		this.budget = budget;
+		this.seed = seed;
+		this.reservoir = cap > 0 || budget >= 0;
+	}
+
+	/**
+	 * Records a single occurrence of the given motif.
+	 */
+	public void add(long key, List<Integer> occurrence)
+	{
+		add(key, occurrence, 1.0);
+	}
+
+	/**
+	 * Records a single occurrence of the given motif, counted with the given
+	 * weight (for instance the importance weight of a sample).
+	 */
+	public void add(long key, List<Integer> occurrence, double weight)
+	{
+		int index = indexOrAdd(key, occurrence.size());
+
+		frequencies[index] += weight;
+		increased(index);
+		insert(index, occurrence);
+	}
+
+	/**
+	 * Adds a frequency and a list of occurrences for the given motif.
+	 */
+	public void add(long key, double frequency, OccurrenceStore occurrences)
+	{
+		int index = indexOrAdd(key, occurrences.motifSize());
+
+		frequencies[index] += frequency;
+		increased(index);
+
+		if(! distinct && ! reservoir)
+		{
+			this.occurrences.get(index).addAll(occurrences);
+			numOccurrences += occurrences.size();
+			return;
+		}
+
+		for(int i = 0; i < occurrences.size(); i++)
+			insert(index, occurrences.get(i));
+	}
+
+	/**
+	 * The number of distinct motifs.
+	 */
+	public int size()
+	{
+		return size;
+	}
+
+	/**
+	 * The index of the motif with the given key, or -1 if it hasn't been
+	 * added.
+	 */
+	public int index(long key)
+	{
+		int position = position(key);
+		while(positions[position] != 0)
+		{
+			int index = positions[position] - 1;
+			if(keys[index] == key)
+				return index;
+
+			position = (position + 1) & (positions.length - 1);
+		}
+
+		return -1;
+	}
+
+	/**
+	 * The total number of occurrences added, over all motifs. For a distinct
+	 * table, this is the number of distinct node sets added. If the number of
+	 * stored occurrences is limited, a repeat of a node set that is no longer
+	 * stored counts again.
+	 */
+	public long numOccurrences()
+	{
+		return numOccurrences;
+	}
+
+	/**
+	 * The current maximum number of occurrences stored per motif, or -1 if
+	 * there is none. This may be lower than the cap given at construction, if
+	 * the memory budget was exceeded.
+	 */
+	public int cap()
+	{
+		return cap;
+	}
+
+	public long key(int index)
+	{
+		return keys[index];
+	}
+
+	public double frequency(int index)
+	{
+		return frequencies[index];
+	}
+
+	/**
+	 * The maximum amount by which the frequency of the given motif may be
+	 * overestimated. This is zero unless the number of motifs is limited.
+	 */
+	public double error(int index)
+	{
+		return errors[index];
+	}
+
+	public OccurrenceStore occurrences(int index)
+	{
+		return occurrences.get(index);
+	}
+
+	/**
+	 * Sets the error of a motif, when the table is restored from a checkpoint
+	 * (see SamplingCheckpoint).
+	 */
+	void setError(int index, double error)
+	{
+		errors[index] = error;
+	}
+
+	/**
+	 * Sets the current cap and the number of occurrences added, when the table
+	 * is restored from a checkpoint (see SamplingCheckpoint).
+	 */
+	void setCounts(int cap, long numOccurrences)
+	{
+		this.cap = cap;
+		this.numOccurrences = numOccurrences;
+	}
+
+	/**
+	 * The keys of the k most frequent motifs, in order of decreasing
+	 * frequency. Ties are broken by the order in which the motifs were added.
+	 */
+	public long[] top(int k)
+	{
+		k = Math.max(0, Math.min(k, size));
+		if(k == 0)
+			return new long[0];
+
+		// * The indices of the best motifs so far, sorted
+		int[] best = new int[k];
+		int n = 0;
+
+		for(int index = 0; index < size; index++)
+		{
+			if(n == k && frequencies[index] <= frequencies[best[k - 1]])
+				continue;
+
+			// - insert, shifting worse motifs down
+			int i = n < k ? n++ : k - 1;
+			while(i > 0 && frequencies[best[i - 1]] < frequencies[index])
+			{
+				best[i] = best[i - 1];
+				i--;
+			}
+			best[i] = index;
+		}
+
+		long[] result = new long[k];
+		for(int i = 0; i < k; i++)
+			result[i] = keys[best[i]];
+
+		return result;
+	}
+
+	private int indexOrAdd(long key, int motifSize)
+	{
+		int position = position(key);
+		while(positions[position] != 0)
+		{
+			int index = positions[position] - 1;
+			if(keys[index] == key)
+				return index;
+
+			position = (position + 1) & (positions.length - 1);
+		}
+
+		if(size == maxMotifs)
+			return replace(key, motifSize);
+
+		if(size == keys.length)
+		{
+			keys = Arrays.copyOf(keys, size * 2);
+			frequencies = Arrays.copyOf(frequencies, size * 2);
+			errors = Arrays.copyOf(errors, size * 2);
+		}
+
+		int index = size++;
+		keys[index] = key;
+		occurrences.add(new OccurrenceStore(motifSize));
+		if(reservoir)
+		{
+			hashes.add(new long[16]);
+			heaps.add(new int[16]);
+		}
+		positions[position] = index + 1;
+
+		if(minHeap != null)
+		{
+			minHeap[index] = index;
+			minPositions[index] = index;
+			minSiftUp(index);
+		}
+
+		// * Keep the load factor below one half
+		if(size * 2 > positions.length)
+			rehash();
+
+		return index;
+	}
+
+	/**
+	 * Replaces the motif with the lowest frequency (the first, if there are 
+	 * ties) by the given key. The new motif starts with the frequency of the
+	 * old one, which is also its error.
+	 */
+	private int replace(long key, int motifSize)
+	{
+		// - the frequency doesn't change, so the motif stays at the root
+		int index = minHeap[0];
+
+		// * Remove the old key from the hash table, shifting later entries 
+		//   back, so that no entry is separated from its home position by an 
+		//   empty one
+		int mask = positions.length - 1;
+		int position = position(keys[index]);
+		while(positions[position] != index + 1)
+			position = (position + 1) & mask;
+
+		int next = position;
+		while(true)
+		{
+			next = (next + 1) & mask;
+			if(positions[next] == 0)
+				break;
+
+			int home = position(keys[positions[next] - 1]);
+			boolean between = position <= next ?
+					(position < home && home <= next) :
+					(position < home || home <= next);
+			if(between)
+				continue;
+
+			positions[position] = positions[next];
+			position = next;
+		}
+		positions[position] = 0;
+
+		// * Discard the occurrences
+		OccurrenceStore store = occurrences.get(index);
+		if(distinct)
+			for(int i = 0; i < store.size(); i++)
+				unclaim(reservoir ? hashes.get(index)[i] : hash(store.get(i)), index, i);
+		if(reservoir)
+		{
+			storedBytes -= store.size() * bytes(store.motifSize());
+			hashes.set(index, new long[16]);
+			heaps.set(index, new int[16]);
+		}
+		occurrences.set(index, new OccurrenceStore(motifSize));
+
+		keys[index] = key;
+		errors[index] = frequencies[index];
+
+		position = position(key);
+		while(positions[position] != 0)
+			position = (position + 1) & mask;
+		positions[position] = index + 1;
+
+		return index;
+	}
+
+	/**
+	 * Restores the min-heap after the frequency of the given motif has 
+	 * increased.
+	 */
+	private void increased(int index)
+	{
+		if(minHeap == null)
+			return;
+		
+		int i = minPositions[index];
+		while(true)
+		{
+			int smallest = i, left = 2 * i + 1, right = left + 1;
+			if(left < size && lower(minHeap[left], minHeap[smallest]))
+				smallest = left;
+			if(right < size && lower(minHeap[right], minHeap[smallest]))
+				smallest = right;
+
+			if(smallest == i)
+				return;
+
+			minSwap(i, smallest);
+			i = smallest;
+		}
+	}
+	
+	private void minSiftUp(int i)
+	{
+		while(i > 0)
+		{
+			int parent = (i - 1) / 2;
+			if(! lower(minHeap[i], minHeap[parent]))
+				return;
+
+			minSwap(i, parent);
+			i = parent;
+		}
+	}
+	
+	private void minSwap(int i, int j)
+	{
+		int t = minHeap[i];
+		minHeap[i] = minHeap[j];
+		minHeap[j] = t;
+		
+		minPositions[minHeap[i]] = i;
+		minPositions[minHeap[j]] = j;
+	}
+	
+	/**
+	 * Whether motif a comes before motif b in the min-heap.
+	 */
+	private boolean lower(int a, int b)
+	{
+		if(frequencies[a] != frequencies[b])
+			return frequencies[a] < frequencies[b];
+		
+		return a < b;
+	}
+
+	private void rehash()
+	{
+		positions = new int[positions.length * 2];
+		shift --;
+
+		for(int index = 0; index < size; index++)
+		{
+			int position = position(keys[index]);
+			while(positions[position] != 0)
+				position = (position + 1) & (positions.length - 1);
+
+			positions[position] = index + 1;
+		}
+	}
+
+	private int position(long key)
+	{
+		return (int) ((key * MIX) >>> shift);
+	}
+
+	/**
+	 * Stores an occurrence of the given motif, if it is new and there is
+	 * room.
+	 */
+	private void insert(int motif, List<Integer> occurrence)
+	{
+		OccurrenceStore store = occurrences.get(motif);
+
+		if(! distinct && ! reservoir)
+		{
+			store.add(occurrence);
+			numOccurrences++;
+			return;
+		}
+
+		int n = occurrence.size();
+		long hash = hash(occurrence);
+
+		if(distinct && find(hash, motif, n) >= 0)
+			return;
+
+		numOccurrences++;
+
+		if(! reservoir)
+		{
+			claim(hash, motif, store.size());
+			store.add(occurrence);
+			return;
+		}
+
+		long[] motifHashes = hashes.get(motif);
+		int[] heap = heaps.get(motif);
+
+		if(cap < 0 || store.size() < cap)
+		{
+			int slot = store.size();
+			store.add(occurrence);
+
+			if(slot == heap.length)
+			{
+				motifHashes = Arrays.copyOf(motifHashes, slot * 2);
+				heap = Arrays.copyOf(heap, slot * 2);
+				hashes.set(motif, motifHashes);
+				heaps.set(motif, heap);
+			}
+
+			motifHashes[slot] = hash;
+			heap[slot] = slot;
+			siftUp(heap, motifHashes, slot);
+
+			if(distinct)
+				claim(hash, motif, slot);
+
+			storedBytes += bytes(n);
+			if(budget >= 0 && storedBytes > budget)
+				shrink();
+
+			return;
+		}
+
+		// * The store is full: replace the occurrence with the highest hash, if
+		//   ours is lower
+		int slot = heap[0];
+		if(hash >= motifHashes[slot])
+			return;
+
+		if(distinct)
+			unclaim(motifHashes[slot], motif, slot);
+
+		store.set(slot, occurrence);
+		motifHashes[slot] = hash;
+		siftDown(heap, motifHashes, 0, store.size());
+
+		if(distinct)
+			claim(hash, motif, slot);
+	}
+
+	/**
+	 * Halves the cap until the stored occurrences fit the budget (or the cap is
+	 * one), and removes the occurrences with the highest hashes.
+	 */
+	private void shrink()
+	{
+		while(storedBytes > budget)
+		{
+			int largest = 0;
+			for(OccurrenceStore store : occurrences)
+				largest = Math.max(largest, store.size());
+
+			if(largest <= 1)
+				break;
+
+			cap = Math.max(1, (cap < 0 ? largest : Math.min(cap, largest)) / 2);
+
+			storedBytes = 0;
+			for(int motif = 0; motif < size; motif++)
+			{
+				trim(motif);
+
+				OccurrenceStore store = occurrences.get(motif);
+				storedBytes += store.size() * bytes(store.motifSize());
+			}
+		}
+
+		// * Rebuild the set of node sets, since the occurrences have moved
+		if(distinct)
+		{
+			Arrays.fill(setHashes, 0);
+			setSize = 0;
+
+			for(int motif = 0; motif < size; motif++)
+			{
+				long[] motifHashes = hashes.get(motif);
+				for(int slot = 0; slot < occurrences.get(motif).size(); slot++)
+					claim(motifHashes[slot], motif, slot);
+			}
+		}
+	}
+
+	/**
+	 * Keeps only the cap occurrences with the lowest hashes, in their current
+	 * order.
+	 */
+	private void trim(int motif)
+	{
+		OccurrenceStore store = occurrences.get(motif);
+		if(store.size() <= cap)
+			return;
+
+		long[] motifHashes = hashes.get(motif);
+
+		// * Find the cap-th lowest hash
+		long[] copy = Arrays.copyOf(motifHashes, store.size());
+		Arrays.sort(copy);
+		long threshold = copy[cap - 1];
+
+		OccurrenceStore kept = new OccurrenceStore(store.motifSize(), cap);
+		long[] keptHashes = new long[Math.max(16, cap)];
+		int[] heap = new int[Math.max(16, cap)];
+
+		for(int slot = 0; slot < store.size(); slot++)
+			if(motifHashes[slot] <= threshold && kept.size() < cap)
+			{
+				keptHashes[kept.size()] = motifHashes[slot];
+				heap[kept.size()] = kept.size();
+				kept.add(store.get(slot));
+			}
+
+		for(int i = kept.size() / 2 - 1; i >= 0; i--)
+			siftDown(heap, keptHashes, i, kept.size());
+
+		occurrences.set(motif, kept);
+		hashes.set(motif, keptHashes);
+		heaps.set(motif, heap);
+	}
+
+	/**
+	 * The approximate number of bytes used per stored occurrence.
+	 */
+	private long bytes(int motifSize)
+	{
+		// * the node indices, the hash and the heap entry, and the (half full)
+		//   set of node sets
+		return 4 * motifSize + 12 + (distinct ? 32 : 0);
+	}
+
+	private static void siftUp(int[] heap, long[] hashes, int i)
+	{
+		while(i > 0)
+		{
+			int parent = (i - 1) / 2;
+			if(hashes[heap[parent]] >= hashes[heap[i]])
+				return;
+
+			swap(heap, i, parent);
+			i = parent;
+		}
+	}
+
+	private static void siftDown(int[] heap, long[] hashes, int i, int n)
+	{
+		while(true)
+		{
+			int largest = i, left = 2 * i + 1, right = left + 1;
+			if(left < n && hashes[heap[left]] > hashes[heap[largest]])
+				largest = left;
+			if(right < n && hashes[heap[right]] > hashes[heap[largest]])
+				largest = right;
+
+			if(largest == i)
+				return;
+
+			swap(heap, i, largest);
+			i = largest;
+		}
+	}
+
+	private static void swap(int[] heap, int i, int j)
+	{
+		int t = heap[i];
+		heap[i] = heap[j];
+		heap[j] = t;
+	}
+
+	/**
+	 * Sorts the node indices of the occurrence into the first entries of
+	 * sorted, and computes their (seeded) hash. The hash is never zero.
+	 */
+	private long hash(List<Integer> occurrence)
+	{
+		int n = occurrence.size();
+		if(n > sorted.length)
+			sorted = new int[n];
+		for(int j = 0; j < n; j++)
+			sorted[j] = occurrence.get(j);
+
+		Arrays.sort(sorted, 0, n);
+
+		long hash = seed + n;
+		for(int j = 0; j < n; j++)
+			hash = (hash + sorted[j]) * MIX;
+
+		// * Spread the bits, so that the hashes are uniform enough to use as
+		//   priorities
+		hash ^= hash >>> 31;
+		hash *= 0xBF58476D1CE4E5B9L;
+		hash ^= hash >>> 29;
+
+		// * Zero marks an empty position
+		return hash == 0 ? 1 : hash;
+	}
+
+	/**
+	 * The position in the set of the node set in the first n entries of
+	 * sorted, or -1 if it isn't stored.
+	 */
+	private int find(long hash, int motif, int n)
+	{
+		int position = (int) (hash >>> setShift);
+		while(setHashes[position] != 0)
+		{
+			if(setHashes[position] == hash && setMotifs[position] == motif
+					&& matches(occurrences.get(motif), setOccurrences[position], n))
+				return position;
+
+			position = (position + 1) & (setHashes.length - 1);
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Records that the given occurrence of the given motif has the given hash.
+	 */
+	private void claim(long hash, int motif, int occurrence)
+	{
+		int position = (int) (hash >>> setShift);
+		while(setHashes[position] != 0)
+			position = (position + 1) & (setHashes.length - 1);
+
+		setHashes[position] = hash;
+		setMotifs[position] = motif;
+		setOccurrences[position] = occurrence;
+		setSize++;
+
+		// * Keep the load factor below one half
+		if(setSize * 2 > setHashes.length)
+			rehashSet();
+	}
+
+	/**
+	 * Removes the given occurrence from the set.
+	 */
+	private void unclaim(long hash, int motif, int occurrence)
+	{
+		int mask = setHashes.length - 1;
+
+		int position = (int) (hash >>> setShift);
+		while(setHashes[position] != hash || setMotifs[position] != motif || setOccurrences[position] != occurrence)
+			position = (position + 1) & mask;
+
+		// * Shift later entries back, so that no entry is separated from its
+		//   home position by an empty one
+		int next = position;
+		while(true)
+		{
+			next = (next + 1) & mask;
+			if(setHashes[next] == 0)
+				break;
+
+			int home = (int) (setHashes[next] >>> setShift);
+			boolean between = position <= next ?
+					(position < home && home <= next) :
+					(position < home || home <= next);
+			if(between)
+				continue;
+
+			setHashes[position] = setHashes[next];
+			setMotifs[position] = setMotifs[next];
+			setOccurrences[position] = setOccurrences[next];
+			position = next;
+		}
+
+		setHashes[position] = 0;
+		setSize--;
+	}
+
+	/**
+	 * Whether the i-th occurrence in the store has the node set in sorted.
+	 * Since both have n distinct nodes, containment is enough.
+	 */
+	private boolean matches(OccurrenceStore store, int i, int n)
+	{
+		for(int j = 0; j < n; j++)
+			if(! store.contains(i, sorted[j]))
+				return false;
+
+		return true;
+	}
+
+	private void rehashSet()
+	{
+		long[] oldHashes = setHashes;
+		int[] oldMotifs = setMotifs, oldOccurrences = setOccurrences;
+
+		setHashes = new long[oldHashes.length * 2];
+		setMotifs = new int[oldHashes.length * 2];
+		setOccurrences = new int[oldHashes.length * 2];
+		setShift --;
+
+		for(int old = 0; old < oldHashes.length; old++)
+			if(oldHashes[old] != 0)
+			{
+				int position = (int) (oldHashes[old] >>> setShift);
+				while(setHashes[position] != 0)
+					position = (position + 1) & (setHashes.length - 1);
+
+				setHashes[position] = oldHashes[old];
+				setMotifs[position] = oldMotifs[old];
+				setOccurrences[position] = oldOccurrences[old];
+			}
+	}
+}
@@ -0,0 +1,282 @@
+package nl.peterbloem.motive;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * A compact list of the occurrences of a single motif. All node indices are
+ * stored in one int array, with one block of motifSize() entries for each
+ * occurrence.
+ *
+ * The store implements List<List<Integer>>, so it can be passed to any method
+ * that takes a list of occurrences. Methods that scan many occurrences should
+ * use node(i, j) and contains(i, node) instead of the list views, to avoid
+ * boxing.
+ *
+ * Occurrences can only be appended or replaced. subList(0, n) returns a view
+ * of the first n occurrences without copying (see prefix(n)). Views can't be 
+ * modified, but remain valid when occurrences are added to the original. If
+ * an occurrence is replaced while there are views, the original copies its
+ * array first, so that the views keep the occurrences they were made with.
+ *
+ * @author Peter
+ */
+public class OccurrenceStore extends AbstractList<List<Integer>>
+{
+	private int motifSize;
+	private int[] nodes;
+	private int size = 0;
+
+	private boolean view = false;
+	// * Whether views may share the nodes array
+	private boolean shared = false;
+
+	/**
+	 * Creates an empty store for a motif with the given number of nodes.
+	 */
+	public OccurrenceStore(int motifSize)
+	{
+		this(motifSize, 16);
+	}
+
+	/**
+	 * @param capacity The number of occurrences to allocate space for.
+	 */
+	public OccurrenceStore(int motifSize, int capacity)
+	{
+		this.motifSize = motifSize;
+		this.nodes = new int[Math.max(1, motifSize * capacity)];
+	}
+
+	private OccurrenceStore(OccurrenceStore original, int size)
+	{
+		this.motifSize = original.motifSize;
+		this.nodes = original.nodes;
+		this.size = size;
+		this.view = true;
+	}
+
+	/**
+	 * Returns the given list of occurrences as an OccurrenceStore. If the list
+	 * is already an OccurrenceStore, it is returned as is. Otherwise, the
+	 * occurrences are copied into a new store.
+	 */
+	public static OccurrenceStore of(List<List<Integer>> occurrences)
+	{
+		if(occurrences instanceof OccurrenceStore)
+			return (OccurrenceStore) occurrences;
+
+		int motifSize = occurrences.isEmpty() ? 0 : occurrences.get(0).size();
+		OccurrenceStore store = new OccurrenceStore(motifSize, occurrences.size());
+		for(List<Integer> occurrence : occurrences)
+			store.add(occurrence);
+
+		return store;
+	}
+
+	/**
+	 * The number of nodes in each occurrence.
+	 */
+	public int motifSize()
+	{
+		return motifSize;
+	}
+
+	@Override
+	public int size()
+	{
+		return size;
+	}
+
+	/**
+	 * The index (in the data) of the j-th node of the i-th occurrence.
+	 */
+	public int node(int i, int j)
+	{
+		return nodes[i * motifSize + j];
+	}
+
+	/**
+	 * Whether the i-th occurrence contains the given node.
+	 */
+	public boolean contains(int i, int node)
+	{
+		int from = i * motifSize, to = from + motifSize;
+		for(int k = from; k < to; k++)
+			if(nodes[k] == node)
+				return true;
+
+		return false;
+	}
+
+	/**
+	 * A view of the i-th occurrence.
+	 */
+	@Override
+	public List<Integer> get(int i)
+	{
+		if(i < 0 || i >= size)
+			throw new IndexOutOfBoundsException("Index " + i + " out of bounds for size " + size);
+
+		return new Occurrence(i);
+	}
+
+	/**
+	 * Appends an occurrence.
+	 */
+	@Override
+	public boolean add(List<Integer> occurrence)
+	{
+		if(occurrence.size() != motifSize)
+			throw new IllegalArgumentException("Occurrence " + occurrence + " does not have size " + motifSize + ".");
+
+		ensureCapacity(size + 1);
+
+		int k = size * motifSize;
+		for(int node : occurrence)
+			nodes[k++] = node;
+
+		size++;
+		return true;
+	}
+
+	/**
+	 * Replaces the i-th occurrence.
+	 *
+	 * @return A copy of the replaced occurrence.
+	 */
+	@Override
+	public List<Integer> set(int i, List<Integer> occurrence)
+	{
+		if(view)
+			throw new UnsupportedOperationException("Cannot change the occurrences of a view.");
+		if(i < 0 || i >= size)
+			throw new IndexOutOfBoundsException("Index " + i + " out of bounds for size " + size);
+		if(occurrence.size() != motifSize)
+			throw new IllegalArgumentException("Occurrence " + occurrence + " does not have size " + motifSize + ".");
+
+		List<Integer> old = new ArrayList<Integer>(get(i));
+
+		if(shared)
+		{
+			nodes = nodes.clone();
+			shared = false;
+		}
+
+		int k = i * motifSize;
+		for(int node : occurrence)
+			nodes[k++] = node;
+
+		return old;
+	}
+
+	@Override
+	public boolean addAll(Collection<? extends List<Integer>> occurrences)
+	{
+		if(! (occurrences instanceof OccurrenceStore))
+		{
+			for(List<Integer> occurrence : occurrences)
+				add(occurrence);
+
+			return ! occurrences.isEmpty();
+		}
+
+		OccurrenceStore other = (OccurrenceStore) occurrences;
+		if(other.size == 0)
+			return false;
+		if(other.motifSize != motifSize)
+			throw new IllegalArgumentException("Motif sizes do not match (" + other.motifSize + ", " + motifSize + ").");
+
+		ensureCapacity(size + other.size);
+		System.arraycopy(other.nodes, 0, nodes, size * motifSize, other.size * motifSize);
+		size += other.size;
+
+		return true;
+	}
+
+	/**
+	 * A view of the first n occurrences.
+	 */
+	public OccurrenceStore prefix(int n)
+	{
+		if(n < 0 || n > size)
+			throw new IndexOutOfBoundsException("Prefix " + n + " out of bounds for size " + size);
+
+		shared = true;
+		return new OccurrenceStore(this, n);
+	}
+
+	@Override
+	public List<List<Integer>> subList(int from, int to)
+	{
+		if(from == 0)
+			return prefix(to);
+
+		return super.subList(from, to);
+	}
+
+	private void ensureCapacity(int occurrences)
+	{
+		if(view)
+			throw new UnsupportedOperationException("Cannot add occurrences to a view.");
+
+		long needed = (long) occurrences * motifSize;
+		if(needed <= nodes.length)
+			return;
+
+		nodes = Arrays.copyOf(nodes, (int) Math.min(Integer.MAX_VALUE - 8, Math.max(needed, nodes.length * 2L)));
+		// - the views keep the old array
+		shared = false;
+	}
+
+	/**
+	 * A read-only view of a single occurrence.
+	 */
+	private class Occurrence extends AbstractList<Integer>
+	{
+		private int offset;
+
+		public Occurrence(int i)
+		{
+			this.offset = i * motifSize;
+		}
+
+		@Override
+		public Integer get(int j)
+		{
+			if(j < 0 || j >= motifSize)
+				throw new IndexOutOfBoundsException("Index " + j + " out of bounds for size " + motifSize);
+
+			return nodes[offset + j];
+		}
+
+		@Override
+		public int size()
+		{
+			return motifSize;
+		}
+
+		@Override
+		public boolean contains(Object o)
+		{
+			return indexOf(o) >= 0;
+		}
+
+		@Override
+		public int indexOf(Object o)
+		{
+			if(! (o instanceof Integer))
+				return -1;
+
+			int node = (Integer) o;
+			for(int j = 0; j < motifSize; j++)
+				if(nodes[offset + j] == node)
+					return j;
+
+			return -1;
+		}
+	}
+}
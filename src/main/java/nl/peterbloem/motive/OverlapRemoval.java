@@ -0,0 +1,145 @@
+package nl.peterbloem.motive;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+import org.nodes.Graph;
+import org.nodes.Node;
+
+/**
+ * Greedy removal of overlapping occurrences: the occurrences are visited in
+ * order of increasing exDegree (ties in the order of the store), and an
+ * occurrence is kept if none of its nodes are used by an occurrence that was
+ * kept before it.
+ *
+ * The occurrences are sorted in primitive arrays, and the used nodes are
+ * marked in a BitSet, so this needs no objects per occurrence.
+ *
+ * @author Peter
+ */
+public class OverlapRemoval
+{
+	/**
+	 * Selects a set of non-overlapping occurrences.
+	 *
+	 * @param occurrences The candidate occurrences.
+	 * @param exDegrees The exDegree of each occurrence.
+	 * @param used Scratch space for the used nodes. This should be empty, and
+	 * 	is empty again when the method returns, so that it can be reused.
+	 * @return The indices of the selected occurrences, in the order in which
+	 * 	they were selected.
+	 */
+	public static int[] select(OccurrenceStore occurrences, int[] exDegrees, BitSet used)
+	{
+		int n = occurrences.size(), size = occurrences.motifSize();
+		int[] order = order(exDegrees, n);
+
+		int[] selected = new int[n];
+		int numSelected = 0;
+
+		for(int i : order)
+		{
+			boolean free = true;
+			for(int j = 0; j < size && free; j++)
+				free = ! used.get(occurrences.node(i, j));
+
+			if(! free)
+				continue;
+
+			for(int j = 0; j < size; j++)
+				used.set(occurrences.node(i, j));
+			selected[numSelected++] = i;
+		}
+
+		// * Clear only the bits we've set
+		for(int s = 0; s < numSelected; s++)
+			for(int j = 0; j < size; j++)
+				used.clear(occurrences.node(selected[s], j));
+
+		return Arrays.copyOf(selected, numSelected);
+	}
+
+	/**
+	 * The number of distinct neighbors of each node in the graph.
+	 */
+	public static int[] degrees(Graph<?> data)
+	{
+		int[] degrees = new int[data.size()];
+		for(Node<?> node : data.nodes())
+			degrees[node.index()] = node.neighbors().size();
+
+		return degrees;
+	}
+
+	/**
+	 * Computes the exDegree of each occurrence: the number of neighbors outside
+	 * the occurrence, summed over its nodes (as in MotifCompressor.exDegree).
+	 * 
+	 * Since every occurrence induces the same subgraph, this is the sum of the
+	 * degrees of its nodes, minus the number of neighbors inside the 
+	 * occurrence, which we can read from the motif once.
+	 *
+	 * @param degrees The degrees of the nodes in the data, as given by 
+	 * 	degrees(data).
+	 * @param motif The subgraph induced by the occurrences.
+	 */
+	public static int[] exDegrees(OccurrenceStore occurrences, int[] degrees, Graph<?> motif)
+	{
+		int internal = 0;
+		for(Node<?> node : motif.nodes())
+			internal += node.neighbors().size();
+
+		int n = occurrences.size(), size = occurrences.motifSize();
+		int[] exDegrees = new int[n];
+		for(int i = 0; i < n; i++)
+		{
+			int sum = 0;
+			for(int j = 0; j < size; j++)
+				sum += degrees[occurrences.node(i, j)];
+
+			exDegrees[i] = sum - internal;
+		}
+
+		return exDegrees;
+	}
+
+	/**
+	 * The indices 0 to n - 1, stably sorted by exDegree.
+	 */
+	static int[] order(int[] exDegrees, int n)
+	{
+		int max = 0;
+		for(int i = 0; i < n; i++)
+			max = Math.max(max, exDegrees[i]);
+
+		int[] order = new int[n];
+
+		if(max > 4 * n + 1024)
+		{
+			// * A few occurrences on hubs would make the buckets too sparse, so
+			//   we sort by exDegree and index instead
+			long[] keys = new long[n];
+			for(int i = 0; i < n; i++)
+				keys[i] = ((long) exDegrees[i] << 32) | i;
+			Arrays.sort(keys);
+
+			for(int i = 0; i < n; i++)
+				order[i] = (int) keys[i];
+
+			return order;
+		}
+
+		// * Bucket sort: count the occurrences per exDegree and compute where
+		//   each bucket starts
+		int[] starts = new int[max + 2];
+		for(int i = 0; i < n; i++)
+			starts[exDegrees[i] + 1]++;
+		for(int d = 1; d < starts.length; d++)
+			starts[d] += starts[d - 1];
+
+		for(int i = 0; i < n; i++)
+			order[starts[exDegrees[i]]++] = i;
+
+		return order;
+	}
+}
@@ -0,0 +1,785 @@
+package nl.peterbloem.motive;
+
+import static nl.peterbloem.kit.Functions.log2Factorial;
+import static nl.peterbloem.kit.Series.series;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.nodes.DGraph;
+import org.nodes.DNode;
+import org.nodes.Graph;
+import org.nodes.UGraph;
+import org.nodes.UNode;
+import org.nodes.models.DSequenceEstimator.D;
+
+import nl.peterbloem.kit.Functions;
+import nl.peterbloem.kit.OnlineModel;
+
+/**
+ * The substitution of a prefix of the occurrences of a motif: the state of the
+ * instance loop of MotifModel (see subbedDegrees and subbedERInstances) after
+ * the first size() occurrences. The prefix can be extended, and rolled back to
+ * any shorter prefix, so that a search over prefix sizes (like FindPhi)
+ * processes each occurrence a few times in total, rather than once for every
+ * prefix it tries.
+ *
+ * The links between an occurrence and the rest of the graph are read from the
+ * graph only the first time the occurrence is added, and the wiring bits are
+ * computed at the same time. Changes to the state are written to a journal,
+ * and rolling back undoes them, in time proportional to the number of changes.
+ *
+ * The multi-edges are kept up to date as well: adding an occurrence only
+ * changes the template links of the rewired links that touch it, so the number
+ * of multi-edges is available at any time. Their codelength, which depends on
+ * the order of the instance loop, takes time linear in the number of rewired
+ * links, and the degree sequence of the template graph takes time linear in
+ * the size of the graph. The codelength can also be computed in constant time
+ * from running totals (see multiEdgeBitsTotal()), which is the same up to
+ * floating point error.
+ *
+ * All results are the same, to the bit, as those of the instance loop over the
+ * prefix, provided that the occurrences are disjoint (see disjoint()).
+ *
+ * This class is not thread-safe.
+ *
+ * @author Peter
+ */
+class PrefixSubstitution
+{
+	// * The number of ints per journal entry: the slot and its old values
+	private static final int ENTRY = 6;
+
+	private Graph<?> graph;
+	private boolean directed;
+	private OccurrenceStore occurrences;
+	private int motifSize;
+
+	private List<Integer> degrees;
+	private List<D> dDegrees;
+
+	// * The links between each recorded occurrence and the rest of the graph,
+	//   in the order of the instance loop: the position of the occurrence node
+	//   in the motif, the other node, and whether the link points away from
+	//   the occurrence. The links of occurrence i are at ends[i-1] to
+	//   ends[i] - 1
+	private int[] positions = new int[64], others = new int[64];
+	private boolean[] outgoing = new boolean[64];
+	private int numLinks = 0;
+	private int[] ends;
+	private int numRecorded = 0;
+
+	// * The wiring bits of the first i recorded occurrences, with one model for
+	//   all occurrences, and with a new model per occurrence
+	private double[] wiring, wiringReset;
+	private List<Integer> symbols;
+	private OnlineModel<Integer> wiringModel;
+
+	// * The touched nodes, by slot: the instance node they were mapped to (or
+	//   -1), and their degrees in the template graph, as set by the loop
+	private LongIndex nodes = new LongIndex();
+	private int[] instances = new int[16];
+	private int[] degree = new int[16], inDegree = new int[16], outDegree = new int[16];
+	private boolean[] removed = new boolean[16];
+
+	// * The rewired links, in the indices of the original graph
+	private LongIndex rewired = new LongIndex();
+
+	private int size = 0;
+
+	// * For each prefix size i (up to size), the number of slots, rewired
+	//   links and journal ints before occurrence i was added
+	private int[] markNodes, markRewired, markJournal;
+
+	private int[] journal = new int[16 * ENTRY];
+	private int journalSize = 0;
+
+	// * The multi-edges, kept up to date as occurrences are added and rolled
+	//   back: the link of the template graph that each rewired link maps to,
+	//   and the number of rewired links mapping to each template link
+	private long[] templateLinks = new long[64];
+	private LongIndex template = new LongIndex();
+	private int[] templateCounts = new int[16];
+	private int numTemplate = 0;
+
+	// * The rewired links whose template link changed, with the old template
+	//   link, so that the changes can be undone
+	private int[] remapped = new int[16];
+	private long[] remappedFrom = new long[16];
+	private int numRemaps = 0;
+
+	private int[] markTemplate, markRemaps;
+
+	// * Running totals of the multi-edges: the number of template links for
+	//   each count, the largest count, and the log of the numerator of the
+	//   probability of the counts under the online model
+	private int[] histogram = new int[16];
+	private int maxCount = 0;
+	private double numerator = 0.0;
+
+	// * The multi-edges in the order of the instance loop, computed when
+	//   asked for
+	private boolean counted = false;
+	private LongIndex multiEdges = new LongIndex();
+	private int[] counts = new int[16];
+
+	// * Scratch space for the degrees of the template graph
+	private int[] sDegree = new int[16], sIn = new int[16], sOut = new int[16];
+	private boolean[] sRemoved = new boolean[16];
+
+	/**
+	 * @param degrees The degrees of the graph. If null, the degree sequence of
+	 * 	the template graph is not available.
+	 */
+	public static PrefixSubstitution undirected(
+			UGraph<?> graph, List<Integer> degrees, OccurrenceStore occurrences)
+	{
+		PrefixSubstitution prefix = new PrefixSubstitution(graph, occurrences);
+		prefix.degrees = degrees;
+
+		return prefix;
+	}
+
+	/**
+	 * @param degrees The in and out degrees of the graph. If null, the degree
+	 * 	sequence of the template graph is not available.
+	 */
+	public static PrefixSubstitution directed(
+			DGraph<?> graph, List<D> degrees, OccurrenceStore occurrences)
+	{
+		PrefixSubstitution prefix = new PrefixSubstitution(graph, occurrences);
+		prefix.dDegrees = degrees;
+
+		return prefix;
+	}
+
+	private PrefixSubstitution(Graph<?> graph, OccurrenceStore occurrences)
+	{
+		this.graph = graph;
+		this.directed = graph instanceof DGraph<?>;
+		this.occurrences = occurrences;
+		this.motifSize = occurrences.motifSize();
+
+		int n = occurrences.size();
+		ends = new int[n];
+		wiring = new double[n + 1];
+		wiringReset = new double[n + 1];
+
+		markNodes = new int[n + 1];
+		markRewired = new int[n + 1];
+		markJournal = new int[n + 1];
+		markTemplate = new int[n + 1];
+		markRemaps = new int[n + 1];
+
+		symbols = series(motifSize);
+		wiringModel = new OnlineModel<Integer>(symbols);
+	}
+
+	/**
+	 * Whether no node occurs in more than one occurrence (or twice in one).
+	 */
+	public static boolean disjoint(OccurrenceStore occurrences)
+	{
+		LongIndex seen = new LongIndex();
+		for(int i = 0; i < occurrences.size(); i++)
+			for(int j = 0; j < occurrences.motifSize(); j++)
+			{
+				int before = seen.size();
+				if(seen.add(occurrences.node(i, j)) < before)
+					return false;
+			}
+
+		return true;
+	}
+
+	public Graph<?> graph()
+	{
+		return graph;
+	}
+
+	/**
+	 * The number of occurrences in the current prefix.
+	 */
+	public int size()
+	{
+		return size;
+	}
+
+	/**
+	 * Extends or rolls back the prefix to the first n occurrences.
+	 */
+	public void moveTo(int n)
+	{
+		if(n < 0 || n > occurrences.size())
+			throw new IllegalArgumentException("Prefix size ("+n+") should be between 0 and the number of occurrences ("+occurrences.size()+").");
+
+		if(n < size)
+			rollback(n);
+
+		while(size < n)
+			add();
+	}
+
+	/**
+	 * A snapshot of the current state, which can be restored with rollback()
+	 * as long as the prefix hasn't been rolled back past it.
+	 */
+	public int snapshot()
+	{
+		return size;
+	}
+
+	/**
+	 * Restores the state of a snapshot (or any shorter prefix).
+	 */
+	public void rollback(int snapshot)
+	{
+		if(snapshot < 0 || snapshot > size)
+			throw new IllegalArgumentException("Cannot roll back to a prefix of size " + snapshot + " from a prefix of size " + size + ".");
+
+		int to = markJournal[snapshot];
+		while(journalSize > to)
+		{
+			journalSize -= ENTRY;
+
+			int slot = journal[journalSize];
+			instances[slot] = journal[journalSize + 1];
+			degree[slot] = journal[journalSize + 2];
+			inDegree[slot] = journal[journalSize + 3];
+			outDegree[slot] = journal[journalSize + 4];
+			removed[slot] = journal[journalSize + 5] == 1;
+		}
+
+		// * Undo the changes to the multi-edges
+		while(numRemaps > markRemaps[snapshot])
+		{
+			numRemaps --;
+
+			int index = remapped[numRemaps];
+			decrement(templateLinks[index]);
+			increment(remappedFrom[numRemaps]);
+			templateLinks[index] = remappedFrom[numRemaps];
+		}
+
+		for(int index = rewired.size() - 1; index >= markRewired[snapshot]; index--)
+			decrement(templateLinks[index]);
+
+		// - all template links added since the snapshot now have count 0
+		template.truncate(markTemplate[snapshot]);
+
+		nodes.truncate(markNodes[snapshot]);
+		rewired.truncate(markRewired[snapshot]);
+
+		size = snapshot;
+		counted = false;
+	}
+
+	/**
+	 * The number of distinct links rewired by the current prefix.
+	 */
+	public int numRewired()
+	{
+		return rewired.size();
+	}
+
+	/**
+	 * The number of distinct links in the template graph that rewired links
+	 * map to.
+	 */
+	public int numMultiEdges()
+	{
+		return numTemplate;
+	}
+
+	/**
+	 * The codelength of the multi-edges (see MotifModel.multiEdges()). The
+	 * counts are encoded in the order of the instance loop, which takes time
+	 * linear in the number of rewired links.
+	 */
+	public double multiEdgeBits()
+	{
+		count();
+		return MotifModel.multiEdges(counts, multiEdges.size());
+	}
+
+	/**
+	 * The codelength of the multi-edges, as multiEdgeBits(), but computed in
+	 * constant time from running totals.
+	 *
+	 * The probability that an online model with k symbols assigns to a
+	 * sequence doesn't depend on the order of the sequence: it is
+	 * <pre>
+	 *   prod_s prod_{j < n_s} (j + 1/2) / prod_{t < n} (t + k/2)
+	 * </pre>
+	 * where n_s is the frequency of symbol s in the sequence, and n is its
+	 * length. We keep the log of the numerator up to date as the counts of the
+	 * template links change. The result differs from that of multiEdgeBits()
+	 * only in the floating point error of the sums.
+	 */
+	public double multiEdgeBitsTotal()
+	{
+		if(numTemplate == 0)
+			return Functions.prefix(0);
+
+		return Functions.prefix(maxCount - 1)
+				+ log2Rising(numTemplate, maxCount) - numerator;
+	}
+
+	/**
+	 * The log of prod_{t < n} (t + k/2), from the factorials of the (half)
+	 * integers.
+	 */
+	private static double log2Rising(int n, int k)
+	{
+		int h = k / 2;
+		if(k % 2 == 0)
+			return log2Factorial(n + h - 1) - log2Factorial(h - 1);
+
+		// - Gamma(m + 1/2) = (2m)! sqrt(pi) / (4^m m!)
+		return log2Factorial(2 * (n + h)) - log2Factorial(n + h) - 2.0 * n
+				- log2Factorial(2 * h) + log2Factorial(h);
+	}
+
+	/**
+	 * The wiring bits of the current prefix (see MotifModel.wiringBits()).
+	 */
+	public double wiringBits(boolean reset)
+	{
+		return reset ? wiringReset[size] : wiring[size];
+	}
+
+	/**
+	 * The degree sequence of the template graph of the current prefix.
+	 */
+	public List<Integer> degrees()
+	{
+		if(size == 0)
+			return degrees;
+
+		int numSlots = nodes.size();
+		if(sDegree.length < numSlots)
+			sDegree = new int[degree.length];
+		System.arraycopy(degree, 0, sDegree, 0, numSlots);
+
+		// * set occurrence nodes back to 0
+		for(int occurrence = 0; occurrence < size; occurrence++)
+			sDegree[nodes.index(occurrences.node(occurrence, 0))] = 0;
+
+		// * Add each rewritten link _once_
+		for(int index = 0; index < template.size(); index++)
+			if(templateCounts[index] > 0)
+			{
+				long link = template.key(index);
+				sDegree[nodes.index(InstanceBuffers.first(link))] ++;
+				sDegree[nodes.index(InstanceBuffers.second(link))] ++;
+			}
+
+		List<Integer> result = new ArrayList<Integer>(subbedSize());
+		for(int node = 0; node < degrees.size(); node++)
+		{
+			int slot = nodes.index(node);
+			int d = slot < 0 ? degrees.get(node) : sDegree[slot];
+
+			if(d >= 0)
+				result.add(d);
+		}
+
+		return result;
+	}
+
+	/**
+	 * The in and out degrees of the template graph of the current prefix.
+	 */
+	public List<D> dDegrees()
+	{
+		if(size == 0)
+			return dDegrees;
+
+		int numSlots = nodes.size();
+		if(sIn.length < numSlots)
+		{
+			sIn = new int[inDegree.length];
+			sOut = new int[outDegree.length];
+			sRemoved = new boolean[removed.length];
+		}
+		System.arraycopy(inDegree, 0, sIn, 0, numSlots);
+		System.arraycopy(outDegree, 0, sOut, 0, numSlots);
+		System.arraycopy(removed, 0, sRemoved, 0, numSlots);
+
+		// * set occurrence nodes back to 0
+		for(int occurrence = 0; occurrence < size; occurrence++)
+		{
+			int slot = nodes.index(occurrences.node(occurrence, 0));
+			sIn[slot] = 0;
+			sOut[slot] = 0;
+			sRemoved[slot] = false;
+		}
+
+		// * Add each rewritten link _once_
+		for(int index = 0; index < template.size(); index++)
+			if(templateCounts[index] > 0)
+			{
+				long link = template.key(index);
+				sOut[nodes.index(InstanceBuffers.first(link))] ++;
+				sIn[nodes.index(InstanceBuffers.second(link))] ++;
+			}
+
+		List<D> result = new ArrayList<D>(subbedSize());
+		for(int node = 0; node < dDegrees.size(); node++)
+		{
+			int slot = nodes.index(node);
+
+			if(slot < 0)
+				result.add(dDegrees.get(node));
+			else if(! sRemoved[slot])
+				result.add(new D(sIn[slot], sOut[slot]));
+		}
+
+		return result;
+	}
+
+	private int subbedSize()
+	{
+		return graph.size() - size * (motifSize - 1);
+	}
+
+	/**
+	 * Adds the next occurrence to the prefix, with the same operations as the
+	 * instance loop.
+	 */
+	private void add()
+	{
+		int occurrence = size;
+		if(occurrence == numRecorded)
+			record(occurrence);
+
+		markNodes[occurrence] = nodes.size();
+		markRewired[occurrence] = rewired.size();
+		markJournal[occurrence] = journalSize;
+		markTemplate[occurrence] = template.size();
+		markRemaps[occurrence] = numRemaps;
+
+		boolean track = degrees != null || dDegrees != null;
+		int first = occurrences.node(occurrence, 0);
+
+		// * Remove the occurrence (first node becomes instance node)
+		if(track)
+		{
+			for(int j = 1; j < motifSize; j++)
+			{
+				int slot = change(occurrences.node(occurrence, j));
+				degree[slot] = -1;
+				removed[slot] = true;
+			}
+
+			int slot = change(first);
+			degree[slot] = 0;
+			inDegree[slot] = 0;
+			outDegree[slot] = 0;
+			removed[slot] = false;
+		}
+
+		// - change() may grow the arrays, so we call it before reading them
+		for(int j = 0; j < motifSize; j++)
+		{
+			int slot = change(occurrences.node(occurrence, j));
+			instances[slot] = first;
+		}
+
+		// * Remove all links linking into the occurrence
+		for(int l = occurrence == 0 ? 0 : ends[occurrence - 1]; l < ends[occurrence]; l++)
+		{
+			int index = occurrences.node(occurrence, positions[l]), other = others[l];
+
+			if(! directed)
+			{
+				if(track)
+				{
+					int slot = change(other);
+					degree[slot] --;
+				}
+
+				rewire(InstanceBuffers.ordered(index, other));
+			} else if(outgoing[l])
+			{
+				if(track)
+				{
+					int slot = change(other);
+					if(! removed[slot])
+						inDegree[slot] --;
+				}
+
+				rewire(InstanceBuffers.pair(index, other));
+			} else
+			{
+				if(track)
+				{
+					int slot = change(other);
+					if(! removed[slot])
+						outDegree[slot] --;
+				}
+
+				rewire(InstanceBuffers.pair(other, index));
+			}
+		}
+
+		size ++;
+		counted = false;
+	}
+
+	/**
+	 * Reads the links between an occurrence and the rest of the graph, and
+	 * computes the wiring bits up to and including the occurrence.
+	 */
+	private void record(int occurrence)
+	{
+		for(int i = 0; i < motifSize; i++)
+		{
+			int index = occurrences.node(occurrence, i);
+
+			if(directed)
+			{
+				DNode<?> node = ((DGraph<?>) graph).get(index);
+
+				for(DNode<?> other : node.out())
+					if(! occurrences.contains(occurrence, other.index()))
+						link(i, other.index(), true);
+
+				for(DNode<?> other : node.in())
+					if(! occurrences.contains(occurrence, other.index()))
+						link(i, other.index(), false);
+			} else
+			{
+				for(UNode<?> other : ((UGraph<?>) graph).get(index).neighbors())
+					if(! occurrences.contains(occurrence, other.index()))
+						link(i, other.index(), false);
+			}
+		}
+
+		int from = occurrence == 0 ? 0 : ends[occurrence - 1];
+		ends[occurrence] = numLinks;
+
+		// * The wiring bits, summed in the same order as by the instance loop
+		OnlineModel<Integer> resetModel = new OnlineModel<Integer>(symbols);
+
+		double bits = wiring[occurrence], resetBits = wiringReset[occurrence];
+		for(int l = from; l < numLinks; l++)
+		{
+			bits += - Functions.log2(wiringModel.observe(positions[l]));
+			resetBits += - Functions.log2(resetModel.observe(positions[l]));
+		}
+
+		wiring[occurrence + 1] = bits;
+		wiringReset[occurrence + 1] = resetBits;
+
+		numRecorded ++;
+	}
+
+	private void link(int position, int other, boolean out)
+	{
+		if(numLinks == positions.length)
+		{
+			positions = Arrays.copyOf(positions, numLinks * 2);
+			others = Arrays.copyOf(others, numLinks * 2);
+			outgoing = Arrays.copyOf(outgoing, numLinks * 2);
+		}
+
+		positions[numLinks] = position;
+		others[numLinks] = other;
+		outgoing[numLinks] = out;
+		numLinks ++;
+	}
+
+	/**
+	 * Records a rewired link, and updates the multi-edges: the link of the
+	 * template graph that the rewired link maps to may have changed, if it was
+	 * rewired before.
+	 */
+	private void rewire(long link)
+	{
+		int before = rewired.size();
+		int index = rewired.add(link);
+
+		int a = mapped(InstanceBuffers.first(link)), b = mapped(InstanceBuffers.second(link));
+		long to = directed ? InstanceBuffers.pair(a, b) : InstanceBuffers.ordered(a, b);
+
+		if(index == before)
+		{
+			if(index == templateLinks.length)
+				templateLinks = Arrays.copyOf(templateLinks, index * 2);
+
+			templateLinks[index] = to;
+			increment(to);
+		} else if(templateLinks[index] != to)
+		{
+			if(numRemaps == remapped.length)
+			{
+				remapped = Arrays.copyOf(remapped, numRemaps * 2);
+				remappedFrom = Arrays.copyOf(remappedFrom, numRemaps * 2);
+			}
+
+			remapped[numRemaps] = index;
+			remappedFrom[numRemaps] = templateLinks[index];
+			numRemaps ++;
+
+			decrement(templateLinks[index]);
+			increment(to);
+			templateLinks[index] = to;
+		}
+	}
+
+	private void increment(long link)
+	{
+		int before = template.size();
+		int index = template.add(link);
+
+		if(index == before)
+		{
+			if(index == templateCounts.length)
+				templateCounts = Arrays.copyOf(templateCounts, index * 2);
+			templateCounts[index] = 0;
+		}
+
+		if(templateCounts[index] ++ == 0)
+			numTemplate ++;
+
+		recount(templateCounts[index] - 1, templateCounts[index]);
+	}
+
+	private void decrement(long link)
+	{
+		int index = template.index(link);
+
+		if(-- templateCounts[index] == 0)
+			numTemplate --;
+
+		recount(templateCounts[index] + 1, templateCounts[index]);
+	}
+
+	/**
+	 * Updates the running totals of the multi-edges for a template link whose
+	 * count changed (0 for a template link that isn't used).
+	 */
+	private void recount(int from, int to)
+	{
+		if(from > 0)
+		{
+			histogram[from] --;
+			numerator -= Functions.log2(histogram[from] + 0.5);
+		}
+
+		if(to > 0)
+		{
+			if(to >= histogram.length)
+				histogram = Arrays.copyOf(histogram, histogram.length * 2);
+
+			numerator += Functions.log2(histogram[to] + 0.5);
+			histogram[to] ++;
+		}
+
+		maxCount = Math.max(maxCount, to);
+		while(maxCount > 0 && histogram[maxCount] == 0)
+			maxCount --;
+	}
+
+	/**
+	 * Computes the multi-edges of the current prefix in the order of the
+	 * instance loop.
+	 */
+	private void count()
+	{
+		if(counted)
+			return;
+
+		multiEdges.clear();
+		for(int index = 0; index < rewired.size(); index++)
+		{
+			int before = multiEdges.size();
+			int m = multiEdges.add(templateLinks[index]);
+
+			if(m == before)
+			{
+				if(m == counts.length)
+					counts = Arrays.copyOf(counts, counts.length * 2);
+				counts[m] = 0;
+			}
+
+			counts[m] ++;
+		}
+
+		counted = true;
+	}
+
+	private int mapped(int node)
+	{
+		int slot = nodes.index(node);
+		if(slot < 0 || instances[slot] < 0)
+			return node;
+
+		return instances[slot];
+	}
+
+	/**
+	 * The slot of a node that is about to be changed. The old values are
+	 * written to the journal.
+	 */
+	private int change(int node)
+	{
+		int slot = slot(node);
+
+		// - slots added for the current occurrence are removed by a rollback
+		//   anyway
+		if(slot < markNodes[size])
+		{
+			if(journalSize + ENTRY > journal.length)
+				journal = Arrays.copyOf(journal, journal.length * 2);
+
+			journal[journalSize++] = slot;
+			journal[journalSize++] = instances[slot];
+			journal[journalSize++] = degree[slot];
+			journal[journalSize++] = inDegree[slot];
+			journal[journalSize++] = outDegree[slot];
+			journal[journalSize++] = removed[slot] ? 1 : 0;
+		}
+
+		return slot;
+	}
+
+	/**
+	 * The slot of a node, which is added (with its degrees from the original
+	 * graph) if it hasn't been touched before.
+	 */
+	private int slot(int node)
+	{
+		int size = nodes.size();
+		int slot = nodes.add(node);
+
+		if(slot == size)
+		{
+			if(slot == instances.length)
+			{
+				int n = instances.length * 2;
+				instances = Arrays.copyOf(instances, n);
+				degree = Arrays.copyOf(degree, n);
+				inDegree = Arrays.copyOf(inDegree, n);
+				outDegree = Arrays.copyOf(outDegree, n);
+				removed = Arrays.copyOf(removed, n);
+			}
+
+			instances[slot] = -1;
+			removed[slot] = false;
+
+			if(degrees != null)
+				degree[slot] = degrees.get(node);
+			if(dDegrees != null)
+			{
+				D d = dDegrees.get(node);
+				inDegree[slot] = d.in();
+				outDegree[slot] = d.out();
+			}
+		}
+
+		return slot;
+	}
+}
@@ -0,0 +1,293 @@
+package nl.peterbloem.motive;
+
+import static nl.peterbloem.kit.Series.series;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.nodes.DGraph;
+import org.nodes.Graph;
+import org.nodes.Link;
+import org.nodes.MapDTGraph;
+import org.nodes.MapUTGraph;
+import org.nodes.Node;
+import org.nodes.UGraph;
+
+/**
+ * The state of the sampling phase of a motif extractor, as written to disk
+ * periodically so that an interrupted run can be resumed.
+ *
+ * The random streams of the shards are split off a single seeded stream, in
+ * a fixed order. The state of the sampler is therefore described completely
+ * by the seed and the number of shards merged so far. Together with the
+ * merged MotifTable and the dictionary of motifs without a direct key, this
+ * lets a resumed run produce the same result as an uninterrupted one.
+ *
+ * The labels of dictionary motifs are written with Java serialization, so they
+ * should be Serializable (as Strings are).
+ *
+ * @author Peter
+ */
+class SamplingCheckpoint
+{
+	private static final int VERSION = 1;
+
+	private String parameters;
+	private long seed;
+	private int shards;
+	private long samplesTaken;
+	private boolean finished;
+
+	// * The table, per motif
+	private long[] keys;
+	private double[] frequencies, errors;
+	private List<OccurrenceStore> occurrences;
+	private int cap;
+	private long numOccurrences;
+
+	// * The dictionary motifs: their labels and links (as pairs of indices)
+	private List<List<Object>> labels;
+	private List<int[]> links;
+
+	private SamplingCheckpoint()
+	{
+	}
+
+	/**
+	 * A description of the settings that determine the result of the
+	 * sampling. A checkpoint can only be resumed with the same settings.
+	 */
+	public String parameters()
+	{
+		return parameters;
+	}
+
+	public long seed()
+	{
+		return seed;
+	}
+
+	/**
+	 * The number of shards that were merged into the table.
+	 */
+	public int shards()
+	{
+		return shards;
+	}
+
+	public long samplesTaken()
+	{
+		return samplesTaken;
+	}
+
+	/**
+	 * Whether the sampling had finished (or stopped early) when the checkpoint
+	 * was written.
+	 */
+	public boolean finished()
+	{
+		return finished;
+	}
+
+	/**
+	 * Adds the stored motifs to the given (empty) table, in the order of
+	 * their indices.
+	 */
+	public void restore(MotifTable motifs)
+	{
+		for(int index : series(keys.length))
+		{
+			motifs.add(keys[index], frequencies[index], occurrences.get(index));
+			motifs.setError(index, errors[index]);
+		}
+
+		motifs.setCounts(cap, numOccurrences);
+	}
+
+	@SuppressWarnings("unchecked")
+	public <L> List<UGraph<L>> uDictionary()
+	{
+		List<UGraph<L>> dictionary = new ArrayList<UGraph<L>>(labels.size());
+		for(int i : series(labels.size()))
+		{
+			UGraph<L> graph = new MapUTGraph<L, String>();
+			for(Object label : labels.get(i))
+				graph.add((L) label);
+
+			int[] pairs = links.get(i);
+			for(int k = 0; k < pairs.length; k += 2)
+				graph.get(pairs[k]).connect(graph.get(pairs[k + 1]));
+
+			dictionary.add(graph);
+		}
+
+		return dictionary;
+	}
+
+	@SuppressWarnings("unchecked")
+	public <L> List<DGraph<L>> dDictionary()
+	{
+		List<DGraph<L>> dictionary = new ArrayList<DGraph<L>>(labels.size());
+		for(int i : series(labels.size()))
+		{
+			DGraph<L> graph = new MapDTGraph<L, String>();
+			for(Object label : labels.get(i))
+				graph.add((L) label);
+
+			int[] pairs = links.get(i);
+			for(int k = 0; k < pairs.length; k += 2)
+				graph.get(pairs[k]).connect(graph.get(pairs[k + 1]));
+
+			dictionary.add(graph);
+		}
+
+		return dictionary;
+	}
+
+	/**
+	 * Writes a checkpoint. The file is first written under a temporary name
+	 * and then moved into place, so that a crash while writing leaves the
+	 * previous checkpoint intact.
+	 */
+	public static <L> void write(
+			File file, String parameters, long seed, int shards,
+			long samplesTaken, boolean finished, MotifTable motifs,
+			List<? extends Graph<L>> dictionary)
+		throws IOException
+	{
+		File temp = new File(file.getPath() + ".tmp");
+
+		ObjectOutputStream out = new ObjectOutputStream(
+				new BufferedOutputStream(new FileOutputStream(temp)));
+		try
+		{
+			out.writeInt(VERSION);
+			out.writeUTF(parameters);
+			out.writeLong(seed);
+			out.writeInt(shards);
+			out.writeLong(samplesTaken);
+			out.writeBoolean(finished);
+
+			out.writeInt(motifs.size());
+			for(int index : series(motifs.size()))
+			{
+				out.writeLong(motifs.key(index));
+				out.writeDouble(motifs.frequency(index));
+				out.writeDouble(motifs.error(index));
+
+				OccurrenceStore store = motifs.occurrences(index);
+				out.writeInt(store.motifSize());
+				out.writeInt(store.size());
+				for(int i : series(store.size()))
+					for(int j : series(store.motifSize()))
+						out.writeInt(store.node(i, j));
+			}
+			out.writeInt(motifs.cap());
+			out.writeLong(motifs.numOccurrences());
+
+			out.writeInt(dictionary.size());
+			for(Graph<L> graph : dictionary)
+			{
+				out.writeInt(graph.size());
+				for(Node<L> node : graph.nodes())
+					out.writeObject(node.label());
+
+				out.writeInt((int) graph.numLinks());
+				for(Link<L> link : graph.links())
+				{
+					out.writeInt(link.first().index());
+					out.writeInt(link.second().index());
+				}
+			}
+		} finally
+		{
+			out.close();
+		}
+
+		Files.move(temp.toPath(), file.toPath(),
+				StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	public static SamplingCheckpoint read(File file)
+		throws IOException
+	{
+		SamplingCheckpoint checkpoint = new SamplingCheckpoint();
+
+		ObjectInputStream in = new ObjectInputStream(
+				new BufferedInputStream(new FileInputStream(file)));
+		try
+		{
+			int version = in.readInt();
+			if(version != VERSION)
+				throw new IOException("Checkpoint " + file + " has version " + version + ", expected " + VERSION + ".");
+
+			checkpoint.parameters = in.readUTF();
+			checkpoint.seed = in.readLong();
+			checkpoint.shards = in.readInt();
+			checkpoint.samplesTaken = in.readLong();
+			checkpoint.finished = in.readBoolean();
+
+			int size = in.readInt();
+			checkpoint.keys = new long[size];
+			checkpoint.frequencies = new double[size];
+			checkpoint.errors = new double[size];
+			checkpoint.occurrences = new ArrayList<OccurrenceStore>(size);
+			for(int index : series(size))
+			{
+				checkpoint.keys[index] = in.readLong();
+				checkpoint.frequencies[index] = in.readDouble();
+				checkpoint.errors[index] = in.readDouble();
+
+				int motifSize = in.readInt(), n = in.readInt();
+				OccurrenceStore store = new OccurrenceStore(motifSize, n);
+				List<Integer> occurrence = new ArrayList<Integer>(motifSize);
+				for(int i : series(n))
+				{
+					occurrence.clear();
+					for(int j : series(motifSize))
+						occurrence.add(in.readInt());
+					store.add(occurrence);
+				}
+				checkpoint.occurrences.add(store);
+			}
+			checkpoint.cap = in.readInt();
+			checkpoint.numOccurrences = in.readLong();
+
+			int numGraphs = in.readInt();
+			checkpoint.labels = new ArrayList<List<Object>>(numGraphs);
+			checkpoint.links = new ArrayList<int[]>(numGraphs);
+			for(int g : series(numGraphs))
+			{
+				int n = in.readInt();
+				List<Object> labels = new ArrayList<Object>(n);
+				for(int i : series(n))
+					labels.add(in.readObject());
+
+				int[] pairs = new int[2 * in.readInt()];
+				for(int k : series(pairs.length))
+					pairs[k] = in.readInt();
+
+				checkpoint.labels.add(labels);
+				checkpoint.links.add(pairs);
+			}
+		} catch (ClassNotFoundException e)
+		{
+			throw new IOException("Could not read the labels in checkpoint " + file + ".", e);
+		} finally
+		{
+			in.close();
+		}
+
+		return checkpoint;
+	}
+}
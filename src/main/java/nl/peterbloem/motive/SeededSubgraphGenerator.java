@@ -0,0 +1,115 @@
+package nl.peterbloem.motive;
+
+import static nl.peterbloem.kit.Series.series;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.SplittableRandom;
+
+import org.nodes.Graph;
+import org.nodes.Node;
+
+import nl.peterbloem.kit.AbstractGenerator;
+
+/**
+ * Samples connected subgraphs by starting at a random node and repeatedly
+ * adding a random neighbor of the nodes chosen so far, until the required size
+ * is reached.
+ *
+ * Unlike the SimpleSubgraphGenerator, this generator draws from its own random
+ * stream rather than from Global.random(). This allows several generators to
+ * sample in parallel, while keeping the results reproducible.
+ *
+ * @author Peter
+ */
+public class SeededSubgraphGenerator extends AbstractGenerator<List<Integer>>
+{
+	/**
+	 * The number of times we restart from a new random node (because the
+	 * component of the start node was too small) before giving up.
+	 */
+	public static final int MAX_ATTEMPTS = 10000;
+
+	private Graph<?> graph;
+	private int minSize, maxSize;
+	private SplittableRandom random;
+
+	/**
+	 * @param graph
+	 * @param minSize The minimum subgraph size (inclusive)
+	 * @param maxSize The maximum subgraph size (inclusive)
+	 * @param random The random stream to sample from. This object should not
+	 * 	be shared with other threads.
+	 */
+	public SeededSubgraphGenerator(
+			Graph<?> graph, int minSize, int maxSize, SplittableRandom random)
+	{
+		this.graph = graph;
+		this.minSize = minSize;
+		this.maxSize = maxSize;
+		this.random = random;
+	}
+
+	@Override
+	public List<Integer> generate()
+	{
+		int size = minSize + random.nextInt(maxSize - minSize + 1);
+
+		for(int attempt : series(MAX_ATTEMPTS))
+		{
+			List<Integer> indices = attempt(size);
+			if(indices != null)
+				return indices;
+		}
+
+		throw new IllegalStateException("Could not find a connected subgraph of size " + size + " in " + MAX_ATTEMPTS + " attempts.");
+	}
+
+	/**
+	 * Grows a subgraph from a single random start node.
+	 *
+	 * @return The indices of the nodes in the subgraph, or null if the start
+	 * 	node's component contains fewer than size nodes.
+	 */
+	private List<Integer> attempt(int size)
+	{
+		List<Integer> indices = new ArrayList<Integer>(size);
+
+		// * All nodes that are in the subgraph or in the frontier
+		Set<Integer> seen = new HashSet<Integer>();
+		// * All neighbors of the subgraph, not in the subgraph themselves
+		List<Integer> frontier = new ArrayList<Integer>();
+
+		int start = random.nextInt(graph.size());
+		indices.add(start);
+		seen.add(start);
+		expand(start, seen, frontier);
+
+		while(indices.size() < size)
+		{
+			if(frontier.isEmpty())
+				return null;
+
+			// - draw a random frontier node, and remove it by swapping in the last
+			int draw = random.nextInt(frontier.size());
+			int next = frontier.get(draw);
+
+			frontier.set(draw, frontier.get(frontier.size() - 1));
+			frontier.remove(frontier.size() - 1);
+
+			indices.add(next);
+			expand(next, seen, frontier);
+		}
+
+		return indices;
+	}
+
+	private void expand(int index, Set<Integer> seen, List<Integer> frontier)
+	{
+		for(Node<?> neighbor : graph.get(index).neighbors())
+			if(seen.add(neighbor.index()))
+				frontier.add(neighbor.index());
+	}
+}
@@ -0,0 +1,135 @@
+package nl.peterbloem.motive;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.nodes.Graph;
+import org.nodes.Node;
+
+/**
+ * Enumerates all connected induced subgraphs of a graph within a range of
+ * sizes, using the ESU algorithm (Wernicke, 2006). Each node set is visited
+ * exactly once. For directed graphs, connectivity ignores link direction.
+ *
+ * The enumeration is split by root: enumerate(root, ...) visits exactly those
+ * subgraphs whose lowest node index is the root. Different roots can be
+ * enumerated by different enumerators in parallel. A single enumerator is not
+ * thread-safe.
+ *
+ * @author Peter
+ */
+public class SubgraphEnumerator
+{
+	/**
+	 * Receives the enumerated subgraphs.
+	 */
+	public static interface Visitor
+	{
+		/**
+		 * @param indices The indices of the nodes in the subgraph. The caller
+		 * 	may keep this list.
+		 */
+		public void visit(List<Integer> indices);
+	}
+
+	private Graph<?> graph;
+	private int minSize, maxSize;
+
+	// * For each node, the number of nodes in the current subgraph that it is
+	//   equal or adjacent to.
+	private int[] closed;
+
+	// * The nodes of the current subgraph
+	private int[] nodes;
+	private int size = 0;
+
+	private long visited = 0;
+
+	public SubgraphEnumerator(Graph<?> graph, int minSize, int maxSize)
+	{
+		this.graph = graph;
+		this.minSize = minSize;
+		this.maxSize = maxSize;
+
+		this.closed = new int[graph.size()];
+		this.nodes = new int[maxSize];
+	}
+
+	/**
+	 * Visits all subgraphs whose lowest node index is root.
+	 */
+	public void enumerate(int root, Visitor visitor)
+	{
+		List<Integer> extension = new ArrayList<Integer>();
+
+		push(root, root, extension);
+		extend(root, extension, visitor);
+		pop();
+	}
+
+	/**
+	 * The number of subgraphs visited so far.
+	 */
+	public long visited()
+	{
+		return visited;
+	}
+
+	private void extend(int root, List<Integer> extension, Visitor visitor)
+	{
+		if(size >= minSize)
+		{
+			List<Integer> indices = new ArrayList<Integer>(size);
+			for(int i = 0; i < size; i++)
+				indices.add(nodes[i]);
+
+			visitor.visit(indices);
+			visited++;
+		}
+
+		if(size == maxSize)
+			return;
+
+		while(! extension.isEmpty())
+		{
+			int next = extension.remove(extension.size() - 1);
+
+			List<Integer> nextExtension = new ArrayList<Integer>(extension);
+			push(next, root, nextExtension);
+			extend(root, nextExtension, visitor);
+			pop();
+		}
+	}
+
+	/**
+	 * Adds a node to the current subgraph. Its exclusive neighbors (those
+	 * with a higher index than the root, not in or adjacent to the current
+	 * subgraph) are added to the extension.
+	 */
+	private void push(int index, int root, List<Integer> extension)
+	{
+		for(Node<?> neighbor : graph.get(index).neighbors())
+		{
+			int n = neighbor.index();
+			if(n > root && closed[n] == 0)
+				extension.add(n);
+
+			// - incrementing immediately ensures that duplicate neighbors are
+			//   only added once
+			closed[n]++;
+		}
+
+		closed[index]++;
+		nodes[size++] = index;
+	}
+
+	private void pop()
+	{
+		int index = nodes[--size];
+
+		for(Node<?> neighbor : graph.get(index).neighbors())
+			closed[neighbor.index()]--;
+
+		closed[index]--;
+	}
+}
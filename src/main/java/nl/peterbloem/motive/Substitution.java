@@ -0,0 +1,224 @@
+package nl.peterbloem.motive;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.nodes.DGraph;
+import org.nodes.Graph;
+import org.nodes.UGraph;
+import org.nodes.models.DSequenceEstimator.D;
+
+import nl.peterbloem.kit.Functions;
+import nl.peterbloem.kit.OnlineModel;
+
+/**
+ * The result of substituting a set of occurrences in a graph: the degree
+ * sequence of the subbed graph, its number of links and the multi-edges that
+ * the substitution removed.
+ *
+ * These are the same for all null models, so a Substitution is computed once
+ * (with one pass over the graph) and then passed to the sizeER, sizeEL and
+ * sizeBeta functions of MotifModel. The wiring bits are computed the first
+ * time they're asked for.
+ *
+ * The degrees are stored in arrays rather than boxed lists, since a
+ * SubstitutionCache may hold one substitution for every prefix that a search
+ * tries.
+ *
+ * @author Peter
+ */
+public class Substitution
+{
+	private Graph<?> graph;
+	private Graph<?> sub;
+	private List<List<Integer>> occurrences;
+
+	// * The degrees of the subbed graph (for undirected graphs), or its in and
+	//   out degrees (for directed graphs)
+	private int[] degrees = null;
+	private int[] inDegrees = null, outDegrees = null;
+	private int links = 0;
+
+	private double multiEdgesPrefix;
+	private double multiEdgesIntegers;
+
+	// * The wiring bits without and with resets (NaN until computed)
+	private double wiring = Double.NaN, wiringReset = Double.NaN;
+
+	private volatile int betaSamples = 0;
+
+	private Substitution(Graph<?> graph, Graph<?> sub, List<List<Integer>> occurrences)
+	{
+		this.graph = graph;
+		this.sub = sub;
+		this.occurrences = occurrences;
+
+		List<Integer> additions = new ArrayList<Integer>(graph.size());
+
+		if(graph instanceof DGraph<?>)
+		{
+			List<D> dDegrees = MotifModel.subbedDegrees((DGraph<?>) graph, occurrences, additions);
+
+			inDegrees = new int[dDegrees.size()];
+			outDegrees = new int[dDegrees.size()];
+			for(int i = 0; i < dDegrees.size(); i++)
+			{
+				inDegrees[i] = dDegrees.get(i).in();
+				outDegrees[i] = dDegrees.get(i).out();
+				links += outDegrees[i];
+			}
+		} else
+		{
+			List<Integer> list = MotifModel.subbedDegrees((UGraph<?>) graph, occurrences, additions);
+
+			degrees = new int[list.size()];
+			for(int i = 0; i < list.size(); i++)
+			{
+				degrees[i] = list.get(i);
+				links += degrees[i];
+			}
+			links /= 2;
+		}
+
+		multiEdgesPrefix = Functions.prefix(additions.isEmpty() ? 0 : (long)Functions.max(additions));
+		multiEdgesIntegers = OnlineModel.storeIntegers(additions);
+	}
+
+	/**
+	 * Substitutes the given occurrences of sub in graph.
+	 */
+	public static Substitution of(Graph<?> graph, Graph<?> sub, List<List<Integer>> occurrences)
+	{
+		return new Substitution(graph, sub, occurrences);
+	}
+
+	public Graph<?> graph()
+	{
+		return graph;
+	}
+
+	public Graph<?> sub()
+	{
+		return sub;
+	}
+
+	public List<List<Integer>> occurrences()
+	{
+		return occurrences;
+	}
+
+	public boolean directed()
+	{
+		return inDegrees != null;
+	}
+
+	/**
+	 * The number of nodes of the subbed graph.
+	 */
+	public int size()
+	{
+		return graph.size() - (sub.size() - 1) * occurrences.size();
+	}
+
+	/**
+	 * The number of links of the subbed graph (after the multi-edges have been
+	 * removed).
+	 */
+	public int numLinks()
+	{
+		return links;
+	}
+
+	/**
+	 * The degree sequence of the subbed graph, if the graph is undirected
+	 * (null otherwise). The list is an unmodifiable view.
+	 */
+	public List<Integer> degrees()
+	{
+		return degrees == null ? null : new Degrees();
+	}
+
+	/**
+	 * The in and out degree sequence of the subbed graph, if the graph is
+	 * directed (null otherwise). The list is an unmodifiable view.
+	 */
+	public List<D> dDegrees()
+	{
+		return inDegrees == null ? null : new DDegrees();
+	}
+
+	/**
+	 * The bits for the size of the largest multi-edge.
+	 */
+	public double multiEdgesPrefix()
+	{
+		return multiEdgesPrefix;
+	}
+
+	/**
+	 * The bits for the number of additional links of each multi-edge.
+	 */
+	public double multiEdgesIntegers()
+	{
+		return multiEdgesIntegers;
+	}
+
+	/**
+	 * The number of samples that the DS model took for this substitution (0
+	 * if it hasn't been computed).
+	 */
+	public int betaSamples()
+	{
+		return betaSamples;
+	}
+
+	public void setBetaSamples(int betaSamples)
+	{
+		this.betaSamples = betaSamples;
+	}
+
+	public synchronized double wiringBits(boolean reset)
+	{
+		if(reset)
+		{
+			if(Double.isNaN(wiringReset))
+				wiringReset = MotifModel.wiringBitsDirect(graph, sub, occurrences, true);
+			return wiringReset;
+		}
+
+		if(Double.isNaN(wiring))
+			wiring = MotifModel.wiringBitsDirect(graph, sub, occurrences, false);
+		return wiring;
+	}
+
+	private class Degrees extends AbstractList<Integer>
+	{
+		@Override
+		public Integer get(int i)
+		{
+			return degrees[i];
+		}
+
+		@Override
+		public int size()
+		{
+			return degrees.length;
+		}
+	}
+
+	private class DDegrees extends AbstractList<D>
+	{
+		@Override
+		public D get(int i)
+		{
+			return new D(inDegrees[i], outDegrees[i]);
+		}
+
+		@Override
+		public int size()
+		{
+			return inDegrees.length;
+		}
+	}
+}
@@ -0,0 +1,102 @@
+package nl.peterbloem.motive;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.nodes.Graph;
+
+/**
+ * The substitutions of the prefixes of the occurrences of one motif, keyed by
+ * the number of occurrences.
+ *
+ * The searches for the ER, EL and DS null models all evaluate their prefixes
+ * through one cache, so that each prefix is substituted only once per motif.
+ * Once all three are done, clear() releases the substitutions.
+ *
+ * @author Peter
+ */
+public class SubstitutionCache
+{
+	private Graph<?> graph;
+	private Graph<?> sub;
+	private OccurrenceStore occurrences;
+
+	private ConcurrentMap<Integer, Substitution> substitutions =
+			new ConcurrentHashMap<Integer, Substitution>();
+
+	// * The DS samples of the substitutions that have been released
+	private long released = 0;
+
+	public SubstitutionCache(Graph<?> graph, Graph<?> sub, List<List<Integer>> occurrences)
+	{
+		this.graph = graph;
+		this.sub = sub;
+		this.occurrences = OccurrenceStore.of(occurrences);
+	}
+
+	public Graph<?> graph()
+	{
+		return graph;
+	}
+
+	public Graph<?> sub()
+	{
+		return sub;
+	}
+
+	public OccurrenceStore occurrences()
+	{
+		return occurrences;
+	}
+
+	/**
+	 * The substitution of the first n occurrences.
+	 */
+	public Substitution get(int n)
+	{
+		Substitution substitution = substitutions.get(n);
+		if(substitution != null)
+			return substitution;
+
+		// - Two threads asking for the same prefix at the same time may both
+		//   compute it, but they agree on the one that's kept
+		substitution = Substitution.of(graph, sub, occurrences.prefix(n));
+		Substitution previous = substitutions.putIfAbsent(n, substitution);
+
+		return previous == null ? substitution : previous;
+	}
+
+	/**
+	 * The total number of samples that the DS model took over all prefixes.
+	 */
+	public synchronized long betaSamples()
+	{
+		long total = released;
+		for(Substitution substitution : substitutions.values())
+			total += substitution.betaSamples();
+
+		return total;
+	}
+
+	/**
+	 * Releases all substitutions. The cache can still be used afterwards, but
+	 * it will substitute each prefix again.
+	 */
+	public synchronized void clear()
+	{
+		for(Substitution substitution : substitutions.values())
+			released += substitution.betaSamples();
+
+		substitutions.clear();
+	}
+
+	/**
+	 * The number of prefixes that have been substituted (since the last
+	 * clear()).
+	 */
+	public int size()
+	{
+		return substitutions.size();
+	}
+}
@@ -7,8 +7,11 @@ import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
@@ -16,7 +19,14 @@ import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.nodes.DGraph;
 import org.nodes.DLink;
@@ -67,19 +77,66 @@ import nl.peterbloem.kit.Series;
  */
 public class UPlainMotifExtractor<L extends Comparable<L>>
 {
+	/**
+	 * The number of samples per shard. Each shard is sampled with its own 
+	 * random stream. 
+	 */
+	public static final int SHARD_SIZE = 10000;
+	
+	/**
+	 * The number of root nodes per shard, when enumerating.
+	 */
+	public static final int ROOT_BLOCK = 1000;
+	
 	private UGraph<L> data;
 	private int samples;
+	private int minSize, maxSize;
+	private int threads;
+	private long seed;
+	private boolean canonicalTables;
+	private int stableTopK, stableWindow;
+	private double budget;
+	private boolean enumerate;
+	private boolean deduplicate;
+	private int maxMotifs;
+	private int occurrenceCap;
+	private double occurrenceBudget;
+	private int heavyHitters;
+	private double importance;
+	private File checkpoint;
+	private double checkpointInterval;
+	private boolean resume;
+	private int maxShards;
+	private boolean seedGiven;
+	
+	private long samplesTaken = 0;
+	private long distinctSamples = 0;
+	private volatile boolean stopped = false;
+
+	// * The label of the first node. Subgraphs with only this label can use the
+	//   canonical tables
+	private L label;
 
 	private Functions.NaturalComparator<L> comparator;
 
 	private List<UGraph<L>> tokens;
-
-	private Generator<Integer> intGen;
 	
 	private MotifVarTags mvTop = null;
 	
 	private FrequencyModel<UGraph<L>> fm;
-	private Map<UGraph<L>, List<List<Integer>>> occurrences;
+	private Map<UGraph<L>, OccurrenceStore> occurrences;
+	// * The frequencies while sampling, before overlap removal
+	private Map<UGraph<L>, Double> sampledFrequencies;
+	
+	// * The alias tables for the importance sampler, if used
+	private ImportanceSubgraphGenerator.Tables importanceTables = null;
+	
+	// * The (overlapping) samples, by motif key
+	private MotifTable motifs;
+	
+	// * The motifs that cannot be encoded directly (see MotifKey), by id
+	private List<UGraph<L>> dictionary = new ArrayList<UGraph<L>>();
+	private Map<UGraph<L>, Integer> dictionaryIds = new HashMap<UGraph<L>, Integer>();
 	private int minFreq;
 	
 	
@@ -100,26 +157,45 @@ public class UPlainMotifExtractor<L extends Comparable<L>>
 			int maxSize,
 			int minFreq)
 	{	
-		this.data = data;
-		this.samples = numSamples;
-		this.minFreq = minFreq;
-		
-		comparator = new Functions.NaturalComparator<L>();
-		intGen = Generators.uniform(minSize, maxSize + 1);
-		
-		run();
+		this(data, new ExtractorSettings(numSamples, minSize, maxSize, minFreq));
 	}
 	
 	public UPlainMotifExtractor(
 			UGraph<L> data,
 			int numSamples,
 			int size)
+	{
+		this(data, new ExtractorSettings(numSamples, size, size, 0));
+	}
+	
+	public UPlainMotifExtractor(UGraph<L> data, ExtractorSettings settings)
 	{
 		this.data = data;
-		this.samples = numSamples;
-		
+		this.samples = settings.samples;
+		this.minSize = settings.minSize;
+		this.maxSize = settings.maxSize;
+		this.minFreq = settings.minFreq;
+		this.threads = Math.max(1, settings.threads);
+		this.seed = settings.seed != null ? settings.seed : Global.random().nextLong();
+		this.canonicalTables = settings.canonicalTables;
+		this.stableTopK = settings.stableTopK;
+		this.stableWindow = settings.stableWindow;
+		this.budget = settings.budget;
+		this.enumerate = settings.enumerate;
+		this.deduplicate = settings.deduplicate;
+		this.maxMotifs = settings.maxMotifs;
+		this.occurrenceCap = settings.occurrenceCap;
+		this.occurrenceBudget = settings.occurrenceBudget;
+		this.heavyHitters = settings.heavyHitters;
+		this.importance = settings.importance;
+		this.checkpoint = settings.checkpoint;
+		this.checkpointInterval = settings.checkpointInterval;
+		this.resume = settings.resume;
+		this.maxShards = settings.maxShards;
+		this.seedGiven = settings.seed != null;
+		this.label = data.size() > 0 ? data.get(0).label() : null;
+
 		comparator = new Functions.NaturalComparator<L>();
-		intGen = Generators.uniform(size, size+1);
 		
 		run();
 	}
@@ -127,163 +203,618 @@ public class UPlainMotifExtractor<L extends Comparable<L>>
 	private void run()
 	{
 		Global.log().info("Sampling motifs");		
-		fm = new FrequencyModel<UGraph<L>>();
 
+		// * Continue from the checkpoint, if there is one
+		SamplingCheckpoint restored = null;
+		if(resume && checkpoint != null && checkpoint.exists())
+			restored = readCheckpoint();
+		
 		// * The (overlapping) instances
-		occurrences = new LinkedHashMap<UGraph<L>, List<List<Integer>>>();
-
-		SimpleSubgraphGenerator gen = 
-			new SimpleSubgraphGenerator(data, intGen);
+		motifs = table(heavyHitters);
 		
-		Global.log().info("Start sampling.");
-		int interval = samples / 20;
+		if(importance != 0.0 && ! enumerate)
+			importanceTables = new ImportanceSubgraphGenerator.Tables(data, importance);
 
-		for (int i : Series.series(samples))
+		Global.log().info("Start sampling ("+threads+" threads).");
+		
+		// * Divide the samples into shards, each with its own random stream. The
+		//   streams are split off in a fixed order, and the shards are merged in 
+		//   that same order, so the result doesn't depend on the number of threads.
+		SplittableRandom random = new SplittableRandom(seed);
+		
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		
+		// * Shards are submitted a few at a time, so that we don't waste much 
+		//   work if we stop early
+		LinkedList<Future<Shard>> futures = new LinkedList<Future<Shard>>();
+		int submitted = 0;
+		
+		long start = System.nanoTime();
+		long[] ranking = null;
+		int stable = 0, merged = 0;
+		
+		// * When enumerating, we submit blocks of root nodes instead
+		int total = enumerate ? data.size() : samples;
+		
+		if(restored != null)
 		{
-//			if (samples > 100 && i % interval == 0)
-//				Global.log().info("Samples finished: " + i + " (" + ((i*100)/samples) + "%)");
-
-			List<Integer> indices = gen.generate();
+			restored.restore(motifs);
+			for(UGraph<L> sub : restored.<L>uDictionary())
+			{
+				dictionaryIds.put(sub, dictionary.size());
+				dictionary.add(sub);
+			}
 			
-			UGraph<L> sub = Subgraph.uSubgraphIndices(data, indices);
-
-			// * Reorder nodes to canonical ordering
-			Order canonical = Nauty.order(sub, comparator);
-			sub = Graphs.reorder(sub, canonical);
+			samplesTaken = restored.samplesTaken();
+			merged = restored.shards();
 			
-			List<Integer> occurrence = canonical.apply(indices); 
+			// * Skip the random streams of the merged shards
+			if(! enumerate)
+				for(int i : series(merged))
+					random.split();
 			
-			fm.add(sub); // no need for a correction as in normal motif sampling
+			submitted = restored.finished() ? total : 
+					(int) Math.min(total, (long) merged * (enumerate ? ROOT_BLOCK : SHARD_SIZE));
 			
-			// * record the occurrence
-			if (!occurrences.containsKey(sub))
-				occurrences.put(sub, new ArrayList<List<Integer>>());
-
-			occurrences.get(sub).add(occurrence);
+			Global.log().info("Resuming from checkpoint " + checkpoint + ": " + samplesTaken + " samples taken" + (restored.finished() ? " (finished)." : "."));
 		}
 		
-		Global.log().info("Removing overlapping occurrences.");
-		// * Remove overlapping occurrences 
-		//   (keep the ones with the lowest exdegrees)
-		FrequencyModel<UGraph<L>> newFm = 
-				new FrequencyModel<UGraph<L>>();
-		Map<UGraph<L>, List<List<Integer>>> newOccurrences = 
-				new LinkedHashMap<UGraph<L>, List<List<Integer>>>();
+		long lastCheckpoint = System.nanoTime();
+		// * Whether we stopped as if interrupted (see maxShards)
+		boolean interrupted = false;
 		
-		for(UGraph<L> sub : fm.tokens())
-			if(fm.frequency(sub) >= minFreq)
+		// * The enumerators, with their scratch space, are reused per thread
+		final ThreadLocal<SubgraphEnumerator> enumerators = new ThreadLocal<SubgraphEnumerator>() {
+			@Override
+			protected SubgraphEnumerator initialValue()
 			{
-				// * A map from nodes to occurrences containing them
-				Map<UNode<L>, List<Occurrence>> map = 
-					new LinkedHashMap<UNode<L>, List<Occurrence>>();
-				
-				// * A list of all occurrences, sorted by exDegree
-				LinkedList<Occurrence> list = new LinkedList<Occurrence>();
-				
-				// - fill the map and list
-				for(List<Integer> occurrence : occurrences.get(sub))
-				{
-					Occurrence occ = new Occurrence(occurrence);
-					list.add(occ);
-					
-					for(int index : occurrence)
-					{
-						UNode<L> node = data.get(index);
-						
-						if(! map.containsKey(node))
-							map.put(node, new ArrayList<Occurrence>());	 
-						map.get(node).add(occ);
-					}
-				}
-				
-				Collections.sort(list);
+				return new SubgraphEnumerator(data, minSize, maxSize);
+			}
+		};
+		
+		while(submitted < total || ! futures.isEmpty())
+		{
+			while(submitted < total && futures.size() < 2 * threads)
+			{
+				int n = Math.min(enumerate ? ROOT_BLOCK : SHARD_SIZE, total - submitted);
+				futures.add(executor.submit(enumerate ? 
+						new Shard(submitted, submitted + n, enumerators) : 
+						new Shard(n, random.split())));
+				submitted += n;
+			}
+			
+			Shard shard;
+			try
+			{
+				shard = futures.poll().get();
+			} catch (InterruptedException e)
+			{
+				throw new RuntimeException(e);
+			} catch (ExecutionException e)
+			{
+				throw new RuntimeException(e.getCause());
+			}
+			
+			merge(shard);
+			samplesTaken += shard.taken;
+			merged ++;
+			
+			if(checkpoint != null && (System.nanoTime() - lastCheckpoint) / 1.0e9 >= checkpointInterval)
+			{
+				writeCheckpoint(merged, false);
+				lastCheckpoint = System.nanoTime();
+			}
+			
+			if(maxShards > 0 && merged >= maxShards)
+			{
+				Global.log().info("Stopping after " + merged + " shards (checkpoint left unfinished).");
+				interrupted = true;
+				break;
+			}
+			
+			// * Check whether the ranking of the top motifs has changed
+			if(stableTopK > 0 && ! enumerate)
+			{
+				long[] newRanking = motifs.top(stableTopK);
+				stable = Arrays.equals(ranking, newRanking) ? stable + shard.numSamples : 0;
+				ranking = newRanking;
 				
-				while(!list.isEmpty())
+				if(stable >= stableWindow)
 				{
-					// * Find the first living occurrence, remove any dead ones
-					Occurrence head = list.poll();
-					
-					if(head.alive()) // * register it as a viable occurrence
-					{
-						newFm.add(sub);
-						if(! newOccurrences.containsKey(sub))
-							newOccurrences.put(sub, new ArrayList<List<Integer>>());
-						newOccurrences.get(sub).add(head.indices());
-						
-						// - now kill any occurrence that shares a node with this one.
-						for(int nodeIndex : head.indices())
-							for(Occurrence occ : map.get(data.get(nodeIndex)))
-								occ.kill();
-					} 
+					Global.log().info("Top " + stableTopK + " motifs stable for " + stable + " samples. Stopping.");
+					break;
 				}
 			}
+			
+			if(budget >= 0.0 && ! enumerate && (System.nanoTime() - start) / 1.0e9 >= budget)
+			{
+				Global.log().info("Sampling budget of " + budget + " seconds used up. Stopping.");
+				break;
+			}
+		}
+		
+		// * Any shards still running are discarded
+		stopped = true;
+		executor.shutdownNow();
 		
-		fm = newFm;
-		occurrences = newOccurrences;
+		if(checkpoint != null && (restored == null || ! restored.finished()))
+			writeCheckpoint(merged, ! interrupted);
+		
+		distinctSamples = motifs.numOccurrences();
+		
+		Global.log().info((enumerate ? "Subgraphs enumerated: " : "Samples taken: ") + samplesTaken + " (" + distinctSamples + " distinct).");
+		
+		Global.log().info("Removing overlapping occurrences.");
+		// * Remove overlapping occurrences 
+		//   (keep the ones with the lowest exdegrees)
+		removeOverlaps();
+		
+		motifs = null;
 		
 		Global.log().info("Finished sampling motifs and removing overlaps.");
 
 		tokens = fm.sorted();
 	}
 	
-	public List<UGraph<L>> subgraphs()
+	/**
+	 * Removes overlapping occurrences (keeping the ones with the lowest 
+	 * exDegrees), for each motif in parallel. 
+	 * 
+	 * If maxMotifs is positive, the motifs are processed in order of their 
+	 * number of sampled occurrences, which bounds their frequency after overlap
+	 * removal. We stop as soon as no remaining motif can reach the top 
+	 * maxMotifs.
+	 */
+	private void removeOverlaps()
 	{
-		return tokens;
+		final int[] degrees = OverlapRemoval.degrees(data);
+		
+		// * Scratch space for the nodes used by the selected occurrences
+		final ThreadLocal<BitSet> used = new ThreadLocal<BitSet>() {
+			@Override
+			protected BitSet initialValue()
+			{
+				return new BitSet(data.size());
+			}
+		};
+		
+		List<Integer> candidates = new ArrayList<Integer>();
+		for(int m : series(motifs.size()))
+			if(motifs.frequency(m) >= minFreq)
+				candidates.add(m);
+		
+		boolean prune = maxMotifs > 0;
+		if(prune)
+			Collections.sort(candidates, new Comparator<Integer>() {
+				@Override
+				public int compare(Integer a, Integer b)
+				{
+					return - Integer.compare(motifs.occurrences(a).size(), motifs.occurrences(b).size());
+				}
+			});
+		
+		// * The results, by motif index
+		List<Selection> selections = new ArrayList<Selection>(Collections.<Selection>nCopies(motifs.size(), null));
+		
+		// * The lowest of the top maxMotifs frequencies is at the head
+		PriorityQueue<Double> top = new PriorityQueue<Double>();
+		
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		LinkedList<Future<Selection>> futures = new LinkedList<Future<Selection>>();
+		int next = 0;
+		
+		while(next < candidates.size() || ! futures.isEmpty())
+		{
+			while(next < candidates.size() && futures.size() < 2 * threads)
+			{
+				int m = candidates.get(next);
+				
+				if(prune && top.size() == maxMotifs && motifs.occurrences(m).size() < top.peek())
+				{
+					// * This motif, and all after it, can't make the top
+					next = candidates.size();
+					break;
+				}
+				
+				futures.add(executor.submit(new Selection(m, degrees, used)));
+				next ++;
+			}
+			
+			if(futures.isEmpty())
+				break;
+			
+			Selection selection;
+			try
+			{
+				selection = futures.poll().get();
+			} catch (InterruptedException e)
+			{
+				throw new RuntimeException(e);
+			} catch (ExecutionException e)
+			{
+				throw new RuntimeException(e.getCause());
+			}
+			
+			selections.set(selection.motif, selection);
+			
+			if(prune)
+			{
+				top.add(selection.frequency);
+				if(top.size() > maxMotifs)
+					top.poll();
+			}
+		}
+		
+		executor.shutdown();
+		
+		// * Add the results in the order of the motifs, so that ties are ranked
+		//   as if all motifs were processed
+		fm = new FrequencyModel<UGraph<L>>();
+		for(Selection selection : selections)
+			if(selection != null && selection.occurrences.size() > 0)
+				fm.add(selection.sub, selection.frequency);
+		
+		Set<UGraph<L>> keep = null;
+		if(maxMotifs > 0 && fm.distinct() > maxMotifs)
+		{
+			keep = new HashSet<UGraph<L>>(fm.sorted().subList(0, maxMotifs));
+			fm = new FrequencyModel<UGraph<L>>();
+		}
+		
+		occurrences = new LinkedHashMap<UGraph<L>, OccurrenceStore>();
+		sampledFrequencies = new LinkedHashMap<UGraph<L>, Double>();
+		for(Selection selection : selections)
+			if(selection != null && selection.occurrences.size() > 0)
+				if(keep == null || keep.contains(selection.sub))
+				{
+					if(keep != null)
+						fm.add(selection.sub, selection.frequency);
+					occurrences.put(selection.sub, selection.occurrences);
+					sampledFrequencies.put(selection.sub, selection.sampledFrequency);
+				}
 	}
 	
-	public List<List<Integer>> occurrences(UGraph<L> subgraph)
+	/**
+	 * The non-overlapping occurrences of a single motif.
+	 */
+	private class Selection implements Callable<Selection>
 	{
-		return occurrences.get(subgraph);
-	}
-
-	private class Occurrence implements Comparable<Occurrence> {
+		private int motif;
+		private int[] degrees;
+		private ThreadLocal<BitSet> used;
+		
+		private UGraph<L> sub;
+		private OccurrenceStore occurrences;
+		private double frequency = 0.0;
+		private double sampledFrequency;
 		
-		private boolean alive = true;
-		private List<Integer> indices;
-		private int id;
+		public Selection(int motif, int[] degrees, ThreadLocal<BitSet> used)
+		{
+			this.motif = motif;
+			this.degrees = degrees;
+			this.used = used;
+		}
 		
-		private int exDegree;
+		@Override
+		public Selection call()
+		{
+			// * Only now do we create the graph for the motif
+			sub = graph(motifs.key(motif));
+			sampledFrequency = motifs.frequency(motif);
+			OccurrenceStore candidates = motifs.occurrences(motif);
+			int[] exDegrees = OverlapRemoval.exDegrees(candidates, degrees, sub);
+			
+			int[] selected = OverlapRemoval.select(candidates, exDegrees, used.get());
+			
+			occurrences = new OccurrenceStore(sub.size(), selected.length);
+			for(int i : selected)
+			{
+				frequency ++;
+				occurrences.add(candidates.get(i));
+			}
+			
+			return this;
+		}
+	}
 	
-		public Occurrence(List<Integer> indices)
+	/**
+	 * Adds the frequencies and occurrences of a shard to the totals. 
+	 */
+	private void merge(Shard shard)
+	{
+		for(int m : series(shard.motifs.size()))
 		{
-			this.indices = indices;
+			long key = shard.motifs.key(m);
+			
+			// * Translate the shard's dictionary ids to ours
+			if(MotifKey.isDictionary(key))
+			{
+				UGraph<L> sub = shard.dictionary.get(MotifKey.id(key));
+				
+				Integer id = dictionaryIds.get(sub);
+				if(id == null)
+				{
+					id = dictionary.size();
+					dictionary.add(sub);
+					dictionaryIds.put(sub, id);
+				}
+				
+				key = MotifKey.dictionary(id);
+			}
 			
-			exDegree = MotifCompressor.exDegree(data, indices);
+			motifs.add(key, shard.motifs.frequency(m), shard.motifs.occurrences(m));
 		}
-		
-		public boolean alive()
+	}
+	
+	/**
+	 * The settings that determine the result of the sampling. A checkpoint 
+	 * can only be resumed if these are the same.
+	 */
+	private String parameters()
+	{
+		return "undirected, " + data.size() + " nodes, " + data.numLinks() + " links, " 
+				+ "samples " + samples + ", sizes " + minSize + "-" + maxSize + ", "
+				+ "enumerate " + enumerate + ", deduplicate " + deduplicate + ", " 
+				+ "cap " + occurrenceCap + ", memory " + occurrenceBudget + ", "
+				+ "heavy hitters " + heavyHitters + ", importance " + importance + ", "
+				+ "canonical tables " + canonicalTables;
+	}
+	
+	private SamplingCheckpoint readCheckpoint()
+	{
+		SamplingCheckpoint restored;
+		try
 		{
-			return alive;
+			restored = SamplingCheckpoint.read(checkpoint);
+		} catch (IOException e)
+		{
+			throw new RuntimeException("Could not read checkpoint " + checkpoint + ".", e);
 		}
 		
-		public void kill()
+		if(! parameters().equals(restored.parameters()))
+			throw new IllegalArgumentException("Checkpoint " + checkpoint + " was written with different settings (" + restored.parameters() + ", now " + parameters() + ").");
+		if(seedGiven && seed != restored.seed())
+			throw new IllegalArgumentException("Checkpoint " + checkpoint + " was written with a different seed (" + restored.seed() + ", now " + seed + ").");
+		
+		// - without a given seed, we continue with the one of the checkpoint
+		seed = restored.seed();
+		
+		return restored;
+	}
+	
+	/**
+	 * Writes the state of the sampling to the checkpoint file. If this fails,
+	 * we warn and continue, since the run itself is unaffected.
+	 */
+	private void writeCheckpoint(int shards, boolean finished)
+	{
+		try
+		{
+			SamplingCheckpoint.write(checkpoint, parameters(), seed, shards, 
+					samplesTaken, finished, motifs, dictionary);
+		} catch (IOException e)
 		{
-			alive = false;
+			Global.log().warning("Could not write checkpoint " + checkpoint + " (trace: " + e + ").");
 		}
+	}
+	
+	/**
+	 * A table with the occurrence cap, budget and deduplication of this 
+	 * extractor. The shards use the same settings, so that they drop the 
+	 * occurrences that the merged table would drop anyway (the same seed 
+	 * keeps the same occurrences), and each shard's table stays as small as
+	 * the final one.
+	 * 
+	 * @param maxMotifs The maximum number of motifs to track, or -1 for no 
+	 * 	limit.
+	 */
+	private MotifTable table(int maxMotifs)
+	{
+		// - enumerated subgraphs are already distinct
+		return new MotifTable(deduplicate && ! enumerate, occurrenceCap, 
+				occurrenceBudget < 0.0 ? -1 : (long)(occurrenceBudget * 1024 * 1024), seed, 
+				maxMotifs);
+	}
+	
+	/**
+	 * Creates the graph for a motif key.
+	 */
+	private UGraph<L> graph(long key)
+	{
+		if(MotifKey.isDictionary(key))
+			return dictionary.get(MotifKey.id(key));
+		
+		return MotifKey.uGraph(key, label);
+	}
+	
+	/**
+	 * A fixed number of samples, drawn with a private generator and random 
+	 * stream, or all subgraphs for a block of root nodes. The results are 
+	 * collected into private tables.
+	 */
+	private class Shard implements Callable<Shard>
+	{
+		private int numSamples;
+		private SplittableRandom random;
+		
+		private int fromRoot, toRoot;
+		private ThreadLocal<SubgraphEnumerator> enumerators;
+		
+		// * The number of samples taken, or subgraphs enumerated
+		private long taken = 0;
+		
+		// - a shard doesn't track heavy hitters, since the motifs it drops 
+		//   may be frequent in the other shards
+		private MotifTable motifs = table(-1);
+		
+		// * The motifs that cannot be encoded directly, by shard-local id
+		private List<UGraph<L>> dictionary = new ArrayList<UGraph<L>>();
+		private Map<UGraph<L>, Integer> dictionaryIds = new HashMap<UGraph<L>, Integer>();
 		
-		public List<Integer> indices()
+		public Shard(int numSamples, SplittableRandom random)
 		{
-			return indices;
+			this.numSamples = numSamples;
+			this.random = random;
 		}
 		
-		public int exDegree()
+		/**
+		 * A shard that enumerates all subgraphs whose lowest node index is in
+		 * the given range.
+		 */
+		public Shard(int fromRoot, int toRoot, ThreadLocal<SubgraphEnumerator> enumerators)
 		{
-			return exDegree;
+			this.fromRoot = fromRoot;
+			this.toRoot = toRoot;
+			this.enumerators = enumerators;
 		}
 
 		@Override
-		public int compareTo(Occurrence other)
+		public Shard call()
 		{
-			return Integer.compare(exDegree, other.exDegree);
+			if(random == null)
+			{
+				SubgraphEnumerator enumerator = enumerators.get();
+				SubgraphEnumerator.Visitor visitor = new SubgraphEnumerator.Visitor() {
+					@Override
+					public void visit(List<Integer> indices)
+					{
+						add(indices, 1.0);
+					}
+				};
+				
+				for(int root : series(fromRoot, toRoot))
+					enumerator.enumerate(root, visitor);
+				
+				return this;
+			}
+			
+			if(importanceTables != null)
+			{
+				ImportanceSubgraphGenerator gen = 
+						new ImportanceSubgraphGenerator(importanceTables, minSize, maxSize, random);
+				
+				for (int i : series(numSamples))
+				{
+					if(stopped)
+						break;
+					
+					List<Integer> indices = gen.generate();
+					add(indices, gen.weight());
+				}
+				
+				return this;
+			}
+			
+			SeededSubgraphGenerator gen = 
+					new SeededSubgraphGenerator(data, minSize, maxSize, random);
+			
+			for (int i : series(numSamples))
+			{
+				if(stopped)
+					break;
+				
+				add(gen.generate(), 1.0);
+			}
+			
+			return this;
 		}
 		
+		/**
+		 * Finds the motif for the given node set, and records the occurrence
+		 * with the given weight.
+		 */
+		private void add(List<Integer> indices, double weight)
+		{
+			long key;
+			List<Integer> occurrence;
 
-		
+			CanonicalTable table = canonicalTables ? CanonicalTable.undirected(indices.size()) : null;
+			int mask = table == null ? -1 : table.mask(data, indices, label);
+
+			if(mask >= 0)
+			{
+				// * Look up the canonical ordering
+				key = MotifKey.key(indices.size(), table.canonical(mask));
+				occurrence = table.order(mask, indices);
+			} else
+			{
+				UGraph<L> sub = Subgraph.uSubgraphIndices(data, indices);
+
+				// * Reorder nodes to canonical ordering
+				Order canonical = Nauty.order(sub, comparator);
+				sub = Graphs.reorder(sub, canonical);
+
+				occurrence = canonical.apply(indices);
+				
+				key = MotifKey.key(sub, label);
+				if(key == MotifKey.NONE)
+				{
+					Integer id = dictionaryIds.get(sub);
+					if(id == null)
+					{
+						id = dictionary.size();
+						dictionary.add(sub);
+						dictionaryIds.put(sub, id);
+					}
+					
+					key = MotifKey.dictionary(id);
+				}
+			}
+			
+			// * record the occurrence
+			motifs.add(key, occurrence, weight);
+			taken++;
+		}
+	}
+	
+	/**
+	 * The number of samples taken. This is lower than the requested number if
+	 * the sampling was stopped early (see ExtractorSettings). When enumerating,
+	 * this is the number of subgraphs found.
+	 */
+	public long samplesTaken()
+	{
+		return samplesTaken;
+	}
+	
+	/**
+	 * The number of distinct node sets among the samples taken. Repeated 
+	 * samples count towards the frequencies of the motifs, but their 
+	 * occurrences are only stored once (see ExtractorSettings.deduplicate).
+	 */
+	public long distinctSamples()
+	{
+		return distinctSamples;
+	}
+	
+	public List<UGraph<L>> subgraphs()
+	{
+		return tokens;
+	}
+	
+	public OccurrenceStore occurrences(UGraph<L> subgraph)
+	{
+		return occurrences.get(subgraph);
 	}
 
+	/**
+	 * The number of non-overlapping occurrences of the given motif.
+	 */
 	public double frequency(UGraph<L> sub)
 	{
 		return fm.frequency(sub);
 	}
 	
+	/**
+	 * The frequency of the given motif among the samples, before overlap 
+	 * removal. With the importance sampler, this is the sum of the 
+	 * importance weights, which estimates the same quantity as the count of
+	 * the uniform sampler (see ExtractorSettings.importance). When 
+	 * enumerating, it's the number of occurrences.
+	 */
+	public double sampledFrequency(UGraph<L> sub)
+	{
+		return sampledFrequencies.get(sub);
+	}
+	
 }
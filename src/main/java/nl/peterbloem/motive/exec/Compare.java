@@ -31,9 +31,10 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 
 import org.json.JSONObject;
 import org.nodes.DGraph;
@@ -54,7 +55,6 @@ import org.nodes.compression.NeighborListCompressor;
 import org.nodes.data.Data;
 import org.nodes.models.DSequenceEstimator;
 import org.nodes.models.DegreeSequenceModel;
-import org.nodes.models.DegreeSequenceModel.Margin;
 import org.nodes.models.DegreeSequenceModel.Prior;
 import org.nodes.models.ERSimpleModel;
 import org.nodes.models.EdgeListModel;
@@ -77,8 +77,13 @@ import nl.peterbloem.kit.Order;
 import nl.peterbloem.kit.Pair;
 import nl.peterbloem.kit.Series;
 import nl.peterbloem.motive.DPlainMotifExtractor;
+import nl.peterbloem.motive.DSApproximation;
+import nl.peterbloem.motive.ExtractorSettings;
 import nl.peterbloem.motive.MotifModel;
+import nl.peterbloem.motive.MotifSamples;
 import nl.peterbloem.motive.MotifSearchModel;
+import nl.peterbloem.motive.Substitution;
+import nl.peterbloem.motive.SubstitutionCache;
 import nl.peterbloem.motive.UPlainMotifExtractor;
 
 /**
@@ -104,15 +109,101 @@ public class Compare
 	 */
 	public int motifMaxSize = 6;
 	
+	/**
+	 * If larger than zero, sampling stops when the ranking of this many top 
+	 * motifs has been stable for stableWindow samples. motifSamples is then a 
+	 * maximum.
+	 */
+	public int stableTopK = 0;
+	/**
+	 * See stableTopK.
+	 */
+	public int stableWindow = 100000;
+	/**
+	 * If non-negative, sampling stops after this many seconds. motifSamples is
+	 * then a maximum.
+	 */
+	public double sampleBudget = -1.0;
+	/**
+	 * If true, all subgraphs are enumerated instead of sampled, and 
+	 * motifSamples is ignored.
+	 */
+	public boolean enumerate = false;
+	/**
+	 * If positive, the maximum number of occurrences to keep per motif while
+	 * sampling. The motif frequencies are still exact.
+	 */
+	public int occurrenceCap = -1;
+	/**
+	 * If non-negative, the memory in MB for the occurrences kept while 
+	 * sampling.
+	 */
+	public double occurrenceBudget = -1.0;
+	/**
+	 * If positive, the number of motifs to track while sampling (with the 
+	 * rest discarded). Should be comfortably larger than maxMotifs.
+	 */
+	public int heavyHitters = -1;
+	/**
+	 * If nonzero, the exponent for the importance sampler (nodes are chosen
+	 * proportional to degree^-importance).
+	 */
+	public double importance = 0.0;
+	
+	/**
+	 * If not null, the extracted motifs and the baselines are cached in this
+	 * directory (see ExtractionCache), so that a run on the same data with 
+	 * the same extraction parameters can skip straight to the scoring. The 
+	 * DS samples for the motifs are stored in a subdirectory (see 
+	 * MotifSamples).
+	 */
+	public File cacheDir = null;
+	
+	/**
+	 * The number of motif samples actually taken (or subgraphs enumerated).
+	 */
+	private long samplesTaken = -1;
+	/**
+	 * The number of distinct node sets among the samples.
+	 */
+	private long distinctSamples = -1;
+	
 	/**
 	 * The number of samples to take for the DS model
 	 */
 	public int betaIterations = 50;
 	
+	/**
+	 * If positive, the DS model samples adaptively: it draws batches of 
+	 * betaIterations samples until its upper bound moves by less than this 
+	 * many bits, or until betaMaxIterations samples have been drawn. 
+	 */
+	public double betaTolerance = -1.0;
+	
+	/**
+	 * The maximum number of samples for the DS model, if it samples 
+	 * adaptively.
+	 */
+	public int betaMaxIterations = 1000;
+	
 	/**
 	 * The alpha to use in construction significance intervals for the DS model.
 	 */
 	public double betaAlpha = 0.05;
+	
+	/**
+	 * Whether the DS model should use a closed-form approximation (see 
+	 * DSApproximation) instead of importance sampling.
+	 */
+	public boolean betaApproximation = false;
+	
+	/**
+	 * If the DS model is approximated, and the data has at most this many 
+	 * links, the approximation is checked against the sampled estimate for 
+	 * the data, and against the sampled bound for the first motif, and the 
+	 * errors are reported.
+	 */
+	public long approximationCheckLinks = 10000;
 
 	/**
 	 * The dataset.
@@ -144,6 +235,13 @@ public class Compare
 	 */
 	public int betaSearchDepth = 3;
 	
+	/**
+	 * The number of points the search for the best number of instances 
+	 * evaluates in parallel per round (on the shared pool). 1 or less for the 
+	 * sequential search.
+	 */
+	public int searchProbes = 1;
+	
 	/**
 	 * Number of threads to use when sampling for the DS model.
 	 */
@@ -158,28 +256,24 @@ public class Compare
 	 */
 	private boolean resets = true;
 	
-	/**
-	 * Relative number of available threads devoted to sampling. 
-	 */
-	public double mix = 0.66;
-	
 	public void main() throws IOException
 	{
 		
-		// * set up thread pools
-		// - concurrent threads for sampling
-		int sThreads = Math.max(1, (int)(Global.numThreads() * mix));
-		if((sThreads >= Global.numThreads()) && (sThreads > 1))
-			sThreads = Global.numThreads() - 1;
-		// - concurrent threads for computing scores
-		int mThreads = Math.max(1, Global.numThreads() - sThreads);
-		
-		Global.log().info("Concurrent threads: " + sThreads + " for sampling, " + mThreads + " for computing motif scores.");
+		// * set up one work-stealing pool for the motif scores and the DS 
+		//   sampling. A motif task that waits for its samples helps to run 
+		//   them, or the pool adds a thread to compensate, so no cores are 
+		//   left idle when one kind of task runs out.
+		final ForkJoinPool pool = new ForkJoinPool(Global.numThreads());
 		
-		ExecutorService samplesExecutor = Executors.newFixedThreadPool(sThreads);
-		ExecutorService motifsExecutor = Executors.newFixedThreadPool(mThreads);
+		Global.log().info("Concurrent threads: " + Global.numThreads() + ", shared by sampling and computing motif scores.");
 		
-		MotifModel.setExecutor(samplesExecutor);
+		MotifModel.setExecutor(pool);
+		// * The motif side of the DS model is sampled once per motif, rather 
+		//   than once for every number of instances that the search tries
+		MotifModel.setMotifSamples(new MotifSamples(
+				cacheDir == null ? null : new File(cacheDir, "motif-samples")));
+		MotifModel.setBetaTolerance(betaTolerance, betaMaxIterations);
+		MotifModel.setBetaApproximation(betaApproximation);
 		
 		Global.secureRandom(42);
 		Global.log().info("Threads available: " +  NUM_THREADS);
@@ -197,8 +291,18 @@ public class Compare
 		Global.log().info("data nodes: " + data.size());
 		Global.log().info("data links: " + data.numLinks());
 		
-		List<Integer> degrees = Graphs.degrees(data);
-		Collections.sort(degrees, Collections.reverseOrder());
+		ExtractionCache cache = cacheDir == null ? null : new ExtractionCache(cacheDir, data, cacheParameters());
+		boolean cached = cache != null && cache.load();
+		
+		List<Integer> degrees;
+		if(cached)
+		{
+			degrees = cache.degrees;
+		} else
+		{
+			degrees = Graphs.degrees(data);
+			Collections.sort(degrees, Collections.reverseOrder());
+		}
 		
 		Global.log().info("Computing motif code lengths");
 		
@@ -207,11 +311,21 @@ public class Compare
 		
 		final List<List<List<Integer>>> occurrences;
 
-		if(directed)
+		if(cached)
+		{
+			samplesTaken = cache.samplesTaken;
+			distinctSamples = cache.distinctSamples;
+			
+			subsAll = cache.subgraphs;
+			frequenciesAll = cache.frequencies;
+			occurrences = cache.occurrences;
+		} else if(directed)
 		{
 			DPlainMotifExtractor<String> ex 
 			= new DPlainMotifExtractor<String>(
-					(DGraph<String>)data, motifSamples, motifMinSize, motifMaxSize, minFreq);
+					(DGraph<String>)data, extractorSettings());
+			samplesTaken = ex.samplesTaken();
+			distinctSamples = ex.distinctSamples();
 		
 			subsAll = new ArrayList<Graph<String>>(ex.subgraphs());
 			
@@ -226,7 +340,9 @@ public class Compare
 		{	
 			UPlainMotifExtractor<String> ex 
 				= new UPlainMotifExtractor<String>(
-						(UGraph<String>)data, motifSamples, motifMinSize, motifMaxSize, minFreq);
+						(UGraph<String>)data, extractorSettings());
+			samplesTaken = ex.samplesTaken();
+			distinctSamples = ex.distinctSamples();
 			
 			subsAll = new ArrayList<Graph<String>>(ex.subgraphs());
 			frequenciesAll = new ArrayList<Double>(subsAll.size());
@@ -258,14 +374,101 @@ public class Compare
 		final Map<Graph<String>, Double> factorsBetaMap = new ConcurrentHashMap<Graph<String>, Double>();
 		final Map<Graph<String>, Double> maxFactorsMap  = new ConcurrentHashMap<Graph<String>, Double>();
 				
-		final double baselineER = new ERSimpleModel(true).codelength(data);
-		final double baselineEL = new EdgeListModel(Prior.ML).codelength(data);
-		final double baselineBeta = new DegreeSequenceModel(betaIterations, betaAlpha, Prior.ML, Margin.LOWERBOUND).codelength(data);
+		// - the DS baseline depends on how it's computed, so it's cached under
+		//   a key that includes the sampling parameters
+		final String betaKey = betaApproximation ? 
+				"beta approximation" : "beta " + betaIterations + " " + betaAlpha 
+					+ (betaTolerance > 0.0 ? " " + betaTolerance + " " + betaMaxIterations : "");
+		final double baselineER, baselineEL, baselineBeta;
+		if(cached)
+		{
+			baselineER = cache.baselines.get("er");
+			baselineEL = cache.baselines.get("el");
+		} else
+		{
+			baselineER = new ERSimpleModel(true).codelength(data);
+			baselineEL = new EdgeListModel(Prior.ML).codelength(data);
+		}
+		
+		boolean betaCached = cached && cache.baselines.containsKey(betaKey);
+		if(betaCached)
+			baselineBeta = cache.baselines.get(betaKey);
+		else if(betaApproximation)
+			baselineBeta = (directed ? 
+					DegreeSequenceModel.prior((DGraph<?>)data, Prior.ML) : 
+					DegreeSequenceModel.prior((UGraph<?>)data, Prior.ML)) 
+				+ DSApproximation.logNumGraphs(data);
+		else
+			// - with the same adaptive bound as the motifs
+			baselineBeta = MotifModel.betaBaseline(data, betaIterations, betaAlpha);
+		
+		// * Check the approximation against the sampled estimate, if the data 
+		//   is small enough to sample
+		double approximationError = Double.NaN;
+		if(betaApproximation && data.numLinks() <= approximationCheckLinks)
+		{
+			approximationError = DSApproximation.error(data, betaIterations, Global.numThreads());
+			Global.log().info("DS approximation error on the data: " + approximationError + " bits.");
+		}
+		
+		// * Check the bound that goes into the DS factors as well, for the 
+		//   first motif with all its occurrences
+		double motifApproximationError = Double.NaN;
+		if(betaApproximation && data.numLinks() <= approximationCheckLinks && ! subs.isEmpty())
+		{
+			Substitution substitution = Substitution.of(data, subs.get(0), occurrences.get(0));
+			motifApproximationError = MotifModel.betaApproximationError(substitution, betaIterations, betaAlpha);
+			Global.log().info("DS approximation error on the first motif: " + motifApproximationError + " bits.");
+		}
+		
+		// * Store a new entry, or an existing one with a new DS baseline
+		if(cache != null && ! betaCached)
+		{
+			if(! cached)
+			{
+				cache.subgraphs = new ArrayList<Graph<String>>(subs);
+				cache.frequencies = frequencies;
+				cache.occurrences = occurrences.subList(0, subs.size());
+				cache.samplesTaken = samplesTaken;
+				cache.distinctSamples = distinctSamples;
+				cache.degrees = degrees;
+				cache.baselines.put("er", baselineER);
+				cache.baselines.put("el", baselineEL);
+			}
+			cache.baselines.put(betaKey, baselineBeta);
+			
+			try
+			{
+				cache.store();
+			} catch (IOException e)
+			{
+				Global.log().warning("Could not write cache file " + cache.file() + " (trace: " + e + ").");
+			}
+		}
+				
+		// - the pool starts a queued motif task whenever it compensates for a 
+		//   waiting one, so we limit the number of motifs in progress to keep 
+		//   the memory use of their substitutions in check
+		final Semaphore inProgress = new Semaphore(Global.numThreads());
+		List<Future<?>> futures = new ArrayList<Future<?>>(subs.size());
 				
 		for(final int i : series(subs.size()))
 		{
-			Thread thread = new Thread(){
+			inProgress.acquireUninterruptibly();
+			
+			Runnable task = new Runnable(){
 				public void run(){
+					try
+					{
+						score();
+					} finally
+					{
+						inProgress.release();
+					}
+				}
+				
+				private void score()
+				{
 					Graph<String> sub = subs.get(i);
 					List<List<Integer>> occs = occurrences.get(i);
 					
@@ -273,10 +476,13 @@ public class Compare
 					Global.log().info("freq: " + frequencies.get(i));
 					
 					double max = Double.NEGATIVE_INFINITY;
+					
+					// * Each prefix is substituted once, for all three null models
+					SubstitutionCache substitutions = new SubstitutionCache(data, sub, occs);
 
 					Global.log().info("null model: ER");
 					{
-						double sizeER = MotifSearchModel.sizeER(data, sub, occs, resets);
+						double sizeER = MotifSearchModel.sizeER(substitutions, resets, -1, pool, searchProbes);
 						double factorER = baselineER - sizeER;
 						factorsERMap.put(sub, factorER);
 						
@@ -289,7 +495,7 @@ public class Compare
 
 					Global.log().info("null model: EL");
 					{
-						double sizeEL = MotifSearchModel.sizeEL(data, sub, occs,  resets);
+						double sizeEL = MotifSearchModel.sizeEL(substitutions, resets, -1, pool, searchProbes);
 							
 						double factorEL = baselineEL - sizeEL;
 						factorsELMap.put(sub, factorEL);
@@ -304,7 +510,7 @@ public class Compare
 					Global.log().info("null model: Beta");
 					{
 
-						double sizeBeta = MotifSearchModel.sizeBeta(data, sub, occs, resets, betaIterations, betaAlpha, betaSearchDepth);
+						double sizeBeta = MotifSearchModel.sizeBeta(substitutions, resets, betaIterations, betaAlpha, betaSearchDepth, pool, searchProbes);
 						double factorBeta = baselineBeta - sizeBeta;
 						factorsBetaMap.put(sub, factorBeta);
 					 
@@ -312,26 +518,34 @@ public class Compare
 						
 						Global.log().info("Beta baseline: " + baselineBeta);
 						Global.log().info("Beta motif code: " + sizeBeta);
+						Global.log().info("Beta samples used (total over all prefixes searched): " + substitutions.betaSamples());
 						Global.log().info("Beta factor: " + factorBeta);
 					}
 					
+					substitutions.clear();
+					
 					maxFactorsMap.put(sub, max);
 				}
 			};
 			
-			motifsExecutor.execute(thread);
+			futures.add(pool.submit(task));
 		}
 		
-		// * Execute all threads and wait until finished
-		motifsExecutor.shutdown();
+		// * Wait until all motifs are scored. The pool is only shut down 
+		//   afterwards, since the motif tasks submit their sampling to it.
 		try 
 		{
-			motifsExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
-		} catch (InterruptedException e) {
+			for(Future<?> future : futures)
+				future.get();
+		} catch (InterruptedException e) 
+		{
+			throw new RuntimeException(e);
+		} catch (ExecutionException e)
+		{
 			throw new RuntimeException(e);
 		}
 
-		samplesExecutor.shutdown();
+		pool.shutdown();
 		
 		List<Double> factorsER   = new ArrayList<Double>(subs.size());
 		List<Double> factorsEL   = new ArrayList<Double>(subs.size());
@@ -377,6 +591,13 @@ public class Compare
 		obj.put("baseline er", baselineER);
 		obj.put("baseline el", baselineEL);
 		obj.put("baseline beta", baselineBeta);
+		obj.put("beta approximation", betaApproximation);
+		if(! Double.isNaN(approximationError))
+			obj.put("beta approximation error", approximationError);
+		if(! Double.isNaN(motifApproximationError))
+			obj.put("beta approximation error motif", motifApproximationError);
+		obj.put("samples taken", samplesTaken);
+		obj.put("distinct samples", distinctSamples);
 		Functions.write(obj.toString(), new File( "metadata.json"));
 				
 		try
@@ -387,4 +608,33 @@ public class Compare
 			Global.log().warning("Failed to run plot script. The script has been copied to the output directory.  (trace:" + e + ")");
 		}
 	}
+	
+	/**
+	 * The parameters that affect the results stored in the cache.
+	 */
+	private String cacheParameters()
+	{
+		return "compare, samples " + motifSamples + ", sizes " + motifMinSize + "-" + motifMaxSize + ", "
+				+ "min freq " + minFreq + ", max motifs " + maxMotifs + ", "
+				+ "top-k " + stableTopK + ", window " + stableWindow + ", budget " + sampleBudget + ", "
+				+ "enumerate " + enumerate + ", cap " + occurrenceCap + ", memory " + occurrenceBudget + ", "
+				+ "heavy hitters " + heavyHitters + ", importance " + importance;
+	}
+	
+	private ExtractorSettings extractorSettings()
+	{
+		ExtractorSettings settings = 
+				new ExtractorSettings(motifSamples, motifMinSize, motifMaxSize, minFreq);
+		settings.stableTopK = stableTopK;
+		settings.stableWindow = stableWindow;
+		settings.budget = sampleBudget;
+		settings.enumerate = enumerate;
+		settings.maxMotifs = maxMotifs;
+		settings.occurrenceCap = occurrenceCap;
+		settings.occurrenceBudget = occurrenceBudget;
+		settings.heavyHitters = heavyHitters;
+		settings.importance = importance;
+		
+		return settings;
+	}
 }
@@ -8,8 +8,10 @@ import static org.nodes.models.USequenceEstimator.CIMethod;
 import static org.nodes.models.USequenceEstimator.CIType;
 import static org.nodes.motifs.MotifCompressor.exDegree;
 
+import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
@@ -50,6 +52,8 @@ import org.nodes.compression.NeighborListCompressor;
 import org.nodes.data.Data;
 import org.nodes.models.DSequenceEstimator;
 import static org.nodes.models.DSequenceEstimator.D;
+import org.nodes.models.DegreeSequenceModel;
+import org.nodes.models.DegreeSequenceModel.Margin;
 import org.nodes.models.DegreeSequenceModel.Prior;
 import org.nodes.models.ERSimpleModel;
 import org.nodes.models.EdgeListModel;
@@ -70,7 +74,10 @@ import nl.peterbloem.kit.OnlineModel;
 import nl.peterbloem.kit.Order;
 import nl.peterbloem.kit.Series;
 import nl.peterbloem.motive.DPlainMotifExtractor;
+import nl.peterbloem.motive.DSApproximation;
+import nl.peterbloem.motive.ExtractorSettings;
 import nl.peterbloem.motive.MotifModel;
+import nl.peterbloem.motive.MotifSamples;
 import nl.peterbloem.motive.MotifSearchModel;
 import nl.peterbloem.motive.UPlainMotifExtractor;
 
@@ -86,6 +93,12 @@ public class CompareLarge
 {	
 	private static final int BS_SAMPLES = 10000;
 	
+	/**
+	 * The checkpoint files, in the output directory.
+	 */
+	public static final String SAMPLING_CHECKPOINT = "checkpoint.sampling";
+	public static final String SCORES_CHECKPOINT = "checkpoint.scores.csv";
+	
 	/** 
 	 * Maximum amount of rewritten links.
 	 */
@@ -104,6 +117,77 @@ public class CompareLarge
 	 */
 	public int motifMaxSize = 6;
 	
+	/**
+	 * If larger than zero, sampling stops when the ranking of this many top 
+	 * motifs has been stable for stableWindow samples. motifSamples is then a 
+	 * maximum.
+	 */
+	public int stableTopK = 0;
+	/**
+	 * See stableTopK.
+	 */
+	public int stableWindow = 100000;
+	/**
+	 * If non-negative, sampling stops after this many seconds. motifSamples is
+	 * then a maximum.
+	 */
+	public double sampleBudget = -1.0;
+	/**
+	 * If true, all subgraphs are enumerated instead of sampled, and 
+	 * motifSamples is ignored.
+	 */
+	public boolean enumerate = false;
+	/**
+	 * If positive, the maximum number of occurrences to keep per motif while
+	 * sampling. The motif frequencies are still exact.
+	 */
+	public int occurrenceCap = -1;
+	/**
+	 * If non-negative, the memory in MB for the occurrences kept while 
+	 * sampling.
+	 */
+	public double occurrenceBudget = -1.0;
+	/**
+	 * If positive, the number of motifs to track while sampling (with the 
+	 * rest discarded). Should be comfortably larger than maxMotifs.
+	 */
+	public int heavyHitters = -1;
+	/**
+	 * If nonzero, the exponent for the importance sampler (nodes are chosen
+	 * proportional to degree^-importance).
+	 */
+	public double importance = 0.0;
+	
+	/**
+	 * If non-negative, the state of the sampling is written to a checkpoint 
+	 * file every this many seconds, and the score of each motif as soon as it
+	 * is computed.
+	 */
+	public double checkpointInterval = -1.0;
+	/**
+	 * If true, the run continues from the checkpoints in the output directory:
+	 * sampling resumes after the last shard written, and motifs that were 
+	 * already scored are not scored again.
+	 */
+	public boolean resume = false;
+	
+	/**
+	 * If not null, the extracted motifs, the degree sequence and the 
+	 * baselines are cached in this directory (see ExtractionCache), so that a
+	 * run on the same data with the same extraction parameters can skip 
+	 * straight to the scoring.
+	 */
+	public File cacheDir = null;
+	
+	/**
+	 * The number of motif samples actually taken (or subgraphs enumerated).
+	 */
+	private long samplesTaken = -1;
+	/**
+	 * The number of distinct node sets among the samples.
+	 */
+	private long distinctSamples = -1;
+	
 	/**
 	 * The dataset.
 	 */
@@ -138,34 +222,101 @@ public class CompareLarge
 	 */
 	public boolean graphLoop = false;
 	
+	/**
+	 * Whether to compute the ER codelength for every number of instances, and 
+	 * take the exact minimum, instead of searching for it (only when looping 
+	 * over the instances). The EL model has no curve, so it always searches.
+	 */
+	public boolean fullCurve = false;
+	
+	/**
+	 * The number of points the search for the best number of instances 
+	 * evaluates in parallel per round. 1 or less for the sequential search.
+	 */
+	public int searchProbes = 1;
+	
+	/**
+	 * Whether to score the motifs under the DS model as well (with the 
+	 * instance loop, unless graphLoop is set). The DS model has no full 
+	 * curve, so it always searches.
+	 */
+	public boolean beta = false;
+	
+	/**
+	 * The number of samples to take for the DS model.
+	 */
+	public int betaIterations = 50;
+	
+	/**
+	 * The alpha to use in construction significance intervals for the DS model.
+	 */
+	public double betaAlpha = 0.05;
+	
+	/**
+	 * Whether the DS model should use a closed-form approximation (see 
+	 * DSApproximation) instead of importance sampling. This makes the DS 
+	 * model about as fast as the EL model.
+	 */
+	public boolean betaApproximation = false;
+	
 	public void main() throws IOException
 	{		
 		nl.peterbloem.kit.Global.secureRandom(42);
 		
 		MotifModel.setMaxRW(maxRW);
+		MotifModel.setBetaApproximation(betaApproximation);
 		
 		Global.log().info("Graph size: " + data.size() + " nodes.");
 		Global.log().info("Graph size: " + data.numLinks() + " links.");
 
 		Global.log().info("Computing motif code lengths");
 		
-		final List<D> degrees = graphLoop ? null : DSequenceEstimator.sequence(data);
+		ExtractionCache cache = cacheDir == null ? null : new ExtractionCache(cacheDir, data, cacheParameters());
+		boolean cached = cache != null && cache.load();
 		
-		// * Sample for motifs, and collect the results
-		DPlainMotifExtractor<String> ex 
-		= new DPlainMotifExtractor<String>(
-				(DGraph<String>)data, motifSamples, motifMinSize, motifMaxSize, minFreq);
-	
-		List<? extends DGraph<String>> subsAll = 
-				new ArrayList<DGraph<String>>(ex.subgraphs());
-		List<Double> frequenciesAll = new ArrayList<Double>(subsAll.size());
+		final List<D> degrees;
+		if(cached && cache.dDegrees != null)
+			degrees = cache.dDegrees;
+		else
+			// - the graph loop doesn't need the degrees for the motifs, but the
+			//   EL and DS baselines do
+			degrees = DSequenceEstimator.sequence(data);
 		
-		for(Graph<String> sub : subsAll)
-			frequenciesAll.add(ex.frequency((DGraph<String>)sub));
+		List<? extends DGraph<String>> subsAll;
+		List<Double> frequenciesAll;
+		final List<List<List<Integer>>> occurrences;
+		
+		if(cached)
+		{
+			samplesTaken = cache.samplesTaken;
+			distinctSamples = cache.distinctSamples;
+			
+			List<DGraph<String>> cachedSubs = new ArrayList<DGraph<String>>(cache.subgraphs.size());
+			for(Graph<String> sub : cache.subgraphs)
+				cachedSubs.add((DGraph<String>) sub);
+			
+			subsAll = cachedSubs;
+			frequenciesAll = cache.frequencies;
+			occurrences = cache.occurrences;
+		} else
+		{
+			// * Sample for motifs, and collect the results
+			DPlainMotifExtractor<String> ex 
+			= new DPlainMotifExtractor<String>(
+					(DGraph<String>)data, extractorSettings());
+			samplesTaken = ex.samplesTaken();
+			distinctSamples = ex.distinctSamples();
 		
-		final List<List<List<Integer>>> occurrences = new ArrayList<List<List<Integer>>>(subsAll.size());
-		for(Graph<String> sub : subsAll)
-			occurrences.add(ex.occurrences((DGraph<String>)sub));
+			subsAll = new ArrayList<DGraph<String>>(ex.subgraphs());
+			frequenciesAll = new ArrayList<Double>(subsAll.size());
+			
+			for(Graph<String> sub : subsAll)
+				frequenciesAll.add(ex.frequency((DGraph<String>)sub));
+			
+			occurrences = new ArrayList<List<List<Integer>>>(subsAll.size());
+			for(Graph<String> sub : subsAll)
+				occurrences.add(ex.occurrences((DGraph<String>)sub));
+		}
 	
 		// - select the top motifs by frequency
 		final List<? extends DGraph<String>> subs;
@@ -183,16 +334,99 @@ public class CompareLarge
 					
 		final Map<DGraph<String>, Double> factorsERMap = new ConcurrentHashMap<DGraph<String>, Double>(subs.size());
 		final Map<DGraph<String>, Double> factorsELMap = new ConcurrentHashMap<DGraph<String>, Double>(subs.size());
+		final Map<DGraph<String>, Double> factorsBetaMap = new ConcurrentHashMap<DGraph<String>, Double>(subs.size());
 		final Map<DGraph<String>, Double> maxFactorsMap = new ConcurrentHashMap<DGraph<String>, Double>(subs.size());
 
-		final double baselineER = ERSimpleModel.directed(data.size(), data.numLinks(), false);
-		final double baselineEL = EdgeListModel.directed(degrees, Prior.ML);
+		final double baselineER, baselineEL;
+		if(cached)
+		{
+			baselineER = cache.baselines.get("er");
+			baselineEL = cache.baselines.get("el");
+		} else
+		{
+			baselineER = ERSimpleModel.directed(data.size(), data.numLinks(), false);
+			baselineEL = EdgeListModel.directed(degrees, Prior.ML);
+		}
+		
+		// - the DS baseline depends on the sampling parameters, so it's 
+		//   cached under a key that includes them
+		final String betaKey = betaApproximation ? 
+				"beta approximation" : "beta " + betaIterations + " " + betaAlpha;
+		final double baselineBeta;
+		boolean betaCached = ! beta || (cached && cache.baselines.containsKey(betaKey));
+		if(! beta)
+			baselineBeta = Double.NaN;
+		else if(betaCached)
+			baselineBeta = cache.baselines.get(betaKey);
+		else if(betaApproximation)
+			// - from the degrees, to avoid another pass over the graph
+			baselineBeta = DegreeSequenceModel.prior(degrees, Prior.ML) 
+				+ DSApproximation.logNumGraphsDirected(degrees);
+		else
+			baselineBeta = new DegreeSequenceModel(betaIterations, betaAlpha, Prior.ML, Margin.LOWERBOUND).codelength(data);
+		
+		if(beta && ! betaApproximation)
+			MotifModel.setMotifSamples(new MotifSamples(
+					cacheDir == null ? null : new File(cacheDir, "motif-samples")));
+		
+		// * Store a new entry, or an existing one with a new DS baseline
+		if(cache != null && (! cached || ! betaCached))
+		{
+			if(! cached)
+			{
+				cache.subgraphs = new ArrayList<Graph<String>>(subs);
+				cache.frequencies = frequencies;
+				cache.occurrences = occurrences.subList(0, subs.size());
+				cache.samplesTaken = samplesTaken;
+				cache.distinctSamples = distinctSamples;
+				cache.dDegrees = degrees;
+				cache.baselines.put("er", baselineER);
+				cache.baselines.put("el", baselineEL);
+			}
+			if(beta)
+				cache.baselines.put(betaKey, baselineBeta);
+			
+			try
+			{
+				cache.store();
+			} catch (IOException e)
+			{
+				Global.log().warning("Could not write cache file " + cache.file() + " (trace: " + e + ").");
+			}
+		}
+		
+		// * The scores from an interrupted run. These are written back to a 
+		//   fresh checkpoint, which the new scores are added to
+		File scoresFile = new File(SCORES_CHECKPOINT);
+		String header = "# " + scoreParameters();
+		if(resume && scoresFile.exists())
+			readScores(scoresFile, header, subs, beta, factorsERMap, factorsELMap, factorsBetaMap, maxFactorsMap);
+		
+		final BufferedWriter scoresWriter = checkpointing() ? 
+				new BufferedWriter(new FileWriter(scoresFile)) : null;
+		if(scoresWriter != null)
+		{
+			scoresWriter.write(header + "\n");
+			scoresWriter.flush();
+			
+			for(int i : series(subs.size()))
+				if(maxFactorsMap.containsKey(subs.get(i)))
+					writeScore(scoresWriter, i, subs.get(i), factorsERMap.get(subs.get(i)), factorsELMap.get(subs.get(i)), 
+							beta ? factorsBetaMap.get(subs.get(i)) : Double.NaN);
+		}
 		
 		// * Loop over the top motifs, computing the score for each	
-        ExecutorService executor = Executors.newFixedThreadPool(Global.numThreads());
+        final ExecutorService executor = Executors.newFixedThreadPool(Global.numThreads());
+        // - the search probes go to the same pool, so that the two don't 
+        //   oversubscribe the cores. Probes that the pool rejects once it 
+        //   shuts down, or hasn't started yet, are run by the searching thread.
+        final ExecutorService searchExecutor = searchProbes > 1 ? executor : null;
 
 		for(final int i : series(subs.size()))
-		{			
+		{
+			if(maxFactorsMap.containsKey(subs.get(i)))
+				continue;
+			
 			Thread thread = new Thread()
 			{
 				@Override
@@ -208,9 +442,13 @@ public class CompareLarge
 		
 					Global.log().info("null model: ER");
 
-					double sizeER = graphLoop ? 
-							MotifSearchModel.sizeER(data, sub, occs, resets, searchDepth) : 
-							MotifSearchModel.sizeERInst(data, sub, occs, resets, searchDepth);
+					double sizeER;
+					if(graphLoop)
+						sizeER = MotifSearchModel.sizeER(data, sub, occs, resets, searchDepth);
+					else if(fullCurve)
+						sizeER = minimum(MotifSearchModel.curveERInst(data, sub, occs, resets), "ER");
+					else
+						sizeER = MotifSearchModel.sizeERInst(data, sub, occs, resets, searchDepth, searchExecutor, searchProbes);
 					double factorER = baselineER - sizeER;
 					factorsERMap.put(sub, factorER);
 					 
@@ -222,9 +460,11 @@ public class CompareLarge
 		
 					Global.log().info("null model: EL");
 				
-					double sizeEL = graphLoop ?
-							MotifSearchModel.sizeEL(data, sub, occs, resets, searchDepth) :
-							MotifSearchModel.sizeELInst(data, degrees, sub, occs, resets, searchDepth);
+					double sizeEL;
+					if(graphLoop)
+						sizeEL = MotifSearchModel.sizeEL(data, sub, occs, resets, searchDepth);
+					else
+						sizeEL = MotifSearchModel.sizeELInst(data, degrees, sub, occs, resets, searchDepth, searchExecutor, searchProbes);
 					double factorEL = baselineEL - sizeEL;
 					factorsELMap.put(sub, factorEL);
 				 
@@ -233,8 +473,31 @@ public class CompareLarge
 					Global.log().info("EL factor: " + factorEL);
 					
 					max = max(max, factorEL);
+					
+					double factorBeta = Double.NaN;
+					if(beta)
+					{
+						Global.log().info("null model: DS");
+						
+						double sizeBeta;
+						if(graphLoop)
+							sizeBeta = MotifSearchModel.sizeBeta(data, sub, occs, resets, betaIterations, betaAlpha, searchDepth);
+						else
+							sizeBeta = MotifSearchModel.sizeBetaInst(data, degrees, sub, occs, resets, betaIterations, betaAlpha, searchDepth, searchExecutor, searchProbes);
+						factorBeta = baselineBeta - sizeBeta;
+						factorsBetaMap.put(sub, factorBeta);
+						
+						Global.log().info("DS baseline: " + baselineBeta);
+						Global.log().info("DS motif code: " + sizeBeta);
+						Global.log().info("DS factor: " + factorBeta);
+						
+						max = max(max, factorBeta);
+					}
 		
 					maxFactorsMap.put(sub, max);
+					
+					if(scoresWriter != null)
+						writeScore(scoresWriter, i, sub, factorER, factorEL, factorBeta);
 				}
 			};
 			executor.execute(thread);
@@ -249,10 +512,13 @@ public class CompareLarge
 			throw new RuntimeException(e);
 		}
 		
+		if(scoresWriter != null)
+			scoresWriter.close();
 		
 		// - transfer the scores to lists
 		List<Double> factorsER = new ArrayList<Double>(subs.size());
 		List<Double> factorsEL = new ArrayList<Double>(subs.size());
+		List<Double> factorsBeta = new ArrayList<Double>(subs.size());
 		List<Double> maxFactors = new ArrayList<Double>(subs.size());
 		
 		for(int i : series(subs.size()))
@@ -260,21 +526,28 @@ public class CompareLarge
 			DGraph<String> sub = subs.get(i);
 			factorsER.add(factorsERMap.get(sub));
 			factorsEL.add(factorsELMap.get(sub));
+			factorsBeta.add(beta ? factorsBetaMap.get(sub) : Double.NaN);
 			maxFactors.add(maxFactorsMap.get(sub));
 		}
 		
+		List<List<List<Integer>>> occurrencesTop = 
+				new ArrayList<List<List<Integer>>>(occurrences.subList(0, subs.size()));
+		
 		Comparator<Double> comp = Functions.natural();
 		Functions.sort(
 				factorsEL, Collections.reverseOrder(comp), 
 				(List) frequencies,
 				(List) factorsER, 
-				(List) subs);
+				(List) factorsBeta, 
+				(List) subs,
+				(List) occurrencesTop);
 		
 		File numbersFile = new File("numbers.csv");
 		
 		BufferedWriter numbersWriter = new BufferedWriter(new FileWriter(numbersFile));
 		for(int i : series(subs.size()))
-			numbersWriter.write(frequencies.get(i) + ", " + factorsER.get(i) + ", " + factorsEL.get(i) + "\n");		
+			numbersWriter.write(frequencies.get(i) + ", " + factorsER.get(i) + ", " + factorsEL.get(i) 
+					+ (beta ? ", " + factorsBeta.get(i) : "") + "\n");		
 		numbersWriter.close();
 
 		int i = 0;
@@ -286,7 +559,7 @@ public class CompareLarge
 			
 			
 			// * Write all occurrences of the motif to a file
-			List<List<Integer>> occs = ex.occurrences((DGraph<String>)sub); 
+			List<List<Integer>> occs = occurrencesTop.get(i); 
 			
 			File occFile = new File(String.format("motif.%03d.occurrences.csv", i));
 			BufferedWriter occWriter = new BufferedWriter(new FileWriter(occFile));
@@ -318,6 +591,13 @@ public class CompareLarge
 		obj.put("directed", true);
 		obj.put("baseline er", baselineER);
 		obj.put("baseline el", baselineEL);
+		if(beta)
+		{
+			obj.put("baseline beta", baselineBeta);
+			obj.put("beta approximation", betaApproximation);
+		}
+		obj.put("samples taken", samplesTaken);
+		obj.put("distinct samples", distinctSamples);
 		Functions.write(obj.toString(), new File("metadata.json"));
 		
 		try
@@ -328,4 +608,159 @@ public class CompareLarge
 			Global.log().warning("Failed to run plot script. The script has been copied to the output directory.  (trace:" + e + ")");
 		}
 	}
+	
+	private boolean checkpointing()
+	{
+		return checkpointInterval >= 0.0 || resume;
+	}
+	
+	/**
+	 * The minimum of a compression curve, logging the number of instances at
+	 * which it is reached.
+	 */
+	private static double minimum(double[] curve, String model)
+	{
+		int cutoff = MotifSearchModel.argmin(curve);
+		Global.log().info(model + " optimal number of instances: " + cutoff + " of " + (curve.length - 1));
+		
+		return curve[cutoff];
+	}
+	
+	/**
+	 * Writes the score of a motif to the checkpoint, with the hash of the 
+	 * motif to check that it is the same when resuming. 
+	 */
+	private static void writeScore(
+			BufferedWriter writer, int i, DGraph<String> sub, double factorER, double factorEL, double factorBeta)
+	{
+		synchronized(writer)
+		{
+			try
+			{
+				writer.write(i + ", " + sub.hashCode() + ", " + factorER + ", " + factorEL + ", " + factorBeta + "\n");
+				writer.flush();
+			} catch (IOException e)
+			{
+				Global.log().warning("Could not write the score of motif " + i + " to the checkpoint (trace: " + e + ").");
+			}
+		}
+	}
+	
+	/**
+	 * Reads the scores from a checkpoint. If the checkpoint was written with
+	 * other scoring parameters (its first line differs from the given header),
+	 * it is ignored entirely. Lines that don't match the current motifs, or 
+	 * that were cut off, are ignored. So are lines without a DS score, if beta
+	 * is true.
+	 */
+	private static void readScores(
+			File file, String header, List<? extends DGraph<String>> subs, boolean beta,
+			Map<DGraph<String>, Double> factorsER, Map<DGraph<String>, Double> factorsEL,
+			Map<DGraph<String>, Double> factorsBeta, Map<DGraph<String>, Double> maxFactors)
+		throws IOException
+	{
+		int n = 0;
+		
+		BufferedReader reader = new BufferedReader(new FileReader(file));
+		
+		if(! header.equals(reader.readLine()))
+		{
+			reader.close();
+			Global.log().warning("The scores checkpoint was written with other scoring parameters. Scoring all motifs again.");
+			return;
+		}
+		
+		String line;
+		while((line = reader.readLine()) != null)
+		{
+			String[] fields = line.split(",");
+			if(fields.length != 5)
+				continue;
+			
+			int i, hash;
+			double factorER, factorEL, factorBeta;
+			try
+			{
+				i = Integer.parseInt(fields[0].trim());
+				hash = Integer.parseInt(fields[1].trim());
+				factorER = Double.parseDouble(fields[2].trim());
+				factorEL = Double.parseDouble(fields[3].trim());
+				factorBeta = Double.parseDouble(fields[4].trim());
+			} catch (NumberFormatException e)
+			{
+				continue;
+			}
+			
+			if(i < 0 || i >= subs.size() || subs.get(i).hashCode() != hash)
+				continue;
+			
+			if(beta && Double.isNaN(factorBeta))
+				continue;
+			
+			DGraph<String> sub = subs.get(i);
+			factorsER.put(sub, factorER);
+			factorsEL.put(sub, factorEL);
+			
+			double maxFactor = max(factorER, factorEL);
+			if(beta)
+			{
+				factorsBeta.put(sub, factorBeta);
+				maxFactor = max(maxFactor, factorBeta);
+			}
+			maxFactors.put(sub, maxFactor);
+			n++;
+		}
+		reader.close();
+		
+		Global.log().info("Resuming: " + n + " of " + subs.size() + " motifs already scored.");
+	}
+	
+	/**
+	 * The parameters that affect the scores of the motifs, for the header of 
+	 * the scores checkpoint.
+	 */
+	private String scoreParameters()
+	{
+		return "resets " + resets + ", depth " + searchDepth + ", graph loop " + graphLoop + ", "
+				+ "full curve " + fullCurve + ", probes " + searchProbes + ", max rw " + maxRW + ", "
+				+ "beta " + beta + ", beta iterations " + betaIterations + ", beta alpha " + betaAlpha + ", "
+				+ "beta approximation " + betaApproximation;
+	}
+	
+	/**
+	 * The parameters that affect the results stored in the cache.
+	 */
+	private String cacheParameters()
+	{
+		return "compare large, samples " + motifSamples + ", sizes " + motifMinSize + "-" + motifMaxSize + ", "
+				+ "min freq " + minFreq + ", max motifs " + maxMotifs + ", "
+				+ "top-k " + stableTopK + ", window " + stableWindow + ", budget " + sampleBudget + ", "
+				+ "enumerate " + enumerate + ", cap " + occurrenceCap + ", memory " + occurrenceBudget + ", "
+				+ "heavy hitters " + heavyHitters + ", importance " + importance;
+	}
+	
+	private ExtractorSettings extractorSettings()
+	{
+		ExtractorSettings settings = 
+				new ExtractorSettings(motifSamples, motifMinSize, motifMaxSize, minFreq);
+		settings.stableTopK = stableTopK;
+		settings.stableWindow = stableWindow;
+		settings.budget = sampleBudget;
+		settings.enumerate = enumerate;
+		settings.maxMotifs = maxMotifs;
+		settings.occurrenceCap = occurrenceCap;
+		settings.occurrenceBudget = occurrenceBudget;
+		settings.heavyHitters = heavyHitters;
+		settings.importance = importance;
+		
+		if(checkpointing())
+		{
+			settings.checkpoint = new File(SAMPLING_CHECKPOINT);
+			if(checkpointInterval >= 0.0)
+				settings.checkpointInterval = checkpointInterval;
+		}
+		settings.resume = resume;
+		
+		return settings;
+	}
 }
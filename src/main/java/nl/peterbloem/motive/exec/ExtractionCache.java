@@ -0,0 +1,321 @@
+package nl.peterbloem.motive.exec;
+
+import static nl.peterbloem.kit.Series.series;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.nodes.DGraph;
+import org.nodes.Graph;
+import org.nodes.Link;
+import org.nodes.MapDTGraph;
+import org.nodes.MapUTGraph;
+import org.nodes.Node;
+import org.nodes.models.DSequenceEstimator.D;
+
+import nl.peterbloem.kit.Global;
+import nl.peterbloem.motive.OccurrenceStore;
+
+/**
+ * An on-disk cache for the parts of an experiment that don't depend on how
+ * the motifs are scored: the extracted motifs with their frequencies and
+ * occurrences, the degree sequence and the baseline codelengths.
+ *
+ * Entries are keyed by a fingerprint of the data (see fingerprint()) and a
+ * description of the parameters of the extraction. An entry is written after
+ * it has been computed, and can then be reused by any run on the same graph
+ * with the same parameters, whatever the scoring settings. Baselines that 
+ * depend on the scoring settings are stored under keys that include them, 
+ * and a run that computes a new one writes the entry again.
+ *
+ * The results are kept in public fields: fill them and call store(), or call
+ * load() and read them.
+ *
+ * @author Peter
+ */
+public class ExtractionCache
+{
+	private static final int VERSION = 1;
+
+	private static final long MIX = 0x9E3779B97F4A7C15L;
+
+	private File file;
+	private String parameters;
+
+	/**
+	 * The motifs, with their frequencies and occurrences.
+	 */
+	public List<Graph<String>> subgraphs;
+	public List<Double> frequencies;
+	public List<List<List<Integer>>> occurrences;
+
+	public long samplesTaken = -1, distinctSamples = -1;
+
+	/**
+	 * The degree sequence (for undirected data), or the in and out degrees
+	 * (for directed data). Either may be null.
+	 */
+	public List<Integer> degrees = null;
+	public List<D> dDegrees = null;
+
+	/**
+	 * The baseline codelengths, by the name of the null model.
+	 */
+	public Map<String, Double> baselines = new LinkedHashMap<String, Double>();
+
+	/**
+	 * @param directory The directory containing the cache files.
+	 * @param data The data (as used for the extraction, ie. after any
+	 * 	simplification).
+	 * @param parameters A description of all parameters that affect the
+	 * 	cached results.
+	 */
+	public ExtractionCache(File directory, Graph<?> data, String parameters)
+	{
+		this.parameters = parameters;
+
+		file = new File(directory, String.format("%016x.%08x.cache", fingerprint(data), parameters.hashCode()));
+	}
+
+	public File file()
+	{
+		return file;
+	}
+
+	/**
+	 * Loads the cached results, if there are any.
+	 *
+	 * @return Whether the results were loaded.
+	 */
+	public boolean load()
+		throws IOException
+	{
+		if(! file.exists())
+			return false;
+
+		DataInputStream in = new DataInputStream(
+				new BufferedInputStream(new FileInputStream(file)));
+		try
+		{
+			// * Check for a version change or a collision of the parameter hash
+			if(in.readInt() != VERSION || ! parameters.equals(in.readUTF()))
+			{
+				Global.log().info("Cache file " + file + " does not match the current parameters. Ignoring.");
+				return false;
+			}
+
+			samplesTaken = in.readLong();
+			distinctSamples = in.readLong();
+
+			boolean directed = in.readBoolean();
+			int numMotifs = in.readInt();
+
+			subgraphs = new ArrayList<Graph<String>>(numMotifs);
+			frequencies = new ArrayList<Double>(numMotifs);
+			occurrences = new ArrayList<List<List<Integer>>>(numMotifs);
+			for(int m : series(numMotifs))
+			{
+				Graph<String> sub = directed ?
+						new MapDTGraph<String, String>() : new MapUTGraph<String, String>();
+
+				int size = in.readInt();
+				// - unlabeled data may have null labels
+				for(int i : series(size))
+					sub.add(in.readBoolean() ? in.readUTF() : null);
+
+				int numLinks = in.readInt();
+				for(int l : series(numLinks))
+				{
+					int first = in.readInt(), second = in.readInt();
+					sub.get(first).connect(sub.get(second));
+				}
+				subgraphs.add(sub);
+
+				frequencies.add(in.readDouble());
+
+				int n = in.readInt();
+				OccurrenceStore store = new OccurrenceStore(size, n);
+				List<Integer> occurrence = new ArrayList<Integer>(size);
+				for(int i : series(n))
+				{
+					occurrence.clear();
+					for(int j : series(size))
+						occurrence.add(in.readInt());
+					store.add(occurrence);
+				}
+				occurrences.add(store);
+			}
+
+			int numDegrees = in.readInt();
+			if(numDegrees >= 0)
+			{
+				degrees = new ArrayList<Integer>(numDegrees);
+				for(int i : series(numDegrees))
+					degrees.add(in.readInt());
+			}
+
+			numDegrees = in.readInt();
+			if(numDegrees >= 0)
+			{
+				dDegrees = new ArrayList<D>(numDegrees);
+				for(int i : series(numDegrees))
+				{
+					int inDegree = in.readInt(), outDegree = in.readInt();
+					dDegrees.add(new D(inDegree, outDegree));
+				}
+			}
+
+			int numBaselines = in.readInt();
+			for(int i : series(numBaselines))
+			{
+				String name = in.readUTF();
+				baselines.put(name, in.readDouble());
+			}
+		} finally
+		{
+			in.close();
+		}
+
+		Global.log().info("Loaded " + subgraphs.size() + " motifs from cache file " + file + ".");
+
+		return true;
+	}
+
+	/**
+	 * Writes the results to the cache. The file is written under a temporary
+	 * name first, so that an interrupted write doesn't leave a broken entry.
+	 */
+	public void store()
+		throws IOException
+	{
+		file.getAbsoluteFile().getParentFile().mkdirs();
+		File temp = new File(file.getPath() + ".tmp");
+
+		DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(temp)));
+		try
+		{
+			out.writeInt(VERSION);
+			out.writeUTF(parameters);
+
+			out.writeLong(samplesTaken);
+			out.writeLong(distinctSamples);
+
+			out.writeBoolean(! subgraphs.isEmpty() && subgraphs.get(0) instanceof DGraph<?>);
+			out.writeInt(subgraphs.size());
+			for(int m : series(subgraphs.size()))
+			{
+				Graph<String> sub = subgraphs.get(m);
+
+				out.writeInt(sub.size());
+				for(Node<String> node : sub.nodes())
+				{
+					out.writeBoolean(node.label() != null);
+					if(node.label() != null)
+						out.writeUTF(node.label());
+				}
+
+				out.writeInt((int) sub.numLinks());
+				for(Link<String> link : sub.links())
+				{
+					out.writeInt(link.first().index());
+					out.writeInt(link.second().index());
+				}
+
+				out.writeDouble(frequencies.get(m));
+
+				List<List<Integer>> occs = occurrences.get(m);
+				out.writeInt(occs.size());
+				for(List<Integer> occurrence : occs)
+					for(int index : occurrence)
+						out.writeInt(index);
+			}
+
+			out.writeInt(degrees == null ? -1 : degrees.size());
+			if(degrees != null)
+				for(int degree : degrees)
+					out.writeInt(degree);
+
+			out.writeInt(dDegrees == null ? -1 : dDegrees.size());
+			if(dDegrees != null)
+				for(D degree : dDegrees)
+				{
+					out.writeInt(degree.in());
+					out.writeInt(degree.out());
+				}
+
+			out.writeInt(baselines.size());
+			for(Map.Entry<String, Double> entry : baselines.entrySet())
+			{
+				out.writeUTF(entry.getKey());
+				out.writeDouble(entry.getValue());
+			}
+		} finally
+		{
+			out.close();
+		}
+
+		Files.move(temp.toPath(), file.toPath(),
+				StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+		Global.log().info("Wrote " + subgraphs.size() + " motifs to cache file " + file + ".");
+	}
+
+	/**
+	 * A 64-bit fingerprint of a graph, computed in a single pass over its 
+	 * links and one over its nodes. Each link and each node label is hashed 
+	 * separately, and the hashes are summed, so the result doesn't depend on 
+	 * the order in which the links are stored. The labels are hashed through 
+	 * their string representations.
+	 */
+	public static long fingerprint(Graph<?> graph)
+	{
+		boolean directed = graph instanceof DGraph<?>;
+
+		long sum = 0;
+		for(Link<?> link : graph.links())
+		{
+			long first = link.first().index(), second = link.second().index();
+			if(! directed && first > second)
+			{
+				long t = first;
+				first = second;
+				second = t;
+			}
+
+			sum += mix((first << 32) ^ second);
+		}
+
+		// * The labels, each with the index of its node
+		long labels = 0;
+		for(Node<?> node : graph.nodes())
+			labels += mix(((long) node.index() << 32) ^ String.valueOf(node.label()).hashCode());
+
+		long hash = mix(graph.size() * MIX + (directed ? 1 : 0));
+		hash = mix(hash ^ graph.numLinks());
+		hash = mix(hash ^ sum);
+		return mix(hash ^ labels);
+	}
+
+	/**
+	 * The finalizer of SplitMix64.
+	 */
+	private static long mix(long z)
+	{
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+}
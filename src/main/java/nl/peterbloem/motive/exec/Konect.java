@@ -72,6 +72,7 @@ import nl.peterbloem.kit.OnlineModel;
 import nl.peterbloem.kit.Order;
 import nl.peterbloem.kit.Series;
 import nl.peterbloem.motive.DPlainMotifExtractor;
+import nl.peterbloem.motive.ExtractorSettings;
 import nl.peterbloem.motive.MotifModel;
 import nl.peterbloem.motive.MotifSearchModel;
 import nl.peterbloem.motive.UPlainMotifExtractor;
@@ -118,6 +119,56 @@ public class Konect
 	 * Maximum motif size (inclusive)
 	 */
 	public int motifMaxSize = 6;
+	
+	/**
+	 * If larger than zero, sampling stops when the ranking of this many top 
+	 * motifs has been stable for stableWindow samples. motifSamples is then a 
+	 * maximum.
+	 */
+	public int stableTopK = 0;
+	/**
+	 * See stableTopK.
+	 */
+	public int stableWindow = 100000;
+	/**
+	 * If non-negative, sampling stops after this many seconds. motifSamples is
+	 * then a maximum.
+	 */
+	public double sampleBudget = -1.0;
+	/**
+	 * If true, all subgraphs are enumerated instead of sampled, and 
+	 * motifSamples is ignored.
+	 */
+	public boolean enumerate = false;
+	/**
+	 * If positive, the maximum number of occurrences to keep per motif while
+	 * sampling. The motif frequencies are still exact.
+	 */
+	public int occurrenceCap = -1;
+	/**
+	 * If non-negative, the memory in MB for the occurrences kept while 
+	 * sampling.
+	 */
+	public double occurrenceBudget = -1.0;
+	/**
+	 * If positive, the number of motifs to track while sampling (with the 
+	 * rest discarded). Should be comfortably larger than maxMotifs.
+	 */
+	public int heavyHitters = -1;
+	/**
+	 * If nonzero, the exponent for the importance sampler (nodes are chosen
+	 * proportional to degree^-importance).
+	 */
+	public double importance = 0.0;
+	
+	/**
+	 * The number of motif samples actually taken (or subgraphs enumerated).
+	 */
+	private long samplesTaken = -1;
+	/**
+	 * The number of distinct node sets among the samples.
+	 */
+	private long distinctSamples = -1;
 
 	/**
 	 * The dataset.
@@ -171,7 +222,7 @@ public class Konect
 		
 		String rand = String.format("%d05", Global.random().nextInt(10000));
 		BufferedWriter writer = new BufferedWriter(new FileWriter(new File("output."+rand+".csv")));
-		writer.write(id + ", " + undirected + ", " + nodes + ", " + links + ", " + sig + ", " + sampleTime + ", " + elapsed + "\n");		
+		writer.write(id + ", " + undirected + ", " + nodes + ", " + links + ", " + sig + ", " + sampleTime + ", " + elapsed + ", " + samplesTaken + ", " + distinctSamples + "\n");		
 		writer.close();
 	}
 
@@ -388,9 +439,10 @@ public class Konect
 		List<D> degrees = DSequenceEstimator.sequence((DGraph<String>) data);
 
 		long t0 = System.nanoTime();
-		DPlainMotifExtractor<String> ex = new DPlainMotifExtractor<String>(data, motifSamples,
-				motifMinSize, motifMaxSize, minFreq);
+		DPlainMotifExtractor<String> ex = new DPlainMotifExtractor<String>(data, extractorSettings());
 		this.sampleTime = (System.nanoTime() - t0)/1.0e9;
+		this.samplesTaken = ex.samplesTaken();
+		this.distinctSamples = ex.distinctSamples();
 		
 
 		List<? extends DGraph<String>> subsAll = new ArrayList<DGraph<String>>(ex.subgraphs());
@@ -444,9 +496,10 @@ public class Konect
 		List<Integer> degrees = Graphs.degrees(data);
 
 		long t0 = System.nanoTime();
-		UPlainMotifExtractor<String> ex = new UPlainMotifExtractor<String>(data, motifSamples,
-				motifMinSize, motifMaxSize, minFreq);
+		UPlainMotifExtractor<String> ex = new UPlainMotifExtractor<String>(data, extractorSettings());
 		this.sampleTime = (System.nanoTime() - t0)/1.0e9;
+		this.samplesTaken = ex.samplesTaken();
+		this.distinctSamples = ex.distinctSamples();
 
 		List<? extends UGraph<String>> subsAll = new ArrayList<UGraph<String>>(ex.subgraphs());
 		List<Double> frequenciesAll = new ArrayList<Double>(subsAll.size());
@@ -489,4 +542,21 @@ public class Konect
 		
 		return significant;
 	}
+	
+	private ExtractorSettings extractorSettings()
+	{
+		ExtractorSettings settings = 
+				new ExtractorSettings(motifSamples, motifMinSize, motifMaxSize, minFreq);
+		settings.stableTopK = stableTopK;
+		settings.stableWindow = stableWindow;
+		settings.budget = sampleBudget;
+		settings.enumerate = enumerate;
+		settings.maxMotifs = maxMotifs;
+		settings.occurrenceCap = occurrenceCap;
+		settings.occurrenceBudget = occurrenceBudget;
+		settings.heavyHitters = heavyHitters;
+		settings.importance = importance;
+		
+		return settings;
+	}
 }
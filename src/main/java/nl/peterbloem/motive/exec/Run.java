@@ -23,7 +23,7 @@ public class Run
 	
 	@Option(
 		name="--type",
-		usage="Selects the type of experiment, one of: synth (synthetic graph experiment), full (motif extraction with all null models), fast (skip the DS model), preload (load a large graph into a db file), class (classification experiment).")
+		usage="Selects the type of experiment, one of: synth (synthetic graph experiment), full (motif extraction with all null models), fast (skip the DS model, unless --fast.ds is given), preload (load a large graph into a db file), class (classification experiment).")
 	private static String type = "fast";
 	
 	@Option(
@@ -41,6 +41,61 @@ public class Run
 			usage="Number of samples to take.")
 	private static int samples = 1000000;
 	
+	@Option(
+			name="--sampling.top-k",
+			usage="Stop sampling when the ranking of this many most frequent motifs has been stable for a number of samples (see --sampling.window). The value of --samples is then a maximum. 0 to always take all samples.")
+	private static int stableTopK = 0;
+	
+	@Option(
+			name="--sampling.window",
+			usage="The number of samples for which the top motifs should be stable (see --sampling.top-k).")
+	private static int stableWindow = 100000;
+	
+	@Option(
+			name="--sampling.budget",
+			usage="Stop sampling after this many seconds. The value of --samples is then a maximum. -1 for no limit.")
+	private static double sampleBudget = -1.0;
+	
+	@Option(
+			name="--enumerate",
+			usage="Enumerate all subgraphs exactly, instead of sampling them. The value of --samples is then ignored. Only feasible for small graphs or small motifs.")
+	private static boolean enumerate = false;
+	
+	@Option(
+			name="--sampling.cap",
+			usage="The maximum number of occurrences to keep per motif while sampling. Frequencies are still counted exactly, but overlap removal only sees a random sample of the occurrences. -1 for no limit.")
+	private static int occurrenceCap = -1;
+	
+	@Option(
+			name="--sampling.memory",
+			usage="The memory (in MB, approximately) for the occurrences kept while sampling. If this is exceeded, the number of occurrences kept per motif is lowered. -1 for no limit.")
+	private static double occurrenceBudget = -1.0;
+	
+	@Option(
+			name="--sampling.heavy-hitters",
+			usage="The number of motifs to track while sampling. Only these keep their occurrences, and their sampled frequencies become estimates. Should be comfortably larger than --maxmotifs. -1 to track all motifs.")
+	private static int heavyHitters = -1;
+	
+	@Option(
+			name="--sampling.importance",
+			usage="If nonzero, nodes are sampled with probability proportional to their degree to the power -x, and samples are reweighted to correct for this. Positive values spend fewer samples around hubs. 0 for uniform sampling.")
+	private static double importance = 0.0;
+	
+	@Option(
+			name="--checkpoint",
+			usage="For the fast experiment: write the sampling state and the motif scores to checkpoint files in the output directory, with this many seconds between sampling checkpoints. -1 to write no checkpoints.")
+	private static double checkpointInterval = -1.0;
+	
+	@Option(
+			name="--cache",
+			usage="For the fast and full experiments: a directory in which to cache the extracted motifs and the baselines. A later run on the same data with the same sampling options skips straight to scoring the motifs. The full experiment also stores the DS samples of the motifs here.")
+	private static File cacheDir = null;
+	
+	@Option(
+			name="--resume",
+			usage="For the fast experiment: continue from the checkpoint files in the output directory (see --checkpoint). The other options should be the same as in the interrupted run.")
+	private static boolean resume = false;
+	
 	@Option(
 			name="--minsize",
 			usage="Minimum motif size in nodes (inclusive).")
@@ -64,7 +119,7 @@ public class Run
 	@Option(name="--undirected", usage="If the input should be interpeted as undirected (only for edgelist files).")
 	private static boolean undirected = false;
 	
-	@Option(name="--threads", usage="Number of threads to run simultaneaously. Default is the number of cores available. In full mode, there will always be at least 2 concurrent threads, even if this value is 1.")
+	@Option(name="--threads", usage="Number of threads to run simultaneaously. Default is the number of cores available.")
 	private static int threads = Global.numThreads();
 	
 	@Option(
@@ -72,6 +127,21 @@ public class Run
 			usage="Loop over the graph instead of the instances when computing the score. A little faster when there are many instances, but a lot slower when there are few.")
 	private static boolean graphLoop = false;
 	
+	@Option(
+			name="--fast.curve",
+			usage="Compute the ER codelength for every number of instances of a motif, and use the exact minimum, instead of searching for it. The EL codelength is always searched for. Ignored with --fast.graphloop.")
+	private static boolean fullCurve = false;
+	
+	@Option(
+			name="--fast.probes",
+			usage="The number of points the search for the best number of instances evaluates in parallel per round, in the fast and the full experiment. 1 for the sequential search.")
+	private static int searchProbes = 1;
+	
+	@Option(
+			name="--fast.ds",
+			usage="Also score the motifs under the DS model. This loops over the instances (unless --fast.graphloop is set), but every evaluation still samples degree sequences the size of the graph.")
+	private static boolean fastDS = false;
+	
 	@Option(
 			name="--fast.disk",
 			usage="Use the disk to store the graph.  Slower, but uses very little memory. Supports graphs up to billions of links (disk space permitting).")
@@ -82,9 +152,24 @@ public class Run
 			usage="The search depth for the DS model.")
 	private static int dsDepth = 3;
 	
+	@Option(
+			name="--full.tolerance",
+			usage="If positive, the DS model samples in batches until the upper bound of its confidence interval moves by less than this many bits. If not, it takes a fixed number of samples per evaluation.")
+	private static double dsTolerance = -1.0;
+	
+	@Option(
+			name="--full.max-samples",
+			usage="The maximum number of samples per evaluation of the DS model, when it samples in batches (see --full.tolerance).")
+	private static int dsMaxSamples = 1000;
+	
+	@Option(
+			name="--ds.approximate",
+			usage="For the full experiment, and the fast experiment with --fast.ds: compute the DS model with a closed-form approximation of the number of graphs with a given degree sequence, instead of sampling. Much faster, but less accurate for graphs with large hubs. The full experiment reports the error of the approximation for data with at most 10000 links.")
+	private static boolean dsApproximate = false;
+	
 	@Option(
 			name="--full.mix",
-			usage="What proportion of available cores to use for motif computation (with the rest used for sampling). Changing this parameter won't affect the end result, but it might lead to better utilitzation of the available cores. If 1.0, the motif scores are computed one by one, sequentially, and the free cores are used to sample for the DS model. If 0.0, the motif scores are computed in parallel, and sampling is done single-threaded.")
+			usage="Ignored. The full experiment now computes the motif scores and samples for the DS model on one shared pool of threads. Kept so that existing scripts still run.")
 	private static double mix = 0.4;
 	
 	@Option(name="--help", usage="Print usage information.", aliases={"-h"}, help=true)
@@ -269,7 +354,22 @@ public class Run
     		large.motifMaxSize = maxSize;
     		large.maxMotifs = maxMotifs;
     		large.motifSamples = samples;
+    		large.stableTopK = stableTopK;
+    		large.stableWindow = stableWindow;
+    		large.sampleBudget = sampleBudget;
+    		large.enumerate = enumerate;
+    		large.occurrenceCap = occurrenceCap;
+    		large.occurrenceBudget = occurrenceBudget;
+    		large.heavyHitters = heavyHitters;
+    		large.importance = importance;
+    		large.checkpointInterval = checkpointInterval;
+    		large.resume = resume;
+    		large.cacheDir = cacheDir;
     		large.graphLoop = graphLoop;
+    		large.fullCurve = fullCurve;
+    		large.searchProbes = searchProbes;
+    		large.beta = fastDS;
+    		large.betaApproximation = dsApproximate;
     		
        		Global.log().info("Starting experiment.");
     		Functions.tic();
@@ -326,8 +426,20 @@ public class Run
     		full.motifMaxSize = maxSize;
     		full.maxMotifs = maxMotifs;
     		full.motifSamples = samples;
+    		full.stableTopK = stableTopK;
+    		full.stableWindow = stableWindow;
+    		full.sampleBudget = sampleBudget;
+    		full.enumerate = enumerate;
+    		full.occurrenceCap = occurrenceCap;
+    		full.occurrenceBudget = occurrenceBudget;
+    		full.heavyHitters = heavyHitters;
+    		full.importance = importance;
+    		full.cacheDir = cacheDir;
     		full.betaSearchDepth = dsDepth;
-    		full.mix = mix;
+    		full.searchProbes = searchProbes;
+    		full.betaTolerance = dsTolerance;
+    		full.betaMaxIterations = dsMaxSamples;
+    		full.betaApproximation = dsApproximate;
     		
        		Global.log().info("Starting experiment.");
     		Functions.tic();
@@ -351,6 +463,14 @@ public class Run
     		konect.motifMaxSize = maxSize;
     		konect.maxMotifs = maxMotifs;
     		konect.motifSamples = samples;
+    		konect.stableTopK = stableTopK;
+    		konect.stableWindow = stableWindow;
+    		konect.sampleBudget = sampleBudget;
+    		konect.enumerate = enumerate;
+    		konect.occurrenceCap = occurrenceCap;
+    		konect.occurrenceBudget = occurrenceBudget;
+    		konect.heavyHitters = heavyHitters;
+    		konect.importance = importance;
     		
     		konect.wgetprefix = wgetprefix;
     		konect.tarprefix = tarprefix;
@@ -0,0 +1,55 @@
+package nl.peterbloem.motive;
+
+import static nl.peterbloem.kit.Series.series;
+import static org.junit.Assert.*;
+
+import java.util.SplittableRandom;
+
+import org.junit.Test;
+
+public class AliasTableTest
+{
+	@Test
+	public void testDraw()
+	{
+		double[] weights = {1.0, 0.0, 3.0, 6.0, 0.5, 0.0};
+		AliasTable table = new AliasTable(weights);
+
+		SplittableRandom random = new SplittableRandom(42);
+		int n = 1000000;
+		int[] counts = new int[weights.length];
+		for(int i : series(n))
+			counts[table.draw(random)]++;
+
+		assertEquals(0, counts[1]);
+		assertEquals(0, counts[5]);
+		for(int i : series(weights.length))
+			assertEquals(weights[i] / 10.5, counts[i] / (double) n, 0.005);
+	}
+
+	@Test
+	public void testSlices()
+	{
+		// * Two tables in one pair of arrays
+		double[] weights = {1.0, 1.0, 2.0, 5.0, 0.0, 5.0};
+		double[] probabilities = new double[weights.length];
+		int[] aliases = new int[weights.length];
+
+		AliasTable.build(weights, 0, 3, probabilities, aliases);
+		AliasTable.build(weights, 3, 3, probabilities, aliases);
+
+		SplittableRandom random = new SplittableRandom(42);
+		int n = 1000000;
+		int[] counts = new int[3];
+		for(int i : series(n))
+			counts[AliasTable.draw(probabilities, aliases, 3, 3, random)]++;
+
+		assertEquals(0.5, counts[0] / (double) n, 0.005);
+		assertEquals(0, counts[1]);
+		assertEquals(0.5, counts[2] / (double) n, 0.005);
+
+		for(int i : series(n))
+			counts[AliasTable.draw(probabilities, aliases, 0, 3, random)]++;
+		assertTrue(counts[1] > 0);
+	}
+}
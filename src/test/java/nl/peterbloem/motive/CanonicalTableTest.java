@@ -0,0 +1,114 @@
+package nl.peterbloem.motive;
+
+import static nl.peterbloem.kit.Series.series;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+import org.nodes.DGraph;
+import org.nodes.Graph;
+import org.nodes.Subgraph;
+import org.nodes.UGraph;
+import org.nodes.random.RandomGraphs;
+
+import nl.peterbloem.kit.Global;
+
+public class CanonicalTableTest
+{
+	/**
+	 * The number of canonical forms should match the number of (not 
+	 * necessarily connected) graphs of each size.
+	 */
+	@Test
+	public void testNumClasses()
+	{
+		int[] undirected = {1, 1, 2, 4, 11, 34};
+		for(int size : series(1, CanonicalTable.MAX_UNDIRECTED + 1))
+			assertEquals(undirected[size], numClasses(CanonicalTable.undirected(size)));
+		
+		int[] directed = {1, 1, 3, 16, 218};
+		for(int size : series(1, CanonicalTable.MAX_DIRECTED + 1))
+			assertEquals(directed[size], numClasses(CanonicalTable.directed(size)));
+		
+		assertNull(CanonicalTable.undirected(CanonicalTable.MAX_UNDIRECTED + 1));
+		assertNull(CanonicalTable.directed(CanonicalTable.MAX_DIRECTED + 1));
+	}
+	
+	private static int numClasses(CanonicalTable table)
+	{
+		Set<Integer> classes = new HashSet<Integer>();
+		for(int mask : series(table.numMasks()))
+			classes.add(table.canonical(mask));
+		
+		return classes.size();
+	}
+	
+	/**
+	 * Reordering the nodes of a subgraph should not change its canonical form, 
+	 * and the canonically ordered nodes should induce the canonical graph.
+	 */
+	@Test
+	public void testUndirected()
+	{
+		UGraph<String> data = RandomGraphs.random(30, 0.3);
+		
+		for(int size : series(1, CanonicalTable.MAX_UNDIRECTED + 1))
+		{
+			CanonicalTable table = CanonicalTable.undirected(size);
+			
+			for(int i : series(100))
+			{
+				List<Integer> indices = sample(data, size);
+				int mask = table.mask(data, indices, "");
+				
+				Collections.shuffle(indices);
+				int shuffled = table.mask(data, indices, "");
+				
+				assertEquals(table.canonical(mask), table.canonical(shuffled));
+				
+				UGraph<String> sub = table.uGraph(table.canonical(shuffled), "");
+				assertEquals(sub, Subgraph.uSubgraphIndices(data, table.order(shuffled, indices)));
+			}
+		}
+	}
+	
+	@Test
+	public void testDirected()
+	{
+		DGraph<String> data = RandomGraphs.randomDirectedFast(30, 200);
+		
+		for(int size : series(1, CanonicalTable.MAX_DIRECTED + 1))
+		{
+			CanonicalTable table = CanonicalTable.directed(size);
+			
+			for(int i : series(100))
+			{
+				List<Integer> indices = sample(data, size);
+				int mask = table.mask(data, indices, "");
+				if(mask < 0) // * self-loop or multiple edge
+					continue;
+				
+				Collections.shuffle(indices);
+				int shuffled = table.mask(data, indices, "");
+				
+				assertEquals(table.canonical(mask), table.canonical(shuffled));
+				
+				DGraph<String> sub = table.dGraph(table.canonical(shuffled), "");
+				assertEquals(sub, Subgraph.dSubgraphIndices(data, table.order(shuffled, indices)));
+			}
+		}
+	}
+	
+	private static List<Integer> sample(Graph<?> data, int size)
+	{
+		List<Integer> indices = new ArrayList<Integer>(series(data.size()));
+		Collections.shuffle(indices, Global.random());
+		
+		return new ArrayList<Integer>(indices.subList(0, size));
+	}
+}
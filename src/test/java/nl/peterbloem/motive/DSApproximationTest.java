@@ -0,0 +1,126 @@
+package nl.peterbloem.motive;
+
+import static java.util.Arrays.asList;
+import static nl.peterbloem.kit.Functions.log2;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.nodes.UGraph;
+import org.nodes.models.DSequenceEstimator.D;
+import org.nodes.random.RandomGraphs;
+
+public class DSApproximationTest
+{
+	@Test
+	public void testUndirected()
+	{
+		assertEquals(0.0, DSApproximation.logNumGraphs(asList(0, 0, 0)), 0.0);
+
+		// * There are three perfect matchings on four nodes, and the
+		//   approximation is exact without any degrees above one
+		assertEquals(log2(3), DSApproximation.logNumGraphs(asList(1, 1, 1, 1)), 1e-10);
+
+		// * The triangle is the only graph with this sequence
+		assertEquals(0.0, DSApproximation.logNumGraphs(asList(2, 2, 2)), 0.5);
+	}
+
+	@Test
+	public void testDirected()
+	{
+		assertEquals(0.0, DSApproximation.logNumGraphsDirected(asList(new D(0, 0), new D(0, 0))), 0.0);
+
+		// * The two directed 3-cycles
+		List<D> cycle = asList(new D(1, 1), new D(1, 1), new D(1, 1));
+		assertEquals(1.0, DSApproximation.logNumGraphsDirected(cycle), 0.5);
+	}
+
+	@Test
+	public void testExact()
+	{
+		assertEquals(0.0, DSApproximation.logNumGraphsExact(asList(0, 0)), 0.0);
+		assertEquals(log2(3), DSApproximation.logNumGraphsExact(asList(1, 1, 1, 1)), 1e-10);
+		assertEquals(0.0, DSApproximation.logNumGraphsExact(asList(2, 2, 2)), 1e-10);
+
+		// * The path on three nodes with a given center, and the two paths on
+		//   four nodes with given ends
+		assertEquals(0.0, DSApproximation.logNumGraphsExact(asList(1, 2, 1)), 1e-10);
+		assertEquals(1.0, DSApproximation.logNumGraphsExact(asList(2, 2, 1, 1)), 1e-10);
+
+		// * Cycles on four nodes, and the complete graph
+		assertEquals(log2(3), DSApproximation.logNumGraphsExact(asList(2, 2, 2, 2)), 1e-10);
+		assertEquals(0.0, DSApproximation.logNumGraphsExact(asList(3, 3, 3, 3)), 1e-10);
+
+		// * Impossible sequences
+		assertEquals(Double.NEGATIVE_INFINITY, DSApproximation.logNumGraphsExact(asList(1, 1, 1)), 0.0);
+		assertEquals(Double.NEGATIVE_INFINITY, DSApproximation.logNumGraphsExact(asList(3, 1, 1)), 0.0);
+
+		// * The two directed 3-cycles, and a single link
+		List<D> cycle = asList(new D(1, 1), new D(1, 1), new D(1, 1));
+		assertEquals(1.0, DSApproximation.logNumGraphsExactDirected(cycle), 1e-10);
+		assertEquals(0.0, DSApproximation.logNumGraphsExactDirected(asList(new D(0, 1), new D(1, 0))), 1e-10);
+
+		// * With all in and out degrees 2 on three nodes, every link is there
+		List<D> complete = asList(new D(2, 2), new D(2, 2), new D(2, 2));
+		assertEquals(0.0, DSApproximation.logNumGraphsExactDirected(complete), 1e-10);
+
+		// * A node can't link to itself
+		assertEquals(Double.NEGATIVE_INFINITY, DSApproximation.logNumGraphsExactDirected(asList(new D(1, 1))), 0.0);
+	}
+
+	/**
+	 * Far outside the asymptotic regime, the approximation is negative, so it
+	 * should be clamped at 0 (there is exactly one star with a given center).
+	 */
+	@Test
+	public void testClamp()
+	{
+		List<Integer> star = new ArrayList<Integer>();
+		star.add(100);
+		for(int i = 0; i < 100; i++)
+			star.add(1);
+
+		assertEquals(0.0, DSApproximation.logNumGraphs(star), 0.0);
+
+		List<D> dStar = new ArrayList<D>();
+		dStar.add(new D(0, 100));
+		for(int i = 0; i < 100; i++)
+			dStar.add(new D(1, 0));
+
+		assertTrue(DSApproximation.logNumGraphsDirected(dStar) >= 0.0);
+	}
+
+	/**
+	 * With the approximation, the DS model should be deterministic and take
+	 * no samples.
+	 */
+	@Test
+	public void testModel()
+	{
+		UGraph<String> graph = RandomGraphs.random(100, 300);
+		UPlainMotifExtractor<String> ex = new UPlainMotifExtractor<String>(graph, 1000, 3, 4, 1);
+
+		UGraph<String> sub = ex.subgraphs().get(0);
+		List<List<Integer>> occurrences = ex.occurrences(sub);
+		Substitution substitution = Substitution.of(graph, sub, occurrences);
+
+		try
+		{
+			MotifModel.setBetaApproximation(true);
+
+			double size = MotifModel.sizeBeta(substitution, true, 10, 0.05);
+			assertFalse(Double.isNaN(size) || Double.isInfinite(size));
+			assertEquals(0, substitution.betaSamples());
+
+			assertEquals(size, MotifModel.sizeBeta(graph, sub, occurrences, true, 10, 0.05), 0.0);
+
+			double error = MotifModel.betaApproximationError(substitution, 10, 0.05);
+			assertFalse(Double.isNaN(error) || Double.isInfinite(error));
+		} finally
+		{
+			MotifModel.setBetaApproximation(false);
+		}
+	}
+}
@@ -0,0 +1,65 @@
+package nl.peterbloem.motive;
+
+import static nl.peterbloem.kit.Series.series;
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SplittableRandom;
+
+import org.junit.Test;
+import org.nodes.MapUTGraph;
+import org.nodes.UGraph;
+
+public class ImportanceSubgraphGeneratorTest
+{
+	@Test
+	public void testWeights()
+	{
+		// * A star with 8 leaves, and a path and a triangle attached
+		UGraph<String> data = new MapUTGraph<String, String>();
+		for(int i : series(13))
+			data.add("x");
+		for(int i : series(1, 9))
+			data.get(0).connect(data.get(i));
+		data.get(8).connect(data.get(9));
+		data.get(9).connect(data.get(10));
+		data.get(10).connect(data.get(11));
+		data.get(11).connect(data.get(12));
+		data.get(12).connect(data.get(10));
+
+		int n = 500000;
+
+		// * The weighted frequencies should estimate those of the uniform sampler
+		SeededSubgraphGenerator uniform = new SeededSubgraphGenerator(data, 3, 4, new SplittableRandom(42));
+		Map<Set<Integer>, Double> expected = new HashMap<Set<Integer>, Double>();
+		for(int i : series(n))
+			increment(expected, uniform.generate(), 1.0);
+
+		ImportanceSubgraphGenerator.Tables tables = new ImportanceSubgraphGenerator.Tables(data, 1.0);
+		ImportanceSubgraphGenerator importance = new ImportanceSubgraphGenerator(tables, 3, 4, new SplittableRandom(43));
+		Map<Set<Integer>, Double> weighted = new HashMap<Set<Integer>, Double>();
+		for(int i : series(n))
+		{
+			List<Integer> indices = importance.generate();
+			assertTrue(indices.size() >= 3 && indices.size() <= 4);
+			increment(weighted, indices, importance.weight());
+		}
+
+		assertEquals(expected.keySet(), weighted.keySet());
+		for(Set<Integer> set : expected.keySet())
+			assertEquals(expected.get(set) / n, weighted.get(set) / n, 0.01);
+	}
+
+	private static void increment(Map<Set<Integer>, Double> map, List<Integer> indices, double weight)
+	{
+		Set<Integer> set = new HashSet<Integer>(indices);
+		assertEquals(indices.size(), set.size());
+
+		Double value = map.get(set);
+		map.put(set, (value == null ? 0.0 : value) + weight);
+	}
+}
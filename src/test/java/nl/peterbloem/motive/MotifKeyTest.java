@@ -0,0 +1,65 @@
+package nl.peterbloem.motive;
+
+import static nl.peterbloem.kit.Series.series;
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+import org.nodes.DGraph;
+import org.nodes.MapUTGraph;
+import org.nodes.UGraph;
+import org.nodes.UNode;
+import org.nodes.random.RandomGraphs;
+
+public class MotifKeyTest
+{
+	@Test
+	public void testUndirected()
+	{
+		for(int size : series(1, MotifKey.MAX_SIZE + 1))
+			for(int i : series(20))
+			{
+				UGraph<String> graph = RandomGraphs.random(size, 0.5);
+				
+				long key = MotifKey.key(graph, "");
+				assertFalse(MotifKey.isDictionary(key));
+				assertEquals(size, MotifKey.size(key));
+				
+				assertEquals(graph, MotifKey.uGraph(key, ""));
+			}
+	}
+	
+	@Test
+	public void testDirected()
+	{
+		for(int size : series(2, MotifKey.MAX_SIZE + 1))
+			for(int i : series(20))
+			{
+				DGraph<String> graph = RandomGraphs.randomDirectedFast(size, size - 1);
+				
+				long key = MotifKey.key(graph, "");
+				assertFalse(MotifKey.isDictionary(key));
+				assertEquals(size, MotifKey.size(key));
+				
+				assertEquals(graph, MotifKey.dGraph(key, ""));
+			}
+	}
+	
+	@Test
+	public void testNone()
+	{
+		UGraph<String> graph = new MapUTGraph<String, String>();
+		UNode<String> a = graph.add(""), b = graph.add("");
+		a.connect(b);
+		
+		assertEquals(MotifKey.NONE, MotifKey.key(graph, "x"));
+		
+		a.connect(b);
+		assertEquals(MotifKey.NONE, MotifKey.key(graph, ""));
+		
+		assertEquals(MotifKey.NONE, MotifKey.key(RandomGraphs.random(MotifKey.MAX_SIZE + 1, 0.5), ""));
+		
+		long key = MotifKey.dictionary(12);
+		assertTrue(MotifKey.isDictionary(key));
+		assertEquals(12, MotifKey.id(key));
+	}
+}
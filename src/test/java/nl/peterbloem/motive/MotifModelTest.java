@@ -689,6 +689,41 @@ public class MotifModelTest
 		}
 	}
 	
+	/**
+	 * The instance loop reuses its buffers between calls. Results should not
+	 * depend on what was computed before.
+	 */
+	@Test
+	public void instanceLoopReuseTest()
+	{
+		UGraph<String> small = RandomGraphs.random(30, 60);
+		UGraph<String> large = RandomGraphs.random(500, 2000);
+
+		UPlainMotifExtractor<String> exSmall = new UPlainMotifExtractor<String>(small, 100, 3, 4, 1);
+		UPlainMotifExtractor<String> exLarge = new UPlainMotifExtractor<String>(large, 1000, 3, 4, 1);
+
+		UGraph<String> subSmall = exSmall.subgraphs().get(0);
+		UGraph<String> subLarge = exLarge.subgraphs().get(0);
+
+		List<Integer> degSmall = Graphs.degrees(small), degLarge = Graphs.degrees(large);
+
+		FrequencyModel<Pair<Integer, Integer>> multiEdges = new FrequencyModel<Pair<Integer, Integer>>();
+		List<List<Integer>> rewiring = new ArrayList<List<Integer>>();
+		List<Integer> subbed = MotifModel.subbedDegrees(small, degSmall, exSmall.occurrences(subSmall), multiEdges, rewiring);
+		double before = MotifModel.sizeEL(small, degSmall, subSmall, exSmall.occurrences(subSmall), true);
+
+		MotifModel.sizeEL(large, degLarge, subLarge, exLarge.occurrences(subLarge), true);
+		MotifModel.sizeERInst(large, subLarge, exLarge.occurrences(subLarge), false);
+
+		FrequencyModel<Pair<Integer, Integer>> multiEdgesAfter = new FrequencyModel<Pair<Integer, Integer>>();
+		List<List<Integer>> rewiringAfter = new ArrayList<List<Integer>>();
+		assertEquals(subbed, MotifModel.subbedDegrees(small, degSmall, exSmall.occurrences(subSmall), multiEdgesAfter, rewiringAfter));
+		assertEquals(multiEdges.tokens(), multiEdgesAfter.tokens());
+		assertEquals(rewiring, rewiringAfter);
+
+		assertEquals(before, MotifModel.sizeEL(small, degSmall, subSmall, exSmall.occurrences(subSmall), true), 0.0);
+	}
+	
 	
 //	@Test
 	public void instanceLoopTestTiming()
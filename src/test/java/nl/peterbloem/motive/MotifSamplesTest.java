@@ -0,0 +1,137 @@
+package nl.peterbloem.motive;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+import org.nodes.DGraph;
+import org.nodes.MapDTGraph;
+import org.nodes.MapUTGraph;
+import org.nodes.UGraph;
+
+public class MotifSamplesTest
+{
+	/**
+	 * The key should depend only on the structure of the motif.
+	 */
+	@Test
+	public void testKey()
+	{
+		UGraph<String> a = new MapUTGraph<String, String>();
+		UGraph<String> b = new MapUTGraph<String, String>();
+		for(int i = 0; i < 3; i++)
+		{
+			a.add("a");
+			b.add("b");
+		}
+
+		a.get(0).connect(a.get(1));
+		a.get(1).connect(a.get(2));
+
+		b.get(2).connect(b.get(1));
+		b.get(1).connect(b.get(0));
+
+		assertEquals(MotifSamples.key(a), MotifSamples.key(b));
+
+		b.get(0).connect(b.get(2));
+		assertFalse(MotifSamples.key(a).equals(MotifSamples.key(b)));
+
+		DGraph<String> d = new MapDTGraph<String, String>();
+		for(int i = 0; i < 3; i++)
+			d.add("a");
+		d.get(0).connect(d.get(1));
+		d.get(1).connect(d.get(2));
+
+		assertFalse(MotifSamples.key(a).equals(MotifSamples.key(d)));
+	}
+
+	/**
+	 * The file names should differ for keys with the same hash code.
+	 */
+	@Test
+	public void testDigest()
+	{
+		assertEquals(
+				"ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad", 
+				MotifSamples.digest("abc"));
+
+		assertEquals("Aa".hashCode(), "BB".hashCode());
+		assertFalse(MotifSamples.digest("Aa").equals(MotifSamples.digest("BB")));
+	}
+
+	/**
+	 * Samples should be drawn once, and reused from memory or from disk.
+	 */
+	@Test
+	public void testMemo()
+		throws IOException
+	{
+		UGraph<String> sub = new MapUTGraph<String, String>();
+		for(int i = 0; i < 4; i++)
+			sub.add("x");
+		for(int i = 1; i < 4; i++)
+			sub.get(i - 1).connect(sub.get(i));
+
+		File directory = Files.createTempDirectory("motif-samples").toFile();
+
+		MotifSamples memo = new MotifSamples(directory);
+		List<Double> samples = memo.logSamples(sub, 20, 1, null);
+
+		assertEquals(20, samples.size());
+		assertEquals(samples, memo.logSamples(sub, 20, 1, null));
+		assertEquals(samples.subList(0, 10), memo.logSamples(sub, 10, 1, null));
+		assertEquals(1, memo.size());
+
+		MotifSamples reloaded = new MotifSamples(directory);
+		assertEquals(samples, reloaded.logSamples(sub, 20, 1, null));
+	}
+
+	/**
+	 * Concurrent calls for the same motif should all see the same samples:
+	 * each result should be a prefix of the longest one.
+	 */
+	@Test
+	public void testConcurrent()
+		throws Exception
+	{
+		final UGraph<String> sub = new MapUTGraph<String, String>();
+		for(int i = 0; i < 4; i++)
+			sub.add("x");
+		for(int i = 1; i < 4; i++)
+			sub.get(i - 1).connect(sub.get(i));
+
+		final MotifSamples memo = new MotifSamples();
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+
+		List<Future<List<Double>>> futures = new ArrayList<Future<List<Double>>>();
+		for(int i = 0; i < 64; i++)
+		{
+			final int iterations = 10 + (i % 8) * 10;
+			futures.add(executor.submit(new Callable<List<Double>>()
+			{
+				public List<Double> call()
+				{
+					return memo.logSamples(sub, iterations, 1, null);
+				}
+			}));
+		}
+
+		List<Double> all = memo.logSamples(sub, 80, 1, null);
+		for(Future<List<Double>> future : futures)
+		{
+			List<Double> samples = future.get();
+			assertEquals(all.subList(0, samples.size()), samples);
+		}
+
+		executor.shutdown();
+	}
+}
@@ -0,0 +1,140 @@
+package nl.peterbloem.motive;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.nodes.Graphs;
+import org.nodes.UGraph;
+import org.nodes.random.RandomGraphs;
+
+public class MotifSearchModelTest
+{
+	/**
+	 * Every point of the curve should be the codelength for that prefix (up to
+	 * floating point error), and the minimum should be at least as good as the
+	 * search.
+	 */
+	@Test
+	public void testCurve()
+	{
+		UGraph<String> graph = RandomGraphs.random(100, 300);
+		UPlainMotifExtractor<String> ex = new UPlainMotifExtractor<String>(graph, 1000, 3, 4, 1);
+		for(UGraph<String> sub : ex.subgraphs())
+		{
+			OccurrenceStore occurrences = OccurrenceStore.of(ex.occurrences(sub));
+
+			double[] er = MotifSearchModel.curveERInst(graph, sub, occurrences, true);
+
+			assertEquals(occurrences.size() + 1, er.length);
+
+			for(int n = 0; n <= occurrences.size(); n++)
+				assertEquals(MotifModel.sizeERInst(graph, sub, occurrences.prefix(n), true), er[n], 1e-7);
+
+			double searchER = MotifSearchModel.sizeERInst(graph, sub, occurrences, true, -1);
+
+			assertTrue(er[MotifSearchModel.argmin(er)] <= searchER + 1e-7);
+		}
+	}
+
+	/**
+	 * The parallel search should return one of the points on the curve. It
+	 * should also finish when it runs on the executor it was given, even if
+	 * that has only one thread.
+	 */
+	@Test
+	public void testParallel()
+		throws Exception
+	{
+		final UGraph<String> graph = RandomGraphs.random(100, 300);
+		UPlainMotifExtractor<String> ex = new UPlainMotifExtractor<String>(graph, 1000, 3, 4, 1);
+
+		final ExecutorService executor = Executors.newFixedThreadPool(1);
+
+		for(final UGraph<String> sub : ex.subgraphs())
+		{
+			final OccurrenceStore occurrences = OccurrenceStore.of(ex.occurrences(sub));
+			double[] er = MotifSearchModel.curveERInst(graph, sub, occurrences, true);
+
+			double size = executor.submit(new Callable<Double>()
+			{
+				public Double call()
+				{
+					return MotifSearchModel.sizeERInst(graph, sub, occurrences, true, -1, executor, 3);
+				}
+			}).get(60, TimeUnit.SECONDS);
+
+			boolean found = false;
+			for(double point : er)
+				found = found || Math.abs(point - size) < 1e-7;
+
+			assertTrue(found);
+			assertTrue(er[MotifSearchModel.argmin(er)] <= size + 1e-7);
+			
+			// * The same for the search over a substitution cache
+			final SubstitutionCache cache = new SubstitutionCache(graph, sub, occurrences);
+			double sizeCache = executor.submit(new Callable<Double>()
+			{
+				public Double call()
+				{
+					return MotifSearchModel.sizeER(cache, true, -1, executor, 3);
+				}
+			}).get(60, TimeUnit.SECONDS);
+			
+			found = false;
+			for(int n = 0; n <= occurrences.size(); n++)
+				found = found || Math.abs(MotifModel.sizeER(cache.get(n), true) - sizeCache) < 1e-7;
+			
+			assertTrue(found);
+		}
+
+		executor.shutdown();
+	}
+
+	/**
+	 * The instance-loop DS model should work with and without the prefix
+	 * substitution (ie. for disjoint and overlapping occurrences).
+	 */
+	@Test
+	public void testBetaInst()
+	{
+		UGraph<String> graph = RandomGraphs.random(100, 300);
+		UPlainMotifExtractor<String> ex = new UPlainMotifExtractor<String>(graph, 1000, 3, 4, 1);
+		List<Integer> degrees = Graphs.degrees(graph);
+
+		for(UGraph<String> sub : ex.subgraphs())
+		{
+			List<List<Integer>> occurrences = ex.occurrences(sub);
+
+			for(int n : new int[] {0, occurrences.size()})
+			{
+				double size = MotifModel.sizeBeta(graph, degrees, sub, occurrences.subList(0, n), true, 20, 0.05);
+				assertFalse(Double.isNaN(size) || Double.isInfinite(size));
+			}
+
+			double search = MotifSearchModel.sizeBetaInst(graph, degrees, sub, occurrences, true, 20, 0.05, 3);
+			assertFalse(Double.isNaN(search) || Double.isInfinite(search));
+		}
+
+		// * overlapping occurrences, which can't use the prefix substitution
+		UGraph<String> sub = ex.subgraphs().get(0);
+		List<List<Integer>> occurrences = new ArrayList<List<Integer>>(ex.occurrences(sub));
+		occurrences.add(occurrences.get(0));
+
+		double search = MotifSearchModel.sizeBetaInst(graph, degrees, sub, occurrences, true, 20, 0.05, 3);
+		assertFalse(Double.isNaN(search) || Double.isInfinite(search));
+	}
+
+	@Test
+	public void testArgmin()
+	{
+		assertEquals(2, MotifSearchModel.argmin(new double[] {3.0, 2.0, 1.0, 1.0, 4.0}));
+		assertEquals(0, MotifSearchModel.argmin(new double[] {0.0}));
+	}
+}
@@ -0,0 +1,201 @@
+package nl.peterbloem.motive;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class MotifTableTest
+{
+	@Test
+	public void testDistinct()
+	{
+		long a = MotifKey.key(3, 7), b = MotifKey.key(3, 3);
+
+		MotifTable table = new MotifTable(true);
+
+		table.add(a, asList(1, 2, 3));
+		table.add(a, asList(3, 1, 2)); // * same node set
+		table.add(a, asList(1, 2, 4));
+		table.add(b, asList(1, 2, 4)); // * same node set, other motif
+
+		assertEquals(3.0, table.frequency(table.index(a)), 0.0);
+		assertEquals(2, table.occurrences(table.index(a)).size());
+		assertEquals(1, table.occurrences(table.index(b)).size());
+		assertEquals(3, table.numOccurrences());
+
+		// * Merging another table
+		MotifTable other = new MotifTable();
+		for(int i = 0; i < 1000; i++)
+			other.add(a, asList(i % 100, i % 100 + 100, i % 100 + 200));
+
+		table.add(a, other.frequency(0), other.occurrences(0));
+
+		assertEquals(1003.0, table.frequency(table.index(a)), 0.0);
+		assertEquals(102, table.occurrences(table.index(a)).size());
+		assertEquals(1000, other.numOccurrences());
+	}
+
+	@Test
+	public void testTop()
+	{
+		MotifTable table = new MotifTable();
+		for(int m = 0; m < 10; m++)
+			for(int i = 0; i < m % 5; i++)
+				table.add(MotifKey.key(3, m), asList(i, i + 1, i + 2));
+
+		// * ties are broken by insertion order
+		assertArrayEquals(new long[]{MotifKey.key(3, 4), MotifKey.key(3, 9), MotifKey.key(3, 3)}, table.top(3));
+		assertEquals(0, table.top(0).length);
+	}
+
+	@Test
+	public void testCap()
+	{
+		long a = MotifKey.key(3, 7);
+
+		List<List<Integer>> occurrences = new ArrayList<List<Integer>>();
+		for(int i = 0; i < 1000; i++)
+			occurrences.add(asList(i, i + 1000, i + 2000));
+
+		// * The same occurrences should be kept, regardless of order or repeats
+		Set<Set<Integer>> kept = null;
+		for(int rep = 0; rep < 5; rep++)
+		{
+			MotifTable table = new MotifTable(true, 10, -1, 42);
+			Collections.shuffle(occurrences, new Random(rep));
+
+			for(List<Integer> occurrence : occurrences)
+				table.add(a, occurrence);
+			for(List<Integer> occurrence : occurrences.subList(0, 500))
+				table.add(a, occurrence);
+
+			assertEquals(1500.0, table.frequency(0), 0.0);
+			assertEquals(10, table.occurrences(0).size());
+
+			Set<Set<Integer>> sets = new HashSet<Set<Integer>>();
+			for(List<Integer> occurrence : table.occurrences(0))
+				sets.add(new HashSet<Integer>(occurrence));
+
+			assertEquals(10, sets.size());
+			if(kept != null)
+				assertEquals(kept, sets);
+			kept = sets;
+		}
+	}
+
+	@Test
+	public void testBudget()
+	{
+		MotifTable table = new MotifTable(true, -1, 10000, 42);
+
+		for(int m = 0; m < 10; m++)
+			for(int i = 0; i < 1000; i++)
+				table.add(MotifKey.key(3, m), asList(i, i + 1000, i + 2000));
+
+		assertTrue(table.cap() > 0);
+		for(int m = 0; m < 10; m++)
+		{
+			assertEquals(1000.0, table.frequency(m), 0.0);
+			assertTrue(table.occurrences(m).size() <= table.cap());
+		}
+
+		// * Stored occurrences are still recognized after trimming
+		OccurrenceStore stored = new OccurrenceStore(3);
+		stored.addAll(table.occurrences(0));
+		table.add(MotifKey.key(3, 0), 1.0, stored);
+		assertEquals(stored, table.occurrences(0));
+	}
+
+	@Test
+	public void testHeavyHitters()
+	{
+		Random random = new Random(42);
+		MotifTable table = new MotifTable(true, -1, -1, 42, 20);
+
+		// * Motifs 0 to 4 are frequent, the rest rare
+		int[] counts = new int[1000];
+		for(int i = 0; i < 100000; i++)
+		{
+			int m = random.nextBoolean() ? random.nextInt(5) : 5 + random.nextInt(995);
+			counts[m]++;
+			table.add(MotifKey.key(4, m), asList(i, i + 1, i + 2, i + 3));
+		}
+
+		assertEquals(20, table.size());
+
+		for(int m = 0; m < 5; m++)
+		{
+			int index = table.index(MotifKey.key(4, m));
+			assertTrue(index >= 0);
+
+			assertTrue(table.frequency(index) >= counts[m]);
+			assertTrue(table.frequency(index) - table.error(index) <= counts[m]);
+		}
+
+		// * Occurrences are stored, and recognized, for the tracked motifs only
+		int index = table.index(MotifKey.key(4, 0));
+		OccurrenceStore stored = new OccurrenceStore(4);
+		stored.addAll(table.occurrences(index));
+		table.add(MotifKey.key(4, 0), 1.0, stored);
+		assertEquals(stored, table.occurrences(index));
+	}
+
+	/**
+	 * The table should replace the same motifs as a direct implementation of
+	 * Space-Saving, which scans for the motif with the lowest frequency.
+	 */
+	@Test
+	public void testReplacement()
+	{
+		Random random = new Random(7);
+		int k = 10;
+		MotifTable table = new MotifTable(false, -1, -1, 42, k);
+
+		long[] keys = new long[k];
+		double[] frequencies = new double[k], errors = new double[k];
+		int n = 0;
+
+		for(int i = 0; i < 20000; i++)
+		{
+			long key = MotifKey.key(3, random.nextInt(random.nextBoolean() ? 5 : 200));
+			double weight = 1 + random.nextInt(3);
+			table.add(key, asList(0, 1, 2), weight);
+
+			int index = -1;
+			for(int j = 0; j < n; j++)
+				if(keys[j] == key)
+					index = j;
+
+			if(index < 0 && n < k)
+				index = n++;
+			else if(index < 0)
+			{
+				index = 0;
+				for(int j = 1; j < n; j++)
+					if(frequencies[j] < frequencies[index])
+						index = j;
+
+				errors[index] = frequencies[index];
+			}
+
+			keys[index] = key;
+			frequencies[index] += weight;
+		}
+
+		assertEquals(n, table.size());
+		for(int j = 0; j < n; j++)
+		{
+			assertEquals(keys[j], table.key(j));
+			assertEquals(frequencies[j], table.frequency(j), 0.0);
+			assertEquals(errors[j], table.error(j), 0.0);
+		}
+	}
+}
@@ -0,0 +1,112 @@
+package nl.peterbloem.motive;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class OccurrenceStoreTest
+{
+	@Test
+	public void testAdd()
+	{
+		List<List<Integer>> list = new ArrayList<List<Integer>>();
+		OccurrenceStore store = new OccurrenceStore(3, 1);
+		
+		for(int i = 0; i < 100; i++)
+		{
+			List<Integer> occurrence = asList(3 * i, 3 * i + 2, 3 * i + 1);
+			list.add(occurrence);
+			store.add(occurrence);
+		}
+		
+		assertEquals(list, store);
+		assertEquals(list, OccurrenceStore.of(list));
+		
+		assertEquals(100, store.size());
+		assertEquals(3, store.motifSize());
+		assertEquals(Integer.valueOf(31), store.get(10).get(2));
+		assertEquals(32, store.node(10, 1));
+		
+		assertTrue(store.contains(10, 31));
+		assertFalse(store.contains(10, 33));
+		assertTrue(store.get(10).contains(31));
+		assertEquals(2, store.get(10).indexOf(31));
+	}
+	
+	@Test
+	public void testPrefix()
+	{
+		OccurrenceStore store = new OccurrenceStore(2, 1);
+		store.add(asList(0, 1));
+		store.add(asList(2, 3));
+		
+		List<List<Integer>> prefix = store.subList(0, 1);
+		assertEquals(asList(asList(0, 1)), prefix);
+		
+		// * The view should survive the store growing
+		for(int i = 0; i < 100; i++)
+			store.add(asList(i, i + 1));
+		
+		assertEquals(asList(asList(0, 1)), prefix);
+		assertEquals(102, store.size());
+		assertEquals(0, store.prefix(0).size());
+	}
+	
+	@Test(expected=UnsupportedOperationException.class)
+	public void testPrefixAdd()
+	{
+		OccurrenceStore store = new OccurrenceStore(2);
+		store.add(asList(0, 1));
+		
+		store.prefix(1).add(asList(2, 3));
+	}
+	
+	@Test
+	public void testAddAll()
+	{
+		OccurrenceStore a = new OccurrenceStore(2), b = new OccurrenceStore(2);
+		a.add(asList(0, 1));
+		b.add(asList(2, 3));
+		b.add(asList(4, 5));
+		
+		a.addAll(b);
+		assertEquals(asList(asList(0, 1), asList(2, 3), asList(4, 5)), a);
+	}
+	
+	@Test
+	public void testSet()
+	{
+		OccurrenceStore store = new OccurrenceStore(3);
+		store.add(asList(1, 2, 3));
+		store.add(asList(4, 5, 6));
+		
+		assertEquals(asList(4, 5, 6), store.set(1, asList(9, 8, 7)));
+		assertEquals(asList(asList(1, 2, 3), asList(9, 8, 7)), store);
+	}
+	
+	/**
+	 * Replacing an occurrence shouldn't change the views made before.
+	 */
+	@Test
+	public void testSetPrefix()
+	{
+		OccurrenceStore store = new OccurrenceStore(2);
+		store.add(asList(0, 1));
+		store.add(asList(2, 3));
+		
+		OccurrenceStore prefix = store.prefix(2);
+		List<Integer> first = prefix.get(0);
+		
+		store.set(0, asList(4, 5));
+		store.set(1, asList(6, 7));
+		
+		assertEquals(asList(asList(0, 1), asList(2, 3)), prefix);
+		assertEquals(asList(0, 1), first);
+		assertEquals(asList(asList(4, 5), asList(6, 7)), store);
+		assertEquals(asList(asList(4, 5)), store.prefix(1));
+	}
+}
@@ -0,0 +1,144 @@
+package nl.peterbloem.motive;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+import org.nodes.DGraph;
+import org.nodes.Graph;
+import org.nodes.Subgraph;
+import org.nodes.UGraph;
+import org.nodes.motifs.MotifCompressor;
+import org.nodes.random.RandomGraphs;
+
+public class OverlapRemovalTest
+{
+	@Test
+	public void testSimple()
+	{
+		OccurrenceStore occurrences = new OccurrenceStore(3);
+		occurrences.add(asList(0, 1, 2));
+		occurrences.add(asList(2, 3, 4));
+		occurrences.add(asList(5, 6, 7));
+		occurrences.add(asList(4, 5, 8));
+
+		BitSet used = new BitSet();
+
+		assertArrayEquals(new int[]{1, 2},
+				OverlapRemoval.select(occurrences, new int[]{3, 1, 2, 2}, used));
+		assertTrue(used.isEmpty());
+
+		// * ties are broken by the order of the occurrences
+		assertArrayEquals(new int[]{0, 2},
+				OverlapRemoval.select(occurrences, new int[]{1, 1, 1, 1}, used));
+	}
+
+	/**
+	 * Compare to a straightforward implementation of the greedy selection.
+	 */
+	@Test
+	public void testRandom()
+	{
+		Random random = new Random(42);
+		BitSet used = new BitSet();
+
+		// * small exDegrees use the bucket sort, large ones the fallback
+		for(int maxDegree : new int[]{10, 1000000})
+			for(int rep = 0; rep < 20; rep++)
+			{
+				OccurrenceStore occurrences = new OccurrenceStore(4);
+				int n = random.nextInt(500);
+				int[] exDegrees = new int[n];
+
+				for(int i = 0; i < n; i++)
+				{
+					List<Integer> occurrence = new ArrayList<Integer>();
+					while(occurrence.size() < 4)
+					{
+						int node = random.nextInt(200);
+						if(! occurrence.contains(node))
+							occurrence.add(node);
+					}
+
+					occurrences.add(occurrence);
+					exDegrees[i] = random.nextInt(maxDegree);
+				}
+
+				assertArrayEquals(reference(occurrences, exDegrees),
+						OverlapRemoval.select(occurrences, exDegrees, used));
+			}
+	}
+
+	@Test
+	public void testExDegrees()
+	{
+		UGraph<String> uData = RandomGraphs.random(30, 80);
+		checkExDegrees(uData, true);
+		
+		DGraph<String> dData = RandomGraphs.randomDirectedFast(30, 80);
+		checkExDegrees(dData, false);
+	}
+	
+	private static void checkExDegrees(final Graph<String> data, final boolean undirected)
+	{
+		final int[] degrees = OverlapRemoval.degrees(data);
+		
+		SubgraphEnumerator enumerator = new SubgraphEnumerator(data, 3, 5);
+		for(int root = 0; root < data.size(); root++)
+			enumerator.enumerate(root, new SubgraphEnumerator.Visitor() {
+				@Override
+				public void visit(List<Integer> indices)
+				{
+					Graph<String> motif = undirected ? 
+							Subgraph.uSubgraphIndices((UGraph<String>) data, indices) :
+							Subgraph.dSubgraphIndices((DGraph<String>) data, indices);
+					
+					OccurrenceStore occurrences = new OccurrenceStore(indices.size());
+					occurrences.add(indices);
+					
+					assertEquals(
+							MotifCompressor.exDegree(data, indices), 
+							OverlapRemoval.exDegrees(occurrences, degrees, motif)[0]);
+				}
+			});
+	}
+
+	private static int[] reference(OccurrenceStore occurrences, final int[] exDegrees)
+	{
+		List<Integer> order = new ArrayList<Integer>();
+		for(int i = 0; i < occurrences.size(); i++)
+			order.add(i);
+
+		Collections.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b)
+			{
+				return Integer.compare(exDegrees[a], exDegrees[b]);
+			}
+		});
+
+		Set<Integer> used = new HashSet<Integer>();
+		List<Integer> selected = new ArrayList<Integer>();
+		for(int i : order)
+			if(Collections.disjoint(used, occurrences.get(i)))
+			{
+				used.addAll(occurrences.get(i));
+				selected.add(i);
+			}
+
+		int[] result = new int[selected.size()];
+		for(int i = 0; i < result.length; i++)
+			result[i] = selected.get(i);
+
+		return result;
+	}
+}
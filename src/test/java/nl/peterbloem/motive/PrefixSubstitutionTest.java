@@ -0,0 +1,167 @@
+package nl.peterbloem.motive;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import org.nodes.DGraph;
+import org.nodes.Graphs;
+import org.nodes.UGraph;
+import org.nodes.models.DSequenceEstimator;
+import org.nodes.models.DSequenceEstimator.D;
+import org.nodes.random.RandomGraphs;
+
+import nl.peterbloem.kit.FrequencyModel;
+import nl.peterbloem.kit.Pair;
+
+public class PrefixSubstitutionTest
+{
+	@Test
+	public void testDisjoint()
+	{
+		List<List<Integer>> occurrences = new ArrayList<List<Integer>>();
+		occurrences.add(asList(0, 1, 2));
+		occurrences.add(asList(3, 4, 5));
+
+		assertTrue(PrefixSubstitution.disjoint(OccurrenceStore.of(occurrences)));
+
+		occurrences.add(asList(6, 2, 7));
+		assertFalse(PrefixSubstitution.disjoint(OccurrenceStore.of(occurrences)));
+	}
+
+	/**
+	 * Moving the prefix back and forth should give the same results as
+	 * substituting each prefix from scratch.
+	 */
+	@Test
+	public void testUndirected()
+	{
+		Random random = new Random(0);
+
+		UGraph<String> graph = RandomGraphs.random(100, 300);
+		UPlainMotifExtractor<String> ex = new UPlainMotifExtractor<String>(graph, 1000, 3, 4, 1);
+		List<Integer> degrees = Graphs.degrees(graph);
+
+		for(UGraph<String> sub : ex.subgraphs())
+		{
+			OccurrenceStore occurrences = OccurrenceStore.of(ex.occurrences(sub));
+			PrefixSubstitution prefix = PrefixSubstitution.undirected(graph, degrees, occurrences);
+
+			for(int i = 0; i < 20; i++)
+			{
+				int n = random.nextInt(occurrences.size() + 1);
+				List<List<Integer>> occs = occurrences.prefix(n);
+				prefix.moveTo(n);
+
+				List<List<Integer>> rewiring = new ArrayList<List<Integer>>();
+				List<Integer> expected = MotifModel.subbedDegrees(graph, degrees, occs,
+						new FrequencyModel<Pair<Integer, Integer>>(), rewiring);
+
+				assertEquals(expected, prefix.degrees());
+				assertEquals(MotifModel.wiringBits(sub, rewiring, true), prefix.wiringBits(true), 0.0);
+				assertEquals(MotifModel.wiringBits(sub, rewiring, false), prefix.wiringBits(false), 0.0);
+
+				assertEquals(MotifModel.sizeEL(graph, degrees, sub, occs, true), MotifModel.sizeEL(prefix, sub, true), 0.0);
+				assertEquals(MotifModel.sizeERInst(graph, sub, occs, false), MotifModel.sizeERInst(prefix, sub, false), 0.0);
+			}
+		}
+	}
+
+	@Test
+	public void testDirected()
+	{
+		Random random = new Random(0);
+
+		DGraph<String> graph = RandomGraphs.randomDirected(100, 300);
+		DPlainMotifExtractor<String> ex = new DPlainMotifExtractor<String>(graph, 1000, 3, 4, 1);
+		List<D> degrees = DSequenceEstimator.sequence(graph);
+
+		for(DGraph<String> sub : ex.subgraphs())
+		{
+			OccurrenceStore occurrences = OccurrenceStore.of(ex.occurrences(sub));
+			PrefixSubstitution prefix = PrefixSubstitution.directed(graph, degrees, occurrences);
+
+			for(int i = 0; i < 20; i++)
+			{
+				int n = random.nextInt(occurrences.size() + 1);
+				List<List<Integer>> occs = occurrences.prefix(n);
+				prefix.moveTo(n);
+
+				List<D> expected = MotifModel.subbedDegrees(graph, degrees, occs,
+						new FrequencyModel<Pair<Integer, Integer>>(), new ArrayList<List<Integer>>());
+				List<D> actual = prefix.dDegrees();
+
+				assertEquals(expected.size(), actual.size());
+				for(int j = 0; j < expected.size(); j++)
+				{
+					assertEquals(expected.get(j).in(), actual.get(j).in());
+					assertEquals(expected.get(j).out(), actual.get(j).out());
+				}
+
+				assertEquals(MotifModel.sizeEL(graph, degrees, sub, occs, true), MotifModel.sizeEL(prefix, sub, true), 0.0);
+				assertEquals(MotifModel.sizeERInst(graph, sub, occs, false), MotifModel.sizeERInst(prefix, sub, false), 0.0);
+			}
+		}
+	}
+
+	/**
+	 * The running totals of the multi-edges should give the same codelength
+	 * as encoding them in order, also after rolling back. The graph is dense,
+	 * so that there are many multi-edges.
+	 */
+	@Test
+	public void testMultiEdgeTotals()
+	{
+		Random random = new Random(0);
+
+		UGraph<String> graph = RandomGraphs.random(60, 900);
+		UPlainMotifExtractor<String> ex = new UPlainMotifExtractor<String>(graph, 1000, 3, 3, 1);
+
+		for(UGraph<String> sub : ex.subgraphs())
+		{
+			OccurrenceStore occurrences = OccurrenceStore.of(ex.occurrences(sub));
+			PrefixSubstitution prefix = PrefixSubstitution.undirected(graph, null, occurrences);
+
+			for(int i = 0; i < 20; i++)
+			{
+				prefix.moveTo(random.nextInt(occurrences.size() + 1));
+
+				assertEquals(prefix.multiEdgeBits(), prefix.multiEdgeBitsTotal(), 1e-7);
+				assertEquals(MotifModel.sizeERInst(prefix, sub, true), MotifModel.sizeERInst(prefix, sub, true, false), 1e-7);
+			}
+		}
+	}
+
+	@Test
+	public void testRollback()
+	{
+		UGraph<String> graph = RandomGraphs.random(100, 300);
+		UPlainMotifExtractor<String> ex = new UPlainMotifExtractor<String>(graph, 1000, 3, 4, 1);
+		List<Integer> degrees = Graphs.degrees(graph);
+
+		UGraph<String> sub = ex.subgraphs().get(0);
+		OccurrenceStore occurrences = OccurrenceStore.of(ex.occurrences(sub));
+		PrefixSubstitution prefix = PrefixSubstitution.undirected(graph, degrees, occurrences);
+
+		int half = occurrences.size() / 2;
+		prefix.moveTo(half);
+
+		int snapshot = prefix.snapshot();
+		List<Integer> expected = prefix.degrees();
+		double size = MotifModel.sizeEL(prefix, sub, true);
+
+		prefix.moveTo(occurrences.size());
+		prefix.rollback(snapshot);
+
+		assertEquals(half, prefix.size());
+		assertEquals(expected, prefix.degrees());
+		assertEquals(size, MotifModel.sizeEL(prefix, sub, true), 0.0);
+
+		prefix.moveTo(0);
+		assertEquals(degrees, prefix.degrees());
+	}
+}
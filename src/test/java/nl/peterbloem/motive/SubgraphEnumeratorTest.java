@@ -0,0 +1,115 @@
+package nl.peterbloem.motive;
+
+import static nl.peterbloem.kit.Series.series;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+import org.nodes.DGraph;
+import org.nodes.Graph;
+import org.nodes.MapUTGraph;
+import org.nodes.Node;
+import org.nodes.UGraph;
+import org.nodes.random.RandomGraphs;
+
+public class SubgraphEnumeratorTest
+{
+	@Test
+	public void testComplete()
+	{
+		UGraph<String> data = new MapUTGraph<String, String>();
+		for(int i : series(5))
+			data.add("x");
+		for(int i : series(5))
+			for(int j : series(i + 1, 5))
+				data.get(i).connect(data.get(j));
+
+		// * Every subset is connected
+		assertEquals(10 + 5, enumerate(data, 3, 4).size());
+		assertEquals(5 + 10 + 10 + 5 + 1, enumerate(data, 1, 5).size());
+	}
+
+	@Test
+	public void testUndirected()
+	{
+		UGraph<String> data = RandomGraphs.random(15, 30);
+
+		assertEquals(bruteForce(data, 3, 4), new HashSet<Set<Integer>>(enumerate(data, 3, 4)));
+	}
+
+	@Test
+	public void testDirected()
+	{
+		DGraph<String> data = RandomGraphs.randomDirectedFast(15, 30);
+
+		assertEquals(bruteForce(data, 3, 4), new HashSet<Set<Integer>>(enumerate(data, 3, 4)));
+	}
+
+	/**
+	 * Enumerates all subgraphs, and checks that no node set is visited twice.
+	 */
+	private static List<Set<Integer>> enumerate(Graph<?> data, int minSize, int maxSize)
+	{
+		final List<Set<Integer>> result = new ArrayList<Set<Integer>>();
+
+		SubgraphEnumerator enumerator = new SubgraphEnumerator(data, minSize, maxSize);
+		for(int root : series(data.size()))
+			enumerator.enumerate(root, new SubgraphEnumerator.Visitor() {
+				@Override
+				public void visit(List<Integer> indices)
+				{
+					result.add(new HashSet<Integer>(indices));
+				}
+			});
+
+		assertEquals(result.size(), enumerator.visited());
+		assertEquals(result.size(), new HashSet<Set<Integer>>(result).size());
+
+		return result;
+	}
+
+	private static Set<Set<Integer>> bruteForce(Graph<?> data, int minSize, int maxSize)
+	{
+		Set<Set<Integer>> result = new HashSet<Set<Integer>>();
+
+		for(int bits : series(1 << data.size()))
+		{
+			int size = Integer.bitCount(bits);
+			if(size < minSize || size > maxSize)
+				continue;
+
+			Set<Integer> nodes = new HashSet<Integer>();
+			for(int i : series(data.size()))
+				if((bits & (1 << i)) != 0)
+					nodes.add(i);
+
+			if(connected(data, nodes))
+				result.add(nodes);
+		}
+
+		return result;
+	}
+
+	private static boolean connected(Graph<?> data, Set<Integer> nodes)
+	{
+		Set<Integer> seen = new HashSet<Integer>();
+		LinkedList<Integer> queue = new LinkedList<Integer>();
+
+		int first = Collections.min(nodes);
+		queue.add(first);
+		seen.add(first);
+
+		while(! queue.isEmpty())
+			for(Node<?> neighbor : data.get(queue.poll()).neighbors())
+				if(nodes.contains(neighbor.index()) && seen.add(neighbor.index()))
+					queue.add(neighbor.index());
+
+		return seen.size() == nodes.size();
+	}
+}
@@ -0,0 +1,143 @@
+package nl.peterbloem.motive;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+
+import org.junit.Test;
+import org.nodes.DGraph;
+import org.nodes.UGraph;
+import org.nodes.models.DSequenceEstimator.D;
+import org.nodes.random.RandomGraphs;
+
+import nl.peterbloem.kit.FrequencyModel;
+
+public class SubstitutionTest
+{
+	/**
+	 * A shared substitution should give the same codelengths as substituting
+	 * for each null model separately.
+	 */
+	@Test
+	public void testUndirected()
+	{
+		UGraph<String> graph = RandomGraphs.random(100, 300);
+		UPlainMotifExtractor<String> ex = new UPlainMotifExtractor<String>(graph, 1000, 3, 4, 1);
+
+		for(UGraph<String> sub : ex.subgraphs())
+		{
+			List<List<Integer>> occurrences = ex.occurrences(sub);
+			Substitution substitution = Substitution.of(graph, sub, occurrences);
+
+			FrequencyModel<String> rest = new FrequencyModel<String>();
+			List<Integer> degrees = MotifModel.subbedDegrees(graph, occurrences, rest);
+
+			assertEquals(degrees, substitution.degrees());
+			assertEquals(rest.total(), substitution.multiEdgesPrefix() + substitution.multiEdgesIntegers(), 1e-10);
+
+			int sum = 0;
+			for(int degree : degrees)
+				sum += degree;
+			assertEquals(sum / 2, substitution.numLinks());
+
+			for(boolean reset : new boolean[] {true, false})
+			{
+				assertEquals(MotifModel.sizeER(graph, sub, occurrences, reset), MotifModel.sizeER(substitution, reset), 0.0);
+				assertEquals(MotifModel.sizeEL(graph, sub, occurrences, reset), MotifModel.sizeEL(substitution, reset), 0.0);
+			}
+		}
+	}
+
+	@Test
+	public void testDirected()
+	{
+		DGraph<String> graph = RandomGraphs.randomDirected(100, 300);
+		DPlainMotifExtractor<String> ex = new DPlainMotifExtractor<String>(graph, 1000, 3, 4, 1);
+
+		for(DGraph<String> sub : ex.subgraphs())
+		{
+			List<List<Integer>> occurrences = ex.occurrences(sub);
+			Substitution substitution = Substitution.of(graph, sub, occurrences);
+
+			List<D> degrees = MotifModel.subbedDegrees(graph, occurrences, new FrequencyModel<String>());
+
+			assertEquals(degrees.size(), substitution.dDegrees().size());
+			for(int i = 0; i < degrees.size(); i++)
+			{
+				assertEquals(degrees.get(i).in(), substitution.dDegrees().get(i).in());
+				assertEquals(degrees.get(i).out(), substitution.dDegrees().get(i).out());
+			}
+
+			for(boolean reset : new boolean[] {true, false})
+			{
+				assertEquals(MotifModel.sizeER(graph, sub, occurrences, reset), MotifModel.sizeER(substitution, reset), 0.0);
+				assertEquals(MotifModel.sizeEL(graph, sub, occurrences, reset), MotifModel.sizeEL(substitution, reset), 0.0);
+			}
+		}
+	}
+
+	/**
+	 * With a tolerance, the DS model should take at least two batches, and no
+	 * more than the maximum.
+	 */
+	@Test
+	public void testAdaptiveBeta()
+	{
+		UGraph<String> graph = RandomGraphs.random(100, 300);
+		UPlainMotifExtractor<String> ex = new UPlainMotifExtractor<String>(graph, 1000, 3, 4, 1);
+
+		UGraph<String> sub = ex.subgraphs().get(0);
+		Substitution substitution = Substitution.of(graph, sub, ex.occurrences(sub));
+
+		try
+		{
+			MotifModel.sizeBeta(substitution, true, 10, 0.05);
+			assertEquals(10, substitution.betaSamples());
+
+			MotifModel.setBetaTolerance(Double.MAX_VALUE, 100);
+			MotifModel.sizeBeta(substitution, true, 10, 0.05);
+			assertEquals(20, substitution.betaSamples());
+
+			MotifModel.setBetaTolerance(Double.MIN_VALUE, 35);
+			MotifModel.sizeBeta(substitution, true, 10, 0.05);
+			assertTrue(substitution.betaSamples() >= 20);
+			assertTrue(substitution.betaSamples() <= 35);
+			
+			// * The baseline uses the same batches
+			assertFalse(Double.isNaN(MotifModel.betaBaseline(graph, 10, 0.05)));
+		} finally
+		{
+			MotifModel.setBetaTolerance(-1.0, -1);
+		}
+	}
+
+	/**
+	 * The searches should find the same sizes through the cache, and share
+	 * its substitutions.
+	 */
+	@Test
+	public void testCache()
+	{
+		UGraph<String> graph = RandomGraphs.random(100, 300);
+		UPlainMotifExtractor<String> ex = new UPlainMotifExtractor<String>(graph, 1000, 3, 4, 1);
+
+		UGraph<String> sub = ex.subgraphs().get(0);
+		List<List<Integer>> occurrences = ex.occurrences(sub);
+		SubstitutionCache cache = new SubstitutionCache(graph, sub, occurrences);
+
+		assertSame(cache.get(1), cache.get(1));
+
+		assertEquals(MotifSearchModel.sizeER(graph, sub, occurrences, true), MotifSearchModel.sizeER(cache, true, -1), 0.0);
+		int size = cache.size();
+
+		assertEquals(MotifSearchModel.sizeEL(graph, sub, occurrences, true), MotifSearchModel.sizeEL(cache, true, -1), 0.0);
+		assertTrue(cache.size() >= size);
+		// * After a clear, the substitutions are computed again
+		Substitution before = cache.get(1);
+		cache.clear();
+
+		assertEquals(0, cache.size());
+		assertNotSame(before, cache.get(1));
+		assertEquals(before.degrees(), cache.get(1).degrees());
+	}
+}
@@ -1,17 +1,23 @@
 package nl.peterbloem.motive;
 
+import static nl.peterbloem.kit.Series.series;
 import static org.junit.Assert.*;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Random;
 import java.util.Set;
 
 import org.junit.Test;
+import org.nodes.Graph;
 import org.nodes.MapUTGraph;
 import org.nodes.Subgraph;
 import org.nodes.UGraph;
 import org.nodes.UNode;
+import org.nodes.algorithms.Nauty;
 import org.nodes.random.RandomGraphs;
 
 import nl.peterbloem.kit.FrequencyModel;
@@ -149,5 +155,336 @@ public class UPlainMotifExtractorTest
 			}
 		}
 
+	@Test
+	public void testLabeled()
+	{
+		UGraph<String> data = RandomGraphs.random(1000, 2000);
+		
+		// * Give the graph a few labels, so that some motifs can only be 
+		//   counted through the dictionary
+		UGraph<String> labeled = new MapUTGraph<String, String>();
+		for(UNode<String> node : data.nodes())
+			labeled.add(node.index() % 10 == 0 ? "a" : "b");
+		for(UNode<String> node : data.nodes())
+			for(UNode<String> neighbor : node.neighbors())
+				if(node.index() < neighbor.index())
+					labeled.get(node.index()).connect(labeled.get(neighbor.index()));
+		
+		UPlainMotifExtractor<String> ex = new UPlainMotifExtractor<String>(labeled, 3000, 3, 6);
+		
+		for(UGraph<String> sub : ex.subgraphs())
+			for(List<Integer> occ : ex.occurrences(sub))
+				assertEquals(sub, Subgraph.uSubgraphIndices(labeled, occ));
+	}
+
+	@Test
+	public void testThreads()
+	{
+		UGraph<String> data = RandomGraphs.random(1000, 2000);
+		
+		ExtractorSettings settings = new ExtractorSettings(50000, 3, 6, 0);
+		settings.seed = 42L;
+		
+		settings.threads = 1;
+		UPlainMotifExtractor<String> single = new UPlainMotifExtractor<String>(data, settings);
+		
+		settings.threads = 4;
+		UPlainMotifExtractor<String> multi = new UPlainMotifExtractor<String>(data, settings);
+		
+		assertEquals(single.subgraphs(), multi.subgraphs());
+		for(UGraph<String> sub : single.subgraphs())
+		{
+			assertEquals(single.frequency(sub), multi.frequency(sub), 0.0);
+			assertEquals(single.occurrences(sub), multi.occurrences(sub));
+		}
+	}
+	
+	@Test
+	public void testCanonicalTables()
+	{
+		UGraph<String> data = RandomGraphs.random(1000, 2000);
+		
+		ExtractorSettings settings = new ExtractorSettings(20000, 3, 6, 0);
+		settings.seed = 42L;
+		
+		settings.canonicalTables = true;
+		UPlainMotifExtractor<String> tables = new UPlainMotifExtractor<String>(data, settings);
+		
+		settings.canonicalTables = false;
+		UPlainMotifExtractor<String> nauty = new UPlainMotifExtractor<String>(data, settings);
+		
+		// * The motifs may have a different node order, but should represent
+		//   the same isomorphism classes, with the same frequencies
+		FrequencyModel<Graph<String>> expected = new FrequencyModel<Graph<String>>();
+		for(UGraph<String> sub : nauty.subgraphs())
+			expected.add(Nauty.canonize(sub), nauty.frequency(sub));
+		
+		assertEquals(nauty.subgraphs().size(), tables.subgraphs().size());
+		for(UGraph<String> sub : tables.subgraphs())
+			assertEquals(expected.frequency(Nauty.canonize(sub)), tables.frequency(sub), 0.0);
+	}
+	
+	@Test
+	public void testStableTopK()
+	{
+		UGraph<String> data = RandomGraphs.random(100, 200);
+		
+		ExtractorSettings settings = new ExtractorSettings(10000000, 3, 4, 0);
+		settings.seed = 42L;
+		settings.stableTopK = 3;
+		settings.stableWindow = 30000;
+		
+		UPlainMotifExtractor<String> stopped = new UPlainMotifExtractor<String>(data, settings);
+		assertTrue(stopped.samplesTaken() < settings.samples);
+		
+		// * Stopping early should give the same result as asking for that 
+		//   many samples
+		settings.stableTopK = 0;
+		settings.samples = (int) stopped.samplesTaken();
+		UPlainMotifExtractor<String> fixed = new UPlainMotifExtractor<String>(data, settings);
+		
+		assertEquals(fixed.samplesTaken(), stopped.samplesTaken());
+		assertEquals(fixed.subgraphs(), stopped.subgraphs());
+		for(UGraph<String> sub : fixed.subgraphs())
+			assertEquals(fixed.occurrences(sub), stopped.occurrences(sub));
+	}
+	
+	@Test
+	public void testBudget()
+	{
+		UGraph<String> data = RandomGraphs.random(100, 200);
+		
+		ExtractorSettings settings = new ExtractorSettings(10000000, 3, 4, 0);
+		settings.budget = 0.0;
+		
+		UPlainMotifExtractor<String> ex = new UPlainMotifExtractor<String>(data, settings);
+		
+		// * With no time, we should stop after the first shard
+		assertEquals(UPlainMotifExtractor.SHARD_SIZE, ex.samplesTaken());
+	}
+	
+	@Test
+	public void testEnumerate()
+	{
+		UGraph<String> data = new MapUTGraph<String, String>();
+		for(int i : series(5))
+			data.add("x");
+		for(int i : series(5))
+			for(int j : series(i + 1, 5))
+				data.get(i).connect(data.get(j));
+		
+		ExtractorSettings settings = new ExtractorSettings(1, 3, 4, 0);
+		settings.enumerate = true;
+		
+		UPlainMotifExtractor<String> ex = new UPlainMotifExtractor<String>(data, settings);
+		
+		// * All 10 triangles and 5 4-cliques, regardless of the number of samples
+		assertEquals(15, ex.samplesTaken());
+		assertEquals(2, ex.subgraphs().size());
+		
+		// * Only one 4-clique and one triangle can be non-overlapping
+		for(UGraph<String> sub : ex.subgraphs())
+			assertEquals(1.0, ex.frequency(sub), 0.0);
+	}
+	
+	@Test
+	public void testDeduplicate()
+	{
+		// * A small graph, so that many samples are repeats
+		UGraph<String> data = RandomGraphs.random(20, 30);
+		
+		ExtractorSettings settings = new ExtractorSettings(50000, 3, 4, 0);
+		settings.seed = 42L;
+		
+		settings.deduplicate = true;
+		UPlainMotifExtractor<String> distinct = new UPlainMotifExtractor<String>(data, settings);
+		
+		settings.deduplicate = false;
+		UPlainMotifExtractor<String> all = new UPlainMotifExtractor<String>(data, settings);
+		
+		assertEquals(all.samplesTaken(), distinct.samplesTaken());
+		assertEquals(all.samplesTaken(), all.distinctSamples());
+		assertTrue(distinct.distinctSamples() < distinct.samplesTaken());
+		
+		// * The selected occurrences shouldn't change
+		assertEquals(all.subgraphs(), distinct.subgraphs());
+		for(UGraph<String> sub : all.subgraphs())
+			assertEquals(all.occurrences(sub), distinct.occurrences(sub));
+	}
+	
+	@Test
+	public void testMaxMotifs()
+	{
+		UGraph<String> data = RandomGraphs.random(100, 300);
+		
+		ExtractorSettings settings = new ExtractorSettings(50000, 3, 5, 0);
+		settings.seed = 42L;
+		
+		UPlainMotifExtractor<String> all = new UPlainMotifExtractor<String>(data, settings);
+		
+		settings.maxMotifs = 5;
+		UPlainMotifExtractor<String> top = new UPlainMotifExtractor<String>(data, settings);
+		
+		assertTrue(all.subgraphs().size() > 5);
+		assertEquals(5, top.subgraphs().size());
+		
+		// * The same results for the top motifs, and none of the others score
+		//   higher
+		double lowest = Double.POSITIVE_INFINITY;
+		for(UGraph<String> sub : top.subgraphs())
+		{
+			assertEquals(all.frequency(sub), top.frequency(sub), 0.0);
+			assertEquals(all.occurrences(sub), top.occurrences(sub));
+			lowest = Math.min(lowest, top.frequency(sub));
+		}
+		
+		for(UGraph<String> sub : all.subgraphs())
+			if(! top.subgraphs().contains(sub))
+				assertTrue(all.frequency(sub) <= lowest);
+	}
+	
+	@Test
+	public void testOccurrenceCap()
+	{
+		UGraph<String> data = RandomGraphs.random(1000, 3000);
+		
+		ExtractorSettings settings = new ExtractorSettings(50000, 3, 5, 0);
+		settings.seed = 42L;
+		settings.occurrenceCap = 20;
+		
+		settings.threads = 1;
+		UPlainMotifExtractor<String> single = new UPlainMotifExtractor<String>(data, settings);
+		
+		settings.threads = 4;
+		UPlainMotifExtractor<String> multi = new UPlainMotifExtractor<String>(data, settings);
+		
+		// * The sample of occurrences shouldn't depend on the number of threads
+		assertEquals(single.subgraphs(), multi.subgraphs());
+		for(UGraph<String> sub : single.subgraphs())
+		{
+			assertTrue(single.occurrences(sub).size() <= 20);
+			assertEquals(single.occurrences(sub), multi.occurrences(sub));
+		}
+		
+		// * Nor with deduplication (the shards deduplicate as well)
+		settings.deduplicate = true;
+		
+		settings.threads = 1;
+		single = new UPlainMotifExtractor<String>(data, settings);
+		
+		settings.threads = 4;
+		multi = new UPlainMotifExtractor<String>(data, settings);
+		
+		assertEquals(single.subgraphs(), multi.subgraphs());
+		for(UGraph<String> sub : single.subgraphs())
+			assertEquals(single.occurrences(sub), multi.occurrences(sub));
+	}
 	
+	@Test
+	public void testImportance()
+	{
+		UGraph<String> data = RandomGraphs.random(500, 1500);
+		
+		ExtractorSettings settings = new ExtractorSettings(20000, 3, 4, 0);
+		settings.seed = 42L;
+		settings.importance = 1.0;
+		
+		settings.threads = 1;
+		UPlainMotifExtractor<String> single = new UPlainMotifExtractor<String>(data, settings);
+		
+		settings.threads = 4;
+		UPlainMotifExtractor<String> multi = new UPlainMotifExtractor<String>(data, settings);
+		
+		assertEquals(20000, single.samplesTaken());
+		assertEquals(single.subgraphs(), multi.subgraphs());
+		for(UGraph<String> sub : single.subgraphs())
+			assertEquals(single.frequency(sub), multi.frequency(sub), 0.0);
+	}
+	
+	/**
+	 * The weighted frequencies of the importance sampler should estimate the
+	 * frequencies of the uniform sampler.
+	 */
+	@Test
+	public void testImportanceFrequencies()
+	{
+		// * A random graph with a few hubs, so that the weights matter
+		UGraph<String> data = RandomGraphs.random(500, 1500);
+		Random random = new Random(42);
+		for(int hub = 0; hub < 5; hub++)
+			for(int i = 0; i < 100; i++)
+			{
+				int other = 5 + random.nextInt(data.size() - 5);
+				if(! data.get(hub).connected(data.get(other)))
+					data.get(hub).connect(data.get(other));
+			}
+		
+		ExtractorSettings settings = new ExtractorSettings(100000, 3, 3, 0);
+		settings.seed = 42L;
+		
+		UPlainMotifExtractor<String> uniform = new UPlainMotifExtractor<String>(data, settings);
+		
+		settings.importance = 1.0;
+		UPlainMotifExtractor<String> importance = new UPlainMotifExtractor<String>(data, settings);
+		
+		// * The counts are roughly Poisson, and the weights add some variance
+		for(UGraph<String> sub : uniform.subgraphs())
+		{
+			double expected = uniform.sampledFrequency(sub);
+			assertEquals(expected, importance.sampledFrequency(sub), 10 * Math.sqrt(expected));
+		}
+	}
+	
+	@Test
+	public void testResume()
+		throws IOException
+	{
+		UGraph<String> data = RandomGraphs.random(100, 300);
+		File file = File.createTempFile("motive", ".checkpoint");
+		file.deleteOnExit();
+		
+		ExtractorSettings settings = new ExtractorSettings(50000, 3, 5, 0);
+		settings.seed = 42L;
+		settings.checkpoint = file;
+		
+		// * A run that is interrupted after two shards
+		settings.maxShards = 2;
+		new UPlainMotifExtractor<String>(data, settings);
+		
+		SamplingCheckpoint partial = SamplingCheckpoint.read(file);
+		assertEquals(2, partial.shards());
+		assertFalse(partial.finished());
+		
+		settings.maxShards = -1;
+		settings.checkpoint = null;
+		UPlainMotifExtractor<String> full = new UPlainMotifExtractor<String>(data, settings);
+		
+		// * Resuming gives the same result as the uninterrupted run
+		settings.checkpoint = file;
+		settings.resume = true;
+		settings.seed = null;
+		settings.threads = 3;
+		UPlainMotifExtractor<String> resumed = new UPlainMotifExtractor<String>(data, settings);
+		
+		assertEquals(full.samplesTaken(), resumed.samplesTaken());
+		assertEquals(full.distinctSamples(), resumed.distinctSamples());
+		assertEquals(full.subgraphs(), resumed.subgraphs());
+		for(UGraph<String> sub : full.subgraphs())
+		{
+			assertEquals(full.frequency(sub), resumed.frequency(sub), 0.0);
+			assertEquals(full.occurrences(sub), resumed.occurrences(sub));
+		}
+		
+		assertTrue(SamplingCheckpoint.read(file).finished());
+		
+		// * A checkpoint can't be resumed with other settings
+		settings.maxSize = 4;
+		try
+		{
+			new UPlainMotifExtractor<String>(data, settings);
+			fail();
+		} catch (IllegalArgumentException e)
+		{
+		}
+	}
 }
@@ -0,0 +1,104 @@
+package nl.peterbloem.motive.exec;
+
+import static nl.peterbloem.kit.Series.series;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+import org.nodes.DGraph;
+import org.nodes.Graph;
+import org.nodes.MapDTGraph;
+import org.nodes.random.RandomGraphs;
+
+import nl.peterbloem.motive.DPlainMotifExtractor;
+
+public class ExtractionCacheTest
+{
+	@Test
+	public void testFingerprint()
+	{
+		DGraph<String> a = new MapDTGraph<String, String>(), b = new MapDTGraph<String, String>();
+		for(int i : series(4))
+		{
+			a.add("x");
+			b.add("x");
+		}
+
+		// * The same links, added in a different order
+		a.get(0).connect(a.get(1));
+		a.get(2).connect(a.get(3));
+		b.get(2).connect(b.get(3));
+		b.get(0).connect(b.get(1));
+
+		assertEquals(ExtractionCache.fingerprint(a), ExtractionCache.fingerprint(b));
+
+		// * The same structure with other labels
+		DGraph<String> c = new MapDTGraph<String, String>();
+		for(int i : series(4))
+			c.add(i == 3 ? "y" : "x");
+		c.get(0).connect(c.get(1));
+		c.get(2).connect(c.get(3));
+		
+		assertTrue(ExtractionCache.fingerprint(a) != ExtractionCache.fingerprint(c));
+		
+		b.get(1).connect(b.get(0));
+		assertTrue(ExtractionCache.fingerprint(a) != ExtractionCache.fingerprint(b));
+	}
+
+	@Test
+	public void testStoreLoad()
+		throws IOException
+	{
+		DGraph<String> data = RandomGraphs.randomDirectedFast(100, 300);
+		DPlainMotifExtractor<String> ex = new DPlainMotifExtractor<String>(data, 10000, 3, 4, 2);
+
+		File dir = Files.createTempDirectory("motive").toFile();
+		dir.deleteOnExit();
+
+		ExtractionCache cache = new ExtractionCache(dir, data, "test");
+		assertFalse(cache.load());
+
+		cache.subgraphs = new ArrayList<Graph<String>>(ex.subgraphs());
+		cache.frequencies = new ArrayList<Double>();
+		cache.occurrences = new ArrayList<List<List<Integer>>>();
+		for(DGraph<String> sub : ex.subgraphs())
+		{
+			cache.frequencies.add(ex.frequency(sub));
+			cache.occurrences.add(ex.occurrences(sub));
+		}
+		cache.samplesTaken = ex.samplesTaken();
+		cache.baselines.put("er", 12.5);
+		cache.store();
+		cache.file().deleteOnExit();
+
+		ExtractionCache loaded = new ExtractionCache(dir, data, "test");
+		assertTrue(loaded.load());
+
+		assertEquals(cache.subgraphs, loaded.subgraphs);
+		assertEquals(cache.frequencies, loaded.frequencies);
+		assertEquals(cache.occurrences, loaded.occurrences);
+		assertEquals(cache.samplesTaken, loaded.samplesTaken);
+		assertNull(loaded.dDegrees);
+		assertEquals(12.5, loaded.baselines.get("er"), 0.0);
+
+		// * A loaded entry can be stored again with a new baseline
+		loaded.baselines.put("beta 50 0.05", 20.0);
+		loaded.store();
+
+		ExtractionCache reloaded = new ExtractionCache(dir, data, "test");
+		assertTrue(reloaded.load());
+		assertEquals(cache.occurrences, reloaded.occurrences);
+		assertEquals(12.5, reloaded.baselines.get("er"), 0.0);
+		assertEquals(20.0, reloaded.baselines.get("beta 50 0.05"), 0.0);
+
+		// * Other parameters, or other data, give another entry
+		assertFalse(new ExtractionCache(dir, data, "other").load());
+		assertFalse(new ExtractionCache(dir, RandomGraphs.randomDirectedFast(100, 300), "test").load());
+	}
+}